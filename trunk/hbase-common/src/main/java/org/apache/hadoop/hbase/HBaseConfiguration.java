@@ -73,25 +73,36 @@ public class HBaseConfiguration extends Configuration {
     }
   }
 
-  private static void checkForClusterFreeMemoryLimit(Configuration conf) {
+  /**
+   * Checks that the MemStores, the block cache and the row cache leave enough
+   * of the heap free for the rest of the region server.
+   * @param conf the configuration to check
+   * @throws RuntimeException if they take more than their share of the heap
+   */
+  public static void checkForClusterFreeMemoryLimit(Configuration conf) {
       float globalMemstoreLimit = conf.getFloat("hbase.regionserver.global.memstore.upperLimit", 0.4f);
       int gml = (int)(globalMemstoreLimit * CONVERT_TO_PERCENTAGE);
       float blockCacheUpperLimit =
         conf.getFloat(HConstants.HFILE_BLOCK_CACHE_SIZE_KEY,
           HConstants.HFILE_BLOCK_CACHE_SIZE_DEFAULT);
       int bcul = (int)(blockCacheUpperLimit * CONVERT_TO_PERCENTAGE);
-      if (CONVERT_TO_PERCENTAGE - (gml + bcul)
+      float rowCacheLimit = conf.getFloat(HConstants.ROW_CACHE_SIZE_KEY,
+          HConstants.ROW_CACHE_SIZE_DEFAULT);
+      int rcl = (int)(rowCacheLimit * CONVERT_TO_PERCENTAGE);
+      if (CONVERT_TO_PERCENTAGE - (gml + bcul + rcl)
               < (int)(CONVERT_TO_PERCENTAGE *
                       HConstants.HBASE_CLUSTER_MINIMUM_MEMORY_THRESHOLD)) {
           throw new RuntimeException(
-            "Current heap configuration for MemStore and BlockCache exceeds " +
-            "the threshold required for successful cluster operation. " +
+            "Current heap configuration for MemStore, BlockCache and RowCache " +
+            "exceeds the threshold required for successful cluster operation. " +
             "The combined value cannot exceed 0.8. Please check " +
-            "the settings for hbase.regionserver.global.memstore.upperLimit and " +
-            "hfile.block.cache.size in your configuration. " +
+            "the settings for hbase.regionserver.global.memstore.upperLimit, " +
+            "hfile.block.cache.size and " + HConstants.ROW_CACHE_SIZE_KEY +
+            " in your configuration. " +
             "hbase.regionserver.global.memstore.upperLimit is " +
             globalMemstoreLimit +
-            " hfile.block.cache.size is " + blockCacheUpperLimit);
+            " hfile.block.cache.size is " + blockCacheUpperLimit +
+            " " + HConstants.ROW_CACHE_SIZE_KEY + " is " + rowCacheLimit);
       }
   }
 
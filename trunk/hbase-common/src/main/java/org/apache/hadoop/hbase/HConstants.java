@@ -276,6 +276,18 @@ public final class HConstants {
    */
   public static final int DEFAULT_HSTORE_OPEN_AND_CLOSE_THREADS_MAX = 1;
 
+  /**
+   * The max number of threads a region uses to flush its stores in parallel
+   */
+  public static final String HSTORE_FLUSH_THREADS_MAX =
+    "hbase.hstore.flush.threads.max";
+
+  /**
+   * The default number for the max number of threads a region uses to flush
+   * its stores in parallel
+   */
+  public static final int DEFAULT_HSTORE_FLUSH_THREADS_MAX = 4;
+
 
   /** Conf key for the memstore size at which we flush the memstore */
   public static final String HREGION_MEMSTORE_FLUSH_SIZE =
@@ -666,6 +678,15 @@ public final class HConstants {
 
   public static final float HFILE_BLOCK_CACHE_SIZE_DEFAULT = 0.25f;
 
+  /**
+   * Configuration key for the fraction of the heap given to the row cache,
+   * 0 disables it
+   */
+  public static final String ROW_CACHE_SIZE_KEY =
+    "hbase.regionserver.rowcache.size";
+
+  public static final float ROW_CACHE_SIZE_DEFAULT = 0.0f;
+
   /*
     * Minimum percentage of free heap necessary for a successful cluster startup.
     */
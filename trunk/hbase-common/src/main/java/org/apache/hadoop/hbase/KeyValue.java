@@ -1836,6 +1836,21 @@ public class KeyValue implements Cell, HeapSize {
       return -Longs.compare(left.getMemstoreTS(), right.getMemstoreTS());
     }
 
+    /**
+     * Orders cells the same way {@link #compare(KeyValue, KeyValue)} orders
+     * KeyValues, without needing either one to be a KeyValue, e.g. for a view
+     * over an encoded block.
+     */
+    public int compareCells(final Cell left, final Cell right) {
+      if (left instanceof KeyValue && right instanceof KeyValue) {
+        return compare((KeyValue) left, (KeyValue) right);
+      }
+      int ret = getRawComparator().compareKeys(left, right);
+      if (ret != 0) return ret;
+      // Negate this comparison so later edits show up first
+      return -Longs.compare(left.getMvccVersion(), right.getMvccVersion());
+    }
+
     public int compareTimestamps(final KeyValue left, final KeyValue right) {
       return compareTimestamps(left, left.getKeyLength(), right,
         right.getKeyLength());
@@ -2264,6 +2279,39 @@ public class KeyValue implements Cell, HeapSize {
         ts, Type.Maximum, bytes, getValueOffset(), getValueLength());
   }
 
+  /**
+   * Rewrites this KeyValue in place as a key-only KeyValue with the given
+   * coordinates, reusing its backing array when the new key fits. This is for
+   * seek keys that a single owner rebuilds over and over; never call it on a
+   * KeyValue that might be referenced by anyone else.
+   * @param row row key
+   * @param roffset row offset
+   * @param rlength row length
+   * @param family family name
+   * @param foffset family offset
+   * @param flength family length
+   * @param qualifier column qualifier
+   * @param qoffset qualifier offset
+   * @param qlength qualifier length
+   * @param timestamp version timestamp
+   * @param type key type
+   */
+  public void setKey(final byte [] row, final int roffset, final int rlength,
+      final byte [] family, final int foffset, final int flength,
+      final byte [] qualifier, final int qoffset, final int qlength,
+      final long timestamp, final Type type) {
+    int len = (int) getKeyValueDataStructureSize(rlength, flength, qlength, 0);
+    if (bytes == null || bytes.length < len) {
+      bytes = new byte[len];
+    }
+    writeByteArray(bytes, 0, row, roffset, rlength, family, foffset, flength,
+        qualifier, qoffset, qlength, timestamp, type, null, 0, 0);
+    offset = 0;
+    length = len;
+    keyLength = (int) getKeyDataStructureSize(rlength, flength, qlength);
+    memstoreTS = 0;
+  }
+
   /**
    * @param b
    * @return A KeyValue made of a byte array that holds the key-only part.
@@ -2610,6 +2658,59 @@ public class KeyValue implements Cell, HeapSize {
           rlength, ltype, rtype);
     }
 
+    /**
+     * Compares the keys of two cells part by part, the same way
+     * {@link #compare(byte[], int, int, byte[], int, int)} compares their
+     * serialized forms.
+     */
+    public int compareKeys(final Cell left, final Cell right) {
+      int compare = compareRows(left.getRowArray(), left.getRowOffset(),
+          left.getRowLength(), right.getRowArray(), right.getRowOffset(),
+          right.getRowLength());
+      if (compare != 0) {
+        return compare;
+      }
+
+      byte ltype = left.getTypeByte();
+      byte rtype = right.getTypeByte();
+      int lfamilylength = left.getFamilyLength();
+      int rfamilylength = right.getFamilyLength();
+      // See compareWithoutRow for the "minimum" key type of an empty column.
+      if (lfamilylength + left.getQualifierLength() == 0 &&
+          ltype == Type.Minimum.getCode()) {
+        return 1;
+      }
+      if (rfamilylength + right.getQualifierLength() == 0 &&
+          rtype == Type.Minimum.getCode()) {
+        return -1;
+      }
+
+      compare = Bytes.compareTo(left.getFamilyArray(), left.getFamilyOffset(),
+          lfamilylength, right.getFamilyArray(), right.getFamilyOffset(),
+          rfamilylength);
+      if (compare != 0) {
+        return compare;
+      }
+      compare = Bytes.compareTo(left.getQualifierArray(),
+          left.getQualifierOffset(), left.getQualifierLength(),
+          right.getQualifierArray(), right.getQualifierOffset(),
+          right.getQualifierLength());
+      if (compare != 0) {
+        return compare;
+      }
+
+      if (!this.ignoreTimestamp) {
+        compare = compareTimestamps(left.getTimestamp(), right.getTimestamp());
+        if (compare != 0) {
+          return compare;
+        }
+      }
+      if (!this.ignoreType) {
+        return (0xff & rtype) - (0xff & ltype);
+      }
+      return 0;
+    }
+
     private int compareTimestampAndType(byte[] left, int loffset, int llength,
         byte[] right, int roffset, int rlength, byte ltype, byte rtype) {
       int compare;
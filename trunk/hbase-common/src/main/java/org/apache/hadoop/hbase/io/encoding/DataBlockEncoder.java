@@ -24,6 +24,7 @@ import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.io.compress.Compression.Algorithm;
 import org.apache.hadoop.io.RawComparator;
+import org.apache.hbase.Cell;
 
 /**
  * Encoding of KeyValue. It aims to be fast and efficient using assumptions:
@@ -171,6 +172,28 @@ public interface DataBlockEncoder {
      */
     public KeyValue getKeyValue();
 
+    /**
+     * Returns a view of the key/value at the current position that reads the
+     * seeker's own buffers instead of copying them out, as
+     * {@link #getKeyValue()} does. The view follows the seeker, so it is only
+     * valid until the seeker is moved or given another buffer.
+     * @return the cell at the current position. Includes memstore timestamp.
+     */
+    public Cell getCurrentCell();
+
+    /**
+     * Compares the given key with the key at the current position, without
+     * copying the latter out of the seeker.
+     * @param comparator comparator to use
+     * @param key byte array containing the key
+     * @param offset key position the array
+     * @param length key length in bytes
+     * @return a negative number, zero or a positive number if the given key is
+     *         smaller than, equal to or larger than the current key
+     */
+    public int compareKey(RawComparator<byte[]> comparator, byte[] key,
+        int offset, int length);
+
     /** Set position to beginning of given block */
     public void rewind();
 
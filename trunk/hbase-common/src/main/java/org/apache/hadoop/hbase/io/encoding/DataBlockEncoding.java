@@ -38,7 +38,9 @@ public enum DataBlockEncoding {
   // id 1 is reserved for the BITSET algorithm to be added later
   PREFIX(2, createEncoder("org.apache.hadoop.hbase.io.encoding.PrefixKeyDeltaEncoder")),
   DIFF(3, createEncoder("org.apache.hadoop.hbase.io.encoding.DiffKeyDeltaEncoder")),
-  FAST_DIFF(4, createEncoder("org.apache.hadoop.hbase.io.encoding.FastDiffDeltaEncoder"));
+  FAST_DIFF(4, createEncoder("org.apache.hadoop.hbase.io.encoding.FastDiffDeltaEncoder")),
+  // id 5 is reserved for the COPY_KEY algorithm for benchmarking
+  PREFIX_TREE(6, createEncoder("org.apache.hadoop.hbase.io.encoding.PrefixTreeEncoder"));
 
   private final short id;
   private final byte[] idInBytes;
@@ -493,4 +493,37 @@ public class TestKeyValue extends TestCase {
     assertEquals(HConstants.LATEST_TIMESTAMP, time1);
     assertEquals(12345L, time2);
   }
-}
\ No newline at end of file
+
+  /**
+   * Tests that a KeyValue rewritten in place with setKey() is the same as a
+   * newly created one, and only grows its buffer when it has to.
+   */
+  public void testSetKey() {
+    byte[] row = Bytes.toBytes("myRow");
+    byte[] family = Bytes.toBytes("myCF");
+    byte[] qualifier = Bytes.toBytes("myQualifier");
+    KeyValue kv = new KeyValue();
+    kv.setKey(row, 0, row.length, family, 0, family.length,
+        qualifier, 0, qualifier.length, HConstants.LATEST_TIMESTAMP,
+        KeyValue.Type.Maximum);
+    assertEquals(KeyValue.createFirstOnRow(row, family, qualifier), kv);
+    assertEquals(0, kv.getValueLength());
+    byte[] buffer = kv.getBuffer();
+
+    kv.setKey(row, 0, 2, null, 0, 0, null, 0, 0,
+        HConstants.OLDEST_TIMESTAMP, KeyValue.Type.Minimum);
+    assertSame(buffer, kv.getBuffer());
+    KeyValue lastOnRow = KeyValue.createLastOnRow(row, 0, 2, null, 0, 0,
+        null, 0, 0);
+    assertEquals(lastOnRow.getKeyLength(), kv.getKeyLength());
+    assertTrue(Bytes.equals(lastOnRow.getBuffer(), lastOnRow.getOffset(),
+        lastOnRow.getLength(), kv.getBuffer(), kv.getOffset(), kv.getLength()));
+
+    byte[] longRow = Bytes.toBytes("myMuchLongerRowThanBefore");
+    kv.setKey(longRow, 0, longRow.length, family, 0, family.length,
+        qualifier, 0, qualifier.length, 12345L, KeyValue.Type.Put);
+    assertTrue(Bytes.equals(longRow, kv.getRow()));
+    assertTrue(Bytes.equals(qualifier, kv.getQualifier()));
+    assertEquals(12345L, kv.getTimestamp());
+  }
+}
@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hbase.io.hfile;
+
+import org.apache.hadoop.hbase.metrics.BaseSource;
+import org.apache.hadoop.metrics2.MetricHistogram;
+
+/**
+ * Interface of the source that will export latency histograms of the region
+ * server's HFile block reads. Every histogram is kept per workload, block
+ * category and table, so tail latency can be attributed to the tenant that
+ * caused it.
+ */
+public interface MetricsBlockReadSource extends BaseSource {
+
+  /**
+   * The name of the metrics
+   */
+  static final String METRICS_NAME = "BlockRead";
+
+  /**
+   * The name of the metrics context that metrics will be under.
+   */
+  static final String METRICS_CONTEXT = "regionserver";
+
+  /**
+   * Description
+   */
+  static final String METRICS_DESCRIPTION = "Metrics about HBase RegionServer HFile block reads";
+
+  /**
+   * The name of the metrics context that metrics will be under in jmx
+   */
+  static final String METRICS_JMX_CONTEXT = "RegionServer,sub=" + METRICS_NAME;
+
+  static final String FS_READ_TIME = "fsReadTime";
+  static final String FS_READ_TIME_DESC =
+      "Time in microseconds to read and unpack a block from the filesystem.";
+  static final String L1_HIT_TIME = "l1HitTime";
+  static final String L1_HIT_TIME_DESC =
+      "Time in microseconds to serve a block from the on-heap block cache.";
+  static final String L2_HIT_TIME = "l2HitTime";
+  static final String L2_HIT_TIME_DESC =
+      "Time in microseconds to serve a block from the bucket cache.";
+  static final String DECODE_TIME = "decodeTime";
+  static final String DECODE_TIME_DESC =
+      "Time in microseconds to convert a block read from the filesystem to its in-cache encoding.";
+
+  /**
+   * Add the time it took to read a block from the filesystem.
+   */
+  void updateFsReadTime(String workload, String blockCategory, String table, long time);
+
+  /**
+   * Add the time it took to serve a block from the first level block cache.
+   */
+  void updateL1HitTime(String workload, String blockCategory, String table, long time);
+
+  /**
+   * Add the time it took to serve a block from the second level block cache.
+   */
+  void updateL2HitTime(String workload, String blockCategory, String table, long time);
+
+  /**
+   * Add the time it took to decode a block read from the filesystem.
+   */
+  void updateDecodeTime(String workload, String blockCategory, String table, long time);
+
+  /**
+   * Get the histogram one of the above update methods would add to. Callers
+   * on the read path keep the returned histogram and add to it directly,
+   * sparing the name building and registry lookup of each update.
+   * @param metric one of {@link #FS_READ_TIME}, {@link #L1_HIT_TIME},
+   * {@link #L2_HIT_TIME} or {@link #DECODE_TIME}
+   */
+  MetricHistogram getHistogram(String workload, String blockCategory, String table,
+      String metric);
+
+}
@@ -131,6 +131,12 @@ public interface MetricsRegionServerSource extends BaseSource {
   static final String CHECK_MUTATE_PASSED_COUNT = "checkMutatePassedCount";
   static final String CHECK_MUTATE_PASSED_COUNT_DESC =
       "Number of Check and Mutate calls that passed the checks.";
+  static final String ROW_LOCK_WAIT_COUNT = "rowLockWaitCount";
+  static final String ROW_LOCK_WAIT_COUNT_DESC =
+      "Number of row locks that had to wait for another holder of the row.";
+  static final String ROW_LOCK_WAIT_TIME = "rowLockWaitTime";
+  static final String ROW_LOCK_WAIT_TIME_DESC =
+      "Number of MS spent waiting for row locks held by others.";
   static final String STOREFILE_INDEX_SIZE = "storeFileIndexSize";
   static final String STOREFILE_INDEX_SIZE_DESC = "Size of indexes in storefiles on disk.";
   static final String STATIC_INDEX_SIZE = "staticIndexSize";
@@ -172,6 +178,33 @@ public interface MetricsRegionServerSource extends BaseSource {
   static final String BLOCK_CACHE_EXPRESS_HIT_PERCENT = "blockCacheExpressHitPercent";
   static final String BLOCK_CACHE_EXPRESS_HIT_PERCENT_DESC =
       "The percent of the time that requests with the cache turned on hit the cache.";
+  static final String BLOCK_CACHE_PINNED_SIZE = "blockCachePinnedSize";
+  static final String BLOCK_CACHE_PINNED_SIZE_DESC =
+      "Size of the index and bloom blocks pinned in the block cache.";
+  static final String ROW_CACHE_COUNT = "rowCacheCount";
+  static final String ROW_CACHE_COUNT_DESC = "Number of rows in the row cache.";
+  static final String ROW_CACHE_SIZE = "rowCacheSize";
+  static final String ROW_CACHE_SIZE_DESC = "Size of the rows in the row cache.";
+  static final String ROW_CACHE_HIT_COUNT = "rowCacheHitCount";
+  static final String ROW_CACHE_HIT_COUNT_DESC = "Count of Gets served from the row cache.";
+  static final String ROW_CACHE_MISS_COUNT = "rowCacheMissCount";
+  static final String ROW_CACHE_MISS_COUNT_DESC =
+      "Count of Gets of row cached families that missed the row cache.";
+  static final String ROW_CACHE_EVICTION_COUNT = "rowCacheEvictionCount";
+  static final String ROW_CACHE_EVICTION_COUNT_DESC =
+      "Count of the number of rows evicted from the row cache.";
+  static final String ROW_CACHE_INVALIDATION_COUNT = "rowCacheInvalidationCount";
+  static final String ROW_CACHE_INVALIDATION_COUNT_DESC =
+      "Count of the number of cached rows dropped because they changed.";
+  static final String CHUNK_POOL_SIZE = "memStoreChunkPoolSize";
+  static final String CHUNK_POOL_SIZE_DESC =
+      "Number of MemStoreLAB chunks waiting in the chunk pool.";
+  static final String CHUNK_POOL_HIT_COUNT = "memStoreChunkPoolHitCount";
+  static final String CHUNK_POOL_HIT_COUNT_DESC =
+      "Count of MemStoreLAB chunks taken from the chunk pool.";
+  static final String CHUNK_POOL_MISS_COUNT = "memStoreChunkPoolMissCount";
+  static final String CHUNK_POOL_MISS_COUNT_DESC =
+      "Count of MemStoreLAB chunks allocated because the chunk pool was empty.";
   static final String RS_START_TIME_NAME = "regionServerStartTime";
   static final String ZOOKEEPER_QUORUM_NAME = "zookeeperQuorum";
   static final String SERVER_NAME_NAME = "serverName";
@@ -18,6 +18,8 @@
 
 package org.apache.hadoop.hbase.regionserver;
 
+import java.util.Map;
+
 /**
  * This is the interface that will expose RegionServer information to hadoop1/hadoop2
  * implementations of the MetricsRegionServerSource.
@@ -112,6 +114,16 @@ public interface MetricsRegionServerWrapper {
    */
   long getCheckAndMutateChecksPassed();
 
+  /**
+   * Get the number of row locks that had to wait for another holder.
+   */
+  long getRowLockWaitCount();
+
+  /**
+   * Get the time in milliseconds spent waiting for row locks.
+   */
+  long getRowLockWaitTime();
+
   /**
    * Get the Size of indexes in storefiles on disk.
    */
@@ -193,6 +205,74 @@ public interface MetricsRegionServerWrapper {
    */
   int getBlockCacheHitCachingPercent();
 
+  /**
+   * Get the size of the index and bloom blocks pinned in the block cache.
+   */
+  long getBlockCachePinnedSize();
+
+  /**
+   * Get the size of the index and bloom blocks pinned in the block cache, per
+   * table name.
+   */
+  Map<String, Long> getBlockCachePinnedSizePerTable();
+
+  /**
+   * Get the number of rows in the row cache.
+   */
+  long getRowCacheCount();
+
+  /**
+   * Get the heap size of the rows in the row cache.
+   */
+  long getRowCacheSize();
+
+  /**
+   * Get the count of Gets served from the row cache.
+   */
+  long getRowCacheHitCount();
+
+  /**
+   * Get the count of Gets the row cache could have served but did not.
+   */
+  long getRowCacheMissCount();
+
+  /**
+   * Get the number of rows evicted from the row cache to make room.
+   */
+  long getRowCacheEvictedCount();
+
+  /**
+   * Get the number of cached rows dropped from the row cache because they changed.
+   */
+  long getRowCacheInvalidatedCount();
+
+  /**
+   * Get the count of Gets served from the row cache, per workload id.
+   */
+  Map<String, Long> getRowCacheHitCountPerWorkload();
+
+  /**
+   * Get the count of Gets the row cache could have served but did not, per
+   * workload id.
+   */
+  Map<String, Long> getRowCacheMissCountPerWorkload();
+
+  /**
+   * Get the number of MemStoreLAB chunks waiting in the chunk pool.
+   */
+  long getMemStoreChunkPoolSize();
+
+  /**
+   * Get the count of MemStoreLAB chunks taken from the chunk pool.
+   */
+  long getMemStoreChunkPoolHitCount();
+
+  /**
+   * Get the count of MemStoreLAB chunks allocated because the chunk pool was
+   * empty.
+   */
+  long getMemStoreChunkPoolMissCount();
+
   /**
    * Force a re-computation of the metrics.
    */
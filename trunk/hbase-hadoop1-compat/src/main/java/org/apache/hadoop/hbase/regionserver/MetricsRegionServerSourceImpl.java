@@ -18,6 +18,8 @@
 
 package org.apache.hadoop.hbase.regionserver;
 
+import java.util.Map;
+
 import org.apache.hadoop.hbase.metrics.BaseSourceImpl;
 import org.apache.hadoop.metrics2.MetricHistogram;
 import org.apache.hadoop.metrics2.MetricsBuilder;
@@ -153,6 +155,8 @@ public class MetricsRegionServerSourceImpl
           .addCounter(CHECK_MUTATE_PASSED_COUNT,
               CHECK_MUTATE_PASSED_COUNT_DESC,
               rsWrap.getCheckAndMutateChecksPassed())
+          .addCounter(ROW_LOCK_WAIT_COUNT, ROW_LOCK_WAIT_COUNT_DESC, rsWrap.getRowLockWaitCount())
+          .addCounter(ROW_LOCK_WAIT_TIME, ROW_LOCK_WAIT_TIME_DESC, rsWrap.getRowLockWaitTime())
           .addGauge(STOREFILE_INDEX_SIZE, STOREFILE_INDEX_SIZE_DESC, rsWrap.getStoreFileIndexSize())
           .addGauge(STATIC_INDEX_SIZE, STATIC_INDEX_SIZE_DESC, rsWrap.getTotalStaticIndexSize())
           .addGauge(STATIC_BLOOM_SIZE, STATIC_BLOOM_SIZE_DESC, rsWrap.getTotalStaticBloomSize())
@@ -185,10 +189,40 @@ public class MetricsRegionServerSourceImpl
           .addGauge(BLOCK_CACHE_EXPRESS_HIT_PERCENT,
               BLOCK_CACHE_EXPRESS_HIT_PERCENT_DESC,
               rsWrap.getBlockCacheHitCachingPercent())
+          .addGauge(BLOCK_CACHE_PINNED_SIZE, BLOCK_CACHE_PINNED_SIZE_DESC,
+              rsWrap.getBlockCachePinnedSize())
+          .addGauge(ROW_CACHE_COUNT, ROW_CACHE_COUNT_DESC, rsWrap.getRowCacheCount())
+          .addGauge(ROW_CACHE_SIZE, ROW_CACHE_SIZE_DESC, rsWrap.getRowCacheSize())
+          .addCounter(ROW_CACHE_HIT_COUNT, ROW_CACHE_HIT_COUNT_DESC,
+              rsWrap.getRowCacheHitCount())
+          .addCounter(ROW_CACHE_MISS_COUNT, ROW_CACHE_MISS_COUNT_DESC,
+              rsWrap.getRowCacheMissCount())
+          .addCounter(ROW_CACHE_EVICTION_COUNT, ROW_CACHE_EVICTION_COUNT_DESC,
+              rsWrap.getRowCacheEvictedCount())
+          .addCounter(ROW_CACHE_INVALIDATION_COUNT, ROW_CACHE_INVALIDATION_COUNT_DESC,
+              rsWrap.getRowCacheInvalidatedCount())
+          .addGauge(CHUNK_POOL_SIZE, CHUNK_POOL_SIZE_DESC, rsWrap.getMemStoreChunkPoolSize())
+          .addCounter(CHUNK_POOL_HIT_COUNT, CHUNK_POOL_HIT_COUNT_DESC,
+              rsWrap.getMemStoreChunkPoolHitCount())
+          .addCounter(CHUNK_POOL_MISS_COUNT, CHUNK_POOL_MISS_COUNT_DESC,
+              rsWrap.getMemStoreChunkPoolMissCount())
           .addCounter(UPDATES_BLOCKED_TIME, UPDATES_BLOCKED_DESC, rsWrap.getUpdatesBlockedTime())
           .tag(ZOOKEEPER_QUORUM_NAME, ZOOKEEPER_QUORUM_DESC, rsWrap.getZookeeperQuorum())
           .tag(SERVER_NAME_NAME, SERVER_NAME_DESC, rsWrap.getServerName())
           .tag(CLUSTER_ID_NAME, CLUSTER_ID_DESC, rsWrap.getClusterId());
+
+      for (Map.Entry<String, Long> e : rsWrap.getBlockCachePinnedSizePerTable().entrySet()) {
+        mrb.addGauge("table." + e.getKey() + "." + BLOCK_CACHE_PINNED_SIZE,
+            BLOCK_CACHE_PINNED_SIZE_DESC, e.getValue());
+      }
+      for (Map.Entry<String, Long> e : rsWrap.getRowCacheHitCountPerWorkload().entrySet()) {
+        mrb.addCounter("workload." + e.getKey() + "." + ROW_CACHE_HIT_COUNT,
+            ROW_CACHE_HIT_COUNT_DESC, e.getValue());
+      }
+      for (Map.Entry<String, Long> e : rsWrap.getRowCacheMissCountPerWorkload().entrySet()) {
+        mrb.addCounter("workload." + e.getKey() + "." + ROW_CACHE_MISS_COUNT,
+            ROW_CACHE_MISS_COUNT_DESC, e.getValue());
+      }
     }
 
     metricsRegistry.snapshot(mrb, all);
@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hbase.io.hfile;
+
+import org.apache.hadoop.hbase.CompatibilitySingletonFactory;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestMetricsBlockReadSourceImpl {
+
+  @Test
+  public void testGetInstance() throws Exception {
+    MetricsBlockReadSource blockReadSource =
+        CompatibilitySingletonFactory.getInstance(MetricsBlockReadSource.class);
+    assertTrue(blockReadSource instanceof MetricsBlockReadSourceImpl);
+    assertSame(blockReadSource,
+        CompatibilitySingletonFactory.getInstance(MetricsBlockReadSource.class));
+  }
+
+  @Test
+  public void testHistogramName() throws Exception {
+    assertEquals("workload.80.type.DATA.table.usertable.fsReadTime",
+        MetricsBlockReadSourceImpl.histogramName("80", "DATA", "usertable",
+            MetricsBlockReadSource.FS_READ_TIME));
+  }
+
+  @Test
+  public void testGetHistogram() throws Exception {
+    MetricsBlockReadSource blockReadSource = new MetricsBlockReadSourceImpl();
+    assertSame(blockReadSource.getHistogram("80", "DATA", "usertable",
+            MetricsBlockReadSource.FS_READ_TIME),
+        blockReadSource.getHistogram("80", "DATA", "usertable",
+            MetricsBlockReadSource.FS_READ_TIME));
+  }
+}
@@ -18,6 +18,8 @@
 
 package org.apache.hadoop.hbase.regionserver;
 
+import java.util.Map;
+
 import org.apache.hadoop.hbase.metrics.BaseSourceImpl;
 import org.apache.hadoop.metrics2.MetricHistogram;
 import org.apache.hadoop.metrics2.MetricsCollector;
@@ -160,6 +162,10 @@ public class MetricsRegionServerSourceImpl
               rsWrap.getCheckAndMutateChecksFailed())
           .addCounter(Interns.info(CHECK_MUTATE_PASSED_COUNT, CHECK_MUTATE_PASSED_COUNT_DESC),
               rsWrap.getCheckAndMutateChecksPassed())
+          .addCounter(Interns.info(ROW_LOCK_WAIT_COUNT, ROW_LOCK_WAIT_COUNT_DESC),
+              rsWrap.getRowLockWaitCount())
+          .addCounter(Interns.info(ROW_LOCK_WAIT_TIME, ROW_LOCK_WAIT_TIME_DESC),
+              rsWrap.getRowLockWaitTime())
           .addGauge(Interns.info(STOREFILE_INDEX_SIZE, STOREFILE_INDEX_SIZE_DESC),
               rsWrap.getStoreFileIndexSize())
           .addGauge(Interns.info(STATIC_INDEX_SIZE, STATIC_INDEX_SIZE_DESC),
@@ -192,12 +198,45 @@ public class MetricsRegionServerSourceImpl
               rsWrap.getBlockCacheHitPercent())
           .addGauge(Interns.info(BLOCK_CACHE_EXPRESS_HIT_PERCENT,
               BLOCK_CACHE_EXPRESS_HIT_PERCENT_DESC), rsWrap.getBlockCacheHitCachingPercent())
+          .addGauge(Interns.info(BLOCK_CACHE_PINNED_SIZE, BLOCK_CACHE_PINNED_SIZE_DESC),
+              rsWrap.getBlockCachePinnedSize())
+          .addGauge(Interns.info(ROW_CACHE_COUNT, ROW_CACHE_COUNT_DESC),
+              rsWrap.getRowCacheCount())
+          .addGauge(Interns.info(ROW_CACHE_SIZE, ROW_CACHE_SIZE_DESC),
+              rsWrap.getRowCacheSize())
+          .addCounter(Interns.info(ROW_CACHE_HIT_COUNT, ROW_CACHE_HIT_COUNT_DESC),
+              rsWrap.getRowCacheHitCount())
+          .addCounter(Interns.info(ROW_CACHE_MISS_COUNT, ROW_CACHE_MISS_COUNT_DESC),
+              rsWrap.getRowCacheMissCount())
+          .addCounter(Interns.info(ROW_CACHE_EVICTION_COUNT, ROW_CACHE_EVICTION_COUNT_DESC),
+              rsWrap.getRowCacheEvictedCount())
+          .addCounter(Interns.info(ROW_CACHE_INVALIDATION_COUNT,
+              ROW_CACHE_INVALIDATION_COUNT_DESC), rsWrap.getRowCacheInvalidatedCount())
+          .addGauge(Interns.info(CHUNK_POOL_SIZE, CHUNK_POOL_SIZE_DESC),
+              rsWrap.getMemStoreChunkPoolSize())
+          .addCounter(Interns.info(CHUNK_POOL_HIT_COUNT, CHUNK_POOL_HIT_COUNT_DESC),
+              rsWrap.getMemStoreChunkPoolHitCount())
+          .addCounter(Interns.info(CHUNK_POOL_MISS_COUNT, CHUNK_POOL_MISS_COUNT_DESC),
+              rsWrap.getMemStoreChunkPoolMissCount())
           .addCounter(Interns.info(UPDATES_BLOCKED_TIME, UPDATES_BLOCKED_DESC),
               rsWrap.getUpdatesBlockedTime())
           .tag(Interns.info(ZOOKEEPER_QUORUM_NAME, ZOOKEEPER_QUORUM_DESC),
               rsWrap.getZookeeperQuorum())
           .tag(Interns.info(SERVER_NAME_NAME, SERVER_NAME_DESC), rsWrap.getServerName())
           .tag(Interns.info(CLUSTER_ID_NAME, CLUSTER_ID_DESC), rsWrap.getClusterId());
+
+      for (Map.Entry<String, Long> e : rsWrap.getBlockCachePinnedSizePerTable().entrySet()) {
+        mrb.addGauge(Interns.info("table." + e.getKey() + "." + BLOCK_CACHE_PINNED_SIZE,
+            BLOCK_CACHE_PINNED_SIZE_DESC), e.getValue());
+      }
+      for (Map.Entry<String, Long> e : rsWrap.getRowCacheHitCountPerWorkload().entrySet()) {
+        mrb.addCounter(Interns.info("workload." + e.getKey() + "." + ROW_CACHE_HIT_COUNT,
+            ROW_CACHE_HIT_COUNT_DESC), e.getValue());
+      }
+      for (Map.Entry<String, Long> e : rsWrap.getRowCacheMissCountPerWorkload().entrySet()) {
+        mrb.addCounter(Interns.info("workload." + e.getKey() + "." + ROW_CACHE_MISS_COUNT,
+            ROW_CACHE_MISS_COUNT_DESC), e.getValue());
+      }
     }
 
     metricsRegistry.snapshot(mrb, all);
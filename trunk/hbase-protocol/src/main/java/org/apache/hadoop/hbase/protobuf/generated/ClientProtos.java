@@ -11656,6 +11656,10 @@ public final class ClientProtos {
     // optional uint64 resultSizeBytes = 5;
     boolean hasResultSizeBytes();
     long getResultSizeBytes();
+    
+    // optional bool moreResultsInRegion = 6;
+    boolean hasMoreResultsInRegion();
+    boolean getMoreResultsInRegion();
   }
   public static final class ScanResponse extends
       com.google.protobuf.GeneratedMessage
@@ -11747,12 +11751,23 @@ public final class ClientProtos {
       return resultSizeBytes_;
     }
     
+    // optional bool moreResultsInRegion = 6;
+    public static final int MORERESULTSINREGION_FIELD_NUMBER = 6;
+    private boolean moreResultsInRegion_;
+    public boolean hasMoreResultsInRegion() {
+      return ((bitField0_ & 0x00000010) == 0x00000010);
+    }
+    public boolean getMoreResultsInRegion() {
+      return moreResultsInRegion_;
+    }
+    
     private void initFields() {
       result_ = java.util.Collections.emptyList();
       scannerId_ = 0L;
       moreResults_ = false;
       ttl_ = 0;
       resultSizeBytes_ = 0L;
+      moreResultsInRegion_ = false;
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -11787,6 +11802,9 @@ public final class ClientProtos {
       if (((bitField0_ & 0x00000008) == 0x00000008)) {
         output.writeUInt64(5, resultSizeBytes_);
       }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        output.writeBool(6, moreResultsInRegion_);
+      }
       getUnknownFields().writeTo(output);
     }
     
@@ -11816,6 +11834,10 @@ public final class ClientProtos {
         size += com.google.protobuf.CodedOutputStream
           .computeUInt64Size(5, resultSizeBytes_);
       }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBoolSize(6, moreResultsInRegion_);
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -11861,6 +11883,11 @@ public final class ClientProtos {
         result = result && (getResultSizeBytes()
             == other.getResultSizeBytes());
       }
+      result = result && (hasMoreResultsInRegion() == other.hasMoreResultsInRegion());
+      if (hasMoreResultsInRegion()) {
+        result = result && (getMoreResultsInRegion()
+            == other.getMoreResultsInRegion());
+      }
       result = result &&
           getUnknownFields().equals(other.getUnknownFields());
       return result;
@@ -11890,6 +11917,10 @@ public final class ClientProtos {
         hash = (37 * hash) + RESULTSIZEBYTES_FIELD_NUMBER;
         hash = (53 * hash) + hashLong(getResultSizeBytes());
       }
+      if (hasMoreResultsInRegion()) {
+        hash = (37 * hash) + MORERESULTSINREGION_FIELD_NUMBER;
+        hash = (53 * hash) + hashBoolean(getMoreResultsInRegion());
+      }
       hash = (29 * hash) + getUnknownFields().hashCode();
       return hash;
     }
@@ -12021,6 +12052,8 @@ public final class ClientProtos {
         bitField0_ = (bitField0_ & ~0x00000008);
         resultSizeBytes_ = 0L;
         bitField0_ = (bitField0_ & ~0x00000010);
+        moreResultsInRegion_ = false;
+        bitField0_ = (bitField0_ & ~0x00000020);
         return this;
       }
       
@@ -12084,6 +12117,10 @@ public final class ClientProtos {
           to_bitField0_ |= 0x00000008;
         }
         result.resultSizeBytes_ = resultSizeBytes_;
+        if (((from_bitField0_ & 0x00000020) == 0x00000020)) {
+          to_bitField0_ |= 0x00000010;
+        }
+        result.moreResultsInRegion_ = moreResultsInRegion_;
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
@@ -12138,6 +12175,9 @@ public final class ClientProtos {
         if (other.hasResultSizeBytes()) {
           setResultSizeBytes(other.getResultSizeBytes());
         }
+        if (other.hasMoreResultsInRegion()) {
+          setMoreResultsInRegion(other.getMoreResultsInRegion());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -12201,6 +12241,11 @@ public final class ClientProtos {
               resultSizeBytes_ = input.readUInt64();
               break;
             }
+            case 48: {
+              bitField0_ |= 0x00000020;
+              moreResultsInRegion_ = input.readBool();
+              break;
+            }
           }
         }
       }
@@ -12477,6 +12522,27 @@ public final class ClientProtos {
         return this;
       }
       
+      // optional bool moreResultsInRegion = 6;
+      private boolean moreResultsInRegion_ ;
+      public boolean hasMoreResultsInRegion() {
+        return ((bitField0_ & 0x00000020) == 0x00000020);
+      }
+      public boolean getMoreResultsInRegion() {
+        return moreResultsInRegion_;
+      }
+      public Builder setMoreResultsInRegion(boolean value) {
+        bitField0_ |= 0x00000020;
+        moreResultsInRegion_ = value;
+        onChanged();
+        return this;
+      }
+      public Builder clearMoreResultsInRegion() {
+        bitField0_ = (bitField0_ & ~0x00000020);
+        moreResultsInRegion_ = false;
+        onChanged();
+        return this;
+      }
+      
       // @@protoc_insertion_point(builder_scope:ScanResponse)
     }
     
@@ -19564,10 +19630,11 @@ public final class ClientProtos {
       "\001(\r\"\230\001\n\013ScanRequest\022 \n\006region\030\001 \001(\0132\020.Re" +
       "gionSpecifier\022\023\n\004scan\030\002 \001(\0132\005.Scan\022\021\n\tsc" +
       "annerId\030\003 \001(\004\022\024\n\014numberOfRows\030\004 \001(\r\022\024\n\014c" +
-      "loseScanner\030\005 \001(\010\022\023\n\013nextCallSeq\030\006 \001(\004\"u" +
+      "loseScanner\030\005 \001(\010\022\023\n\013nextCallSeq\030\006 \001(\004\"\222\001" +
       "\n\014ScanResponse\022\027\n\006result\030\001 \003(\0132\007.Result\022" +
       "\021\n\tscannerId\030\002 \001(\004\022\023\n\013moreResults\030\003 \001(\010\022",
-      "\013\n\003ttl\030\004 \001(\r\022\027\n\017resultSizeBytes\030\005 \001(\004\"\260\001" +
+      "\013\n\003ttl\030\004 \001(\r\022\027\n\017resultSizeBytes\030\005 \001(\004\022\033\n\023mor" +
+      "eResultsInRegion\030\006 \001(\010\"\260\001" +
       "\n\024BulkLoadHFileRequest\022 \n\006region\030\001 \002(\0132\020" +
       ".RegionSpecifier\0224\n\nfamilyPath\030\002 \003(\0132 .B" +
       "ulkLoadHFileRequest.FamilyPath\022\024\n\014assign" +
@@ -19713,7 +19780,7 @@ public final class ClientProtos {
           internal_static_ScanResponse_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_ScanResponse_descriptor,
-              new java.lang.String[] { "Result", "ScannerId", "MoreResults", "Ttl", "ResultSizeBytes", },
+              new java.lang.String[] { "Result", "ScannerId", "MoreResults", "Ttl", "ResultSizeBytes", "MoreResultsInRegion", },
               org.apache.hadoop.hbase.protobuf.generated.ClientProtos.ScanResponse.class,
               org.apache.hadoop.hbase.protobuf.generated.ClientProtos.ScanResponse.Builder.class);
           internal_static_BulkLoadHFileRequest_descriptor =
@@ -83,6 +83,7 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
   public static final String CACHE_INDEX_ON_WRITE = "CACHE_INDEX_ON_WRITE";
   public static final String CACHE_BLOOMS_ON_WRITE = "CACHE_BLOOMS_ON_WRITE";
   public static final String EVICT_BLOCKS_ON_CLOSE = "EVICT_BLOCKS_ON_CLOSE";
+  public static final String ROW_CACHE = "ROW_CACHE";
 
   /**
    * Size of storefile/hfile 'blocks'.  Default is {@link #DEFAULT_BLOCKSIZE}.
@@ -191,6 +192,12 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
    */
   public static final boolean DEFAULT_EVICT_BLOCKS_ON_CLOSE = false;
 
+  /**
+   * Default setting for whether to keep the latest version of whole rows in
+   * the region server's row cache.
+   */
+  public static final boolean DEFAULT_ROW_CACHE = false;
+
   private final static Map<String, String> DEFAULT_VALUES
     = new HashMap<String, String>();
   private final static Set<ImmutableBytesWritable> RESERVED_KEYWORDS
@@ -212,6 +219,7 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
       DEFAULT_VALUES.put(CACHE_INDEX_ON_WRITE, String.valueOf(DEFAULT_CACHE_INDEX_ON_WRITE));
       DEFAULT_VALUES.put(CACHE_BLOOMS_ON_WRITE, String.valueOf(DEFAULT_CACHE_BLOOMS_ON_WRITE));
       DEFAULT_VALUES.put(EVICT_BLOCKS_ON_CLOSE, String.valueOf(DEFAULT_EVICT_BLOCKS_ON_CLOSE));
+      DEFAULT_VALUES.put(ROW_CACHE, String.valueOf(DEFAULT_ROW_CACHE));
       for (String s : DEFAULT_VALUES.keySet()) {
         RESERVED_KEYWORDS.add(new ImmutableBytesWritable(Bytes.toBytes(s)));
       }
@@ -886,6 +894,27 @@ public class HColumnDescriptor implements WritableComparable<HColumnDescriptor>
     return setValue(EVICT_BLOCKS_ON_CLOSE, Boolean.toString(value));
   }
 
+  /**
+   * @return true if whole-row Gets of this family are served from the region
+   * server's row cache
+   */
+  public boolean isRowCacheEnabled() {
+    String value = getValue(ROW_CACHE);
+    if (value != null) {
+      return Boolean.valueOf(value).booleanValue();
+    }
+    return DEFAULT_ROW_CACHE;
+  }
+
+  /**
+   * @param value true if whole-row Gets of this family should be served from
+   * the region server's row cache
+   * @return this (for chained invocation)
+   */
+  public HColumnDescriptor setRowCacheEnabled(boolean value) {
+    return setValue(ROW_CACHE, Boolean.toString(value));
+  }
+
   /**
    * @see java.lang.Object#toString()
    */
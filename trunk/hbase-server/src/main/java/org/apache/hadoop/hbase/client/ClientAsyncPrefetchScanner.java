@@ -0,0 +1,222 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Threads;
+
+/**
+ * Client scanner that fetches the next batches of rows in the background
+ * while the application works through the current one, see
+ * {@link Scan#setAsyncPrefetch(boolean)}.
+ * <p>
+ * A daemon thread drives a regular {@link ClientScanner} and queues the rows
+ * it returns. It stops reading ahead once the queue holds
+ * {@link #PREFETCH_BATCHES_KEY} batches, counted in rows against the scan's
+ * caching and in bytes against its max result size, and resumes as soon as
+ * the application took rows off the queue. On top of the queue the wrapped
+ * scanner holds at most the batch it is currently handing out.
+ * <p>
+ * An exception of the background thread is rethrown by the next call to
+ * {@link #next()} once the rows queued before it have been returned.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class ClientAsyncPrefetchScanner extends AbstractClientScanner {
+  private static final Log LOG =
+      LogFactory.getLog(ClientAsyncPrefetchScanner.class);
+
+  /** Whether scans that do not say otherwise prefetch asynchronously */
+  public static final String ASYNC_PREFETCH_KEY =
+      "hbase.client.scanner.async.prefetch";
+  public static final boolean DEFAULT_ASYNC_PREFETCH = false;
+
+  /** Number of batches to read ahead of the application */
+  public static final String PREFETCH_BATCHES_KEY =
+      "hbase.client.scanner.async.prefetch.batches";
+  public static final int DEFAULT_PREFETCH_BATCHES = 1;
+
+  private final ClientScanner scanner;
+  private final int maxQueuedRows;
+  private final long maxQueuedBytes;
+
+  // All of the below are guarded by the queue's monitor
+  private final LinkedList<Result> queue = new LinkedList<Result>();
+  private long queuedBytes = 0;
+  private boolean exhausted = false;
+  private boolean closed = false;
+  private IOException exception = null;
+
+  /**
+   * Create a new prefetching scanner for the specified table. The scanner on
+   * the first region is opened before the constructor returns.
+   *
+   * @param conf The {@link Configuration} to use.
+   * @param scan {@link Scan} to use in this scanner
+   * @param tableName The table that we wish to scan
+   * @param connection Connection identifying the cluster
+   * @throws IOException
+   */
+  public ClientAsyncPrefetchScanner(final Configuration conf, final Scan scan,
+      final byte[] tableName, HConnection connection) throws IOException {
+    this.scanner = new ClientScanner(conf, scan, tableName, connection);
+    int batches = Math.max(1,
+        conf.getInt(PREFETCH_BATCHES_KEY, DEFAULT_PREFETCH_BATCHES));
+    int caching = scan.getCaching() > 0 ? scan.getCaching() : conf.getInt(
+        HConstants.HBASE_CLIENT_SCANNER_CACHING,
+        HConstants.DEFAULT_HBASE_CLIENT_SCANNER_CACHING);
+    long maxResultSize = scan.getMaxResultSize() > 0 ?
+        scan.getMaxResultSize() : conf.getLong(
+            HConstants.HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE_KEY,
+            HConstants.DEFAULT_HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE);
+    this.maxQueuedRows = (int) Math.min(Integer.MAX_VALUE,
+        (long) batches * Math.max(1, caching));
+    this.maxQueuedBytes = maxResultSize > Long.MAX_VALUE / batches ?
+        Long.MAX_VALUE : maxResultSize * batches;
+    Threads.setDaemonThreadRunning(new Thread(new Prefetcher()),
+        "ClientAsyncPrefetchScanner-" + Bytes.toString(tableName));
+  }
+
+  @Override
+  public Result next() throws IOException {
+    synchronized (queue) {
+      while (queue.isEmpty() && !exhausted && exception == null && !closed) {
+        try {
+          queue.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted waiting for rows");
+        }
+      }
+      Result result = queue.poll();
+      if (result != null) {
+        queuedBytes -= heapSize(result);
+        queue.notifyAll();
+        return result;
+      }
+      if (exception != null && !closed) {
+        throw exception;
+      }
+      return null;
+    }
+  }
+
+  @Override
+  public Result[] next(int nbRows) throws IOException {
+    ArrayList<Result> resultSets = new ArrayList<Result>(nbRows);
+    for (int i = 0; i < nbRows; i++) {
+      Result next = next();
+      if (next == null) {
+        break;
+      }
+      resultSets.add(next);
+    }
+    return resultSets.toArray(new Result[resultSets.size()]);
+  }
+
+  /**
+   * Stops the prefetching. The wrapped scanner is closed by the background
+   * thread as soon as the RPC it may be waiting on returned.
+   */
+  @Override
+  public void close() {
+    synchronized (queue) {
+      closed = true;
+      queue.clear();
+      queuedBytes = 0;
+      queue.notifyAll();
+    }
+  }
+
+  private boolean isQueueFull() {
+    return queue.size() >= maxQueuedRows || queuedBytes >= maxQueuedBytes;
+  }
+
+  private static long heapSize(Result result) {
+    long size = 0;
+    for (KeyValue kv : result.raw()) {
+      size += kv.heapSize();
+    }
+    return size;
+  }
+
+  /**
+   * Moves rows from the wrapped scanner to the queue while there is room.
+   */
+  private class Prefetcher implements Runnable {
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          synchronized (queue) {
+            while (!closed && isQueueFull()) {
+              queue.wait();
+            }
+            if (closed) {
+              return;
+            }
+          }
+          Result result = scanner.next();
+          synchronized (queue) {
+            if (closed) {
+              return;
+            }
+            if (result == null) {
+              exhausted = true;
+              queue.notifyAll();
+              return;
+            }
+            queue.add(result);
+            queuedBytes += heapSize(result);
+            queue.notifyAll();
+          }
+        }
+      } catch (IOException e) {
+        synchronized (queue) {
+          exception = e;
+          queue.notifyAll();
+        }
+      } catch (InterruptedException e) {
+        synchronized (queue) {
+          exception = new InterruptedIOException("Prefetch interrupted");
+          queue.notifyAll();
+        }
+      } catch (RuntimeException e) {
+        LOG.warn("Prefetching rows failed", e);
+        synchronized (queue) {
+          exception = new IOException(e);
+          queue.notifyAll();
+        }
+      } finally {
+        scanner.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,237 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.protobuf.ProtobufUtil;
+import org.apache.hadoop.hbase.protobuf.RequestConverter;
+import org.apache.hadoop.hbase.protobuf.ResponseConverter;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.ScanRequest;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.ScanResponse;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.protobuf.ServiceException;
+
+/**
+ * Client scanner for small scans, see {@link Scan#setSmall(boolean)}.
+ * <p>
+ * Every batch of rows is fetched with a single RPC in which the region server
+ * opens a scanner, reads up to {@link Scan#getCaching()} rows or the max
+ * result size, and closes it again. There is no scanner to keep open, renew
+ * or close between batches; the next batch simply starts right after the
+ * last row returned. Such an RPC can be retried as a whole, so a region
+ * moving in the middle of the scan needs no special handling either.
+ * <p>
+ * As a batch can only resume at the start of a row, small scans do not
+ * support {@link Scan#setBatch(int)}.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public class ClientSmallScanner extends AbstractClientScanner {
+  private final Log LOG = LogFactory.getLog(this.getClass());
+  private final Scan scan;
+  private final byte[] tableName;
+  private final HConnection connection;
+  private final int caching;
+  private final long maxScannerResultSize;
+  private final LinkedList<Result> cache = new LinkedList<Result>();
+  private boolean closed = false;
+  // Region the last batch came from, and whether it has no rows left
+  private HRegionInfo currentRegion = null;
+  private boolean currentRegionDone = false;
+  private Result lastResult = null;
+
+  /**
+   * Create a new small scanner for the specified table.
+   *
+   * @param conf The {@link Configuration} to use.
+   * @param scan {@link Scan} to use in this scanner
+   * @param tableName The table that we wish to scan
+   * @param connection Connection identifying the cluster
+   * @throws IOException
+   */
+  public ClientSmallScanner(final Configuration conf, final Scan scan,
+      final byte[] tableName, HConnection connection) throws IOException {
+    if (scan.getBatch() > 0) {
+      throw new IllegalArgumentException("Small scans return whole rows, " +
+          "setBatch is not supported; batch=" + scan.getBatch());
+    }
+    this.scan = scan;
+    this.tableName = tableName;
+    this.connection = connection;
+    if (scan.getMaxResultSize() > 0) {
+      this.maxScannerResultSize = scan.getMaxResultSize();
+    } else {
+      this.maxScannerResultSize = conf.getLong(
+        HConstants.HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE_KEY,
+        HConstants.DEFAULT_HBASE_CLIENT_SCANNER_MAX_RESULT_SIZE);
+    }
+    if (scan.getCaching() > 0) {
+      this.caching = scan.getCaching();
+    } else {
+      this.caching = conf.getInt(
+          HConstants.HBASE_CLIENT_SCANNER_CACHING,
+          HConstants.DEFAULT_HBASE_CLIENT_SCANNER_CACHING);
+    }
+  }
+
+  @Override
+  public Result next() throws IOException {
+    while (cache.isEmpty() && !closed) {
+      loadCache();
+    }
+    return cache.poll();
+  }
+
+  /**
+   * Fetches the next batch, from the current region if it may have rows left
+   * or else from the next one.
+   */
+  private void loadCache() throws IOException {
+    byte[] localStartKey;
+    if (currentRegion == null) {
+      localStartKey = scan.getStartRow();
+    } else if (currentRegionDone) {
+      byte[] endKey = currentRegion.getEndKey();
+      if (endKey == null || Bytes.equals(endKey, HConstants.EMPTY_BYTE_ARRAY)
+          || checkScanStopRow(endKey)) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Finished with small scan at " + currentRegion);
+        }
+        close();
+        return;
+      }
+      localStartKey = endKey;
+    } else {
+      // Smallest row after the last one returned
+      localStartKey = Bytes.add(lastResult.getRow(), new byte[] { 0 });
+    }
+
+    Scan batchScan = new Scan(scan);
+    batchScan.setStartRow(localStartKey);
+    batchScan.setCustomID(scan.getCustomID());
+    batchScan.setMaxResultSize(maxScannerResultSize);
+    SmallScannerCallable callable =
+        new SmallScannerCallable(connection, tableName, batchScan, caching);
+    Result[] values = callable.withRetries();
+    currentRegion = callable.getHRegionInfo();
+    if (values == null) {
+      // The filter has determined the scan is done
+      close();
+      return;
+    }
+    for (Result rs : values) {
+      cache.add(rs);
+      lastResult = rs;
+    }
+    // The server only comes back empty handed once the region ran out of
+    // rows. Servers that do not say whether the region has more rows get
+    // one more call to the same region.
+    currentRegionDone = values.length == 0 || !callable.hasMoreResultsInRegion();
+  }
+
+  // returns true if the passed region endKey is at or past the stop row
+  private boolean checkScanStopRow(final byte[] endKey) {
+    if (this.scan.getStopRow().length > 0) {
+      byte[] stopRow = scan.getStopRow();
+      int cmp = Bytes.compareTo(stopRow, 0, stopRow.length,
+        endKey, 0, endKey.length);
+      if (cmp <= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Result[] next(int nbRows) throws IOException {
+    ArrayList<Result> resultSets = new ArrayList<Result>(nbRows);
+    for (int i = 0; i < nbRows; i++) {
+      Result next = next();
+      if (next == null) {
+        break;
+      }
+      resultSets.add(next);
+    }
+    return resultSets.toArray(new Result[resultSets.size()]);
+  }
+
+  @Override
+  public void close() {
+    // There is no server side state to release
+    closed = true;
+  }
+
+  /**
+   * Opens, reads and closes a scanner on a region in one RPC.
+   */
+  static class SmallScannerCallable extends ServerCallable<Result[]> {
+    private final Scan scan;
+    private final int caching;
+    private boolean moreResultsInRegion = true;
+
+    SmallScannerCallable(HConnection connection, byte[] tableName, Scan scan,
+        int caching) {
+      super(connection, tableName, scan.getStartRow());
+      this.scan = scan;
+      this.caching = caching;
+    }
+
+    /**
+     * @return the rows read, null if the scan's filter is done
+     */
+    @Override
+    public Result[] call() throws IOException {
+      ScanRequest request = RequestConverter.buildScanRequest(
+          location.getRegionInfo().getRegionName(), scan, caching, true);
+      try {
+        ScanResponse response = server.scan(null, request);
+        if (response.hasMoreResults() && !response.getMoreResults()) {
+          return null;
+        }
+        moreResultsInRegion = !response.hasMoreResultsInRegion()
+            || response.getMoreResultsInRegion();
+        return ResponseConverter.getResults(response);
+      } catch (ServiceException se) {
+        throw ProtobufUtil.getRemoteException(se);
+      }
+    }
+
+    /**
+     * @return false if the last call read the region to its end
+     */
+    boolean hasMoreResultsInRegion() {
+      return moreResultsInRegion;
+    }
+
+    HRegionInfo getHRegionInfo() {
+      return location == null ? null : location.getRegionInfo();
+    }
+  }
+}
@@ -525,6 +525,17 @@ public class HTable implements HTableInterface {
     if (scan.getCaching() <= 0) {
       scan.setCaching(getScannerCaching());
     }
+    if (scan.isSmall()) {
+      return new ClientSmallScanner(getConfiguration(), scan, getTableName(),
+          this.connection);
+    }
+    Boolean asyncPrefetch = scan.getAsyncPrefetch();
+    if (asyncPrefetch == null ? getConfiguration().getBoolean(
+        ClientAsyncPrefetchScanner.ASYNC_PREFETCH_KEY,
+        ClientAsyncPrefetchScanner.DEFAULT_ASYNC_PREFETCH) : asyncPrefetch) {
+      return new ClientAsyncPrefetchScanner(getConfiguration(), scan,
+          getTableName(), this.connection);
+    }
     return new ClientScanner(getConfiguration(), scan, getTableName(),
         this.connection);
   }
@@ -84,6 +84,7 @@ import java.util.TreeSet;
 public class Scan extends OperationWithAttributes {
   private static final String RAW_ATTR = "_raw_";
   private static final String ISOLATION_LEVEL = "_isolationlevel_";
+  private static final String SMALL_ATTR = "_small_";
 
   private byte [] startRow = HConstants.EMPTY_START_ROW;
   private byte [] stopRow  = HConstants.EMPTY_END_ROW;
@@ -112,6 +113,7 @@ public class Scan extends OperationWithAttributes {
   private Map<byte [], NavigableSet<byte []>> familyMap =
     new TreeMap<byte [], NavigableSet<byte []>>(Bytes.BYTES_COMPARATOR);
   private Boolean loadColumnFamiliesOnDemand = null;
+  private Boolean asyncPrefetch = null;
   private int customID = 267;
 
   /**
@@ -166,6 +168,7 @@ public class Scan extends OperationWithAttributes {
     getScan = scan.isGetScan();
     filter = scan.getFilter(); // clone?
     loadColumnFamiliesOnDemand = scan.getLoadColumnFamiliesOnDemandValue();
+    asyncPrefetch = scan.getAsyncPrefetch();
     TimeRange ctr = scan.getTimeRange();
     tr = new TimeRange(ctr.getMin(), ctr.getMax());
     Map<byte[], NavigableSet<byte[]>> fams = scan.getFamilyMap();
@@ -704,4 +707,45 @@ public class Scan extends OperationWithAttributes {
     return attr == null ? IsolationLevel.READ_COMMITTED :
                           IsolationLevel.fromBytes(attr);
   }
+
+  /**
+   * Set whether this scan is a small scan, i.e. one that is expected to
+   * return about one batch of rows (see {@link #setCaching(int)}). Each batch
+   * of a small scan is served by a single RPC that opens, reads and closes
+   * the scanner on the region server, without a scanner lease. Small scans
+   * return whole rows and do not support {@link #setBatch(int)}.
+   * @param small True/False to enable/disable small scan mode.
+   */
+  public void setSmall(boolean small) {
+    setAttribute(SMALL_ATTR, Bytes.toBytes(small));
+  }
+
+  /**
+   * @return True if this Scan is a small scan.
+   */
+  public boolean isSmall() {
+    byte[] attr = getAttribute(SMALL_ATTR);
+    return attr == null ? false : Bytes.toBoolean(attr);
+  }
+
+  /**
+   * Set whether the client fetches the next batches of rows in the
+   * background while the application consumes the current one. How far it
+   * reads ahead is bounded by {@link #setCaching(int)} and
+   * {@link #setMaxResultSize(long)}. This is a client side setting and is not
+   * sent to the server; when not set, hbase.client.scanner.async.prefetch
+   * decides.
+   * @param asyncPrefetch True/False to enable/disable background prefetching.
+   */
+  public void setAsyncPrefetch(boolean asyncPrefetch) {
+    this.asyncPrefetch = asyncPrefetch;
+  }
+
+  /**
+   * @return whether this scan prefetches in the background, null if it was
+   * not set explicitly
+   */
+  public Boolean getAsyncPrefetch() {
+    return this.asyncPrefetch;
+  }
 }
@@ -29,9 +29,11 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.CachedBlock;
 import org.apache.hadoop.hbase.io.hfile.HFileScanner;
 import org.apache.hadoop.hbase.regionserver.StoreFile;
 import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hbase.Cell;
 
 /**
  * A facade for a {@link org.apache.hadoop.hbase.io.hfile.HFile.Reader} that serves up
@@ -120,6 +122,12 @@ public class HalfStoreFileReader extends StoreFile.Reader {
         return delegate.getKeyValue();
       }
 
+      public Cell getCell() {
+        if (atEnd) return null;
+
+        return delegate.getCell();
+      }
+
       public boolean next() throws IOException {
         if (atEnd) return false;
 
@@ -259,6 +267,16 @@ public class HalfStoreFileReader extends StoreFile.Reader {
       public void setCustomId(int customId) {
         // XXX(bharath)
       }
+
+      @Override
+      public CachedBlock getCurrentCachedBlock() {
+        return this.delegate.getCurrentCachedBlock();
+      }
+
+      @Override
+      public void setTimeRange(long minStamp, long maxStamp) {
+        this.delegate.setTimeRange(minStamp, maxStamp);
+      }
     };
   }
 
@@ -30,6 +30,7 @@ import org.apache.hadoop.hbase.util.ByteBufferUtils;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.WritableUtils;
+import org.apache.hbase.Cell;
 
 /**
  * Base class for all data block encoders that use a buffer.
@@ -39,6 +40,10 @@ abstract class BufferedDataBlockEncoder implements DataBlockEncoder {
 
   private static int INITIAL_KEY_BUFFER_SIZE = 512;
 
+  /** Bounds of the arrays the KeyValues handed out by a seeker are copied to */
+  static final int MIN_KV_ARENA_SIZE = 1024;
+  static final int MAX_KV_ARENA_SIZE = 128 * 1024;
+
   @Override
   public ByteBuffer decodeKeyValues(DataInputStream source,
       boolean includesMemstoreTS) throws IOException {
@@ -118,6 +123,20 @@ abstract class BufferedDataBlockEncoder implements DataBlockEncoder {
     protected STATE current = createSeekerState(); // always valid
     protected STATE previous = createSeekerState(); // may not be valid
 
+    /**
+     * The KeyValues handed out by {@link #getKeyValue()} are copied one after
+     * the other into this array instead of each getting an array of its own.
+     * It is never written over, a full one is simply replaced, so the
+     * KeyValues stay valid for as long as they are referenced, just like the
+     * ones pointing into an unencoded block. It starts small, as a get only
+     * materializes a few KeyValues, and grows for scans.
+     */
+    private byte[] kvArena;
+    private int kvArenaPos;
+
+    /** Handed out by {@link #getCurrentCell()}, reads whichever state is current */
+    private final Cell currentCell = new CurrentCell();
+
     @SuppressWarnings("unchecked")
     public BufferedEncodedSeeker(RawComparator<byte[]> comparator) {
       this.comparator = comparator;
@@ -164,12 +183,40 @@ abstract class BufferedDataBlockEncoder implements DataBlockEncoder {
 
     @Override
     public KeyValue getKeyValue() {
-      ByteBuffer kvBuf = getKeyValueBuffer();
-      KeyValue kv = new KeyValue(kvBuf.array(), kvBuf.arrayOffset());
+      int kvLength = KeyValue.KEYVALUE_INFRASTRUCTURE_SIZE +
+          current.keyLength + current.valueLength;
+      if (kvArena == null || kvArena.length - kvArenaPos < kvLength) {
+        int size = kvArena == null ? MIN_KV_ARENA_SIZE :
+            Math.min(MAX_KV_ARENA_SIZE, 2 * kvArena.length);
+        kvArena = new byte[Math.max(size, kvLength)];
+        kvArenaPos = 0;
+      }
+      int kvOffset = kvArenaPos;
+      int pos = Bytes.putInt(kvArena, kvOffset, current.keyLength);
+      pos = Bytes.putInt(kvArena, pos, current.valueLength);
+      System.arraycopy(current.keyBuffer, 0, kvArena, pos, current.keyLength);
+      pos += current.keyLength;
+      System.arraycopy(currentBuffer.array(),
+          currentBuffer.arrayOffset() + current.valueOffset,
+          kvArena, pos, current.valueLength);
+      kvArenaPos = pos + current.valueLength;
+      KeyValue kv = new KeyValue(kvArena, kvOffset, kvLength);
       kv.setMemstoreTS(current.memstoreTS);
       return kv;
     }
 
+    @Override
+    public Cell getCurrentCell() {
+      return currentCell;
+    }
+
+    @Override
+    public int compareKey(RawComparator<byte[]> comparator, byte[] key,
+        int offset, int length) {
+      return comparator.compare(key, offset, length,
+          current.keyBuffer, 0, current.keyLength);
+    }
+
     @Override
     public void rewind() {
       currentBuffer.rewind();
@@ -261,6 +308,100 @@ abstract class BufferedDataBlockEncoder implements DataBlockEncoder {
       previous.invalidate();
     }
 
+    /**
+     * The key/value at the current position, read from the key buffer of the
+     * current state and the value in the block. Looks the current state up on
+     * every call, since {@link #moveToPrevious()} swaps the two states.
+     */
+    private class CurrentCell implements Cell {
+      private int familyLengthOffset() {
+        return KeyValue.ROW_LENGTH_SIZE + getRowLength();
+      }
+
+      @Override
+      public byte[] getRowArray() {
+        return current.keyBuffer;
+      }
+
+      @Override
+      public int getRowOffset() {
+        return KeyValue.ROW_LENGTH_SIZE;
+      }
+
+      @Override
+      public short getRowLength() {
+        return Bytes.toShort(current.keyBuffer, 0);
+      }
+
+      @Override
+      public byte[] getFamilyArray() {
+        return current.keyBuffer;
+      }
+
+      @Override
+      public int getFamilyOffset() {
+        return familyLengthOffset() + KeyValue.FAMILY_LENGTH_SIZE;
+      }
+
+      @Override
+      public byte getFamilyLength() {
+        return current.keyBuffer[familyLengthOffset()];
+      }
+
+      @Override
+      public byte[] getQualifierArray() {
+        return current.keyBuffer;
+      }
+
+      @Override
+      public int getQualifierOffset() {
+        return getFamilyOffset() + getFamilyLength();
+      }
+
+      @Override
+      public int getQualifierLength() {
+        return current.keyLength - KeyValue.TIMESTAMP_TYPE_SIZE -
+            getQualifierOffset();
+      }
+
+      @Override
+      public long getTimestamp() {
+        return Bytes.toLong(current.keyBuffer,
+            current.keyLength - KeyValue.TIMESTAMP_TYPE_SIZE);
+      }
+
+      @Override
+      public byte getTypeByte() {
+        return current.keyBuffer[current.keyLength - 1];
+      }
+
+      @Override
+      public long getMvccVersion() {
+        return current.memstoreTS;
+      }
+
+      @Override
+      public byte[] getValueArray() {
+        return currentBuffer.array();
+      }
+
+      @Override
+      public int getValueOffset() {
+        return currentBuffer.arrayOffset() + current.valueOffset;
+      }
+
+      @Override
+      public int getValueLength() {
+        return current.valueLength;
+      }
+
+      @Override
+      public String toString() {
+        return KeyValue.keyToString(current.keyBuffer, 0, current.keyLength) +
+            "/vlen=" + current.valueLength + "/mvcc=" + current.memstoreTS;
+      }
+    }
+
     @SuppressWarnings("unchecked")
     protected STATE createSeekerState() {
       // This will fail for non-default seeker state if the subclass does not
@@ -0,0 +1,718 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.ByteBufferUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.RawComparator;
+
+/**
+ * Encode the rows of a block as a prefix tree and every other key component
+ * as an index into a dictionary, so that seeking within the block is a binary
+ * search rather than a walk from its start.
+ * <p>
+ * The rows are the leaves of a trie over the row keys, flattened in key
+ * order: each distinct row is stored once, as the depth at which it branches
+ * off the previous row plus the bytes below that depth. Every
+ * {@link #RESTART_INTERVAL}th row is a restart row stored in full and listed
+ * in an index, so a seek binary searches the restart rows and then decodes at
+ * most that many rows. Families, qualifiers and timestamps are each stored
+ * once and referred to by their number in order of first appearance, which
+ * is left out of the cells if there is only one of them. Timestamps that are
+ * mostly distinct are stored in the cells instead, and so is the type unless
+ * all cells are of the same one.
+ *
+ * Format:
+ * <pre>
+ * 4 bytes:    length of the unencoded KeyValues
+ * 1-5 bytes:  number of cells, then of rows, families, qualifiers and
+ *             timestamps, then the restart interval (7-bit encoding each)
+ * 1-5 bytes:  length of the families, of the qualifiers and of the rows
+ *             (7-bit encoding each)
+ * 1-2 bytes:  1 and the type of all cells, or 0
+ * ... bytes:  families: width of the offsets, offset of each family in that
+ *             many bytes, then each family: length (7-bit encoding) and bytes
+ * ... bytes:  qualifiers, as the families
+ * 8 bytes:    smallest timestamp
+ * 1 byte:     width of the timestamps
+ * ... bytes:  each timestamp minus the smallest one, unless in the cells
+ * 8 bytes:    offset of each restart row and of its first cell
+ * ... bytes:  each row: length of the prefix shared with the previous row,
+ *             length of the rest and the rest, number of cells
+ * ... bytes:  each cell: number of family and qualifier if there are several
+ *             of them (7-bit encoding each), number of timestamp or the
+ *             timestamp minus the smallest one, type unless the same for all,
+ *             value length (7-bit encoding), value, memstore timestamp if
+ *             included
+ * </pre>
+ */
+@InterfaceAudience.Private
+public class PrefixTreeEncoder extends BufferedDataBlockEncoder {
+
+  /** Number of rows from one fully stored and indexed row to the next */
+  static final int RESTART_INTERVAL = 16;
+
+  /**
+   * @return whether the timestamps are stored in the cells rather than
+   *         numbered, because numbering them would hardly save anything
+   */
+  private static boolean areTimestampsInline(int numCells,
+      int numTimestamps) {
+    return numTimestamps > 1 && numTimestamps * 2 > numCells;
+  }
+
+  /**
+   * Byte strings numbered in order of first appearance.
+   */
+  private static class Dictionary {
+    private final Map<byte[], Integer> ids =
+        new TreeMap<byte[], Integer>(Bytes.BYTES_COMPARATOR);
+    private final List<Integer> offsets = new ArrayList<Integer>();
+    private final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+    // Consecutive cells mostly share their components
+    private byte[] last;
+    private int lastId = -1;
+
+    int add(ByteBuffer in, int offset, int length) throws IOException {
+      byte[] array = in.array();
+      int pos = in.arrayOffset() + offset;
+      if (last != null &&
+          Bytes.equals(last, 0, last.length, array, pos, length)) {
+        return lastId;
+      }
+      byte[] bytes = Arrays.copyOfRange(array, pos, pos + length);
+      Integer id = ids.get(bytes);
+      if (id == null) {
+        id = offsets.size();
+        ids.put(bytes, id);
+        offsets.add(entries.size());
+        ByteBufferUtils.putCompressedInt(entries, length);
+        entries.write(bytes);
+      }
+      last = bytes;
+      lastId = id;
+      return id;
+    }
+
+    int size() {
+      return offsets.size();
+    }
+
+    private int getOffsetWidth() {
+      return offsets.isEmpty() ? 1 :
+          ByteBufferUtils.longFitsIn(offsets.get(offsets.size() - 1));
+    }
+
+    /** @return the length of the dictionary when written */
+    int length() {
+      return Bytes.SIZEOF_BYTE + offsets.size() * getOffsetWidth() +
+          entries.size();
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+      int width = getOffsetWidth();
+      out.writeByte(width);
+      for (int offset : offsets) {
+        ByteBufferUtils.putLong(out, offset, width);
+      }
+      entries.writeTo(out);
+    }
+  }
+
+  /**
+   * Timestamps numbered in order of first appearance, stored as their
+   * difference to the smallest one in as few bytes as all of them fit in.
+   */
+  private static class TimestampDictionary {
+    private final Map<Long, Integer> ids = new HashMap<Long, Integer>();
+    private final List<Long> timestamps = new ArrayList<Long>();
+    private long min = Long.MAX_VALUE;
+    private long last;
+    private int lastId = -1;
+
+    int add(long timestamp) {
+      if (lastId != -1 && timestamp == last) {
+        return lastId;
+      }
+      Integer id = ids.get(timestamp);
+      if (id == null) {
+        id = timestamps.size();
+        ids.put(timestamp, id);
+        timestamps.add(timestamp);
+        min = Math.min(min, timestamp);
+      }
+      last = timestamp;
+      lastId = id;
+      return id;
+    }
+
+    int size() {
+      return timestamps.size();
+    }
+
+    long getMin() {
+      return min;
+    }
+
+    int getWidth() {
+      int width = 1;
+      for (long timestamp : timestamps) {
+        width = Math.max(width, ByteBufferUtils.longFitsIn(timestamp - min));
+      }
+      return width;
+    }
+
+    void writeTo(DataOutputStream out, boolean inline) throws IOException {
+      int width = getWidth();
+      out.writeLong(min);
+      out.writeByte(width);
+      if (!inline) {
+        for (long timestamp : timestamps) {
+          ByteBufferUtils.putLong(out, timestamp - min, width);
+        }
+      }
+    }
+  }
+
+  /**
+   * Positions of the parts of a KeyValue in the buffer being encoded.
+   */
+  private static class KeyValueLayout {
+    int keyLength;
+    int valueLength;
+    int rowOffset;
+    int rowLength;
+    int familyOffset;
+    int familyLength;
+    int qualifierOffset;
+    int qualifierLength;
+    long timestamp;
+    byte type;
+    int valueOffset;
+
+    /**
+     * Reads the layout of the KeyValue at the position of the given buffer,
+     * and moves past it.
+     */
+    void read(ByteBuffer in, boolean includesMemstoreTS) {
+      keyLength = in.getInt();
+      valueLength = in.getInt();
+      int keyOffset = in.position();
+      rowLength = in.getShort(keyOffset);
+      rowOffset = keyOffset + KeyValue.ROW_LENGTH_SIZE;
+      familyLength = in.get(rowOffset + rowLength);
+      familyOffset = rowOffset + rowLength + Bytes.SIZEOF_BYTE;
+      qualifierOffset = familyOffset + familyLength;
+      int timestampOffset =
+          keyOffset + keyLength - KeyValue.TIMESTAMP_TYPE_SIZE;
+      qualifierLength = timestampOffset - qualifierOffset;
+      timestamp = in.getLong(timestampOffset);
+      type = in.get(timestampOffset + Bytes.SIZEOF_LONG);
+      valueOffset = keyOffset + keyLength;
+      in.position(valueOffset + valueLength);
+      if (includesMemstoreTS) {
+        ByteBufferUtils.readVLong(in);
+      }
+    }
+  }
+
+  @Override
+  public void internalEncodeKeyValues(DataOutputStream out,
+      ByteBuffer in, boolean includesMemstoreTS) throws IOException {
+    // The first pass numbers the key components, so that the second one
+    // knows which of them need a number per cell at all
+    Dictionary families = new Dictionary();
+    Dictionary qualifiers = new Dictionary();
+    TimestampDictionary timestamps = new TimestampDictionary();
+    KeyValueLayout kv = new KeyValueLayout();
+    int numCells = 0;
+    boolean sameType = true;
+    byte type = 0;
+    in.rewind();
+    while (in.hasRemaining()) {
+      kv.read(in, includesMemstoreTS);
+      families.add(in, kv.familyOffset, kv.familyLength);
+      qualifiers.add(in, kv.qualifierOffset, kv.qualifierLength);
+      timestamps.add(kv.timestamp);
+      sameType &= numCells == 0 || kv.type == type;
+      type = kv.type;
+      numCells++;
+    }
+    boolean inlineTimestamps =
+        areTimestampsInline(numCells, timestamps.size());
+    long minTimestamp = timestamps.getMin();
+    int timestampWidth = timestamps.getWidth();
+
+    ByteArrayOutputStream restarts = new ByteArrayOutputStream();
+    DataOutputStream restartsOut = new DataOutputStream(restarts);
+    ByteArrayOutputStream rows = new ByteArrayOutputStream();
+    ByteArrayOutputStream cells = new ByteArrayOutputStream();
+    DataOutputStream cellsOut = new DataOutputStream(cells);
+    int numRows = 0;
+    int cellsInRow = 0;
+    int prevRowOffset = -1;
+    int prevRowLength = 0;
+    in.rewind();
+    while (in.hasRemaining()) {
+      kv.read(in, includesMemstoreTS);
+
+      int common = prevRowOffset == -1 ? 0 :
+          ByteBufferUtils.findCommonPrefix(in, prevRowOffset, kv.rowOffset,
+              Math.min(prevRowLength, kv.rowLength));
+      if (prevRowOffset == -1 ||
+          common != kv.rowLength || common != prevRowLength) {
+        if (numRows > 0) {
+          ByteBufferUtils.putCompressedInt(rows, cellsInRow);
+        }
+        if (numRows % RESTART_INTERVAL == 0) {
+          restartsOut.writeInt(rows.size());
+          restartsOut.writeInt(cells.size());
+          common = 0;
+        }
+        ByteBufferUtils.putCompressedInt(rows, common);
+        ByteBufferUtils.putCompressedInt(rows, kv.rowLength - common);
+        rows.write(in.array(), in.arrayOffset() + kv.rowOffset + common,
+            kv.rowLength - common);
+        numRows++;
+        cellsInRow = 0;
+        prevRowOffset = kv.rowOffset;
+        prevRowLength = kv.rowLength;
+      }
+
+      if (families.size() > 1) {
+        ByteBufferUtils.putCompressedInt(cellsOut,
+            families.add(in, kv.familyOffset, kv.familyLength));
+      }
+      if (qualifiers.size() > 1) {
+        ByteBufferUtils.putCompressedInt(cellsOut,
+            qualifiers.add(in, kv.qualifierOffset, kv.qualifierLength));
+      }
+      if (inlineTimestamps) {
+        ByteBufferUtils.putLong(cellsOut, kv.timestamp - minTimestamp,
+            timestampWidth);
+      } else if (timestamps.size() > 1) {
+        ByteBufferUtils.putCompressedInt(cellsOut,
+            timestamps.add(kv.timestamp));
+      }
+      if (!sameType) {
+        cellsOut.writeByte(kv.type);
+      }
+      ByteBufferUtils.putCompressedInt(cellsOut, kv.valueLength);
+      cellsOut.write(in.array(), in.arrayOffset() + kv.valueOffset,
+          in.position() - kv.valueOffset);
+      cellsInRow++;
+    }
+    if (numRows > 0) {
+      ByteBufferUtils.putCompressedInt(rows, cellsInRow);
+    }
+
+    ByteBufferUtils.putInt(out, in.limit());
+    ByteBufferUtils.putCompressedInt(out, numCells);
+    ByteBufferUtils.putCompressedInt(out, numRows);
+    ByteBufferUtils.putCompressedInt(out, families.size());
+    ByteBufferUtils.putCompressedInt(out, qualifiers.size());
+    ByteBufferUtils.putCompressedInt(out, timestamps.size());
+    ByteBufferUtils.putCompressedInt(out, RESTART_INTERVAL);
+    ByteBufferUtils.putCompressedInt(out, families.length());
+    ByteBufferUtils.putCompressedInt(out, qualifiers.length());
+    ByteBufferUtils.putCompressedInt(out, rows.size());
+    out.writeBoolean(sameType);
+    if (sameType) {
+      out.writeByte(type);
+    }
+    families.writeTo(out);
+    qualifiers.writeTo(out);
+    timestamps.writeTo(out, inlineTimestamps);
+    restarts.writeTo(out);
+    rows.writeTo(out);
+    cells.writeTo(out);
+  }
+
+  @Override
+  public ByteBuffer decodeKeyValues(DataInputStream source,
+      int allocHeaderLength, int skipLastBytes, boolean includesMemstoreTS)
+          throws IOException {
+    int decompressedSize = source.readInt();
+    int encodedLength = source.available() - skipLastBytes;
+    byte[] encoded = new byte[Bytes.SIZEOF_INT + encodedLength];
+    Bytes.putInt(encoded, 0, decompressedSize);
+    source.readFully(encoded, Bytes.SIZEOF_INT, encodedLength);
+
+    ByteBuffer buffer = ByteBuffer.allocate(decompressedSize +
+        allocHeaderLength);
+    buffer.position(allocHeaderLength);
+    if (decompressedSize > 0) {
+      PrefixTreeSeeker seeker = new PrefixTreeSeeker(null, includesMemstoreTS);
+      seeker.setCurrentBuffer(ByteBuffer.wrap(encoded));
+      do {
+        SeekerState current = seeker.current;
+        ensureSpace(buffer, KeyValue.ROW_OFFSET + current.keyLength +
+            current.valueLength);
+        buffer.putInt(current.keyLength);
+        buffer.putInt(current.valueLength);
+        buffer.put(current.keyBuffer, 0, current.keyLength);
+        buffer.put(encoded, current.valueOffset, current.valueLength);
+        if (includesMemstoreTS) {
+          ByteBufferUtils.writeVLong(buffer, current.memstoreTS);
+        }
+      } while (seeker.next());
+    }
+
+    if (buffer.hasRemaining()) {
+      throw new IllegalStateException("Decoded " +
+          (buffer.position() - allocHeaderLength) + " bytes instead of " +
+          decompressedSize);
+    }
+    return buffer;
+  }
+
+  @Override
+  public ByteBuffer getFirstKeyInBlock(ByteBuffer block) {
+    ByteBuffer buffer = block.duplicate();
+    buffer.rewind();
+    PrefixTreeSeeker seeker = new PrefixTreeSeeker(null, false);
+    seeker.setCurrentBuffer(buffer);
+    return seeker.getKeyDeepCopy();
+  }
+
+  @Override
+  public String toString() {
+    return PrefixTreeEncoder.class.getSimpleName();
+  }
+
+  @Override
+  public EncodedSeeker createSeeker(RawComparator<byte[]> comparator,
+      boolean includesMemstoreTS) {
+    return new PrefixTreeSeeker(comparator, includesMemstoreTS);
+  }
+
+  protected static class PrefixTreeSeekerState extends SeekerState {
+    private int rowIndex;
+    private int rowLength;
+    private int familyId;
+    private int cellsLeftInRow;
+    private int nextRowOffset;
+
+    @Override
+    protected void copyFromNext(SeekerState that) {
+      super.copyFromNext(that);
+      PrefixTreeSeekerState other = (PrefixTreeSeekerState) that;
+      rowIndex = other.rowIndex;
+      rowLength = other.rowLength;
+      familyId = other.familyId;
+      cellsLeftInRow = other.cellsLeftInRow;
+      nextRowOffset = other.nextRowOffset;
+    }
+  }
+
+  /**
+   * Walks the cells of a block in order like the other seekers, but jumps
+   * straight to the right restart row when seeking forward.
+   */
+  static class PrefixTreeSeeker
+      extends BufferedEncodedSeeker<PrefixTreeSeekerState> {
+    private final boolean includesMemstoreTS;
+
+    // Layout of the current block, as positions in currentBuffer
+    private int numRows;
+    private int numFamilies;
+    private int numQualifiers;
+    private int numTimestamps;
+    private boolean inlineTimestamps;
+    private boolean sameType;
+    private byte type;
+    private int restartInterval;
+    private int numRestarts;
+    private int familyOffsetWidth;
+    private int familyOffsetsPos;
+    private int familiesPos;
+    private int qualifierOffsetWidth;
+    private int qualifierOffsetsPos;
+    private int qualifiersPos;
+    private long minTimestamp;
+    private int timestampWidth;
+    private int timestampsPos;
+    private int restartsPos;
+    private int rowsPos;
+    private int cellsPos;
+
+    /** Second view of the current block, to read rows and dictionaries */
+    private ByteBuffer probe;
+    private ByteBuffer probeSource;
+    /** Holds the keys of restart rows during seeks */
+    private byte[] probeKey = new byte[0];
+
+    // Components of the cell last read by readCellKey
+    private int cellFamilyId;
+    private int cellFamilyPos;
+    private int cellFamilyLength;
+    private int cellQualifierPos;
+    private int cellQualifierLength;
+    private long cellTimestamp;
+    private byte cellType;
+
+    PrefixTreeSeeker(RawComparator<byte[]> comparator,
+        boolean includesMemstoreTS) {
+      super(comparator);
+      this.includesMemstoreTS = includesMemstoreTS;
+    }
+
+    @Override
+    protected PrefixTreeSeekerState createSeekerState() {
+      return new PrefixTreeSeekerState();
+    }
+
+    @Override
+    protected void decodeFirst() {
+      if (probeSource != currentBuffer) {
+        probe = currentBuffer.duplicate();
+        probeSource = currentBuffer;
+      }
+      ByteBufferUtils.skip(currentBuffer, Bytes.SIZEOF_INT);
+      int numCells = ByteBufferUtils.readCompressedInt(currentBuffer);
+      numRows = ByteBufferUtils.readCompressedInt(currentBuffer);
+      numFamilies = ByteBufferUtils.readCompressedInt(currentBuffer);
+      numQualifiers = ByteBufferUtils.readCompressedInt(currentBuffer);
+      numTimestamps = ByteBufferUtils.readCompressedInt(currentBuffer);
+      restartInterval = ByteBufferUtils.readCompressedInt(currentBuffer);
+      int familiesLength = ByteBufferUtils.readCompressedInt(currentBuffer);
+      int qualifiersLength = ByteBufferUtils.readCompressedInt(currentBuffer);
+      int rowsLength = ByteBufferUtils.readCompressedInt(currentBuffer);
+
+      sameType = currentBuffer.get() != 0;
+      if (sameType) {
+        type = currentBuffer.get();
+      }
+      inlineTimestamps = areTimestampsInline(numCells, numTimestamps);
+
+      numRestarts = (numRows + restartInterval - 1) / restartInterval;
+      int familiesStart = currentBuffer.position();
+      familyOffsetWidth = currentBuffer.get(familiesStart);
+      familyOffsetsPos = familiesStart + Bytes.SIZEOF_BYTE;
+      familiesPos = familyOffsetsPos + numFamilies * familyOffsetWidth;
+      int qualifiersStart = familiesStart + familiesLength;
+      qualifierOffsetWidth = currentBuffer.get(qualifiersStart);
+      qualifierOffsetsPos = qualifiersStart + Bytes.SIZEOF_BYTE;
+      qualifiersPos = qualifierOffsetsPos +
+          numQualifiers * qualifierOffsetWidth;
+      int timestampsHeaderPos = qualifiersStart + qualifiersLength;
+      minTimestamp = currentBuffer.getLong(timestampsHeaderPos);
+      timestampWidth = currentBuffer.get(
+          timestampsHeaderPos + Bytes.SIZEOF_LONG);
+      timestampsPos = timestampsHeaderPos + Bytes.SIZEOF_LONG +
+          Bytes.SIZEOF_BYTE;
+      restartsPos = timestampsPos +
+          (inlineTimestamps ? 0 : numTimestamps * timestampWidth);
+      rowsPos = restartsPos + numRestarts * 2 * Bytes.SIZEOF_INT;
+      cellsPos = rowsPos + rowsLength;
+
+      currentBuffer.position(cellsPos);
+      current.rowIndex = -1;
+      current.cellsLeftInRow = 0;
+      current.nextRowOffset = rowsPos;
+      decodeNext();
+    }
+
+    @Override
+    protected void decodeNext() {
+      boolean sameRow = current.cellsLeftInRow > 0;
+      if (!sameRow) {
+        probe.position(current.nextRowOffset);
+        int common = ByteBufferUtils.readCompressedInt(probe);
+        int rest = ByteBufferUtils.readCompressedInt(probe);
+        // The shared prefix is still in place from the previous row
+        current.rowLength = common + rest;
+        current.keyLength = KeyValue.ROW_LENGTH_SIZE + current.rowLength;
+        current.ensureSpaceForKey();
+        Bytes.putShort(current.keyBuffer, 0, (short) current.rowLength);
+        probe.get(current.keyBuffer, KeyValue.ROW_LENGTH_SIZE + common, rest);
+        current.cellsLeftInRow = ByteBufferUtils.readCompressedInt(probe);
+        current.nextRowOffset = probe.position();
+        current.rowIndex++;
+      }
+      current.cellsLeftInRow--;
+
+      readCellKey(currentBuffer);
+      int rowEnd = KeyValue.ROW_LENGTH_SIZE + current.rowLength;
+      current.keyLength = rowEnd + getKeyTailLength();
+      current.ensureSpaceForKey();
+      writeKeyTail(current.keyBuffer, rowEnd);
+      if (!sameRow) {
+        current.lastCommonPrefix = 0;
+      } else if (cellFamilyId != current.familyId) {
+        current.lastCommonPrefix = rowEnd;
+      } else {
+        current.lastCommonPrefix = rowEnd + Bytes.SIZEOF_BYTE +
+            cellFamilyLength;
+      }
+      current.familyId = cellFamilyId;
+
+      current.valueLength = ByteBufferUtils.readCompressedInt(currentBuffer);
+      current.valueOffset = currentBuffer.position();
+      ByteBufferUtils.skip(currentBuffer, current.valueLength);
+      if (includesMemstoreTS) {
+        current.memstoreTS = ByteBufferUtils.readVLong(currentBuffer);
+      } else {
+        current.memstoreTS = 0;
+      }
+      current.nextKvOffset = currentBuffer.position();
+    }
+
+    @Override
+    public int seekToKeyInBlock(byte[] key, int offset, int length,
+        boolean seekBefore) {
+      int restart = current.rowIndex / restartInterval;
+      if (restart + 1 < numRestarts &&
+          compareKey(comparator, key, offset, length) > 0) {
+        // Find the last restart row ahead that starts before the key, so
+        // that the cell before a match is always decoded on the way to it
+        int low = restart + 1;
+        int high = numRestarts - 1;
+        int found = -1;
+        while (low <= high) {
+          int mid = (low + high) >>> 1;
+          if (compareRestartKey(key, offset, length, mid) > 0) {
+            found = mid;
+            low = mid + 1;
+          } else {
+            high = mid - 1;
+          }
+        }
+        if (found != -1) {
+          moveToRestart(found);
+        }
+      }
+      return super.seekToKeyInBlock(key, offset, length, seekBefore);
+    }
+
+    private int getRestartRowOffset(int restart) {
+      return currentBuffer.getInt(restartsPos + restart * 2 * Bytes.SIZEOF_INT);
+    }
+
+    private int getRestartCellOffset(int restart) {
+      return currentBuffer.getInt(restartsPos +
+          (restart * 2 + 1) * Bytes.SIZEOF_INT);
+    }
+
+    private void moveToRestart(int restart) {
+      current.rowIndex = restart * restartInterval - 1;
+      current.cellsLeftInRow = 0;
+      current.nextRowOffset = rowsPos + getRestartRowOffset(restart);
+      currentBuffer.position(cellsPos + getRestartCellOffset(restart));
+      previous.invalidate();
+      decodeNext();
+    }
+
+    /**
+     * Compares the given key with the first key of a restart row.
+     */
+    private int compareRestartKey(byte[] key, int offset, int length,
+        int restart) {
+      probe.position(rowsPos + getRestartRowOffset(restart));
+      ByteBufferUtils.readCompressedInt(probe); // nothing shared
+      int rowLength = ByteBufferUtils.readCompressedInt(probe);
+      int rowPos = probe.position();
+      probe.position(cellsPos + getRestartCellOffset(restart));
+      readCellKey(probe);
+
+      int rowEnd = KeyValue.ROW_LENGTH_SIZE + rowLength;
+      int keyLength = rowEnd + getKeyTailLength();
+      if (probeKey.length < keyLength) {
+        probeKey = new byte[Math.max(keyLength, 2 * probeKey.length)];
+      }
+      Bytes.putShort(probeKey, 0, (short) rowLength);
+      System.arraycopy(currentBuffer.array(),
+          currentBuffer.arrayOffset() + rowPos,
+          probeKey, KeyValue.ROW_LENGTH_SIZE, rowLength);
+      writeKeyTail(probeKey, rowEnd);
+      return comparator.compare(key, offset, length, probeKey, 0, keyLength);
+    }
+
+    /**
+     * Reads the key components of the cell at the position of the given
+     * buffer, leaving it at the value length.
+     */
+    private void readCellKey(ByteBuffer cells) {
+      cellFamilyId = numFamilies > 1 ?
+          ByteBufferUtils.readCompressedInt(cells) : 0;
+      int qualifierId = numQualifiers > 1 ?
+          ByteBufferUtils.readCompressedInt(cells) : 0;
+      int timestampId = 0;
+      if (inlineTimestamps) {
+        cellTimestamp = minTimestamp +
+            ByteBufferUtils.readLong(cells, timestampWidth);
+      } else if (numTimestamps > 1) {
+        timestampId = ByteBufferUtils.readCompressedInt(cells);
+      }
+      cellType = sameType ? type : cells.get();
+
+      // The cells may be read through the probe, so only now move it
+      probe.position(familyOffsetsPos + cellFamilyId * familyOffsetWidth);
+      probe.position(familiesPos +
+          (int) ByteBufferUtils.readLong(probe, familyOffsetWidth));
+      cellFamilyLength = ByteBufferUtils.readCompressedInt(probe);
+      cellFamilyPos = probe.position();
+      probe.position(qualifierOffsetsPos + qualifierId * qualifierOffsetWidth);
+      probe.position(qualifiersPos +
+          (int) ByteBufferUtils.readLong(probe, qualifierOffsetWidth));
+      cellQualifierLength = ByteBufferUtils.readCompressedInt(probe);
+      cellQualifierPos = probe.position();
+      if (!inlineTimestamps) {
+        probe.position(timestampsPos + timestampId * timestampWidth);
+        cellTimestamp = minTimestamp +
+            ByteBufferUtils.readLong(probe, timestampWidth);
+      }
+    }
+
+    /** @return length of the key past the row of the cell last read */
+    private int getKeyTailLength() {
+      return Bytes.SIZEOF_BYTE + cellFamilyLength + cellQualifierLength +
+          KeyValue.TIMESTAMP_TYPE_SIZE;
+    }
+
+    /**
+     * Writes the key of the cell last read past its row.
+     */
+    private void writeKeyTail(byte[] key, int pos) {
+      byte[] array = currentBuffer.array();
+      int arrayOffset = currentBuffer.arrayOffset();
+      key[pos++] = (byte) cellFamilyLength;
+      System.arraycopy(array, arrayOffset + cellFamilyPos, key, pos,
+          cellFamilyLength);
+      pos += cellFamilyLength;
+      System.arraycopy(array, arrayOffset + cellQualifierPos, key, pos,
+          cellQualifierLength);
+      pos += cellQualifierLength;
+      pos = Bytes.putLong(key, pos, cellTimestamp);
+      key[pos] = cellType;
+    }
+  }
+}
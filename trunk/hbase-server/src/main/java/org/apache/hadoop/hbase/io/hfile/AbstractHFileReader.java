@@ -30,6 +30,7 @@ import org.apache.hadoop.hbase.io.compress.Compression;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.io.hfile.HFile.FileInfo;
 import org.apache.hadoop.io.RawComparator;
+import org.apache.hbase.Cell;
 
 /**
  * Common functionality needed by all versions of {@link HFile} readers.
@@ -309,6 +310,15 @@ public abstract class AbstractHFileReader implements HFile.Reader {
       return blockBuffer != null;
     }
 
+    /**
+     * Unencoded blocks already hold whole key/values, so the KeyValue
+     * pointing into the block is as cheap as a view.
+     */
+    @Override
+    public Cell getCell() {
+      return getKeyValue();
+    }
+
     @Override
     public String toString() {
       return "HFileScanner for reader " + String.valueOf(getReader());
@@ -338,6 +348,16 @@ public abstract class AbstractHFileReader implements HFile.Reader {
     public HFile.Reader getReader() {
       return reader;
     }
+
+    @Override
+    public CachedBlock getCurrentCachedBlock() {
+      return null;
+    }
+
+    @Override
+    public void setTimeRange(long minStamp, long maxStamp) {
+      // Reads every block by default
+    }
   }
 
   /** For testing */
@@ -229,6 +229,13 @@ public abstract class AbstractHFileWriter implements HFile.Writer {
     return path;
   }
 
+  /**
+   * Ignores the hint by default; only block-oriented writers can act on it.
+   */
+  @Override
+  public void cacheLastBlockOnWrite(CachedBlock source) {
+  }
+
   @Override
   public String toString() {
     return "writer=" + (path != null ? path.toString() : null) + ", name="
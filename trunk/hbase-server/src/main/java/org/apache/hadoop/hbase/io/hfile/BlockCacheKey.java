@@ -94,6 +94,13 @@ public class BlockCacheKey implements HeapSize, java.io.Serializable {
     return hfileName;
   }
 
+  /**
+   * @return Offset of the block in its HFile
+   */
+  public long getOffset() {
+    return offset;
+  }
+
   public DataBlockEncoding getDataBlockEncoding() {
     return encoding;
   }
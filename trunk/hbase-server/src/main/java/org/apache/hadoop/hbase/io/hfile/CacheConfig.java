@@ -74,6 +74,20 @@ public class CacheConfig {
   public static final String EVICT_BLOCKS_ON_CLOSE_KEY =
       "hbase.rs.evictblocksonclose";
 
+  /**
+   * Configuration key to cache the data blocks written by a compaction that
+   * hold cells whose source blocks were resident in the block cache.
+   */
+  public static final String CACHE_HOT_BLOCKS_ON_COMPACTION_KEY =
+      "hbase.rs.cachehotblocksoncompaction";
+
+  /**
+   * Configuration key for the fraction of the block cache that a single
+   * compaction output file may fill with preserved hot blocks.
+   */
+  public static final String CACHE_HOT_BLOCKS_ON_COMPACTION_MAX_FRACTION_KEY =
+      "hbase.rs.cachehotblocksoncompaction.max.fraction";
+
   /**
    * Configuration keys for Bucket cache
    */
@@ -105,6 +119,8 @@ public class CacheConfig {
   public static final boolean DEFAULT_CACHE_BLOOMS_ON_WRITE = false;
   public static final boolean DEFAULT_EVICT_ON_CLOSE = false;
   public static final boolean DEFAULT_COMPRESSED_CACHE = false;
+  public static final boolean DEFAULT_CACHE_HOT_BLOCKS_ON_COMPACTION = false;
+  public static final float DEFAULT_CACHE_HOT_BLOCKS_ON_COMPACTION_MAX_FRACTION = 0.1f;
 
   /** Local reference to the block cache, null if completely disabled */
   private final BlockCache blockCache;
@@ -410,7 +426,7 @@ public class CacheConfig {
       LOG.info("Allocating LruBlockCache with maximum size "
           + StringUtils.humanReadableInt(lruCacheSize));
       LruBlockCache lruCache = new LruBlockCache(lruCacheSize,
-          StoreFile.DEFAULT_BLOCKSIZE_SMALL);
+          StoreFile.DEFAULT_BLOCKSIZE_SMALL, conf);
       lruCache.setVictimCache(bucketCache);
       if (bucketCache != null && combinedWithLru) {
         globalBlockCache = new CombinedBlockCache(lruCache, bucketCache);
@@ -37,7 +37,7 @@ import org.apache.hadoop.hbase.util.ClassSize;
 public class CachedBlock implements HeapSize, Comparable<CachedBlock> {
 
   public final static long PER_BLOCK_OVERHEAD = ClassSize.align(
-    ClassSize.OBJECT + (3 * ClassSize.REFERENCE) + (2 * Bytes.SIZEOF_LONG) +
+    ClassSize.OBJECT + (4 * ClassSize.REFERENCE) + (2 * Bytes.SIZEOF_LONG) +
     ClassSize.STRING + ClassSize.BYTE_BUFFER);
 
   static enum BlockPriority {
@@ -52,7 +52,12 @@ public class CachedBlock implements HeapSize, Comparable<CachedBlock> {
     /**
      * Block from in-memory store
      */
-    MEMORY
+    MEMORY,
+    /**
+     * Index or bloom block held in the pinned region, only evicted when the
+     * pinned region is full or under hard memory pressure
+     */
+    PINNED
   };
 
   private final BlockCacheKey cacheKey;
@@ -61,6 +66,8 @@ public class CachedBlock implements HeapSize, Comparable<CachedBlock> {
   private long size;
   private BlockPriority priority;
   private volatile long numAccesses = 0;
+  /** Table a pinned block is accounted to, null for unpinned blocks */
+  private String pinnedTable;
 
   public int getCustomId() {
     return customId;
@@ -79,6 +86,12 @@ public class CachedBlock implements HeapSize, Comparable<CachedBlock> {
 
   public CachedBlock(BlockCacheKey cacheKey, Cacheable buf, long accessTime,
       boolean inMemory) {
+    this(cacheKey, buf, accessTime,
+        inMemory ? BlockPriority.MEMORY : BlockPriority.SINGLE);
+  }
+
+  CachedBlock(BlockCacheKey cacheKey, Cacheable buf, long accessTime,
+      BlockPriority priority) {
     this.cacheKey = cacheKey;
     this.buf = buf;
     this.accessTime = accessTime;
@@ -90,11 +103,7 @@ public class CachedBlock implements HeapSize, Comparable<CachedBlock> {
     // their buffer lengths. This variable is used elsewhere in unit tests.
     this.size = ClassSize.align(cacheKey.heapSize())
         + ClassSize.align(buf.heapSize()) + PER_BLOCK_OVERHEAD;
-    if(inMemory) {
-      this.priority = BlockPriority.MEMORY;
-    } else {
-      this.priority = BlockPriority.SINGLE;
-    }
+    this.priority = priority;
     customId = 0;
   }
 
@@ -157,4 +166,12 @@ public class CachedBlock implements HeapSize, Comparable<CachedBlock> {
   public BlockPriority getPriority() {
     return this.priority;
   }
+
+  String getPinnedTable() {
+    return this.pinnedTable;
+  }
+
+  void setPinnedTable(String pinnedTable) {
+    this.pinnedTable = pinnedTable;
+  }
 }
@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The timestamp range of every data block of an HFile, and whether the block
+ * holds delete markers, ordered by block offset. Written by
+ * {@link HFileWriterV2} as the {@link #META_BLOCK_NAME} meta block so that a
+ * scanner can step over data blocks that cannot hold a KeyValue of interest
+ * without reading them.
+ * <p>
+ * A block is of no interest to a scan reading [minStamp, maxStamp) if all of
+ * its KeyValues are older than minStamp, or if all of them are at or after
+ * maxStamp and none of them is a delete marker. Delete markers newer than the
+ * scanned range still mask older puts, possibly in other blocks, so blocks
+ * holding them are only skipped when they are entirely too old.
+ */
+@InterfaceAudience.Private
+public class DataBlockTimeRanges implements Writable {
+  /** Name of the meta block holding the time ranges */
+  public static final String META_BLOCK_NAME = "DATA_BLOCK_TIME_RANGES";
+
+  private static final byte VERSION = 1;
+  private static final byte HAS_DELETES = 1;
+
+  private long[] offsets;
+  private int[] onDiskSizes;
+  private long[] minStamps;
+  private long[] maxStamps;
+  private boolean[] hasDeletes;
+  private int count;
+
+  public DataBlockTimeRanges() {
+    this(16);
+  }
+
+  private DataBlockTimeRanges(int capacity) {
+    offsets = new long[capacity];
+    onDiskSizes = new int[capacity];
+    minStamps = new long[capacity];
+    maxStamps = new long[capacity];
+    hasDeletes = new boolean[capacity];
+  }
+
+  /**
+   * Adds the next data block. Blocks have to be added in file order.
+   * @param offset offset of the block in the file
+   * @param onDiskSize size of the block on disk, including the header
+   * @param minStamp smallest timestamp in the block
+   * @param maxStamp largest timestamp in the block
+   * @param deletes whether the block holds any delete marker
+   */
+  public void add(long offset, int onDiskSize, long minStamp, long maxStamp,
+      boolean deletes) {
+    if (count == offsets.length) {
+      int capacity = count * 2;
+      offsets = Arrays.copyOf(offsets, capacity);
+      onDiskSizes = Arrays.copyOf(onDiskSizes, capacity);
+      minStamps = Arrays.copyOf(minStamps, capacity);
+      maxStamps = Arrays.copyOf(maxStamps, capacity);
+      hasDeletes = Arrays.copyOf(hasDeletes, capacity);
+    }
+    offsets[count] = offset;
+    onDiskSizes[count] = onDiskSize;
+    minStamps[count] = minStamp;
+    maxStamps[count] = maxStamp;
+    hasDeletes[count] = deletes;
+    count++;
+  }
+
+  /**
+   * @return the number of data blocks
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * @return the position of the data block at the given offset, -1 if there
+   *         is no such block
+   */
+  public int indexOf(long offset) {
+    int i = Arrays.binarySearch(offsets, 0, count, offset);
+    return i < 0 ? -1 : i;
+  }
+
+  public long getOffset(int i) {
+    return offsets[i];
+  }
+
+  public int getOnDiskSize(int i) {
+    return onDiskSizes[i];
+  }
+
+  /**
+   * @return whether the i-th block may hold KeyValues a scan reading
+   *         [minStamp, maxStamp) has to see
+   */
+  public boolean mayContain(int i, long minStamp, long maxStamp) {
+    if (maxStamps[i] < minStamp) {
+      return false;
+    }
+    return hasDeletes[i] || minStamps[i] < maxStamp;
+  }
+
+  /**
+   * @return the position of the first block after the i-th one that may hold
+   *         KeyValues of interest, or {@link #size()} if there is none
+   */
+  public int nextMayContain(int i, long minStamp, long maxStamp) {
+    int next = i + 1;
+    while (next < count && !mayContain(next, minStamp, maxStamp)) {
+      next++;
+    }
+    return next;
+  }
+
+  /**
+   * Reads the time ranges from the content of their meta block.
+   */
+  public static DataBlockTimeRanges read(ByteBuffer buf) throws IOException {
+    DataBlockTimeRanges ranges = new DataBlockTimeRanges(1);
+    ranges.readFields(new DataInputStream(new ByteArrayInputStream(
+        buf.array(), buf.arrayOffset() + buf.position(), buf.remaining())));
+    return ranges;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeByte(VERSION);
+    WritableUtils.writeVInt(out, count);
+    long previousOffset = 0;
+    for (int i = 0; i < count; i++) {
+      WritableUtils.writeVLong(out, offsets[i] - previousOffset);
+      WritableUtils.writeVInt(out, onDiskSizes[i]);
+      WritableUtils.writeVLong(out, minStamps[i]);
+      WritableUtils.writeVLong(out, maxStamps[i] - minStamps[i]);
+      out.writeByte(hasDeletes[i] ? HAS_DELETES : 0);
+      previousOffset = offsets[i];
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    byte version = in.readByte();
+    if (version != VERSION) {
+      throw new IOException("Unknown data block time ranges version " +
+          version);
+    }
+    int n = WritableUtils.readVInt(in);
+    offsets = new long[n];
+    onDiskSizes = new int[n];
+    minStamps = new long[n];
+    maxStamps = new long[n];
+    hasDeletes = new boolean[n];
+    long offset = 0;
+    for (int i = 0; i < n; i++) {
+      offset += WritableUtils.readVLong(in);
+      offsets[i] = offset;
+      onDiskSizes[i] = WritableUtils.readVInt(in);
+      minStamps[i] = WritableUtils.readVLong(in);
+      maxStamps[i] = minStamps[i] + WritableUtils.readVLong(in);
+      hasDeletes[i] = (in.readByte() & HAS_DELETES) != 0;
+    }
+    count = n;
+  }
+}
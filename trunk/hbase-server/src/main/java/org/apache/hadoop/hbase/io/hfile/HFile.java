@@ -192,6 +192,9 @@ public class HFile {
   // For measuring number of checksum failures
   static final AtomicLong checksumFailures = new AtomicLong();
 
+  // For counting data blocks scanners stepped over by their time ranges
+  static final AtomicLong skippedDataBlocks = new AtomicLong();
+
   // For getting more detailed stats on FS latencies
   // If, for some reason, the metrics subsystem stops polling for latencies, 
   // I don't want data to pile up in a memory leak
@@ -282,6 +285,14 @@ public class HFile {
     return checksumFailures.getAndSet(0);
   }
 
+  /**
+   * Number of data blocks scanners did not read because their timestamp
+   * range could not match the scan. This also clears the counter.
+   */
+  public static final long getSkippedDataBlocksCount() {
+    return skippedDataBlocks.getAndSet(0);
+  }
+
   /** API required to write an {@link HFile} */
   public interface Writer extends Closeable {
 
@@ -320,6 +331,14 @@ public class HFile {
      * HFile V2.
      */
     void addDeleteFamilyBloomFilter(BloomFilterWriter bfw) throws IOException;
+
+    /**
+     * Marks the data block holding the last appended key/value as containing
+     * data that was served from the given cached block of another file, so
+     * that the block is cached once written, with the source block's priority
+     * and workload. Writers that do not support this ignore the hint.
+     */
+    void cacheLastBlockOnWrite(CachedBlock source);
   }
 
   /**
@@ -39,7 +39,9 @@ import org.apache.hadoop.hbase.io.hfile.HFile.FileInfo;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.IdLock;
 import org.apache.hadoop.hbase.util.Pair;
+import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.WritableUtils;
+import org.apache.hbase.Cell;
 
 /**
  * {@link HFile} reader for version 2.
@@ -83,6 +85,16 @@ public class HFileReaderV2 extends AbstractHFileReader {
    */
   private List<HFileBlock> loadOnOpenBlocks = new ArrayList<HFileBlock>();
 
+  /** Latency histograms of this file's block reads */
+  private final MetricsBlockRead blockReadMetrics;
+
+  /**
+   * Timestamp ranges of the data blocks, loaded on first use. Null if not
+   * loaded yet or if the file has none, see {@link #dataBlockTimeRangesLoaded}.
+   */
+  private volatile DataBlockTimeRanges dataBlockTimeRanges;
+  private volatile boolean dataBlockTimeRangesLoaded = false;
+
   /** Minimum minor version supported by this HFile format */
   static final int MIN_MINOR_VERSION = 0;
 
@@ -168,6 +180,14 @@ public class HFileReaderV2 extends AbstractHFileReader {
     while ((b = blockIter.nextBlock()) != null) {
       loadOnOpenBlocks.add(b);
     }
+
+    blockReadMetrics = new MetricsBlockRead(path);
+
+    // Let the cache account pinned index and bloom blocks to our table.
+    BlockCache blockCache = cacheConf.getBlockCache();
+    if (blockCache instanceof LruBlockCache) {
+      ((LruBlockCache) blockCache).registerHFile(name, path);
+    }
   }
 
   /**
@@ -234,6 +254,8 @@ public class HFileReaderV2 extends AbstractHFileReader {
         HFileBlock cachedBlock =
             (HFileBlock) cache.getBlock(cacheKey, cacheBlock, false, true, customId, false).getFirst();
         if (cachedBlock != null) {
+          blockReadMetrics.updateCacheHit(customId, BlockType.META,
+              cache.isL1Resident(cacheKey), System.nanoTime() - startTimeNs);
           // Return a distinct 'shallow copy' of the block,
           // so pos does not get messed by the scanner
           return cachedBlock.getBufferWithoutHeader();
@@ -246,6 +268,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
 
       final long delta = System.nanoTime() - startTimeNs;
       HFile.offerReadLatency(delta, true);
+      blockReadMetrics.updateFsRead(customId, BlockType.META, delta);
 
 
       // METAPLACE
@@ -319,6 +342,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
             // Try and get the block from the block cache. If the useLock variable is true then this
             // is the second time through the loop and it should not be counted as a block cache miss.
             LruBlockCache cache = (LruBlockCache) cacheConf.getBlockCache();
+            long lookupStartNs = System.nanoTime();
 
             // TODO(bharath): Proof that this cache is indeed the LruBlockCache
             //if (cacheConf.getBlockCache() instanceof LruBlockCache) {
@@ -347,6 +371,8 @@ public class HFileReaderV2 extends AbstractHFileReader {
                     + "has wrong encoding: " + cachedBlock.getDataBlockEncoding() + " (expected: "
                     + dataBlockEncoder.getEncodingInCache() + ")");
               }
+              blockReadMetrics.updateCacheHit(customId, cachedBlock.getBlockType(),
+                  cache.isL1Resident(cacheKey), System.nanoTime() - lookupStartNs);
 
 //            if (cachedBlock.getBlockType() == BlockType.DATA) {
 //              if (idHitCounts.containsKey(customId)) {
@@ -378,11 +404,17 @@ public class HFileReaderV2 extends AbstractHFileReader {
         long startTimeNs = System.nanoTime();
         HFileBlock hfileBlock = fsBlockReader.readBlockData(dataBlockOffset, onDiskBlockSize, -1,
             pread);
+        long decodeStartNs = System.nanoTime();
         hfileBlock = dataBlockEncoder.diskToCacheFormat(hfileBlock, isCompaction);
         validateBlockType(hfileBlock, expectedBlockType);
 
-        final long delta = System.nanoTime() - startTimeNs;
+        final long endTimeNs = System.nanoTime();
+        final long delta = endTimeNs - startTimeNs;
         HFile.offerReadLatency(delta, pread);
+        blockReadMetrics.updateFsRead(customId, hfileBlock.getBlockType(),
+            decodeStartNs - startTimeNs);
+        blockReadMetrics.updateDecode(customId, hfileBlock.getBlockType(),
+            endTimeNs - decodeStartNs);
 
         // Cache miss
 //        if (hfileBlock.getBlockType() == BlockType.DATA) {
@@ -464,6 +496,61 @@ public class HFileReaderV2 extends AbstractHFileReader {
     }
   }
 
+  /**
+   * Looks up a data block of this file in the block cache without counting
+   * the lookup as a cache access.
+   * @param dataBlockOffset offset of the data block in the file
+   * @return the cache entry of the block, or null if it is not cached or the
+   *         block cache is not an {@link LruBlockCache}
+   */
+  CachedBlock getCachedDataBlock(long dataBlockOffset) {
+    BlockCache cache = cacheConf.getBlockCache();
+    if (!(cache instanceof LruBlockCache)) {
+      return null;
+    }
+    return ((LruBlockCache) cache).getCachedBlock(new BlockCacheKey(name,
+        dataBlockOffset, dataBlockEncoder.getEffectiveEncodingInCache(false),
+        BlockType.DATA));
+  }
+
+  /**
+   * @return the timestamp ranges of the data blocks, null if the file was
+   *         written without them
+   */
+  DataBlockTimeRanges getDataBlockTimeRanges() {
+    if (!dataBlockTimeRangesLoaded) {
+      synchronized (this) {
+        if (!dataBlockTimeRangesLoaded) {
+          try {
+            dataBlockTimeRanges = loadDataBlockTimeRanges();
+          } catch (IOException e) {
+            LOG.warn("Failed to load data block time ranges of " + name +
+                ", not skipping any blocks", e);
+          }
+          dataBlockTimeRangesLoaded = true;
+        }
+      }
+    }
+    return dataBlockTimeRanges;
+  }
+
+  private DataBlockTimeRanges loadDataBlockTimeRanges() throws IOException {
+    if (trailer.getMetaIndexCount() == 0) {
+      return null;
+    }
+    // The meta index lookup returns the closest preceding block for a name
+    // that is not there, so check for the exact name first
+    byte[] mbname = Bytes.toBytes(DataBlockTimeRanges.META_BLOCK_NAME);
+    int block = metaBlockIndexReader.rootBlockContainingKey(mbname, 0,
+        mbname.length);
+    if (block == -1 ||
+        !Bytes.equals(metaBlockIndexReader.getRootBlockKey(block), mbname)) {
+      return null;
+    }
+    ByteBuffer buf = getMetaBlock(DataBlockTimeRanges.META_BLOCK_NAME, false, 0);
+    return buf == null ? null : DataBlockTimeRanges.read(buf);
+  }
+
   /**
    * @return Last key in the file. May be null if file has no entries. Note that
    *         this is not the last row key, but rather the byte form of the last
@@ -490,6 +577,10 @@ public class HFileReaderV2 extends AbstractHFileReader {
   }
 
   public void close(boolean evictOnClose) throws IOException {
+    BlockCache blockCache = cacheConf.getBlockCache();
+    if (blockCache instanceof LruBlockCache) {
+      ((LruBlockCache) blockCache).unregisterHFile(name);
+    }
     if (evictOnClose && cacheConf.isBlockCacheEnabled()) {
       int numEvicted = cacheConf.getBlockCache().evictBlocksByHfileName(name);
       if (LOG.isTraceEnabled()) {
@@ -514,6 +605,10 @@ public class HFileReaderV2 extends AbstractHFileReader {
     protected HFileBlock block;
     protected int customId;
 
+    /** The block {@link #cachedBlock} was looked up for */
+    private HFileBlock cachedBlockLookedUp;
+    private CachedBlock cachedBlock;
+
     /**
      * The next indexed key is to keep track of the indexed key of the next data block.
      * If the nextIndexedKey is HConstants.NO_NEXT_INDEXED_KEY, it means that the
@@ -523,6 +618,11 @@ public class HFileReaderV2 extends AbstractHFileReader {
      */
     protected byte[] nextIndexedKey;
 
+    /** Time range of interest when moving to the next block, see setTimeRange */
+    private boolean skipBlocks = false;
+    private long minStamp = Long.MIN_VALUE;
+    private long maxStamp = Long.MAX_VALUE;
+
     public AbstractScannerV2(HFileReaderV2 r, boolean cacheBlocks,
                              final boolean pread, final boolean isCompaction) {
       super(r, cacheBlocks, pread, isCompaction);
@@ -557,8 +657,38 @@ public class HFileReaderV2 extends AbstractHFileReader {
           blockWithScanInfo.getNextIndexedKey(), rewind, key, offset, length, false);
     }
 
+    @Override
+    public void setTimeRange(long minStamp, long maxStamp) {
+      this.minStamp = minStamp;
+      this.maxStamp = maxStamp;
+      this.skipBlocks = minStamp > Long.MIN_VALUE || maxStamp < Long.MAX_VALUE;
+    }
+
+    @Override
+    public CachedBlock getCurrentCachedBlock() {
+      if (block == null) {
+        return null;
+      }
+      // Only consult the cache once per block we move into.
+      if (block != cachedBlockLookedUp) {
+        cachedBlock = ((HFileReaderV2) reader).getCachedDataBlock(
+            block.getOffset());
+        cachedBlockLookedUp = block;
+      }
+      return cachedBlock;
+    }
+
     protected abstract ByteBuffer getFirstKeyInBlock(HFileBlock curBlock);
 
+    /**
+     * Compares the given key with the key at the current position in place,
+     * without copying or wrapping the latter.
+     * @return a negative number, zero or a positive number if the given key
+     *         is smaller than, equal to or larger than the current key
+     */
+    protected abstract int compareKey(RawComparator<byte[]> comparator,
+        byte[] key, int offset, int length);
+
     protected abstract int loadBlockAndSeekToKey(HFileBlock seekToBlock, byte[] nextIndexedKey,
                                                  boolean rewind, byte[] key, int offset, int length, boolean seekBefore)
         throws IOException;
@@ -574,9 +704,7 @@ public class HFileReaderV2 extends AbstractHFileReader {
     public int reseekTo(byte[] key, int offset, int length) throws IOException {
       int compared;
       if (isSeeked()) {
-        ByteBuffer bb = getKey();
-        compared = reader.getComparator().compare(key, offset,
-            length, bb.array(), bb.arrayOffset(), bb.limit());
+        compared = compareKey(reader.getComparator(), key, offset, length);
         if (compared < 1) {
           // If the required key is less than or equal to current key, then
           // don't do anything.
@@ -646,6 +774,24 @@ public class HFileReaderV2 extends AbstractHFileReader {
       if (block == null)
         return null;
 
+      if (skipBlocks) {
+        DataBlockTimeRanges ranges =
+            ((HFileReaderV2) reader).getDataBlockTimeRanges();
+        int i = ranges == null ? -1 : ranges.indexOf(block.getOffset());
+        if (i >= 0) {
+          int next = ranges.nextMayContain(i, minStamp, maxStamp);
+          if (next > i + 1) {
+            HFile.skippedDataBlocks.addAndGet(next - i - 1);
+            if (next == ranges.size()) {
+              return null;
+            }
+            return reader.readBlock(ranges.getOffset(next),
+                ranges.getOnDiskSize(next), cacheBlocks, pread, isCompaction,
+                null, customId);
+          }
+        }
+      }
+
       HFileBlock curBlock = block;
 
       do {
@@ -705,6 +851,14 @@ public class HFileReaderV2 extends AbstractHFileReader {
               + KEY_VALUE_LEN_SIZE, currKeyLen).slice();
     }
 
+    @Override
+    protected int compareKey(RawComparator<byte[]> comparator, byte[] key,
+        int offset, int length) {
+      return comparator.compare(key, offset, length, blockBuffer.array(),
+          blockBuffer.arrayOffset() + blockBuffer.position()
+              + KEY_VALUE_LEN_SIZE, currKeyLen);
+    }
+
     @Override
     public ByteBuffer getValue() {
       assertSeeked();
@@ -1094,6 +1248,12 @@ public class HFileReaderV2 extends AbstractHFileReader {
       return seeker.getKeyDeepCopy();
     }
 
+    @Override
+    protected int compareKey(RawComparator<byte[]> comparator, byte[] key,
+        int offset, int length) {
+      return seeker.compareKey(comparator, key, offset, length);
+    }
+
     @Override
     public ByteBuffer getValue() {
       assertValidSeek();
@@ -1108,6 +1268,14 @@ public class HFileReaderV2 extends AbstractHFileReader {
       return seeker.getKeyValue();
     }
 
+    @Override
+    public Cell getCell() {
+      if (block == null) {
+        return null;
+      }
+      return seeker.getCurrentCell();
+    }
+
     @Override
     public String getKeyString() {
       ByteBuffer keyBuffer = getKey();
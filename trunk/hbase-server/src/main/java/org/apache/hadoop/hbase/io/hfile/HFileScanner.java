@@ -23,6 +23,7 @@ import java.nio.ByteBuffer;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hbase.Cell;
 
 /**
  * A scanner allows you to position yourself within a HFile and
@@ -125,6 +126,14 @@ public interface HFileScanner {
    * @return Instance of {@link KeyValue}.
    */
   public KeyValue getKeyValue();
+  /**
+   * Gets the current key/value without copying it out of the scanner, where
+   * the block format allows that. Unlike the result of
+   * {@link #getKeyValue()}, the returned cell may be a view that is only
+   * valid until the scanner is moved.
+   * @return the current cell, or null if there is none
+   */
+  public Cell getCell();
   /**
    * Convenience method to get a copy of the key as a string - interpreting the
    * bytes as UTF8. You must call {@link #seekTo(byte[])} before this method.
@@ -149,4 +158,22 @@ public interface HFileScanner {
   public boolean isSeeked();
 
   public void setCustomId(int customId);
+
+  /**
+   * Returns the block cache entry backing the block the scanner is currently
+   * positioned in, without counting it as a cache access.
+   * @return the cached block, or null if the current block is not resident in
+   * the block cache or the scanner is not seeked
+   */
+  public CachedBlock getCurrentCachedBlock();
+
+  /**
+   * Tells the scanner that only KeyValues with a timestamp in
+   * [minStamp, maxStamp), and delete markers at or after minStamp, are of
+   * interest, so that {@link #next()} may step over data blocks holding none
+   * of them. Seeks are not affected.
+   * @param minStamp smallest timestamp of interest
+   * @param maxStamp timestamp after the largest one of interest
+   */
+  public void setTimeRange(long minStamp, long maxStamp);
 }
@@ -61,6 +61,11 @@ public class HFileWriterV2 extends AbstractHFileWriter {
   /** Version for KeyValue which includes memstore timestamp */
   public static final int KEY_VALUE_VER_WITH_MEMSTORE = 1;
 
+  /** Whether to record the timestamp range of every data block */
+  public static final String DATA_BLOCK_TIME_RANGES_KEY =
+      "hfile.block.timeranges.enabled";
+  public static final boolean DEFAULT_DATA_BLOCK_TIME_RANGES = true;
+
   /** Inline block writers for multi-level block index and compound Blooms. */
   private List<InlineBlockWriter> inlineBlockWriters =
       new ArrayList<InlineBlockWriter>();
@@ -88,6 +93,24 @@ public class HFileWriterV2 extends AbstractHFileWriter {
   private final boolean includeMemstoreTS = true;
   private long maxMemstoreTS = 0;
 
+  /**
+   * The highest priority cached block that cells of the current data block
+   * were copied from, or null if none of them came from a cached block.
+   */
+  private CachedBlock hotSourceBlock;
+
+  /** Heap bytes of hot data blocks this writer may still cache on write. */
+  private long hotBlockBudget;
+
+  /**
+   * Timestamp ranges of the data blocks written so far, null if they are not
+   * recorded, e.g. because the keys are not KeyValue keys.
+   */
+  private DataBlockTimeRanges dataBlockTimeRanges;
+  private long blockMinStamp;
+  private long blockMaxStamp;
+  private boolean blockHasDeletes;
+
   static class WriterFactoryV2 extends HFile.WriterFactory {
     WriterFactoryV2(Configuration conf, CacheConfig cacheConf) {
       super(conf, cacheConf);
@@ -138,6 +161,22 @@ public class HFileWriterV2 extends AbstractHFileWriter {
 
     // Meta data block index writer
     metaBlockIndexWriter = new HFileBlockIndex.BlockIndexWriter();
+
+    if (comparator instanceof KeyComparator &&
+        conf.getBoolean(DATA_BLOCK_TIME_RANGES_KEY,
+            DEFAULT_DATA_BLOCK_TIME_RANGES)) {
+      dataBlockTimeRanges = new DataBlockTimeRanges();
+    }
+
+    // Budget for data blocks cached on behalf of cached source blocks
+    BlockCache blockCache = cacheConf.getBlockCache();
+    if (blockCache instanceof LruBlockCache) {
+      // Index and bloom blocks cached on write may get pinned
+      ((LruBlockCache) blockCache).registerHFile(name, path);
+      hotBlockBudget = (long) (((LruBlockCache) blockCache).getMaxSize() *
+          conf.getFloat(CacheConfig.CACHE_HOT_BLOCKS_ON_COMPACTION_MAX_FRACTION_KEY,
+              CacheConfig.DEFAULT_CACHE_HOT_BLOCKS_ON_COMPACTION_MAX_FRACTION));
+    }
     LOG.debug("Initialized with " + cacheConf);
   }
 
@@ -175,6 +214,10 @@ public class HFileWriterV2 extends AbstractHFileWriter {
     int onDiskSize = fsBlockWriter.getOnDiskSizeWithHeader();
     dataBlockIndexWriter.addEntry(firstKeyInBlock, lastDataBlockOffset,
         onDiskSize);
+    if (dataBlockTimeRanges != null) {
+      dataBlockTimeRanges.add(lastDataBlockOffset, onDiskSize, blockMinStamp,
+          blockMaxStamp, blockHasDeletes);
+    }
     totalUncompressedBytes += fsBlockWriter.getUncompressedSizeWithHeader();
 
     HFile.offerWriteLatency(System.nanoTime() - startTimeNs);
@@ -182,6 +225,9 @@ public class HFileWriterV2 extends AbstractHFileWriter {
     if (cacheConf.shouldCacheDataOnWrite()) {
       doCacheOnWrite(lastDataBlockOffset);
     }
+    if (hotSourceBlock != null) {
+      doCacheHotBlockOnWrite(lastDataBlockOffset);
+    }
   }
 
   /** Gives inline block writers an opportunity to contribute blocks. */
@@ -220,6 +266,33 @@ public class HFileWriterV2 extends AbstractHFileWriter {
 //            cacheFormatBlock.getBlockType()), cacheFormatBlock);
   }
 
+  /**
+   * Caches the last written data block with the priority and workload of the
+   * cached block its cells were copied from, as long as the hot block budget
+   * of this file lasts. Once the budget is exhausted the remaining blocks of
+   * the file stay uncached.
+   * @param offset the offset of the block we want to cache. Used to determine
+   *          the cache key.
+   */
+  private void doCacheHotBlockOnWrite(long offset) {
+    CachedBlock source = hotSourceBlock;
+    hotSourceBlock = null;
+    HFileBlock cacheFormatBlock = blockEncoder.diskToCacheFormat(
+        fsBlockWriter.getBlockForCaching(), false);
+    long blockHeapSize = cacheFormatBlock.heapSize();
+    if (blockHeapSize > hotBlockBudget) {
+      LOG.debug("Hot block budget exhausted for " + name +
+          ", not caching further blocks");
+      hotBlockBudget = 0;
+      return;
+    }
+    hotBlockBudget -= blockHeapSize;
+    ((LruBlockCache) cacheConf.getBlockCache()).cacheBlock(
+        new BlockCacheKey(name, offset, blockEncoder.getEncodingInCache(),
+            cacheFormatBlock.getBlockType()), cacheFormatBlock,
+        source.getPriority(), source.getCustomId());
+  }
+
   /**
    * Ready a new block for writing.
    *
@@ -229,6 +302,27 @@ public class HFileWriterV2 extends AbstractHFileWriter {
     // This is where the next block begins.
     fsBlockWriter.startWriting(BlockType.DATA);
     firstKeyInBlock = null;
+    hotSourceBlock = null;
+    blockMinStamp = Long.MAX_VALUE;
+    blockMaxStamp = Long.MIN_VALUE;
+    blockHasDeletes = false;
+  }
+
+  /**
+   * Remembers the strongest cached source block of the current data block, so
+   * that the block is cached when it is finished. Blocks of a higher priority
+   * win, so a block mixing single- and multi-access sources is cached as
+   * multi-access.
+   */
+  @Override
+  public void cacheLastBlockOnWrite(CachedBlock source) {
+    if (hotBlockBudget <= 0 || source == null) {
+      return;
+    }
+    if (hotSourceBlock == null ||
+        source.getPriority().compareTo(hotSourceBlock.getPriority()) > 0) {
+      hotSourceBlock = source;
+    }
   }
 
   /**
@@ -327,6 +421,10 @@ public class HFileWriterV2 extends AbstractHFileWriter {
       }
     }
 
+    if (dataBlockTimeRanges != null) {
+      trackTimestamp(key, koffset, klength);
+    }
+
     // Are we the first key in this block?
     if (firstKeyInBlock == null) {
       // Copy the key.
@@ -340,6 +438,33 @@ public class HFileWriterV2 extends AbstractHFileWriter {
     entryCount++;
   }
 
+  /**
+   * Widens the timestamp range of the current block by the timestamp of the
+   * given KeyValue key, and notes whether the key is a delete marker.
+   */
+  private void trackTimestamp(final byte[] key, final int koffset,
+      final int klength) {
+    int tsOffset = koffset + klength - KeyValue.TIMESTAMP_TYPE_SIZE;
+    if (klength < KeyValue.KEY_INFRASTRUCTURE_SIZE ||
+        Bytes.toShort(key, koffset) < 0 ||
+        KeyValue.ROW_LENGTH_SIZE + Bytes.toShort(key, koffset) +
+            KeyValue.FAMILY_LENGTH_SIZE > tsOffset - koffset) {
+      // Not a KeyValue key after all, give up on the time ranges
+      dataBlockTimeRanges = null;
+      return;
+    }
+    long ts = Bytes.toLong(key, tsOffset);
+    if (ts < blockMinStamp) {
+      blockMinStamp = ts;
+    }
+    if (ts > blockMaxStamp) {
+      blockMaxStamp = ts;
+    }
+    if (KeyValue.isDelete(key[tsOffset + Bytes.SIZEOF_LONG])) {
+      blockHasDeletes = true;
+    }
+  }
+
   @Override
   public void close() throws IOException {
     if (outputStream == null) {
@@ -353,6 +478,10 @@ public class HFileWriterV2 extends AbstractHFileWriter {
     finishBlock();
     writeInlineBlocks(true);
 
+    if (dataBlockTimeRanges != null && dataBlockTimeRanges.size() > 0) {
+      appendMetaBlock(DataBlockTimeRanges.META_BLOCK_NAME, dataBlockTimeRanges);
+    }
+
     FixedFileTrailer trailer = new FixedFileTrailer(2, 
                                  HFileReaderV2.MAX_MINOR_VERSION);
 
@@ -421,6 +550,11 @@ public class HFileWriterV2 extends AbstractHFileWriter {
     finishClose(trailer);
 
     fsBlockWriter.release();
+
+    BlockCache blockCache = cacheConf.getBlockCache();
+    if (blockCache instanceof LruBlockCache) {
+      ((LruBlockCache) blockCache).unregisterHFile(name);
+    }
   }
 
   @Override
@@ -0,0 +1,343 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * Steers the {@link LruBlockCache} towards per-workload hit ratio targets.
+ * <p>
+ * Once per statistics period {@link #adjust} compares the data block hit
+ * ratio each targeted workload saw during the period with its target. A
+ * workload that falls short is given a larger reserved share of the cache,
+ * which eviction leaves alone while the workload holds less than that share,
+ * and the workloads without a target are admitted into the cache with a lower
+ * probability so they stop pushing its blocks out. When every target is met
+ * the untargeted workloads get their admission probability back step by step,
+ * and workloads that exceed their target by a wide margin give back part of
+ * their reserved share.
+ * <p>
+ * A target that still cannot be met once the reserved shares are at their
+ * limit and the other workloads are admitted at the minimum probability is
+ * reported as capacity exhaustion. Violations and their causes are logged
+ * and available from {@link #getViolations()}.
+ */
+@InterfaceAudience.Private
+class HitRatioSloController {
+  static final Log LOG = LogFactory.getLog(HitRatioSloController.class);
+
+  /**
+   * Comma separated list of <code>workload:target</code> pairs, e.g.
+   * <code>80:0.95,90:0.8</code>, with targets between 0 and 1.
+   */
+  static final String SLO_TARGETS_CONFIG_NAME = "hbase.lru.blockcache.slo.targets";
+
+  /** Hit ratios this close below the target still count as meeting it */
+  static final float TOLERANCE = 0.01f;
+  /** Hit ratio above the target at which a workload gives back share */
+  static final float SURPLUS = 0.05f;
+  /** Reserved share added per period while a target is violated */
+  static final float SHARE_STEP = 0.05f;
+  /** Upper bound of all reserved shares together */
+  static final float MAX_RESERVED_SHARE = 0.8f;
+  /** Lowest admission probability untargeted workloads are throttled to */
+  static final float MIN_ADMISSION = 0.05f;
+  /** Admission probability given back per period once all targets are met */
+  static final float ADMISSION_RECOVERY_STEP = 0.1f;
+  /** Fewer data block requests in a period than this carry no signal */
+  static final long MIN_PERIOD_REQUESTS = 100;
+
+  private final ConcurrentHashMap<Integer, Float> targets =
+      new ConcurrentHashMap<Integer, Float>();
+
+  /* Read by cache operations, replaced wholesale once per period. */
+  private volatile Map<Integer, Float> admission = Collections.emptyMap();
+  private volatile Map<Integer, Float> reservedShares = Collections.emptyMap();
+  private volatile Map<Integer, String> violations = Collections.emptyMap();
+
+  /* Only touched by adjust(). */
+  private final Map<Integer, Long> lastHits = new HashMap<Integer, Long>();
+  private final Map<Integer, Long> lastMisses = new HashMap<Integer, Long>();
+
+  private final Random rng = new Random();
+
+  /**
+   * Parses targets in the format of {@link #SLO_TARGETS_CONFIG_NAME}.
+   * @throws IllegalArgumentException on malformed input
+   */
+  static Map<Integer, Float> parseTargets(String spec) {
+    Map<Integer, Float> parsed = new TreeMap<Integer, Float>();
+    if (spec == null || spec.trim().isEmpty()) {
+      return parsed;
+    }
+    for (String pair : spec.split(",")) {
+      String[] parts = pair.trim().split(":");
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Malformed hit ratio target '" + pair
+            + "' in " + SLO_TARGETS_CONFIG_NAME + ", expected workload:target");
+      }
+      try {
+        parsed.put(Integer.parseInt(parts[0].trim()),
+            checkTarget(Float.parseFloat(parts[1].trim())));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Malformed hit ratio target '" + pair
+            + "' in " + SLO_TARGETS_CONFIG_NAME, e);
+      }
+    }
+    return parsed;
+  }
+
+  private static float checkTarget(float target) {
+    if (target <= 0 || target > 1) {
+      throw new IllegalArgumentException("Hit ratio target must be in (0, 1]: "
+          + target);
+    }
+    return target;
+  }
+
+  void setTarget(int workload, float target) {
+    targets.put(workload, checkTarget(target));
+  }
+
+  void removeTarget(int workload) {
+    targets.remove(workload);
+  }
+
+  Map<Integer, Float> getTargets() {
+    return new TreeMap<Integer, Float>(targets);
+  }
+
+  /**
+   * @return whether a block requested on behalf of the workload should be
+   * admitted into the cache
+   */
+  boolean admit(int workload) {
+    Float probability = admission.get(workload);
+    return probability == null || rng.nextFloat() < probability;
+  }
+
+  /**
+   * @return the workloads eviction should skip because they hold less than
+   * their reserved share of the cache
+   */
+  Set<Integer> getProtectedWorkloads(Map<Integer, Long> occupancy,
+      long totalBlocks) {
+    Map<Integer, Float> shares = reservedShares;
+    if (shares.isEmpty()) {
+      return Collections.emptySet();
+    }
+    Set<Integer> protectedWorkloads = new HashSet<Integer>();
+    for (Map.Entry<Integer, Float> e : shares.entrySet()) {
+      Long blocks = occupancy.get(e.getKey());
+      if (blocks == null || blocks < e.getValue() * totalBlocks) {
+        protectedWorkloads.add(e.getKey());
+      }
+    }
+    return protectedWorkloads;
+  }
+
+  Map<Integer, Float> getAdmissionProbabilities() {
+    return admission;
+  }
+
+  Map<Integer, Float> getReservedShares() {
+    return reservedShares;
+  }
+
+  /**
+   * @return map of violated workload to a description of the violation and
+   * its cause, as of the last period
+   */
+  Map<Integer, String> getViolations() {
+    return violations;
+  }
+
+  /**
+   * Runs one control step. Called once per statistics period.
+   * @param hits cumulative data block hits per workload
+   * @param misses cumulative data block misses per workload
+   * @param occupancy cached blocks per workload
+   * @param totalBlocks cached blocks in total
+   */
+  synchronized void adjust(Map<Integer, Long> hits, Map<Integer, Long> misses,
+      Map<Integer, Long> occupancy, long totalBlocks) {
+    Set<Integer> workloads = new HashSet<Integer>();
+    workloads.addAll(hits.keySet());
+    workloads.addAll(misses.keySet());
+    workloads.addAll(occupancy.keySet());
+    workloads.addAll(targets.keySet());
+
+    Map<Integer, Long> periodHits = new HashMap<Integer, Long>();
+    Map<Integer, Long> periodMisses = new HashMap<Integer, Long>();
+    for (int workload : workloads) {
+      periodHits.put(workload, delta(hits, lastHits, workload));
+      periodMisses.put(workload, delta(misses, lastMisses, workload));
+    }
+
+    Map<Integer, Float> newShares = new HashMap<Integer, Float>();
+    for (Map.Entry<Integer, Float> e : reservedShares.entrySet()) {
+      if (targets.containsKey(e.getKey())) {
+        newShares.put(e.getKey(), e.getValue());
+      }
+    }
+    Map<Integer, Float> newAdmission = new HashMap<Integer, Float>();
+    Set<Integer> donors = new HashSet<Integer>();
+    for (int workload : workloads) {
+      if (!targets.containsKey(workload)) {
+        donors.add(workload);
+        Float probability = admission.get(workload);
+        newAdmission.put(workload, probability == null ? 1.0f : probability);
+      }
+    }
+
+    // Raise the share of workloads that miss their target, release some of
+    // the share of those comfortably above it.
+    Map<Integer, Float> shortfalls = new TreeMap<Integer, Float>();
+    Map<Integer, Float> ratios = new HashMap<Integer, Float>();
+    for (Map.Entry<Integer, Float> e : targets.entrySet()) {
+      int workload = e.getKey();
+      float target = e.getValue();
+      long requests = periodHits.get(workload) + periodMisses.get(workload);
+      if (requests < MIN_PERIOD_REQUESTS) {
+        continue;
+      }
+      float ratio = periodHits.get(workload) / (float) requests;
+      ratios.put(workload, ratio);
+      float share = newShares.containsKey(workload) ? newShares.get(workload) : 0f;
+      if (ratio + TOLERANCE < target) {
+        shortfalls.put(workload, target - ratio);
+        float held = totalBlocks == 0 || !occupancy.containsKey(workload) ? 0f
+            : occupancy.get(workload) / (float) totalBlocks;
+        float room = MAX_RESERVED_SHARE - sum(newShares) + share;
+        float wanted = Math.min(Math.max(share, held) + SHARE_STEP, room);
+        if (wanted > share) {
+          newShares.put(workload, wanted);
+        }
+      } else if (ratio > target + SURPLUS && share > 0) {
+        float released = share - SHARE_STEP / 2;
+        if (released > 0) {
+          newShares.put(workload, released);
+        } else {
+          newShares.remove(workload);
+        }
+      }
+    }
+
+    // Untargeted workloads make room while any target is missed.
+    for (int donor : donors) {
+      float probability = newAdmission.get(donor);
+      if (!shortfalls.isEmpty()) {
+        probability = Math.max(MIN_ADMISSION, probability / 2);
+      } else {
+        probability = Math.min(1.0f, probability + ADMISSION_RECOVERY_STEP);
+      }
+      if (probability >= 1.0f) {
+        newAdmission.remove(donor);
+      } else {
+        newAdmission.put(donor, probability);
+      }
+    }
+
+    Map<Integer, String> newViolations = new TreeMap<Integer, String>();
+    for (Map.Entry<Integer, Float> e : shortfalls.entrySet()) {
+      int workload = e.getKey();
+      String reason = describe(workload, ratios.get(workload),
+          targets.get(workload), newShares, newAdmission, donors);
+      newViolations.put(workload, reason);
+      LOG.warn("Block cache hit ratio SLO violated for workload " + workload
+          + ": " + reason);
+    }
+    for (int workload : violations.keySet()) {
+      if (!newViolations.containsKey(workload) && ratios.containsKey(workload)) {
+        LOG.info("Block cache hit ratio SLO met again for workload " + workload
+            + ": hit ratio " + ratios.get(workload) + ", target "
+            + targets.get(workload));
+      }
+    }
+
+    this.reservedShares = Collections.unmodifiableMap(newShares);
+    this.admission = Collections.unmodifiableMap(newAdmission);
+    this.violations = Collections.unmodifiableMap(newViolations);
+  }
+
+  private String describe(int workload, float ratio, float target,
+      Map<Integer, Float> shares, Map<Integer, Float> newAdmission,
+      Set<Integer> donors) {
+    float share = shares.containsKey(workload) ? shares.get(workload) : 0f;
+    StringBuilder sb = new StringBuilder();
+    sb.append("hit ratio ").append(ratio).append(" below target ").append(target)
+        .append(", reserved share ").append(share);
+    if (donors.isEmpty()) {
+      sb.append("; no untargeted workload to take cache space from");
+      if (sum(shares) >= MAX_RESERVED_SHARE - 1e-6f) {
+        sb.append(", capacity exhausted");
+      }
+      return sb.toString();
+    }
+    boolean donorsAtMinimum = true;
+    for (int donor : donors) {
+      Float probability = newAdmission.get(donor);
+      if (probability == null || probability > MIN_ADMISSION) {
+        donorsAtMinimum = false;
+      }
+    }
+    if (donorsAtMinimum && sum(shares) >= MAX_RESERVED_SHARE - 1e-6f) {
+      sb.append("; capacity exhausted: reserved shares at their limit of ")
+          .append(MAX_RESERVED_SHARE)
+          .append(" and other workloads admitted at the minimum probability ")
+          .append(MIN_ADMISSION);
+    } else if (donorsAtMinimum) {
+      sb.append("; other workloads admitted at the minimum probability ")
+          .append(MIN_ADMISSION).append(", growing reserved share");
+    } else {
+      sb.append("; throttling admission of workloads ").append(donors);
+    }
+    return sb.toString();
+  }
+
+  private static long delta(Map<Integer, Long> current, Map<Integer, Long> last,
+      int workload) {
+    Long now = current.get(workload);
+    if (now == null) {
+      return 0;
+    }
+    Long before = last.put(workload, now);
+    // Counters only go backwards when they were reset
+    return before == null || before > now ? now : now - before;
+  }
+
+  private static float sum(Map<Integer, Float> shares) {
+    float sum = 0;
+    for (float share : shares.values()) {
+      sum += share;
+    }
+    return sum;
+  }
+}
@@ -36,6 +36,7 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.BlockType.BlockCategory;
 import org.apache.hadoop.hbase.io.hfile.CachedBlock.BlockPriority;
 import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache;
 import org.apache.hadoop.hbase.util.*;
@@ -88,6 +89,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
 
   static final String LRU_MIN_FACTOR_CONFIG_NAME = "hbase.lru.blockcache.min.factor";
   static final String LRU_ACCEPTABLE_FACTOR_CONFIG_NAME = "hbase.lru.blockcache.acceptable.factor";
+  static final String LRU_PINNED_FACTOR_CONFIG_NAME = "hbase.lru.blockcache.pinned.factor";
 
   /** Default Configuration Parameters*/
 
@@ -104,6 +106,12 @@ public class LruBlockCache implements BlockCache, HeapSize {
   static final float DEFAULT_MULTI_FACTOR = 0.50f;
   static final float DEFAULT_MEMORY_FACTOR = 0.25f;
 
+  /** Pinned region for index and bloom blocks, disabled by default */
+  static final float DEFAULT_PINNED_FACTOR = 0.0f;
+
+  /** Table pinned blocks are accounted to when their file is not registered */
+  static final String UNKNOWN_TABLE = "unknown";
+
   /** Statistics thread */
   static final int statThreadPeriod = 60 * 1;
 
@@ -116,11 +124,15 @@ public class LruBlockCache implements BlockCache, HeapSize {
   /** Map of workload ID to its throttle threshold, revised every PERIOD seconds **/
   private static HashMap<Integer, Float> thresholdMap = new HashMap<Integer, Float>();
 
-  private static HashMap<Integer, AtomicLong> hitsCount = new HashMap<Integer, AtomicLong>();
-  private static HashMap<Integer, AtomicLong> missCount = new HashMap<Integer, AtomicLong>();
+  private static Map<Integer, AtomicLong> hitsCount =
+      new ConcurrentHashMap<Integer, AtomicLong>();
+  private static Map<Integer, AtomicLong> missCount =
+      new ConcurrentHashMap<Integer, AtomicLong>();
 
-  private static HashMap<Integer, AtomicLong> periodichitsCount = new HashMap<Integer, AtomicLong>();
-  private static HashMap<Integer, AtomicLong> periodicmissCount = new HashMap<Integer, AtomicLong>();
+  private static Map<Integer, AtomicLong> periodichitsCount =
+      new ConcurrentHashMap<Integer, AtomicLong>();
+  private static Map<Integer, AtomicLong> periodicmissCount =
+      new ConcurrentHashMap<Integer, AtomicLong>();
 
 
   private static Random rng = new Random();
@@ -180,13 +192,31 @@ public class LruBlockCache implements BlockCache, HeapSize {
   /** In-memory bucket size */
   private float memoryFactor;
 
+  /** Pinned region size, for index and bloom blocks */
+  private float pinnedFactor;
+
+  /** Current size of the pinned blocks */
+  private final AtomicLong pinnedSize = new AtomicLong(0);
+
+  /** Current size of the pinned blocks, per table */
+  private final ConcurrentHashMap<String, AtomicLong> pinnedSizePerTable =
+      new ConcurrentHashMap<String, AtomicLong>();
+
+  /** Table of each open HFile, used to account pinned blocks to tables */
+  private final ConcurrentHashMap<String, HFileTable> hfileTables =
+      new ConcurrentHashMap<String, HFileTable>();
+
+  /** Steers workloads towards their hit ratio targets, if any are set */
+  private final HitRatioSloController sloController = new HitRatioSloController();
+
   /** Overhead of the structure itself */
   private long overhead;
 
   /** Where to send victims (blocks evicted from the cache) */
   private BucketCache victimHandler = null;
 
-  private static Map<Integer, AtomicLong> occupancy = new HashMap<Integer, AtomicLong>();
+  private static Map<Integer, AtomicLong> occupancy =
+      new ConcurrentHashMap<Integer, AtomicLong>();
 
   /** Total number of accesses to this cache, reset every log interval**/
   private static long accesses = 0;
@@ -228,7 +258,12 @@ public class LruBlockCache implements BlockCache, HeapSize {
         conf.getFloat(LRU_ACCEPTABLE_FACTOR_CONFIG_NAME, DEFAULT_ACCEPTABLE_FACTOR),
         DEFAULT_SINGLE_FACTOR,
         DEFAULT_MULTI_FACTOR,
-        DEFAULT_MEMORY_FACTOR);
+        DEFAULT_MEMORY_FACTOR,
+        conf.getFloat(LRU_PINNED_FACTOR_CONFIG_NAME, DEFAULT_PINNED_FACTOR));
+    for (Map.Entry<Integer, Float> target : HitRatioSloController.parseTargets(
+        conf.get(HitRatioSloController.SLO_TARGETS_CONFIG_NAME)).entrySet()) {
+      sloController.setTarget(target.getKey(), target.getValue());
+    }
   }
 
   public LruBlockCache(long maxSize, long blockSize, Configuration conf) {
@@ -253,6 +288,24 @@ public class LruBlockCache implements BlockCache, HeapSize {
                        int mapInitialSize, float mapLoadFactor, int mapConcurrencyLevel,
                        float minFactor, float acceptableFactor,
                        float singleFactor, float multiFactor, float memoryFactor) {
+    this(maxSize, blockSize, evictionThread, mapInitialSize, mapLoadFactor,
+        mapConcurrencyLevel, minFactor, acceptableFactor, singleFactor,
+        multiFactor, memoryFactor, DEFAULT_PINNED_FACTOR);
+  }
+
+  /**
+   * Configurable constructor with a pinned region for index and bloom blocks.
+   * The single, multi and in-memory buckets share what the pinned region
+   * leaves of the cache.
+   * @param pinnedFactor percentage of total size for pinned index and bloom
+   * blocks, 0 to disable pinning
+   * @see #LruBlockCache(long, long, boolean, int, float, int, float, float, float, float, float)
+   */
+  public LruBlockCache(long maxSize, long blockSize, boolean evictionThread,
+                       int mapInitialSize, float mapLoadFactor, int mapConcurrencyLevel,
+                       float minFactor, float acceptableFactor,
+                       float singleFactor, float multiFactor, float memoryFactor,
+                       float pinnedFactor) {
     if(singleFactor + multiFactor + memoryFactor != 1) {
       throw new IllegalArgumentException("Single, multi, and memory factors " +
           " should total 1.0");
@@ -260,9 +313,12 @@ public class LruBlockCache implements BlockCache, HeapSize {
     if(minFactor >= acceptableFactor) {
       throw new IllegalArgumentException("minFactor must be smaller than acceptableFactor");
     }
-    if(minFactor >= 1.0f || acceptableFactor >= 1.0f) {
+    if(minFactor >= 1.0f || acceptableFactor >= 1.0f || pinnedFactor >= 1.0f) {
       throw new IllegalArgumentException("all factors must be < 1");
     }
+    if(pinnedFactor < 0) {
+      throw new IllegalArgumentException("pinnedFactor must not be negative");
+    }
     this.maxSize = maxSize;
     this.blockSize = blockSize;
     map = new ConcurrentHashMap<BlockCacheKey,CachedBlock>(mapInitialSize,
@@ -274,6 +330,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
     this.singleFactor = singleFactor;
     this.multiFactor = multiFactor;
     this.memoryFactor = memoryFactor;
+    this.pinnedFactor = pinnedFactor;
     this.stats = new CacheStats();
     this.count = new AtomicLong(0);
     this.elements = new AtomicLong(0);
@@ -326,6 +383,21 @@ public class LruBlockCache implements BlockCache, HeapSize {
   // Clone of above allowing ID tagging of blocks
 
   public void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, boolean inMemory, int customId) {
+    cacheBlock(cacheKey, buf,
+        inMemory ? BlockPriority.MEMORY : BlockPriority.SINGLE, customId);
+  }
+
+  /**
+   * Cache the block with an explicit starting priority rather than deriving it
+   * from the in-memory flag.  Used when a block inherits the priority of the
+   * cached block(s) it was rewritten from, e.g. by a compaction.
+   * @param cacheKey block's cache key
+   * @param buf block buffer
+   * @param priority priority the block enters the cache with
+   * @param customId ID of the workload the block is cached on behalf of
+   */
+  void cacheBlock(BlockCacheKey cacheKey, Cacheable buf, BlockPriority priority,
+      int customId) {
     if (customId != 0 && customId != 80 && customId !=90 && customId != 40) {
       return;
     }
@@ -335,11 +407,23 @@ public class LruBlockCache implements BlockCache, HeapSize {
       return;
       //throw new RuntimeException("Cached an already cached block");
     }
-    cb = new CachedBlock(cacheKey, buf, count.incrementAndGet(), inMemory);
+    if (isDataBlock(buf) && !sloController.admit(customId)) {
+      return;
+    }
+    if (isPinnable(buf)) {
+      priority = BlockPriority.PINNED;
+    }
+    cb = new CachedBlock(cacheKey, buf, count.incrementAndGet(), priority);
     cb.setCustomId(customId);
     long newSize = updateSizeMetrics(cb, false);
     map.put(cacheKey, cb);
     elements.incrementAndGet();
+    if (priority == BlockPriority.PINNED) {
+      HFileTable hfileTable = hfileTables.get(cacheKey.getHfileName());
+      String table = hfileTable == null ? null : hfileTable.table;
+      cb.setPinnedTable(table == null ? UNKNOWN_TABLE : table);
+      updatePinnedSizeMetrics(cb, false);
+    }
 
     if (occupancy.containsKey(customId)) {
       occupancy.get(customId).incrementAndGet();
@@ -350,7 +434,50 @@ public class LruBlockCache implements BlockCache, HeapSize {
     if(newSize > acceptableSize() && !evictionInProgress) {
       LOG.info("FOr RUN EVOCTION FROM CACHE BLOCK");
       runEviction();
+    } else if (priority == BlockPriority.PINNED &&
+        pinnedSize.get() > pinnedMaxSize() && !evictionInProgress) {
+      runEviction();
+    }
+  }
+
+  /**
+   * Whether the block goes to the pinned region: index blocks and bloom
+   * chunks, as long as the pinned region is enabled.
+   */
+  private boolean isPinnable(Cacheable buf) {
+    if (pinnedFactor <= 0 || buf.getBlockType() == null) {
+      return false;
+    }
+    BlockCategory category = buf.getBlockType().getCategory();
+    return category == BlockCategory.INDEX || category == BlockCategory.BLOOM;
+  }
+
+  /**
+   * Only data blocks are subject to hit ratio SLO admission control.
+   */
+  private static boolean isDataBlock(Cacheable buf) {
+    return buf.getBlockType() == null
+        || buf.getBlockType().getCategory() == BlockCategory.DATA;
+  }
+
+  /**
+   * Updates the pinned size counters, overall and for the table of the block.
+   */
+  private void updatePinnedSizeMetrics(CachedBlock cb, boolean evict) {
+    long heapsize = cb.heapSize();
+    if (evict) {
+      heapsize *= -1;
+    }
+    pinnedSize.addAndGet(heapsize);
+    AtomicLong tableSize = pinnedSizePerTable.get(cb.getPinnedTable());
+    if (tableSize == null) {
+      AtomicLong newTableSize = new AtomicLong(0);
+      tableSize = pinnedSizePerTable.putIfAbsent(cb.getPinnedTable(), newTableSize);
+      if (tableSize == null) {
+        tableSize = newTableSize;
+      }
     }
+    tableSize.addAndGet(heapsize);
   }
 
   /**
@@ -490,6 +617,26 @@ public class LruBlockCache implements BlockCache, HeapSize {
     return returnPair;
   }
 
+  /**
+   * Returns the cache entry for the given key without counting a hit or miss
+   * and without updating its access time or priority.
+   * @param cacheKey block's cache key
+   * @return the cached block, or null if it is not resident in this cache
+   */
+  public CachedBlock getCachedBlock(BlockCacheKey cacheKey) {
+    return map.get(cacheKey);
+  }
+
+  /**
+   * Whether a block served by {@link #getBlock} came from this cache rather
+   * than from its victim cache. Only looks at the map when there is a victim
+   * cache at all.
+   * @param cacheKey block's cache key
+   */
+  public boolean isL1Resident(BlockCacheKey cacheKey) {
+    return victimHandler == null || map.containsKey(cacheKey);
+  }
+
   /**                                                  n
    * Whether the cache contains block with specified cacheKey
    * @param cacheKey
@@ -541,9 +688,15 @@ public class LruBlockCache implements BlockCache, HeapSize {
    * @return the heap size of evicted block
    */
   protected long evictBlock(CachedBlock block, boolean evictedByEvictionProcess) {
-    map.remove(block.getCacheKey());
+    if (map.remove(block.getCacheKey()) == null) {
+      // Already evicted by a concurrent caller
+      return 0;
+    }
     updateSizeMetrics(block, true);
     elements.decrementAndGet();
+    if (block.getPriority() == BlockPriority.PINNED) {
+      updatePinnedSizeMetrics(block, true);
+    }
 
     if (occupancy.containsKey(block.getCustomId())) {
       occupancy.get(block.getCustomId()).decrementAndGet();
@@ -582,6 +735,7 @@ public class LruBlockCache implements BlockCache, HeapSize {
       evictionInProgress = true;
       long currentSize = this.size.get();
       long bytesToFree = currentSize - minSize();
+      long pinnedOverflow = pinnedSize.get() - pinnedMaxSize();
 
       if (LOG.isDebugEnabled()) {
         LOG.debug("Block cache LRU eviction started; Attempting to free " +
@@ -589,6 +743,16 @@ public class LruBlockCache implements BlockCache, HeapSize {
             StringUtils.byteDesc(currentSize));
       }
 
+      // The pinned region only gives up its least recently used blocks when
+      // it has grown past its own capacity. If that overflow is all that
+      // brought us here, the other buckets are left alone.
+      if (pinnedOverflow > 0) {
+        bytesToFree -= freePinned(pinnedOverflow);
+        if (currentSize <= acceptableSize()) {
+          return;
+        }
+      }
+
       if(bytesToFree <= 0) return;
 
       // Instantiate priority buckets
@@ -599,8 +763,16 @@ public class LruBlockCache implements BlockCache, HeapSize {
       BlockBucket bucketMemory = new BlockBucket(bytesToFree, blockSize,
           memorySize());
 
+      // Workloads holding less than their reserved share keep their blocks
+      Set<Integer> protectedWorkloads = sloController.getProtectedWorkloads(
+          snapshot(occupancy), elements.get());
+
       // Scan entire map putting into appropriate buckets
       for(CachedBlock cachedBlock : map.values()) {
+        if (!protectedWorkloads.isEmpty()
+            && protectedWorkloads.contains(cachedBlock.getCustomId())) {
+          continue;
+        }
         switch(cachedBlock.getPriority()) {
           case SINGLE: {
             bucketSingle.add(cachedBlock);
@@ -614,6 +786,10 @@ public class LruBlockCache implements BlockCache, HeapSize {
             bucketMemory.add(cachedBlock);
             break;
           }
+          case PINNED: {
+            // Accounted separately, see below
+            break;
+          }
         }
       }
 
@@ -638,6 +814,15 @@ public class LruBlockCache implements BlockCache, HeapSize {
         remainingBuckets--;
       }
 
+      // Hard memory pressure: evicting unpinned blocks could not bring the
+      // cache back under the acceptable size, so the pinned blocks have to go.
+      if (this.size.get() > acceptableSize() && pinnedSize.get() > 0) {
+        long pinnedFreed = freePinned(this.size.get() - minSize());
+        LOG.warn("Block cache under hard memory pressure; evicted " +
+            StringUtils.byteDesc(pinnedFreed) + " of pinned index and bloom blocks");
+        bytesFreed += pinnedFreed;
+      }
+
       if (LOG.isDebugEnabled()) {
         long single = bucketSingle.totalSize();
         long multi = bucketMulti.totalSize();
@@ -656,6 +841,22 @@ public class LruBlockCache implements BlockCache, HeapSize {
     }
   }
 
+  /**
+   * Evicts the least recently used pinned blocks.
+   * @param toFree number of bytes to free, must be positive
+   * @return the number of bytes freed
+   */
+  private long freePinned(long toFree) {
+    BlockBucket bucketPinned = new BlockBucket(toFree, blockSize,
+        pinnedMaxSize());
+    for (CachedBlock cachedBlock : map.values()) {
+      if (cachedBlock.getPriority() == BlockPriority.PINNED) {
+        bucketPinned.add(cachedBlock);
+      }
+    }
+    return bucketPinned.free(toFree);
+  }
+
   /**
    * Used to group blocks into priority buckets.  There will be a BlockBucket
    * for each priority (single, multi, memory).  Once bucketed, the eviction
@@ -752,6 +953,89 @@ public class LruBlockCache implements BlockCache, HeapSize {
     return this.elements.get();
   }
 
+  /**
+   * Get the size of the index and bloom blocks held in the pinned region.
+   * @return pinned size in bytes
+   */
+  public long getPinnedSize() {
+    return this.pinnedSize.get();
+  }
+
+  /**
+   * Get the size of the index and bloom blocks held in the pinned region,
+   * per table. Blocks of files that were not registered with
+   * {@link #registerHFile(String, Path)} are accounted to
+   * {@value #UNKNOWN_TABLE}.
+   * @return map of table name to pinned size in bytes
+   */
+  public Map<String, Long> getPinnedSizePerTable() {
+    Map<String, Long> sizes = new TreeMap<String, Long>();
+    for (Map.Entry<String, AtomicLong> e : pinnedSizePerTable.entrySet()) {
+      long tableSize = e.getValue().get();
+      if (tableSize > 0) {
+        sizes.put(e.getKey(), tableSize);
+      }
+    }
+    return sizes;
+  }
+
+  /**
+   * Records the table an HFile belongs to, so its pinned blocks can be
+   * accounted to that table.
+   * @param hfileName name of the HFile, as used in its cache keys
+   * @param path path of the HFile, in the usual table/region/family layout
+   */
+  public void registerHFile(String hfileName, Path path) {
+    if (pinnedFactor <= 0) {
+      return;
+    }
+    BlockCacheColumnFamilySummary summary = path == null ? null :
+        BlockCacheColumnFamilySummary.createFromStoreFilePath(path);
+    String table = summary == null ? null : summary.getTable();
+    synchronized (hfileTables) {
+      HFileTable hfileTable = hfileTables.get(hfileName);
+      if (hfileTable == null) {
+        hfileTables.put(hfileName, new HFileTable(table));
+      } else {
+        hfileTable.refs++;
+        if (hfileTable.table == null) {
+          hfileTable.table = table;
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops a registration of an HFile by one of its readers or writers. The
+   * table of the file is forgotten once they are all closed; its blocks that
+   * remain pinned stay accounted to the table.
+   * @param hfileName name of the HFile, as used in its cache keys
+   */
+  public void unregisterHFile(String hfileName) {
+    if (pinnedFactor <= 0) {
+      return;
+    }
+    synchronized (hfileTables) {
+      HFileTable hfileTable = hfileTables.get(hfileName);
+      if (hfileTable != null && --hfileTable.refs == 0) {
+        hfileTables.remove(hfileName);
+      }
+    }
+  }
+
+  /**
+   * The table of an HFile registered with the cache, and how many of its
+   * readers and writers registered it.
+   */
+  private static class HFileTable {
+    volatile String table;
+    int refs = 1;
+
+    HFileTable(String table) {
+      this.table = table;
+    }
+  }
+
   /**
    * Get the number of eviction runs that have occurred
    */
@@ -836,10 +1120,67 @@ public class LruBlockCache implements BlockCache, HeapSize {
     }
     @Override
     public void run() {
+      lru.adjustSloController();
       lru.logStats();
     }
   }
 
+  /**
+   * Runs one step of the hit ratio SLO controller over the per-workload
+   * counters collected in {@link #getBlock} and {@link #cacheBlock}.
+   */
+  void adjustSloController() {
+    if (sloController.getTargets().isEmpty()
+        && sloController.getAdmissionProbabilities().isEmpty()
+        && sloController.getReservedShares().isEmpty()) {
+      return;
+    }
+    sloController.adjust(snapshot(hitsCount), snapshot(missCount),
+        snapshot(occupancy), elements.get());
+  }
+
+  private static Map<Integer, Long> snapshot(Map<Integer, AtomicLong> counters) {
+    Map<Integer, Long> copy = new HashMap<Integer, Long>();
+    for (Map.Entry<Integer, AtomicLong> e : counters.entrySet()) {
+      copy.put(e.getKey(), e.getValue().get());
+    }
+    return copy;
+  }
+
+  /**
+   * Sets the data block hit ratio the cache should try to give a workload.
+   * Workloads without a target give up cache space to those missing theirs.
+   * Initial targets come from {@value HitRatioSloController#SLO_TARGETS_CONFIG_NAME}.
+   * @param workload workload ID
+   * @param target hit ratio between 0 (exclusive) and 1
+   */
+  public void setHitRatioTarget(int workload, float target) {
+    sloController.setTarget(workload, target);
+  }
+
+  public void removeHitRatioTarget(int workload) {
+    sloController.removeTarget(workload);
+  }
+
+  /**
+   * @return map of workload ID to its hit ratio target
+   */
+  public Map<Integer, Float> getHitRatioTargets() {
+    return sloController.getTargets();
+  }
+
+  /**
+   * @return map of workload ID to the reason its hit ratio target was missed
+   * in the last statistics period
+   */
+  public Map<Integer, String> getSloViolations() {
+    return sloController.getViolations();
+  }
+
+  HitRatioSloController getSloController() {
+    return sloController;
+  }
+
   public void logStats() {
     if (!LOG.isDebugEnabled()) return;
     // Log size
@@ -861,7 +1202,9 @@ public class LruBlockCache implements BlockCache, HeapSize {
         (stats.getHitCachingCount() == 0 ? "0" : (StringUtils.formatPercent(stats.getHitCachingRatio(), 2)+ ", ")) + ", " +
         "evictions=" + stats.getEvictionCount() + ", " +
         "evicted=" + stats.getEvictedCount() + ", " +
-        "evictedPerRun=" + stats.evictedPerEviction());
+        "evictedPerRun=" + stats.evictedPerEviction() + ", " +
+        "pinned=" + StringUtils.byteDesc(pinnedSize.get()) + ", " +
+        "pinnedMax=" + StringUtils.byteDesc(pinnedMaxSize()));
 
 
     Set<Integer> keys = new TreeSet<Integer>();
@@ -993,8 +1336,8 @@ public class LruBlockCache implements BlockCache, HeapSize {
   }
 
   public final static long CACHE_FIXED_OVERHEAD = ClassSize.align(
-      (3 * Bytes.SIZEOF_LONG) + (9 * ClassSize.REFERENCE) +
-          (5 * Bytes.SIZEOF_FLOAT) + Bytes.SIZEOF_BOOLEAN
+      (3 * Bytes.SIZEOF_LONG) + (13 * ClassSize.REFERENCE) +
+          (6 * Bytes.SIZEOF_FLOAT) + Bytes.SIZEOF_BOOLEAN
           + ClassSize.OBJECT);
 
   // HeapSize implementation
@@ -1052,13 +1395,19 @@ public class LruBlockCache implements BlockCache, HeapSize {
     return (long)Math.floor(this.maxSize * this.minFactor);
   }
   private long singleSize() {
-    return (long)Math.floor(this.maxSize * this.singleFactor * this.minFactor);
+    return (long)Math.floor(unpinnedMaxSize() * this.singleFactor * this.minFactor);
   }
   private long multiSize() {
-    return (long)Math.floor(this.maxSize * this.multiFactor * this.minFactor);
+    return (long)Math.floor(unpinnedMaxSize() * this.multiFactor * this.minFactor);
   }
   private long memorySize() {
-    return (long)Math.floor(this.maxSize * this.memoryFactor * this.minFactor);
+    return (long)Math.floor(unpinnedMaxSize() * this.memoryFactor * this.minFactor);
+  }
+  private long pinnedMaxSize() {
+    return (long)Math.floor(this.maxSize * this.pinnedFactor);
+  }
+  private long unpinnedMaxSize() {
+    return this.maxSize - pinnedMaxSize();
   }
 
   public void shutdown() {
@@ -1078,6 +1427,8 @@ public class LruBlockCache implements BlockCache, HeapSize {
   /** Clears the cache. Used in tests. */
   public void clearCache() {
     map.clear();
+    pinnedSize.set(0);
+    pinnedSizePerTable.clear();
   }
 
   /**
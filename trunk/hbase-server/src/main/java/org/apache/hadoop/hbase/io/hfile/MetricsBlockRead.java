@@ -0,0 +1,146 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.hbase.io.hfile;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.CompatibilitySingletonFactory;
+import org.apache.hadoop.hbase.io.hfile.BlockType.BlockCategory;
+import org.apache.hadoop.metrics2.MetricHistogram;
+
+/**
+ * Class used to push the latencies of an HFile's block reads into the metrics
+ * subsystem. Each reader owns one, which tags every latency with the table the
+ * file belongs to, and the caller supplies the workload id and block type.
+ * Latencies are passed in nanoseconds and published in microseconds.
+ * <p>
+ * The histograms are looked up in the source once per workload, block
+ * category and metric, and kept here, so that a block read only costs the
+ * histogram update.
+ */
+@InterfaceAudience.Private
+public class MetricsBlockRead {
+
+  private static final int FS_READ = 0;
+  private static final int L1_HIT = 1;
+  private static final int L2_HIT = 2;
+  private static final int DECODE = 3;
+  private static final String[] METRICS = {
+    MetricsBlockReadSource.FS_READ_TIME,
+    MetricsBlockReadSource.L1_HIT_TIME,
+    MetricsBlockReadSource.L2_HIT_TIME,
+    MetricsBlockReadSource.DECODE_TIME
+  };
+  private static final BlockCategory[] CATEGORIES = BlockCategory.values();
+
+  private final MetricsBlockReadSource source;
+  private final String table;
+
+  /**
+   * The histograms of each workload seen so far. Copied on write, as new
+   * workloads are rare and there are few of them.
+   */
+  private volatile WorkloadHistograms[] workloads = new WorkloadHistograms[0];
+
+  /**
+   * @param path path of the HFile, in the usual table/region/family layout
+   */
+  public MetricsBlockRead(Path path) {
+    this(CompatibilitySingletonFactory.getInstance(MetricsBlockReadSource.class), path);
+  }
+
+  MetricsBlockRead(MetricsBlockReadSource source, Path path) {
+    this.source = source;
+    BlockCacheColumnFamilySummary summary = path == null ? null
+        : BlockCacheColumnFamilySummary.createFromStoreFilePath(path);
+    this.table = summary == null ? LruBlockCache.UNKNOWN_TABLE : summary.getTable();
+  }
+
+  public String getTable() {
+    return table;
+  }
+
+  public void updateFsRead(int customId, BlockType blockType, long timeNanos) {
+    histogram(customId, blockType, FS_READ).add(timeNanos / 1000);
+  }
+
+  public void updateCacheHit(int customId, BlockType blockType, boolean l1,
+      long timeNanos) {
+    histogram(customId, blockType, l1 ? L1_HIT : L2_HIT).add(timeNanos / 1000);
+  }
+
+  public void updateDecode(int customId, BlockType blockType, long timeNanos) {
+    histogram(customId, blockType, DECODE).add(timeNanos / 1000);
+  }
+
+  private MetricHistogram histogram(int customId, BlockType blockType, int metric) {
+    BlockCategory category = blockType == null ? BlockCategory.UNKNOWN
+        : blockType.getCategory();
+    int index = category.ordinal() * METRICS.length + metric;
+    AtomicReferenceArray<MetricHistogram> histograms = workload(customId).histograms;
+    MetricHistogram histogram = histograms.get(index);
+    if (histogram == null) {
+      // The source hands out the same histogram for the same name, so a race
+      // here only costs a second lookup.
+      histogram = source.getHistogram(String.valueOf(customId), category.name(), table,
+          METRICS[metric]);
+      histograms.set(index, histogram);
+    }
+    return histogram;
+  }
+
+  private WorkloadHistograms workload(int customId) {
+    WorkloadHistograms[] current = workloads;
+    for (WorkloadHistograms w : current) {
+      if (w.customId == customId) {
+        return w;
+      }
+    }
+    synchronized (this) {
+      current = workloads;
+      for (WorkloadHistograms w : current) {
+        if (w.customId == customId) {
+          return w;
+        }
+      }
+      WorkloadHistograms[] updated = new WorkloadHistograms[current.length + 1];
+      System.arraycopy(current, 0, updated, 0, current.length);
+      WorkloadHistograms w = new WorkloadHistograms(customId);
+      updated[current.length] = w;
+      workloads = updated;
+      return w;
+    }
+  }
+
+  /**
+   * The histograms of one workload, indexed by block category and metric.
+   */
+  private static class WorkloadHistograms {
+    final int customId;
+    final AtomicReferenceArray<MetricHistogram> histograms =
+        new AtomicReferenceArray<MetricHistogram>(CATEGORIES.length * METRICS.length);
+
+    WorkloadHistograms(int customId) {
+      this.customId = customId;
+    }
+  }
+}
@@ -22,14 +22,11 @@ package org.apache.hadoop.hbase.io.hfile.bucket;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
-import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
-import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache.BucketEntry;
 
 /**
  * This class is used to allocate a block with specified size and free the block
@@ -302,63 +299,79 @@ public final class BucketAllocator {
   }
 
   /**
-   * Rebuild the allocator's data structures from a persisted map.
+   * Rebuild the allocator's data structures from a persisted index.
    * @param availableSpace capacity of cache
-   * @param map A map stores the block key and BucketEntry(block's meta data
-   *          like offset, length)
+   * @param index index of the blocks' meta data like offset, length
    * @param realCacheSize cached data size statistics for bucket cache
    * @throws BucketAllocatorException
    */
-  BucketAllocator(long availableSpace, Map<BlockCacheKey, BucketEntry> map,
-      AtomicLong realCacheSize) throws BucketAllocatorException {
+  BucketAllocator(long availableSpace, OffHeapBlockIndex index,
+      final AtomicLong realCacheSize) throws BucketAllocatorException {
     this(availableSpace);
 
     // each bucket has an offset, sizeindex. probably the buckets are too big
     // in our default state. so what we do is reconfigure them according to what
     // we've found. we can only reconfigure each bucket once; if more than once,
     // we know there's a bug, so we just log the info, throw, and start again...
-    boolean[] reconfigured = new boolean[buckets.length];
-    for (Map.Entry<BlockCacheKey, BucketEntry> entry : map.entrySet()) {
-      long foundOffset = entry.getValue().offset();
-      int foundLen = entry.getValue().getLength();
-      int bucketSizeIndex = -1;
-      for (int i = 0; i < BUCKET_SIZES.length; ++i) {
-        if (foundLen <= BUCKET_SIZES[i]) {
-          bucketSizeIndex = i;
-          break;
+    final boolean[] reconfigured = new boolean[buckets.length];
+    final BucketAllocatorException[] failure = new BucketAllocatorException[1];
+    index.scan(new OffHeapBlockIndex.Visitor() {
+      @Override
+      public void visit(OffHeapBlockIndex.Entry entry) {
+        if (failure[0] != null) return;
+        try {
+          addAllocation(entry.getBucketOffset(), entry.getLength(),
+              reconfigured, realCacheSize);
+        } catch (BucketAllocatorException bae) {
+          failure[0] = bae;
         }
       }
-      if (bucketSizeIndex == -1) {
-        throw new BucketAllocatorException(
-            "Can't match bucket size for the block with size " + foundLen);
-      }
-      int bucketNo = (int) (foundOffset / (long) BUCKET_CAPACITY);
-      if (bucketNo < 0 || bucketNo >= buckets.length)
-        throw new BucketAllocatorException("Can't find bucket " + bucketNo
-            + ", total buckets=" + buckets.length
-            + "; did you shrink the cache?");
-      Bucket b = buckets[bucketNo];
-      if (reconfigured[bucketNo] == true) {
-        if (b.sizeIndex() != bucketSizeIndex)
-          throw new BucketAllocatorException(
-              "Inconsistent allocation in bucket map;");
-      } else {
-        if (!b.isCompletelyFree())
-          throw new BucketAllocatorException("Reconfiguring bucket "
-              + bucketNo + " but it's already allocated; corrupt data");
-        // Need to remove the bucket from whichever list it's currently in at
-        // the moment...
-        BucketSizeInfo bsi = bucketSizeInfos[bucketSizeIndex];
-        BucketSizeInfo oldbsi = bucketSizeInfos[b.sizeIndex()];
-        oldbsi.removeBucket(b);
-        bsi.instantiateBucket(b);
-        reconfigured[bucketNo] = true;
+    });
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+  }
+
+  private void addAllocation(long foundOffset, int foundLen,
+      boolean[] reconfigured, AtomicLong realCacheSize)
+      throws BucketAllocatorException {
+    int bucketSizeIndex = -1;
+    for (int i = 0; i < BUCKET_SIZES.length; ++i) {
+      if (foundLen <= BUCKET_SIZES[i]) {
+        bucketSizeIndex = i;
+        break;
       }
-      realCacheSize.addAndGet(foundLen);
-      buckets[bucketNo].addAllocation(foundOffset);
-      usedSize += buckets[bucketNo].itemAllocationSize();
-      bucketSizeInfos[bucketSizeIndex].blockAllocated(b);
     }
+    if (bucketSizeIndex == -1) {
+      throw new BucketAllocatorException(
+          "Can't match bucket size for the block with size " + foundLen);
+    }
+    int bucketNo = (int) (foundOffset / (long) BUCKET_CAPACITY);
+    if (bucketNo < 0 || bucketNo >= buckets.length)
+      throw new BucketAllocatorException("Can't find bucket " + bucketNo
+          + ", total buckets=" + buckets.length
+          + "; did you shrink the cache?");
+    Bucket b = buckets[bucketNo];
+    if (reconfigured[bucketNo] == true) {
+      if (b.sizeIndex() != bucketSizeIndex)
+        throw new BucketAllocatorException(
+            "Inconsistent allocation in bucket map;");
+    } else {
+      if (!b.isCompletelyFree())
+        throw new BucketAllocatorException("Reconfiguring bucket "
+            + bucketNo + " but it's already allocated; corrupt data");
+      // Need to remove the bucket from whichever list it's currently in at
+      // the moment...
+      BucketSizeInfo bsi = bucketSizeInfos[bucketSizeIndex];
+      BucketSizeInfo oldbsi = bucketSizeInfos[b.sizeIndex()];
+      oldbsi.removeBucket(b);
+      bsi.instantiateBucket(b);
+      reconfigured[bucketNo] = true;
+    }
+    realCacheSize.addAndGet(foundLen);
+    buckets[bucketNo].addAllocation(foundOffset);
+    usedSize += buckets[bucketNo].itemAllocationSize();
+    bucketSizeInfos[bucketSizeIndex].blockAllocated(b);
   }
 
   public String getInfo() {
@@ -29,6 +29,7 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -47,6 +48,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.io.hfile.BlockCache;
 import org.apache.hadoop.hbase.io.hfile.BlockCacheColumnFamilySummary;
@@ -67,8 +69,10 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * BucketCache uses {@link BucketAllocator} to allocate/free block, and use
- * {@link BucketCache#ramCache} and {@link BucketCache#backingMap} in order to
- * determine whether a given element hit. It could uses memory
+ * {@link BucketCache#ramCache} and {@link BucketCache#backingIndex} in order to
+ * determine whether a given element hit. The blocks written to the IOEngine
+ * are indexed off heap by {@link OffHeapBlockIndex}, so a large cache costs
+ * no heap per cached block. It could uses memory
  * {@link ByteBufferIOEngine} or file {@link FileIOEngine}to store/read the
  * block data.
  * 
@@ -102,13 +106,16 @@ public class BucketCache implements BlockCache, HeapSize {
   final static int DEFAULT_WRITER_THREADS = 3;
   final static int DEFAULT_WRITER_QUEUE_ITEMS = 64;
 
+  /** Number of independently locked segments of the block index */
+  private static final int INDEX_CONCURRENCY_LEVEL = 256;
+
   // Store/read block data
   IOEngine ioEngine;
 
   // Store the block in this map before writing it to cache
   private ConcurrentHashMap<BlockCacheKey, RAMQueueEntry> ramCache;
-  // In this map, store the block's meta data like offset, length
-  private ConcurrentHashMap<BlockCacheKey, BucketEntry> backingMap;
+  // In this index, store the block's meta data like offset, length
+  private final OffHeapBlockIndex backingIndex;
 
   /**
    * Flag if the cache is enabled or not... We shut it off if there are IO
@@ -215,7 +222,9 @@ public class BucketCache implements BlockCache, HeapSize {
     assert writerQueues.size() == writerThreads.length;
     this.ramCache = new ConcurrentHashMap<BlockCacheKey, RAMQueueEntry>();
 
-    this.backingMap = new ConcurrentHashMap<BlockCacheKey, BucketEntry>((int) blockNumCapacity);
+    // Sized for blocks of the default size; segments grow for smaller ones
+    this.backingIndex = new OffHeapBlockIndex(
+        capacity / HColumnDescriptor.DEFAULT_BLOCKSIZE, INDEX_CONCURRENCY_LEVEL);
 
     if (ioEngine.isPersistent() && persistencePath != null) {
       try {
@@ -293,7 +302,8 @@ public class BucketCache implements BlockCache, HeapSize {
     if (!cacheEnabled)
       return;
 
-    if (backingMap.containsKey(cacheKey) || ramCache.containsKey(cacheKey))
+    if (backingIndex.contains(cacheKey.getHfileName(), cacheKey.getOffset())
+        || ramCache.containsKey(cacheKey))
       return;
 
     /*
@@ -345,39 +355,11 @@ public class BucketCache implements BlockCache, HeapSize {
         }
         return re.getData();
       }
-      BucketEntry bucketEntry = backingMap.get(key);
-      if(bucketEntry!=null) {
-        long start = System.nanoTime();
-        IdLock.Entry lockEntry = null;
-        try {
-          lockEntry = offsetLock.getLockEntry(bucketEntry.offset());
-          if (bucketEntry.equals(backingMap.get(key))) {
-            int len = bucketEntry.getLength();
-            ByteBuffer bb = ByteBuffer.allocate(len);
-            ioEngine.read(bb, bucketEntry.offset());
-            Cacheable cachedBlock = bucketEntry.deserializerReference(
-                deserialiserMap).deserialize(bb, true);
-            long timeTaken = System.nanoTime() - start;
-            cacheStats.hit(caching);
-            cacheStats.ioHit(timeTaken);
-
-            // TODO(bharath): Throttle access
-            if (updateaccess && customID != 70) {
-              bucketEntry.access(accessCount.incrementAndGet());
-            }
-            if (this.ioErrorStartTime > 0) {
-              ioErrorStartTime = -1;
-            }
-            return cachedBlock;
-          }
-        } catch (IOException ioex) {
-          LOG.error("Failed reading block " + key + " from bucket cache", ioex);
-          checkIOErrorIsTolerated();
-        } finally {
-          if (lockEntry != null) {
-            offsetLock.releaseLockEntry(lockEntry);
-          }
-        }
+      // TODO(bharath): Throttle access
+      Cacheable cachedBlock = readBlock(key, caching,
+          updateaccess && customID != 70);
+      if (cachedBlock != null) {
+        return cachedBlock;
       }
       if(!repeat)cacheStats.miss(caching);
       return null;
@@ -400,37 +382,61 @@ public class BucketCache implements BlockCache, HeapSize {
       re.access(accessCount.incrementAndGet());
       return re.getData();
     }
-    BucketEntry bucketEntry = backingMap.get(key);
-    if(bucketEntry!=null) {
-      long start = System.nanoTime();
-      IdLock.Entry lockEntry = null;
-      try {
-        lockEntry = offsetLock.getLockEntry(bucketEntry.offset());
-        if (bucketEntry.equals(backingMap.get(key))) {
-          int len = bucketEntry.getLength();
-          ByteBuffer bb = ByteBuffer.allocate(len);
-          ioEngine.read(bb, bucketEntry.offset());
-          Cacheable cachedBlock = bucketEntry.deserializerReference(
-              deserialiserMap).deserialize(bb, true);
-          long timeTaken = System.nanoTime() - start;
-          cacheStats.hit(caching);
-          cacheStats.ioHit(timeTaken);
-          bucketEntry.access(accessCount.incrementAndGet());
-          if (this.ioErrorStartTime > 0) {
-            ioErrorStartTime = -1;
-          }
-          return cachedBlock;
+    Cacheable cachedBlock = readBlock(key, caching, true);
+    if (cachedBlock != null) {
+      return cachedBlock;
+    }
+    if(!repeat)cacheStats.miss(caching);
+    return null;
+  }
+
+  /**
+   * Read the block with the specified key from the IOEngine.
+   * @param key block's cache key
+   * @param caching true if the caller caches blocks on cache misses
+   * @param access whether to record the access to the block
+   * @return the block, or null if it is not in the IOEngine
+   */
+  private Cacheable readBlock(BlockCacheKey key, boolean caching,
+      boolean access) {
+    OffHeapBlockIndex.Entry entry = new OffHeapBlockIndex.Entry();
+    if (!backingIndex.get(key.getHfileName(), key.getOffset(), entry)) {
+      return null;
+    }
+    long bucketOffset = entry.getBucketOffset();
+    long start = System.nanoTime();
+    IdLock.Entry lockEntry = null;
+    try {
+      lockEntry = offsetLock.getLockEntry(bucketOffset);
+      // The block may have been evicted and its space reused meanwhile
+      if (backingIndex.get(key.getHfileName(), key.getOffset(), entry)
+          && entry.getBucketOffset() == bucketOffset) {
+        int len = entry.getLength();
+        ByteBuffer bb = ByteBuffer.allocate(len);
+        ioEngine.read(bb, bucketOffset);
+        Cacheable cachedBlock = CacheableDeserializerIdManager.getDeserializer(
+            deserialiserMap.unmap(entry.getDeserialiserIndex()))
+            .deserialize(bb, true);
+        long timeTaken = System.nanoTime() - start;
+        cacheStats.hit(caching);
+        cacheStats.ioHit(timeTaken);
+        if (access) {
+          backingIndex.access(key.getHfileName(), key.getOffset(),
+              accessCount.incrementAndGet());
         }
-      } catch (IOException ioex) {
-        LOG.error("Failed reading block " + key + " from bucket cache", ioex);
-        checkIOErrorIsTolerated();
-      } finally {
-        if (lockEntry != null) {
-          offsetLock.releaseLockEntry(lockEntry);
+        if (this.ioErrorStartTime > 0) {
+          ioErrorStartTime = -1;
         }
+        return cachedBlock;
+      }
+    } catch (IOException ioex) {
+      LOG.error("Failed reading block " + key + " from bucket cache", ioex);
+      checkIOErrorIsTolerated();
+    } finally {
+      if (lockEntry != null) {
+        offsetLock.releaseLockEntry(lockEntry);
       }
     }
-    if(!repeat)cacheStats.miss(caching);
     return null;
   }
 
@@ -442,14 +448,15 @@ public class BucketCache implements BlockCache, HeapSize {
       this.blockNumber.decrementAndGet();
       this.heapSize.addAndGet(-1 * removedBlock.getData().heapSize());
     }
-    BucketEntry bucketEntry = backingMap.get(cacheKey);
-    if (bucketEntry != null) {
+    OffHeapBlockIndex.Entry entry = new OffHeapBlockIndex.Entry();
+    if (backingIndex.get(cacheKey.getHfileName(), cacheKey.getOffset(), entry)) {
       IdLock.Entry lockEntry = null;
       try {
-        lockEntry = offsetLock.getLockEntry(bucketEntry.offset());
-        if (bucketEntry.equals(backingMap.remove(cacheKey))) {
-          bucketAllocator.freeBlock(bucketEntry.offset());
-          realCacheSize.addAndGet(-1 * bucketEntry.getLength());
+        lockEntry = offsetLock.getLockEntry(entry.getBucketOffset());
+        if (backingIndex.remove(cacheKey.getHfileName(), cacheKey.getOffset(),
+            entry.getBucketOffset())) {
+          bucketAllocator.freeBlock(entry.getBucketOffset());
+          realCacheSize.addAndGet(-1 * entry.getLength());
           if (removedBlock == null) {
             this.blockNumber.decrementAndGet();
           }
@@ -499,6 +506,7 @@ public class BucketCache implements BlockCache, HeapSize {
         "free=" + StringUtils.byteDesc(freeSize) + ", " +
         "usedSize=" + StringUtils.byteDesc(usedSize) +", " +
         "cacheSize=" + StringUtils.byteDesc(cacheSize) +", " +
+        "indexSize=" + StringUtils.byteDesc(backingIndex.getOffHeapSize()) +", " +
         "accesses=" + cacheStats.getRequestCount() + ", " +
         "hits=" + cacheStats.getHitCount() + ", " +
         "IOhitsPerSecond=" + cacheStats.getIOHitsPerSecond() + ", " +
@@ -585,31 +593,34 @@ public class BucketCache implements BlockCache, HeapSize {
           * (1 + DEFAULT_EXTRA_FREE_FACTOR));
 
       // Instantiate priority buckets
-      BucketEntryGroup bucketSingle = new BucketEntryGroup(bytesToFreeWithExtra,
+      final BucketEntryGroup bucketSingle = new BucketEntryGroup(bytesToFreeWithExtra,
           blockSize, singleSize());
-      BucketEntryGroup bucketMulti = new BucketEntryGroup(bytesToFreeWithExtra,
+      final BucketEntryGroup bucketMulti = new BucketEntryGroup(bytesToFreeWithExtra,
           blockSize, multiSize());
-      BucketEntryGroup bucketMemory = new BucketEntryGroup(bytesToFreeWithExtra,
+      final BucketEntryGroup bucketMemory = new BucketEntryGroup(bytesToFreeWithExtra,
           blockSize, memorySize());
 
-      // Scan entire map putting bucket entry into appropriate bucket entry
+      // Scan entire index putting bucket entry into appropriate bucket entry
       // group
-      for (Map.Entry<BlockCacheKey, BucketEntry> bucketEntryWithKey : backingMap.entrySet()) {
-        switch (bucketEntryWithKey.getValue().getPriority()) {
-          case SINGLE: {
-            bucketSingle.add(bucketEntryWithKey);
-            break;
-          }
-          case MULTI: {
-            bucketMulti.add(bucketEntryWithKey);
-            break;
-          }
-          case MEMORY: {
-            bucketMemory.add(bucketEntryWithKey);
-            break;
+      backingIndex.scan(new OffHeapBlockIndex.Visitor() {
+        @Override
+        public void visit(OffHeapBlockIndex.Entry entry) {
+          switch (entry.getPriority()) {
+            case SINGLE: {
+              bucketSingle.add(entry);
+              break;
+            }
+            case MULTI: {
+              bucketMulti.add(entry);
+              break;
+            }
+            case MEMORY: {
+              bucketMemory.add(entry);
+              break;
+            }
           }
         }
-      }
+      });
 
       PriorityQueue<BucketEntryGroup> bucketQueue = new PriorityQueue<BucketEntryGroup>(3);
 
@@ -723,7 +734,7 @@ public class BucketCache implements BlockCache, HeapSize {
 
     /**
      * Flush the entries in ramCache to IOEngine and add bucket entry to
-     * backingMap
+     * backingIndex
      * @param entries
      * @throws InterruptedException
      */
@@ -781,7 +792,12 @@ public class BucketCache implements BlockCache, HeapSize {
 
       for (int i = 0; i < done; ++i) {
         if (bucketEntries[i] != null) {
-          backingMap.put(ramEntries[i].getKey(), bucketEntries[i]);
+          BlockCacheKey key = ramEntries[i].getKey();
+          BucketEntry bucketEntry = bucketEntries[i];
+          backingIndex.put(key.getHfileName(), key.getOffset(),
+              bucketEntry.offset(), bucketEntry.getLength(),
+              bucketEntry.getPriority(), bucketEntry.getAccessTime(),
+              bucketEntry.deserialiserIndex);
         }
         RAMQueueEntry ramCacheEntry = ramCache.remove(ramEntries[i].getKey());
         if (ramCacheEntry != null) {
@@ -809,9 +825,9 @@ public class BucketCache implements BlockCache, HeapSize {
       oos = new ObjectOutputStream(fos);
       oos.writeLong(cacheCapacity);
       oos.writeUTF(ioEngine.getClass().getName());
-      oos.writeUTF(backingMap.getClass().getName());
+      oos.writeUTF(backingIndex.getClass().getName());
       oos.writeObject(deserialiserMap);
-      oos.writeObject(backingMap);
+      backingIndex.writeTo(oos);
     } finally {
       if (oos != null) oos.close();
       if (fos != null) fos.close();
@@ -844,15 +860,22 @@ public class BucketCache implements BlockCache, HeapSize {
       if (!ioEngine.getClass().getName().equals(ioclass))
         throw new IOException("Class name for IO engine mismatch: " + ioclass
             + ", expected:" + ioEngine.getClass().getName());
-      if (!backingMap.getClass().getName().equals(mapclass))
+      if (!backingIndex.getClass().getName().equals(mapclass))
         throw new IOException("Class name for cache map mismatch: " + mapclass
-            + ", expected:" + backingMap.getClass().getName());
+            + ", expected:" + backingIndex.getClass().getName());
       UniqueIndexMap<Integer> deserMap = (UniqueIndexMap<Integer>) ois
           .readObject();
-      BucketAllocator allocator = new BucketAllocator(cacheCapacity,
-          backingMap, this.realCacheSize);
-      backingMap = (ConcurrentHashMap<BlockCacheKey, BucketEntry>) ois
-          .readObject();
+      BucketAllocator allocator;
+      try {
+        long blocks = backingIndex.readFrom(ois);
+        allocator = new BucketAllocator(cacheCapacity, backingIndex,
+            this.realCacheSize);
+        this.blockNumber.set(blocks);
+      } catch (IOException ioe) {
+        backingIndex.clear();
+        this.realCacheSize.set(0);
+        throw ioe;
+      }
       bucketAllocator = allocator;
       deserialiserMap = deserMap;
     } finally {
@@ -899,7 +922,7 @@ public class BucketCache implements BlockCache, HeapSize {
       writerThreads[i].interrupt();
     this.ramCache.clear();
     if (!ioEngine.isPersistent() || persistencePath == null) {
-      this.backingMap.clear();
+      this.backingIndex.clear();
     }
   }
 
@@ -934,6 +957,13 @@ public class BucketCache implements BlockCache, HeapSize {
     return this.bucketAllocator;
   }
 
+  /**
+   * @return number of blocks written to the IOEngine. Only used in test
+   */
+  long getIndexedBlockCount() {
+    return this.backingIndex.size();
+  }
+
   public long heapSize() {
     return this.heapSize.get();
   }
@@ -984,11 +1014,9 @@ public class BucketCache implements BlockCache, HeapSize {
   @Override
   public int evictBlocksByHfileName(String hfileName) {
     int numEvicted = 0;
-    for (BlockCacheKey key : this.backingMap.keySet()) {
-      if (key.getHfileName().equals(hfileName)) {
-        if (evictBlock(key))
-          ++numEvicted;
-      }
+    for (long offset : this.backingIndex.getBlockOffsets(hfileName)) {
+      if (evictBlock(new BlockCacheKey(hfileName, offset)))
+        ++numEvicted;
     }
     return numEvicted;
   }
@@ -1033,14 +1061,16 @@ public class BucketCache implements BlockCache, HeapSize {
     private BlockPriority priority;
 
     BucketEntry(long offset, int length, long accessTime, boolean inMemory) {
+      this(offset, length, accessTime,
+          inMemory ? BlockPriority.MEMORY : BlockPriority.SINGLE);
+    }
+
+    BucketEntry(long offset, int length, long accessTime,
+        BlockPriority priority) {
       setOffset(offset);
       this.length = length;
       this.accessTime = accessTime;
-      if (inMemory) {
-        this.priority = BlockPriority.MEMORY;
-      } else {
-        this.priority = BlockPriority.SINGLE;
-      }
+      this.priority = priority;
     }
 
     long offset() { // Java has no unsigned numbers
@@ -1087,6 +1117,10 @@ public class BucketCache implements BlockCache, HeapSize {
       return this.priority;
     }
 
+    long getAccessTime() {
+      return this.accessTime;
+    }
+
     @Override
     public int compareTo(BucketEntry that) {
       if(this.accessTime == that.accessTime) return 0;
@@ -1117,9 +1151,15 @@ public class BucketCache implements BlockCache, HeapSize {
       totalSize = 0;
     }
 
-    public void add(Map.Entry<BlockCacheKey, BucketEntry> block) {
-      totalSize += block.getValue().getLength();
-      queue.add(block);
+    public void add(OffHeapBlockIndex.Entry entry) {
+      totalSize += entry.getLength();
+      if (queue.accepts(entry.getAccessTime())) {
+        // Only the blocks that are candidates for eviction get a heap copy
+        queue.add(new AbstractMap.SimpleImmutableEntry<BlockCacheKey, BucketEntry>(
+            new BlockCacheKey(entry.getHfileName(), entry.getBlockOffset()),
+            new BucketEntry(entry.getBucketOffset(), entry.getLength(),
+                entry.getAccessTime(), entry.getPriority())));
+      }
     }
 
     public long free(long toFree) {
@@ -96,6 +96,16 @@ public class CachedEntryQueue {
     }
   }
 
+  /**
+   * @param accessTime access time of an entry
+   * @return whether {@link #add(Map.Entry)} would insert an entry with the
+   *         given access time
+   */
+  public boolean accepts(long accessTime) {
+    return cacheSize < maxSize
+        || accessTime < queue.peek().getValue().getAccessTime();
+  }
+
   /**
    * @return The next element in this queue, or {@code null} if the queue is
    *         empty.
@@ -0,0 +1,663 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache.BlockPriority;
+
+/**
+ * Compact index from (HFile name, block offset) to the location of the block
+ * in a {@link BucketCache}. It replaces a
+ * <code>ConcurrentHashMap&lt;BlockCacheKey, BucketEntry&gt;</code>, which
+ * costs well over a hundred bytes of heap per cached block once the key, its
+ * HFile name string, the map node and the entry object are accounted for.
+ * <p>
+ * HFile names are interned to integer ids, and every block is stored as one
+ * fixed width slot of an open-addressing (linear probing) hash table that
+ * lives in a direct {@link ByteBuffer}. The only heap cost that grows with the
+ * number of cached blocks is therefore gone; what remains on heap is one
+ * name-to-id mapping per HFile.
+ * <p>
+ * The table is split into segments, each guarded by its own monitor, so that
+ * concurrent readers and writers of different blocks rarely contend. A
+ * segment rebuilds its table once live and removed slots take up three
+ * quarters of it, doubling the table if live slots alone fill more than half
+ * of it.
+ * <p>
+ * Slot layout, {@link #SLOT_SIZE} bytes:
+ * <pre>
+ *   int   fileId      (0 = free slot, -1 = removed slot)
+ *   int   length
+ *   long  blockOffset (offset of the block in its HFile)
+ *   long  bucketOffset (offset of the block in the IOEngine)
+ *   long  accessTime
+ *   int   priority    (ordinal of {@link BlockPriority})
+ *   int   deserialiserIndex
+ * </pre>
+ */
+@InterfaceAudience.Private
+class OffHeapBlockIndex {
+  static final int SLOT_SIZE = 40;
+
+  private static final int FILE_ID_OFFSET = 0;
+  private static final int LENGTH_OFFSET = 4;
+  private static final int BLOCK_OFFSET_OFFSET = 8;
+  private static final int BUCKET_OFFSET_OFFSET = 16;
+  private static final int ACCESS_TIME_OFFSET = 24;
+  private static final int PRIORITY_OFFSET = 32;
+  private static final int DESERIALISER_OFFSET = 36;
+
+  private static final int FREE = 0;
+  private static final int REMOVED = -1;
+
+  private static final float LOAD_FACTOR = 0.75f;
+  private static final int MIN_SEGMENT_SLOTS = 16;
+  /** Largest power of two number of slots a single direct buffer can hold */
+  private static final int MAX_SEGMENT_SLOTS =
+      Integer.highestOneBit(Integer.MAX_VALUE / SLOT_SIZE);
+
+  private static final BlockPriority[] PRIORITIES = BlockPriority.values();
+
+  /**
+   * A copy of one slot of the index. Reused by callers to keep lookups free
+   * of allocation.
+   */
+  static class Entry {
+    String hfileName;
+    long blockOffset;
+    long bucketOffset;
+    int length;
+    BlockPriority priority;
+    long accessTime;
+    byte deserialiserIndex;
+
+    public String getHfileName() {
+      return hfileName;
+    }
+
+    public long getBlockOffset() {
+      return blockOffset;
+    }
+
+    public long getBucketOffset() {
+      return bucketOffset;
+    }
+
+    public int getLength() {
+      return length;
+    }
+
+    public BlockPriority getPriority() {
+      return priority;
+    }
+
+    public long getAccessTime() {
+      return accessTime;
+    }
+
+    public byte getDeserialiserIndex() {
+      return deserialiserIndex;
+    }
+  }
+
+  /**
+   * Visits the slots of the index, see {@link OffHeapBlockIndex#scan}.
+   */
+  interface Visitor {
+    /**
+     * @param entry a copy of the slot; only valid for the duration of the call
+     */
+    void visit(Entry entry);
+  }
+
+  private final FileNameTable fileNames = new FileNameTable();
+  private final Segment[] segments;
+  private final int segmentMask;
+
+  /**
+   * @param expectedBlocks number of blocks the index is sized for up front
+   * @param concurrencyLevel number of independently locked segments, rounded
+   * up to a power of two
+   */
+  OffHeapBlockIndex(long expectedBlocks, int concurrencyLevel) {
+    if (expectedBlocks < 0 || concurrencyLevel <= 0) {
+      throw new IllegalArgumentException("expectedBlocks=" + expectedBlocks
+          + ", concurrencyLevel=" + concurrencyLevel);
+    }
+    int numSegments = 1;
+    while (numSegments < concurrencyLevel) {
+      numSegments <<= 1;
+    }
+    long perSegment = (long) Math.ceil(expectedBlocks / (double) numSegments
+        / LOAD_FACTOR);
+    if (perSegment > MAX_SEGMENT_SLOTS) {
+      throw new IllegalArgumentException("Too many blocks (" + expectedBlocks
+          + ") for " + numSegments + " segments, raise the concurrency level");
+    }
+    int slots = MIN_SEGMENT_SLOTS;
+    while (slots < perSegment) {
+      slots <<= 1;
+    }
+    this.segments = new Segment[numSegments];
+    for (int i = 0; i < numSegments; i++) {
+      segments[i] = new Segment(slots, fileNames);
+    }
+    this.segmentMask = numSegments - 1;
+  }
+
+  /**
+   * Adds or replaces the location of a block.
+   * @return true if the block was not indexed before
+   */
+  boolean put(String hfileName, long blockOffset, long bucketOffset,
+      int length, BlockPriority priority, long accessTime,
+      byte deserialiserIndex) {
+    int fileId = fileNames.acquire(hfileName);
+    long hash = hash(fileId, blockOffset);
+    boolean added = segmentFor(hash).put(fileId, blockOffset, hash,
+        bucketOffset, length, priority, accessTime, deserialiserIndex);
+    if (!added) {
+      // The slot already held a reference to the file name
+      fileNames.release(fileId);
+    }
+    return added;
+  }
+
+  /**
+   * Copies the location of a block into <code>entry</code>.
+   * @return false if the block is not indexed, in which case
+   * <code>entry</code> is left untouched
+   */
+  boolean get(String hfileName, long blockOffset, Entry entry) {
+    int fileId = fileNames.lookup(hfileName);
+    if (fileId == FREE) return false;
+    long hash = hash(fileId, blockOffset);
+    if (!segmentFor(hash).get(fileId, hfileName, blockOffset, hash, entry)) {
+      return false;
+    }
+    entry.hfileName = hfileName;
+    return true;
+  }
+
+  boolean contains(String hfileName, long blockOffset) {
+    int fileId = fileNames.lookup(hfileName);
+    if (fileId == FREE) return false;
+    long hash = hash(fileId, blockOffset);
+    return segmentFor(hash).contains(fileId, hfileName, blockOffset, hash);
+  }
+
+  /**
+   * Records an access to the block, promoting it from single to multi access
+   * priority the same way {@link BucketCache.BucketEntry#access} does.
+   * @return false if the block is not indexed
+   */
+  boolean access(String hfileName, long blockOffset, long accessTime) {
+    int fileId = fileNames.lookup(hfileName);
+    if (fileId == FREE) return false;
+    long hash = hash(fileId, blockOffset);
+    return segmentFor(hash).access(fileId, hfileName, blockOffset, hash,
+        accessTime);
+  }
+
+  /**
+   * Removes a block from the index.
+   * @param expectedBucketOffset only remove the block if it is still stored
+   * at this offset, or pass -1 to remove it unconditionally
+   * @return false if no matching block was indexed
+   */
+  boolean remove(String hfileName, long blockOffset,
+      long expectedBucketOffset) {
+    int fileId = fileNames.lookup(hfileName);
+    if (fileId == FREE) return false;
+    long hash = hash(fileId, blockOffset);
+    if (!segmentFor(hash).remove(fileId, hfileName, blockOffset, hash,
+        expectedBucketOffset)) {
+      return false;
+    }
+    fileNames.release(fileId);
+    return true;
+  }
+
+  /**
+   * Returns the offsets of all indexed blocks of an HFile. This is a linear
+   * scan of the whole table, the same cost evict-on-close already pays with
+   * the map based index.
+   */
+  List<Long> getBlockOffsets(String hfileName) {
+    final List<Long> offsets = new ArrayList<Long>();
+    final int fileId = fileNames.lookup(hfileName);
+    if (fileId == FREE) return offsets;
+    for (Segment segment : segments) {
+      segment.collectOffsets(fileId, offsets);
+    }
+    return offsets;
+  }
+
+  /**
+   * Calls the visitor once for every indexed block. Each segment is locked
+   * while it is visited, so the visitor must not call back into the index.
+   */
+  void scan(Visitor visitor) {
+    Entry entry = new Entry();
+    for (Segment segment : segments) {
+      segment.scan(visitor, entry);
+    }
+  }
+
+  /**
+   * Writes every indexed block to <code>out</code>, to be read back by
+   * {@link #readFrom(DataInput)} when the cache is persistent. Each segment
+   * is locked while it is written.
+   */
+  void writeTo(DataOutput out) throws IOException {
+    for (Segment segment : segments) {
+      segment.writeTo(out);
+    }
+    out.writeBoolean(false);
+  }
+
+  /**
+   * Adds the blocks written by {@link #writeTo(DataOutput)}.
+   * @return number of blocks read
+   */
+  long readFrom(DataInput in) throws IOException {
+    long count = 0;
+    while (in.readBoolean()) {
+      String hfileName = in.readUTF();
+      long blockOffset = in.readLong();
+      long bucketOffset = in.readLong();
+      int length = in.readInt();
+      int priority = in.readByte();
+      long accessTime = in.readLong();
+      byte deserialiserIndex = in.readByte();
+      if (priority < 0 || priority >= PRIORITIES.length) {
+        throw new IOException("Unknown block priority " + priority);
+      }
+      put(hfileName, blockOffset, bucketOffset, length, PRIORITIES[priority],
+          accessTime, deserialiserIndex);
+      count++;
+    }
+    return count;
+  }
+
+  void clear() {
+    for (Segment segment : segments) {
+      segment.clear();
+    }
+    fileNames.clear();
+  }
+
+  /** @return number of indexed blocks */
+  long size() {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += segment.size();
+    }
+    return size;
+  }
+
+  /** @return number of distinct HFiles with at least one indexed block */
+  int getFileCount() {
+    return fileNames.size();
+  }
+
+  /** @return bytes of direct memory held by the slot tables */
+  long getOffHeapSize() {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += segment.capacity() * (long) SLOT_SIZE;
+    }
+    return size;
+  }
+
+  private Segment segmentFor(long hash) {
+    return segments[(int) (hash >>> 48) & segmentMask];
+  }
+
+  /**
+   * 64-bit finalizer of MurmurHash3 applied to the packed key. The segment is
+   * picked from the top bits and the slot from the bottom bits.
+   */
+  static long hash(int fileId, long blockOffset) {
+    long h = blockOffset ^ (fileId * 0x9E3779B97F4A7C15L);
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * One independently locked open-addressing table.
+   */
+  private static class Segment {
+    private final FileNameTable fileNames;
+    private ByteBuffer slots;
+    private int mask;
+    private int size;
+    private int removed;
+
+    Segment(int capacity, FileNameTable fileNames) {
+      this.fileNames = fileNames;
+      allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+      this.slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+      this.mask = capacity - 1;
+      this.size = 0;
+      this.removed = 0;
+    }
+
+    synchronized int capacity() {
+      return mask + 1;
+    }
+
+    synchronized int size() {
+      return size;
+    }
+
+    /**
+     * @return byte position of the slot holding the key, or -1
+     */
+    private int find(int fileId, long blockOffset, long hash) {
+      int slot = (int) hash & mask;
+      for (int probes = 0; probes <= mask; probes++) {
+        int pos = slot * SLOT_SIZE;
+        int id = slots.getInt(pos + FILE_ID_OFFSET);
+        if (id == FREE) {
+          return -1;
+        }
+        if (id == fileId && slots.getLong(pos + BLOCK_OFFSET_OFFSET) == blockOffset) {
+          return pos;
+        }
+        slot = (slot + 1) & mask;
+      }
+      return -1;
+    }
+
+    /**
+     * Like {@link #find(int, long, long)}, but also makes sure the id still
+     * belongs to the given name. The caller looked the id up without holding
+     * the segment lock, so the file could have been dropped from the index and
+     * its id handed to another file in the meantime.
+     */
+    private int find(int fileId, String hfileName, long blockOffset,
+        long hash) {
+      int pos = find(fileId, blockOffset, hash);
+      if (pos < 0 || !hfileName.equals(fileNames.name(fileId))) {
+        return -1;
+      }
+      return pos;
+    }
+
+    synchronized boolean contains(int fileId, String hfileName,
+        long blockOffset, long hash) {
+      return find(fileId, hfileName, blockOffset, hash) >= 0;
+    }
+
+    synchronized boolean put(int fileId, long blockOffset, long hash,
+        long bucketOffset, int length, BlockPriority priority,
+        long accessTime, byte deserialiserIndex) {
+      int pos = find(fileId, blockOffset, hash);
+      boolean added = pos < 0;
+      if (added) {
+        if (size + removed + 1 > (mask + 1) * LOAD_FACTOR) {
+          // Double only when live entries need it, otherwise just drop the
+          // removed-slot markers
+          int capacity = mask + 1;
+          if (size + 1 > capacity / 2) {
+            if (capacity >= MAX_SEGMENT_SLOTS) {
+              throw new IllegalStateException("Index segment is full at "
+                  + capacity + " slots");
+            }
+            capacity <<= 1;
+          }
+          rehash(capacity);
+        }
+        pos = freeSlot(hash);
+        if (slots.getInt(pos + FILE_ID_OFFSET) == REMOVED) {
+          removed--;
+        }
+        size++;
+      }
+      write(pos, fileId, blockOffset, bucketOffset, length, priority,
+          accessTime, deserialiserIndex);
+      return added;
+    }
+
+    synchronized boolean get(int fileId, String hfileName, long blockOffset,
+        long hash, Entry entry) {
+      int pos = find(fileId, hfileName, blockOffset, hash);
+      if (pos < 0) return false;
+      read(pos, entry);
+      return true;
+    }
+
+    synchronized boolean access(int fileId, String hfileName,
+        long blockOffset, long hash, long accessTime) {
+      int pos = find(fileId, hfileName, blockOffset, hash);
+      if (pos < 0) return false;
+      slots.putLong(pos + ACCESS_TIME_OFFSET, accessTime);
+      if (slots.getInt(pos + PRIORITY_OFFSET) == BlockPriority.SINGLE.ordinal()) {
+        slots.putInt(pos + PRIORITY_OFFSET, BlockPriority.MULTI.ordinal());
+      }
+      return true;
+    }
+
+    synchronized boolean remove(int fileId, String hfileName,
+        long blockOffset, long hash, long expectedBucketOffset) {
+      int pos = find(fileId, hfileName, blockOffset, hash);
+      if (pos < 0) return false;
+      if (expectedBucketOffset >= 0
+          && slots.getLong(pos + BUCKET_OFFSET_OFFSET) != expectedBucketOffset) {
+        return false;
+      }
+      slots.putInt(pos + FILE_ID_OFFSET, REMOVED);
+      size--;
+      removed++;
+      return true;
+    }
+
+    synchronized void collectOffsets(int fileId, List<Long> offsets) {
+      int end = (mask + 1) * SLOT_SIZE;
+      for (int pos = 0; pos < end; pos += SLOT_SIZE) {
+        if (slots.getInt(pos + FILE_ID_OFFSET) == fileId) {
+          offsets.add(slots.getLong(pos + BLOCK_OFFSET_OFFSET));
+        }
+      }
+    }
+
+    synchronized void scan(Visitor visitor, Entry entry) {
+      int end = (mask + 1) * SLOT_SIZE;
+      for (int pos = 0; pos < end; pos += SLOT_SIZE) {
+        int id = slots.getInt(pos + FILE_ID_OFFSET);
+        if (id > 0) {
+          read(pos, entry);
+          entry.hfileName = fileNames.name(id);
+          visitor.visit(entry);
+        }
+      }
+    }
+
+    synchronized void writeTo(DataOutput out) throws IOException {
+      int end = (mask + 1) * SLOT_SIZE;
+      for (int pos = 0; pos < end; pos += SLOT_SIZE) {
+        int id = slots.getInt(pos + FILE_ID_OFFSET);
+        if (id > 0) {
+          out.writeBoolean(true);
+          out.writeUTF(fileNames.name(id));
+          out.writeLong(slots.getLong(pos + BLOCK_OFFSET_OFFSET));
+          out.writeLong(slots.getLong(pos + BUCKET_OFFSET_OFFSET));
+          out.writeInt(slots.getInt(pos + LENGTH_OFFSET));
+          out.writeByte(slots.getInt(pos + PRIORITY_OFFSET));
+          out.writeLong(slots.getLong(pos + ACCESS_TIME_OFFSET));
+          out.writeByte(slots.getInt(pos + DESERIALISER_OFFSET));
+        }
+      }
+    }
+
+    synchronized void clear() {
+      allocate(MIN_SEGMENT_SLOTS);
+    }
+
+    private int freeSlot(long hash) {
+      int slot = (int) hash & mask;
+      while (true) {
+        int pos = slot * SLOT_SIZE;
+        if (slots.getInt(pos + FILE_ID_OFFSET) <= FREE) {
+          return pos;
+        }
+        slot = (slot + 1) & mask;
+      }
+    }
+
+    private void rehash(int capacity) {
+      ByteBuffer old = this.slots;
+      int oldEnd = (mask + 1) * SLOT_SIZE;
+      int live = size;
+      allocate(capacity);
+      for (int pos = 0; pos < oldEnd; pos += SLOT_SIZE) {
+        int id = old.getInt(pos + FILE_ID_OFFSET);
+        if (id <= FREE) continue;
+        long blockOffset = old.getLong(pos + BLOCK_OFFSET_OFFSET);
+        int newPos = freeSlot(hash(id, blockOffset));
+        for (int i = 0; i < SLOT_SIZE; i += 8) {
+          slots.putLong(newPos + i, old.getLong(pos + i));
+        }
+      }
+      this.size = live;
+    }
+
+    private void write(int pos, int fileId, long blockOffset,
+        long bucketOffset, int length, BlockPriority priority,
+        long accessTime, byte deserialiserIndex) {
+      slots.putInt(pos + FILE_ID_OFFSET, fileId);
+      slots.putInt(pos + LENGTH_OFFSET, length);
+      slots.putLong(pos + BLOCK_OFFSET_OFFSET, blockOffset);
+      slots.putLong(pos + BUCKET_OFFSET_OFFSET, bucketOffset);
+      slots.putLong(pos + ACCESS_TIME_OFFSET, accessTime);
+      slots.putInt(pos + PRIORITY_OFFSET, priority.ordinal());
+      slots.putInt(pos + DESERIALISER_OFFSET, deserialiserIndex);
+    }
+
+    private void read(int pos, Entry entry) {
+      entry.length = slots.getInt(pos + LENGTH_OFFSET);
+      entry.blockOffset = slots.getLong(pos + BLOCK_OFFSET_OFFSET);
+      entry.bucketOffset = slots.getLong(pos + BUCKET_OFFSET_OFFSET);
+      entry.accessTime = slots.getLong(pos + ACCESS_TIME_OFFSET);
+      entry.priority = PRIORITIES[slots.getInt(pos + PRIORITY_OFFSET)];
+      entry.deserialiserIndex = (byte) slots.getInt(pos + DESERIALISER_OFFSET);
+    }
+  }
+
+  /**
+   * Interns HFile names to positive integer ids. An id stays assigned while
+   * at least one slot refers to it and is recycled afterwards, so the table
+   * only holds names of files that still have cached blocks. Lookups in
+   * either direction do not lock; only taking and dropping references does.
+   */
+  private static class FileNameTable {
+    private final ConcurrentHashMap<String, Integer> ids =
+        new ConcurrentHashMap<String, Integer>();
+    private volatile AtomicReferenceArray<String> names =
+        new AtomicReferenceArray<String>(MIN_SEGMENT_SLOTS);
+    private int[] refCounts = new int[MIN_SEGMENT_SLOTS];
+    private final List<Integer> freeIds = new ArrayList<Integer>();
+    // Id 0 marks a free slot
+    private int nextId = 1;
+
+    /**
+     * @return the id of the name, adding a reference to it
+     */
+    synchronized int acquire(String name) {
+      Integer id = ids.get(name);
+      if (id == null) {
+        if (!freeIds.isEmpty()) {
+          id = freeIds.remove(freeIds.size() - 1);
+        } else {
+          id = nextId++;
+          if (id == refCounts.length) {
+            grow();
+          }
+        }
+        names.set(id, name);
+        ids.put(name, id);
+      }
+      refCounts[id]++;
+      return id;
+    }
+
+    synchronized void release(int id) {
+      if (--refCounts[id] == 0) {
+        ids.remove(names.get(id));
+        names.set(id, null);
+        freeIds.add(id);
+      }
+    }
+
+    private void grow() {
+      int capacity = refCounts.length << 1;
+      AtomicReferenceArray<String> newNames =
+          new AtomicReferenceArray<String>(capacity);
+      for (int i = 0; i < refCounts.length; i++) {
+        newNames.set(i, names.get(i));
+      }
+      int[] newRefCounts = new int[capacity];
+      System.arraycopy(refCounts, 0, newRefCounts, 0, refCounts.length);
+      this.refCounts = newRefCounts;
+      this.names = newNames;
+    }
+
+    /**
+     * @return the id of the name, or 0 if no block of the file is indexed
+     */
+    int lookup(String name) {
+      Integer id = ids.get(name);
+      return id == null ? FREE : id.intValue();
+    }
+
+    String name(int id) {
+      AtomicReferenceArray<String> current = names;
+      return id < current.length() ? current.get(id) : null;
+    }
+
+    int size() {
+      return ids.size();
+    }
+
+    synchronized void clear() {
+      ids.clear();
+      names = new AtomicReferenceArray<String>(MIN_SEGMENT_SLOTS);
+      refCounts = new int[MIN_SEGMENT_SLOTS];
+      freeIds.clear();
+      nextId = 1;
+    }
+  }
+}
@@ -439,9 +439,10 @@ public abstract class HBaseServer implements RpcServer {
 
     @Override
     public synchronized void endDelayThrowing(Throwable t) throws IOException {
-      this.setResponse(null, Status.ERROR, t.getClass().toString(),
+      this.setResponse(null, Status.ERROR, t.getClass().getName(),
           StringUtils.stringifyException(t));
       this.delayResponse = false;
+      delayedCalls.decrementAndGet();
       this.sendResponseIfReady();
     }
 
@@ -1798,13 +1799,15 @@ public abstract class HBaseServer implements RpcServer {
           CurCall.set(null);
           callQueueSize.add(call.getSize() * -1);
           // Set the response for undelayed calls and delayed calls with
-          // undelayed responses.
-          if (!call.isDelayed() || !call.isReturnValueDelayed()) {
+          // undelayed responses. A call whose return value is delayed gets
+          // its response, and is sent, by endDelay, which may already have
+          // happened.
+          if (!call.isReturnValueDelayed()) {
             call.setResponse(value,
               errorClass == null? Status.SUCCESS: Status.ERROR,
                 errorClass, error);
+            call.sendResponseIfReady();
           }
-          call.sendResponseIfReady();
           status.markComplete("Sent response");
         } catch (InterruptedException e) {
           if (running) {                          // unexpected -- log it
@@ -32,6 +32,7 @@ import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.io.compress.Compression;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.regionserver.compactions.CompactionProgress;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.util.StringUtils;
@@ -109,6 +110,17 @@ class Compactor extends Configured {
     List<StoreFileScanner> scanners = StoreFileScanner
       .getScannersForStoreFiles(filesToCompact, false, false, true, 0);
 
+    // Track which cells come out of cached blocks so the blocks they end up
+    // in can be cached as well.
+    HotBlockTracker hotBlockTracker = null;
+    if (getConf().getBoolean(CacheConfig.CACHE_HOT_BLOCKS_ON_COMPACTION_KEY,
+        CacheConfig.DEFAULT_CACHE_HOT_BLOCKS_ON_COMPACTION)) {
+      hotBlockTracker = new HotBlockTracker();
+      for (StoreFileScanner sfs : scanners) {
+        sfs.setHotBlockTracker(hotBlockTracker);
+      }
+    }
+
     // Get some configs
     int compactionKVMax = getConf().getInt(HConstants.COMPACTION_KV_MAX, 10);
     Compression.Algorithm compression = store.getFamily().getCompression();
@@ -172,6 +184,9 @@ class Compactor extends Configured {
                 kv.setMemstoreTS(0);
               }
               writer.append(kv);
+              if (hotBlockTracker != null) {
+                writer.cacheLastBlockOnWrite(hotBlockTracker.getSource(kv));
+              }
               // update progress per key
               ++progress.currentCompactedKVs;
 
@@ -186,6 +201,9 @@ class Compactor extends Configured {
             }
           }
           kvs.clear();
+          if (hotBlockTracker != null) {
+            hotBlockTracker.clear();
+          }
         } while (hasMore);
       } finally {
         if (scanner != null) {
@@ -18,8 +18,6 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.NavigableSet;
 
 import org.apache.hadoop.classification.InterfaceAudience;
@@ -56,10 +54,13 @@ public class ExplicitColumnTracker implements ColumnTracker {
  /**
   * Contains the list of columns that the ExplicitColumnTracker is tracking.
   * Each ColumnCount instance also tracks how many versions of the requested
-  * column have been returned.
+  * column have been returned. Columns we are done with are removed from the
+  * first <code>numColumns</code> entries; the array itself is refilled from
+  * <code>columnsToReuse</code> between rows so that no row allocates.
   */
-  private final List<ColumnCount> columns;
-  private final List<ColumnCount> columnsToReuse;
+  private final ColumnCount[] columns;
+  private final ColumnCount[] columnsToReuse;
+  private int numColumns;
   private int index;
   private ColumnCount column;
   /** Keeps track of the latest timestamp included for current column.
@@ -80,10 +81,11 @@ public class ExplicitColumnTracker implements ColumnTracker {
     this.maxVersions = maxVersions;
     this.minVersions = minVersions;
     this.oldestStamp = oldestUnexpiredTS;
-    this.columns = new ArrayList<ColumnCount>(columns.size());
-    this.columnsToReuse = new ArrayList<ColumnCount>(columns.size());
+    this.columns = new ColumnCount[columns.size()];
+    this.columnsToReuse = new ColumnCount[columns.size()];
+    int i = 0;
     for(byte [] column : columns) {
-      this.columnsToReuse.add(new ColumnCount(column));
+      this.columnsToReuse[i++] = new ColumnCount(column);
     }
     reset();
   }
@@ -92,7 +94,7 @@ public class ExplicitColumnTracker implements ColumnTracker {
    * Done when there are no more columns to match against.
    */
   public boolean done() {
-    return this.columns.size() == 0;
+    return this.numColumns == 0;
   }
 
   public ColumnCount getColumnHint() {
@@ -110,7 +112,7 @@ public class ExplicitColumnTracker implements ColumnTracker {
     assert !KeyValue.isDelete(type);
     do {
       // No more columns left, we are done with this query
-      if(this.columns.size() == 0) {
+      if(this.numColumns == 0) {
         return ScanQueryMatcher.MatchCode.SEEK_NEXT_ROW; // done_row
       }
 
@@ -140,17 +142,17 @@ public class ExplicitColumnTracker implements ColumnTracker {
           // it from columns, we don't do a ++this.index. The index stays
           // the same but the columns have shifted within the array such
           // that index now points to the next column we are interested in.
-          this.columns.remove(this.index);
+          removeColumn(this.index);
 
           resetTS();
-          if (this.columns.size() == this.index) {
+          if (this.numColumns == this.index) {
             // We have served all the requested columns.
             this.column = null;
             return ScanQueryMatcher.MatchCode.INCLUDE_AND_SEEK_NEXT_ROW;
           } else {
             // We are done with current column; advance to next column
             // of interest.
-            this.column = this.columns.get(this.index);
+            this.column = this.columns[this.index];
             return ScanQueryMatcher.MatchCode.INCLUDE_AND_SEEK_NEXT_COL;
           }
         } else {
@@ -172,12 +174,12 @@ public class ExplicitColumnTracker implements ColumnTracker {
       // of interest. Advance the ExplicitColumnTracker state to next
       // column of interest, and check again.
       if (ret <= -1) {
-        if (++this.index >= this.columns.size()) {
+        if (++this.index >= this.numColumns) {
           // No more to match, do not include, done with this row.
           return ScanQueryMatcher.MatchCode.SEEK_NEXT_ROW; // done_row
         }
         // This is the recursive case.
-        this.column = this.columns.get(this.index);
+        this.column = this.columns[this.index];
       }
     } while(true);
   }
@@ -186,9 +188,9 @@ public class ExplicitColumnTracker implements ColumnTracker {
    * Called at the end of every StoreFile or memstore.
    */
   public void update() {
-    if(this.columns.size() != 0) {
+    if(this.numColumns != 0) {
       this.index = 0;
-      this.column = this.columns.get(this.index);
+      this.column = this.columns[this.index];
     } else {
       this.index = -1;
       this.column = null;
@@ -199,7 +201,7 @@ public class ExplicitColumnTracker implements ColumnTracker {
   public void reset() {
     buildColumnList();
     this.index = 0;
-    this.column = this.columns.get(this.index);
+    this.column = this.columns[this.index];
     resetTS();
   }
 
@@ -220,13 +222,23 @@ public class ExplicitColumnTracker implements ColumnTracker {
   }
 
   private void buildColumnList() {
-    this.columns.clear();
-    this.columns.addAll(this.columnsToReuse);
-    for(ColumnCount col : this.columns) {
-      col.setCount(0);
+    System.arraycopy(this.columnsToReuse, 0, this.columns, 0,
+        this.columnsToReuse.length);
+    this.numColumns = this.columnsToReuse.length;
+    for (int i = 0; i < this.numColumns; i++) {
+      this.columns[i].setCount(0);
     }
   }
 
+  /**
+   * Drops the column at the given index, shifting the columns after it down.
+   */
+  private void removeColumn(int i) {
+    System.arraycopy(this.columns, i + 1, this.columns, i,
+        this.numColumns - i - 1);
+    this.numColumns--;
+  }
+
   /**
    * This method is used to inform the column tracker that we are done with
    * this column. We may get this information from external filters or
@@ -242,17 +254,17 @@ public class ExplicitColumnTracker implements ColumnTracker {
           column.getLength(), bytes, offset, length);
       resetTS();
       if (compare == 0) {
-        this.columns.remove(this.index);
-        if (this.columns.size() == this.index) {
+        removeColumn(this.index);
+        if (this.numColumns == this.index) {
           // Will not hit any more columns in this storefile
           this.column = null;
         } else {
-          this.column = this.columns.get(this.index);
+          this.column = this.columns[this.index];
         }
         return;
       } else if ( compare <= -1) {
-        if(++this.index != this.columns.size()) {
-          this.column = this.columns.get(this.index);
+        if(++this.index != this.numColumns) {
+          this.column = this.columns[this.index];
         } else {
           this.column = null;
         }
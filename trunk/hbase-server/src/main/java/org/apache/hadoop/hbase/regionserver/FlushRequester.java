@@ -32,4 +32,20 @@ public interface FlushRequester {
    * @param region the HRegion requesting the cache flush
    */
   void requestFlush(HRegion region);
+
+  /**
+   * Tell the listener the cache needs to be flushed.
+   *
+   * @param region the HRegion requesting the cache flush
+   * @param forceFlushAllStores whether all the stores must be flushed, not
+   * only the large ones
+   */
+  void requestFlush(HRegion region, boolean forceFlushAllStores);
+
+  /**
+   * Tell the listener the stores of the region need to be flushed in memory.
+   *
+   * @param region the HRegion requesting the in-memory flush
+   */
+  void requestInMemoryFlush(HRegion region);
 }
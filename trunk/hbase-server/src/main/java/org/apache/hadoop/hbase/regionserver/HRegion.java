@@ -38,18 +38,20 @@ import java.util.NavigableSet;
 import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -187,6 +189,15 @@ public class HRegion implements HeapSize { // , Writable{
   public static final String LOAD_CFS_ON_DEMAND_CONFIG_KEY =
       "hbase.hregion.scan.loadColumnFamiliesOnDemand";
 
+  /**
+   * Stores whose memstore is smaller than this are left out of the flushes
+   * requested as the memstore of the region fills up, unless all of them are.
+   * 0 flushes all the stores every time.
+   */
+  public static final String FLUSH_SIZE_LOWER_BOUND_KEY =
+      "hbase.hregion.percolumnfamilyflush.size.lower.bound";
+  public static final long DEFAULT_FLUSH_SIZE_LOWER_BOUND = 1024 * 1024 * 16L;
+
   final AtomicBoolean closed = new AtomicBoolean(false);
   /* Closing can take some time; use the closing flag if there is stuff we don't
    * want to do while in closing state; e.g. like offer this region up to the
@@ -201,11 +212,15 @@ public class HRegion implements HeapSize { // , Writable{
   // Members
   //////////////////////////////////////////////////////////////////////////////
 
-  private final ConcurrentHashMap<HashedBytes, CountDownLatch> lockedRows =
-    new ConcurrentHashMap<HashedBytes, CountDownLatch>();
-  private final ConcurrentHashMap<Integer, HashedBytes> lockIds =
-    new ConcurrentHashMap<Integer, HashedBytes>();
+  private final ConcurrentHashMap<HashedBytes, RowLockContext> lockedRows =
+    new ConcurrentHashMap<HashedBytes, RowLockContext>();
+  private final ConcurrentHashMap<Integer, RowLock> lockIds =
+    new ConcurrentHashMap<Integer, RowLock>();
   private final AtomicInteger lockIdGenerator = new AtomicInteger(1);
+  // Lock objects of rows no longer locked, handed to the next rows locked
+  private final ConcurrentLinkedQueue<RowLockContext> rowLockPool =
+    new ConcurrentLinkedQueue<RowLockContext>();
+  private final AtomicInteger rowLockPoolSize = new AtomicInteger(0);
   static private Random rand = new Random();
 
   protected final Map<byte[], Store> stores = new ConcurrentSkipListMap<byte[], Store>(
@@ -242,6 +257,10 @@ public class HRegion implements HeapSize { // , Writable{
   //How long operations were blocked by a memstore over highwater.
   final Counter updatesBlockedMs = new Counter();
 
+  //How often and how long operations waited for a row lock held by another.
+  final Counter rowLockWaitCount = new Counter();
+  final Counter rowLockWaitMs = new Counter();
+
   /**
    * The directory for the table this region is part of.
    * This directory contains the directory for this region.
@@ -254,6 +273,8 @@ public class HRegion implements HeapSize { // , Writable{
   private final Configuration baseConf;
   private final int rowLockWaitDuration;
   static final int DEFAULT_ROWLOCK_WAIT_DURATION = 30000;
+  private final int rowLockPoolMaxSize;
+  static final int DEFAULT_ROWLOCK_POOL_SIZE = 32;
 
   // The internal wait duration to acquire a lock before read/update
   // from the region. It is not per row. The purpose of this wait time
@@ -356,6 +377,7 @@ public class HRegion implements HeapSize { // , Writable{
   final WriteState writestate = new WriteState();
 
   long memstoreFlushSize;
+  long flushSizeLowerBound;
   final long timestampSlop;
   final long rowProcessorTimeout;
   private volatile long lastFlushTime;
@@ -390,6 +412,12 @@ public class HRegion implements HeapSize { // , Writable{
   private final MetricsRegion metricsRegion;
   private final MetricsRegionWrapperImpl metricsRegionWrapper;
 
+  // The region server's row cache, null if no family of the region uses it
+  private final RowCache rowCache;
+  // The families whose whole-row Gets are served from the row cache
+  private final Set<byte[]> rowCacheFamilies =
+      new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+
   /**
    * HRegion copy constructor. Useful when reopening a closed region (normally
    * for unit tests)
@@ -444,6 +472,8 @@ public class HRegion implements HeapSize { // , Writable{
       .addWritableMap(htd.getValues());
     this.rowLockWaitDuration = conf.getInt("hbase.rowlock.wait.duration",
                     DEFAULT_ROWLOCK_WAIT_DURATION);
+    this.rowLockPoolMaxSize = conf.getInt("hbase.rowlock.pool.size",
+                    DEFAULT_ROWLOCK_POOL_SIZE);
 
     this.isLoadingCfsOnDemandDefault = conf.getBoolean(LOAD_CFS_ON_DEMAND_CONFIG_KEY, false);
     this.regionInfo = regionInfo;
@@ -484,6 +514,16 @@ public class HRegion implements HeapSize { // , Writable{
     this.rowProcessorTimeout = conf.getLong(
         "hbase.hregion.row.processor.timeout", DEFAULT_ROW_PROCESSOR_TIMEOUT);
 
+    if (htd != null) {
+      for (HColumnDescriptor family : htd.getFamilies()) {
+        if (family.isRowCacheEnabled()) {
+          this.rowCacheFamilies.add(family.getName());
+        }
+      }
+    }
+    this.rowCache = this.rowCacheFamilies.isEmpty() ?
+        null : RowCache.instantiateRowCache(conf);
+
     if (rsServices != null) {
       this.rsAccounting = this.rsServices.getRegionServerAccounting();
       // don't initialize coprocessors if not running within a regionserver
@@ -512,6 +552,8 @@ public class HRegion implements HeapSize { // , Writable{
     this.memstoreFlushSize = flushSize;
     this.blockingMemStoreSize = this.memstoreFlushSize *
         conf.getLong("hbase.hregion.memstore.block.multiplier", 2);
+    this.flushSizeLowerBound = conf.getLong(FLUSH_SIZE_LOWER_BOUND_KEY,
+        DEFAULT_FLUSH_SIZE_LOWER_BOUND);
   }
 
   /**
@@ -1062,6 +1104,7 @@ public class HRegion implements HeapSize { // , Writable{
         }
       }
       this.closed.set(true);
+      invalidateCachedRegion();
 
       if (coprocessorHost != null) {
         status.setStatus("Running coprocessor post-close hooks");
@@ -1407,6 +1450,23 @@ public class HRegion implements HeapSize { // , Writable{
    * because a Snapshot was not properly persisted.
    */
   public boolean flushcache() throws IOException {
+    return flushcache(true);
+  }
+
+  /**
+   * Flush the cache, of all the stores or of the large ones only.
+   *
+   * @param flushAllStores if false, only the stores whose memstore holds at
+   * least hbase.hregion.percolumnfamilyflush.size.lower.bound are flushed, or
+   * all of them if none does
+   * @return true if the region needs compacting
+   *
+   * @throws IOException general io exceptions
+   * @throws DroppedSnapshotException Thrown when replay of hlog is required
+   * because a Snapshot was not properly persisted.
+   * @see #flushcache()
+   */
+  public boolean flushcache(final boolean flushAllStores) throws IOException {
     // fail-fast instead of waiting on the lock
     if (this.closing.get()) {
       LOG.debug("Skipping flush on " + this + " because closing");
@@ -1446,7 +1506,7 @@ public class HRegion implements HeapSize { // , Writable{
         }
       }
       try {
-        boolean result = internalFlushcache(status);
+        boolean result = internalFlushcache(this.log, -1, status, flushAllStores);
 
         if (coprocessorHost != null) {
           status.setStatus("Running post-flush coprocessor hooks");
@@ -1519,6 +1579,23 @@ public class HRegion implements HeapSize { // , Writable{
    */
   protected boolean internalFlushcache(
       final HLog wal, final long myseqid, MonitoredTask status)
+  throws IOException {
+    return internalFlushcache(wal, myseqid, status, true);
+  }
+
+  /**
+   * @param wal Null if we're NOT to go via hlog/wal.
+   * @param myseqid The seqid to use if <code>wal</code> is null writing out
+   * flush file.
+   * @param status
+   * @param flushAllStores if false, only flush the large stores; see
+   * {@link #flushcache(boolean)}
+   * @return true if the region needs compacting
+   * @throws IOException
+   * @see #internalFlushcache(MonitoredTask)
+   */
+  protected boolean internalFlushcache(final HLog wal, final long myseqid,
+      MonitoredTask status, final boolean flushAllStores)
   throws IOException {
     final long startTime = EnvironmentEdgeManager.currentTimeMillis();
     // Clear flush flag.
@@ -1549,30 +1626,54 @@ public class HRegion implements HeapSize { // , Writable{
     // end up in both snapshot and memstore (makes it difficult to do atomic
     // rows then)
     status.setStatus("Obtaining lock to block concurrent updates");
+    // Let running in-memory flushes finish before blocking updates, and keep
+    // new ones from changing the store sizes until the snapshot is taken
+    for (Store s : stores.values()) {
+      s.pauseInMemoryFlushes();
+    }
     // block waiting for the lock for internal flush
     this.updatesLock.writeLock().lock();
+    Collection<Store> storesToFlush = flushAllStores || wal == null ?
+        stores.values() : selectStoresToFlush();
     long flushsize = this.memstoreSize.get();
+    List<byte[]> flushedFamilies = null;
+    if (storesToFlush.size() < stores.size()) {
+      flushsize = 0;
+      flushedFamilies = new ArrayList<byte[]>(storesToFlush.size());
+      for (Store s : storesToFlush) {
+        flushsize += s.getFlushableSize();
+        flushedFamilies.add(s.getFamily().getName());
+      }
+    }
     status.setStatus("Preparing to flush by snapshotting stores");
-    List<StoreFlusher> storeFlushers = new ArrayList<StoreFlusher>(stores.size());
+    List<StoreFlusher> storeFlushers = new ArrayList<StoreFlusher>(storesToFlush.size());
     long flushSeqId = -1L;
+    long oldestUnflushedSeqId = HConstants.NO_SEQNUM;
     try {
       // Record the mvcc for all transactions in progress.
       w = mvcc.beginMemstoreInsert();
       mvcc.advanceMemstore(w);
 
       if (wal != null) {
-             Long startSeqId = wal.startCacheFlush(this.regionInfo.getEncodedNameAsBytes());
+             Long startSeqId = wal.startCacheFlush(this.regionInfo.getEncodedNameAsBytes(),
+                 flushedFamilies);
              if (startSeqId == null) {
                status.setStatus("Flush will not be started for [" + this.regionInfo.getEncodedName()
                    + "] - WAL is going away");
                return false;
              }
              flushSeqId = startSeqId.longValue();
+             // Edits of the stores left out are still only in the WAL. This has
+             // to come after startCacheFlush, which waits until every edit of the
+             // region appended so far has its sequence id recorded; with updates
+             // blocked no other edit can come in before we read the oldest one.
+             oldestUnflushedSeqId =
+                 wal.getEarliestMemstoreSeqNum(this.regionInfo.getEncodedNameAsBytes());
            } else {
              flushSeqId = myseqid;
            }
      
-           for (Store s : stores.values()) {
+           for (Store s : storesToFlush) {
              storeFlushers.add(s.getStoreFlusher(flushSeqId));
            }
 
@@ -1582,6 +1683,9 @@ public class HRegion implements HeapSize { // , Writable{
       }
     } finally {
       this.updatesLock.writeLock().unlock();
+      for (Store s : stores.values()) {
+        s.resumeInMemoryFlushes();
+      }
     }
     String s = "Finished snapshotting " + this +
       ", commencing wait for mvcc, flushsize=" + flushsize;
@@ -1608,19 +1712,7 @@ public class HRegion implements HeapSize { // , Writable{
       // Keep running vector of all store files that includes both old and the
       // just-made new flush store file. The new flushed file is still in the
       // tmp directory.
-
-      for (StoreFlusher flusher : storeFlushers) {
-        flusher.flushCache(status);
-      }
-
-      // Switch snapshot (in memstore) -> new hfile (thus causing
-      // all the store scanners to reset/reseek).
-      for (StoreFlusher flusher : storeFlushers) {
-        boolean needsCompaction = flusher.commit(status);
-        if (needsCompaction) {
-          compactionRequested = true;
-        }
-      }
+      compactionRequested = flushStores(storeFlushers, status);
       storeFlushers.clear();
 
       // Set down the memstore size by amount of flush.
@@ -1653,9 +1745,11 @@ public class HRegion implements HeapSize { // , Writable{
       wal.completeCacheFlush(this.regionInfo.getEncodedNameAsBytes());
     }
 
-    // Update the last flushed sequence id for region
+    // Update the last flushed sequence id for region. Log splitting skips the
+    // edits up to it, so it stays below the edits of the stores not flushed.
     if (this.rsServices != null) {
-      completeSequenceId = flushSeqId;
+      completeSequenceId = oldestUnflushedSeqId == HConstants.NO_SEQNUM ?
+          flushSeqId : Math.min(flushSeqId, oldestUnflushedSeqId - 1);
     }
 
     // C. Finally notify anyone waiting on memstore to clear:
@@ -1668,6 +1762,8 @@ public class HRegion implements HeapSize { // , Writable{
     long memstoresize = this.memstoreSize.get();
     String msg = "Finished memstore flush of ~" +
       StringUtils.humanReadableInt(flushsize) + "/" + flushsize +
+      (storesToFlush.size() < stores.size() ? " in " + storesToFlush.size() + " of " +
+        stores.size() + " stores" : "") +
       ", currentsize=" +
       StringUtils.humanReadableInt(memstoresize) + "/" + memstoresize +
       " for region " + this + " in " + time + "ms, sequenceid=" + sequenceId +
@@ -1680,6 +1776,98 @@ public class HRegion implements HeapSize { // , Writable{
     return compactionRequested;
   }
 
+  /*
+   * @return the stores whose memstore holds at least flushSizeLowerBound, or
+   * all the stores if none does
+   */
+  private Collection<Store> selectStoresToFlush() {
+    if (this.flushSizeLowerBound <= 0) {
+      return stores.values();
+    }
+    List<Store> selected = new ArrayList<Store>();
+    for (Store s : stores.values()) {
+      if (s.getFlushableSize() >= this.flushSizeLowerBound) {
+        selected.add(s);
+      }
+    }
+    return selected.isEmpty() ? stores.values() : selected;
+  }
+
+  /*
+   * Writes out the snapshots of the stores, then switches each store from its
+   * snapshot to the new file, thus causing all the store scanners to
+   * reset/reseek.  Both steps run on up to hbase.hstore.flush.threads.max
+   * threads; no store is switched before all are written out.
+   * @return true if a store needs compacting
+   */
+  private boolean flushStores(final List<StoreFlusher> storeFlushers,
+      final MonitoredTask status) throws IOException {
+    int maxThreads = Math.min(storeFlushers.size(),
+        conf.getInt(HConstants.HSTORE_FLUSH_THREADS_MAX,
+            HConstants.DEFAULT_HSTORE_FLUSH_THREADS_MAX));
+    boolean compactionRequested = false;
+    if (maxThreads <= 1) {
+      for (StoreFlusher flusher : storeFlushers) {
+        flusher.flushCache(status);
+      }
+      for (StoreFlusher flusher : storeFlushers) {
+        if (flusher.commit(status)) {
+          compactionRequested = true;
+        }
+      }
+      return compactionRequested;
+    }
+
+    ThreadPoolExecutor storeFlusherThreadPool = getOpenAndCloseThreadPool(
+        maxThreads, "StoreFlusherThread-" + this.regionInfo.getRegionNameAsString());
+    try {
+      CompletionService<Boolean> completionService =
+        new ExecutorCompletionService<Boolean>(storeFlusherThreadPool);
+      for (final StoreFlusher flusher : storeFlushers) {
+        completionService.submit(new Callable<Boolean>() {
+          public Boolean call() throws IOException {
+            flusher.flushCache(status);
+            return false;
+          }
+        });
+      }
+      takeAll(completionService, storeFlushers.size());
+
+      for (final StoreFlusher flusher : storeFlushers) {
+        completionService.submit(new Callable<Boolean>() {
+          public Boolean call() throws IOException {
+            return flusher.commit(status);
+          }
+        });
+      }
+      compactionRequested = takeAll(completionService, storeFlushers.size());
+    } finally {
+      storeFlusherThreadPool.shutdownNow();
+    }
+    return compactionRequested;
+  }
+
+  /*
+   * Waits for the given number of tasks of the completion service.
+   * @return true if any of them returned true
+   */
+  private static boolean takeAll(final CompletionService<Boolean> completionService,
+      final int count) throws IOException {
+    boolean result = false;
+    try {
+      for (int i = 0; i < count; i++) {
+        if (completionService.take().get()) {
+          result = true;
+        }
+      }
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    }
+    return result;
+  }
+
    /**
    * Get the sequence number to be associated with this cache flush. Used by
    * TransactionalRegion to not complete pending transactions.
@@ -1948,6 +2136,26 @@ public class HRegion implements HeapSize { // , Writable{
     }
   }
 
+  /**
+   * Puts or deletes a row without waiting for the WAL sync.
+   * @param mutation the Put or Delete
+   * @param completion where to leave the synced part of the mutation
+   * @throws IOException
+   * @see #batchMutate(Pair[], SyncCompletion)
+   */
+  public void mutate(Mutation mutation, SyncCompletion completion)
+  throws IOException {
+    checkReadOnly();
+    checkResources();
+    startRegionOperation();
+    this.writeRequestsCount.increment();
+    try {
+      doBatchMutate(mutation, null, completion);
+    } finally {
+      closeRegionOperation();
+    }
+  }
+
   /**
    * Struct-like class that tracks the progress of a batch operation,
    * accumulating status codes and tracking the index at which processing
@@ -1996,6 +2204,26 @@ public class HRegion implements HeapSize { // , Writable{
    */
   public OperationStatus[] batchMutate(
       Pair<Mutation, Integer>[] mutationsAndLocks) throws IOException {
+    return batchMutate(mutationsAndLocks, null);
+  }
+
+  /**
+   * Perform a batch of mutations without waiting for the WAL sync.
+   * Each mini batch releases its row locks once it is appended to the WAL,
+   * as usual, but is then left to the given completion: its edits become
+   * visible, and the post coprocessor hooks run, once it is synced. If the
+   * sync fails the edits are rolled back and the completion fails.
+   * @param mutationsAndLocks
+   *          the list of mutations paired with their requested lock IDs.
+   * @param completion where to leave the synced part of the mini batches,
+   *          or null to wait for the syncs here
+   * @return an array of OperationStatus which internally contains the
+   *         OperationStatusCode and the exceptionMessage if any.
+   * @throws IOException
+   */
+  public OperationStatus[] batchMutate(
+      Pair<Mutation, Integer>[] mutationsAndLocks, SyncCompletion completion)
+      throws IOException {
     BatchOperationInProgress<Pair<Mutation, Integer>> batchOp =
       new BatchOperationInProgress<Pair<Mutation,Integer>>(mutationsAndLocks);
 
@@ -2014,8 +2242,9 @@ public class HRegion implements HeapSize { // , Writable{
           doPreMutationHook(batchOp);
           initialized = true;
         }
-        long addedSize = doMiniBatchMutation(batchOp);
+        long addedSize = doMiniBatchMutation(batchOp, completion);
         newSize = this.addAndGetGlobalMemstoreSize(addedSize);
+        requestInMemoryFlush();
       } finally {
         closeRegionOperation();
       }
@@ -2064,7 +2293,8 @@ public class HRegion implements HeapSize { // , Writable{
 
   @SuppressWarnings("unchecked")
   private long doMiniBatchMutation(
-    BatchOperationInProgress<Pair<Mutation, Integer>> batchOp) throws IOException {
+    BatchOperationInProgress<Pair<Mutation, Integer>> batchOp,
+    SyncCompletion completion) throws IOException {
 
     // variable to note if all Put items are for the same CF -- metrics related
     boolean putsCfSetConsistent = true;
@@ -2079,6 +2309,8 @@ public class HRegion implements HeapSize { // , Writable{
     MultiVersionConsistencyControl.WriteEntry w = null;
     long txid = 0;
     boolean walSyncSuccessful = false;
+    // whether the sync and what follows it were left to the completion
+    boolean syncPending = false;
     boolean locked = false;
 
     /** Keep track of the locks we hold so we can release them in finally clause */
@@ -2140,8 +2372,10 @@ public class HRegion implements HeapSize { // , Writable{
         boolean shouldBlock = numReadyToWrite == 0;
         Integer acquiredLockId = null;
         try {
+          // Puts only add cells, so they share the row with each other. A
+          // delete may read the row to find the versions it deletes.
           acquiredLockId = getLock(providedLockId, mutation.getRow(),
-              shouldBlock);
+              shouldBlock, !isPutMutation);
         } catch (IOException ioe) {
           LOG.warn("Failed getting lock in batch put, row="
                   + Bytes.toStringBinary(mutation.getRow()), ioe);
@@ -2285,6 +2519,14 @@ public class HRegion implements HeapSize { // , Writable{
       // STEP 7. Sync wal.
       // -------------------------
       if (walEdit.size() > 0) {
+        if (completion != null && !isSyncDeferred()) {
+          completion.add(this.log, txid, new PendingMiniBatch(batchOp,
+              familyMaps, firstIndex, lastIndexExclusive, walEdit, w));
+          w = null;
+          syncPending = true;
+          success = true;
+          return addedSize;
+        }
         syncOrDefer(txid);
       }
       walSyncSuccessful = true;
@@ -2300,31 +2542,20 @@ public class HRegion implements HeapSize { // , Writable{
       // STEP 9. Run coprocessor post hooks. This should be done after the wal is
       // synced so that the coprocessor contract is adhered to.
       // ------------------------------------
-      if (coprocessorHost != null) {
-        for (int i = firstIndex; i < lastIndexExclusive; i++) {
-          // only for successful puts
-          if (batchOp.retCodeDetails[i].getOperationStatusCode()
-              != OperationStatusCode.SUCCESS) {
-            continue;
-          }
-          Mutation m = batchOp.operations[i].getFirst();
-          if (m instanceof Put) {
-            coprocessorHost.postPut((Put) m, walEdit, m.getWriteToWAL());
-          } else {
-            coprocessorHost.postDelete((Delete) m, walEdit, m.getWriteToWAL());
-          }
-        }
-      }
+      doPostMutationHooks(batchOp, walEdit, firstIndex, lastIndexExclusive);
 
       success = true;
       return addedSize;
     } finally {
 
       // if the wal sync was unsuccessful, remove keys from memstore
-      if (!walSyncSuccessful) {
+      if (!walSyncSuccessful && !syncPending) {
         rollbackMemstore(batchOp, familyMaps, firstIndex, lastIndexExclusive);
       }
       if (w != null) mvcc.completeMemstoreInsert(w);
+      if (this.rowCache != null && !syncPending) {
+        invalidateCachedRows(batchOp, firstIndex, lastIndexExclusive);
+      }
 
       if (locked) {
         this.updatesLock.readLock().unlock();
@@ -2365,6 +2596,102 @@ public class HRegion implements HeapSize { // , Writable{
     }
   }
 
+  private void doPostMutationHooks(
+      BatchOperationInProgress<Pair<Mutation, Integer>> batchOp,
+      WALEdit walEdit, int firstIndex, int lastIndexExclusive)
+      throws IOException {
+    if (coprocessorHost == null) {
+      return;
+    }
+    for (int i = firstIndex; i < lastIndexExclusive; i++) {
+      // only for successful puts
+      if (batchOp.retCodeDetails[i].getOperationStatusCode()
+          != OperationStatusCode.SUCCESS) {
+        continue;
+      }
+      Mutation m = batchOp.operations[i].getFirst();
+      if (m instanceof Put) {
+        coprocessorHost.postPut((Put) m, walEdit, m.getWriteToWAL());
+      } else {
+        coprocessorHost.postDelete((Delete) m, walEdit, m.getWriteToWAL());
+      }
+    }
+  }
+
+  private void invalidateCachedRows(
+      BatchOperationInProgress<Pair<Mutation, Integer>> batchOp,
+      int firstIndex, int lastIndexExclusive) {
+    for (int i = firstIndex; i < lastIndexExclusive; i++) {
+      invalidateCachedRow(batchOp.operations[i].getFirst().getRow());
+    }
+  }
+
+  /**
+   * The part of a mini batch that follows the WAL sync, when the handler
+   * did not wait for it: steps 8 and 9 of
+   * {@link HRegion#doMiniBatchMutation}, or the memstore rollback if the
+   * sync failed.
+   * <p>
+   * This runs on the sync completion pool, after the handler has let go of
+   * the updates lock and the region lock. It cannot take them back: a flush
+   * or close queued for the write lock waits on the mvcc entry that only
+   * this callback completes. A failed sync therefore aborts the server, so
+   * that no flush or close can persist edits that never reached the WAL;
+   * the rollback and the mvcc completion only keep readers from seeing them
+   * in the meantime.
+   */
+  private class PendingMiniBatch implements SyncCompletion.Callback {
+    private final BatchOperationInProgress<Pair<Mutation, Integer>> batchOp;
+    private final Map<byte[], List<KeyValue>>[] familyMaps;
+    private final int firstIndex;
+    private final int lastIndexExclusive;
+    private final WALEdit walEdit;
+    private final MultiVersionConsistencyControl.WriteEntry w;
+
+    PendingMiniBatch(BatchOperationInProgress<Pair<Mutation, Integer>> batchOp,
+        Map<byte[], List<KeyValue>>[] familyMaps, int firstIndex,
+        int lastIndexExclusive, WALEdit walEdit,
+        MultiVersionConsistencyControl.WriteEntry w) {
+      this.batchOp = batchOp;
+      this.familyMaps = familyMaps;
+      this.firstIndex = firstIndex;
+      this.lastIndexExclusive = lastIndexExclusive;
+      this.walEdit = walEdit;
+      this.w = w;
+    }
+
+    @Override
+    public void syncCompleted(IOException e) throws IOException {
+      if (e != null) {
+        try {
+          rollbackMemstore(batchOp, familyMaps, firstIndex, lastIndexExclusive);
+        } finally {
+          abortOnFailedSync(e);
+        }
+      }
+      if (w != null) {
+        mvcc.completeMemstoreInsert(w);
+      }
+      if (rowCache != null) {
+        invalidateCachedRows(batchOp, firstIndex, lastIndexExclusive);
+      }
+      if (e == null) {
+        doPostMutationHooks(batchOp, walEdit, firstIndex, lastIndexExclusive);
+      }
+    }
+
+    private void abortOnFailedSync(IOException e) {
+      String msg = "WAL sync failed for a batch already applied to the " +
+          "memstore of " + getRegionNameAsString();
+      if (rsServices != null) {
+        rsServices.abort(msg, e);
+      } else {
+        LOG.fatal(msg + "; refusing further flushes and operations", e);
+        closing.set(true);
+      }
+    }
+  }
+
   //TODO, Think that gets/puts and deletes should be refactored a bit so that
   //the getting of the lock happens before, so that you would just pass it into
   //the methods. So in the case of checkAndMutate you could just do lockRow,
@@ -2467,8 +2794,13 @@ public class HRegion implements HeapSize { // , Writable{
   @SuppressWarnings("unchecked")
   private void doBatchMutate(Mutation mutation, Integer lid) throws IOException,
       DoNotRetryIOException {
+    doBatchMutate(mutation, lid, null);
+  }
+
+  private void doBatchMutate(Mutation mutation, Integer lid,
+      SyncCompletion completion) throws IOException, DoNotRetryIOException {
     Pair<Mutation, Integer>[] mutateWithLocks = new Pair[] { new Pair<Mutation, Integer>(mutation, lid) };
-    OperationStatus[] batchMutate = this.batchMutate(mutateWithLocks);
+    OperationStatus[] batchMutate = this.batchMutate(mutateWithLocks, completion);
     if (batchMutate[0].getOperationStatusCode().equals(OperationStatusCode.SANITY_CHECK_FAILURE)) {
       throw new FailedSanityCheckException(batchMutate[0].getExceptionMsg());
     } else if (batchMutate[0].getOperationStatusCode().equals(OperationStatusCode.BAD_FAMILY)) {
@@ -2724,6 +3056,48 @@ public class HRegion implements HeapSize { // , Writable{
     }
   }
 
+  /**
+   * Asks the flusher to flush this region in memory if one of its stores
+   * outgrew the in-memory flush size.
+   */
+  private void requestInMemoryFlush() {
+    if (this.rsServices == null) {
+      return;
+    }
+    FlushRequester requester = this.rsServices.getFlushRequester();
+    if (requester == null) {
+      return;
+    }
+    for (Store store : this.stores.values()) {
+      if (store.shouldFlushInMemory()) {
+        requester.requestInMemoryFlush(this);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Flushes in memory the stores whose memstore outgrew the in-memory flush
+   * size, see {@link Store#flushInMemory()}.  Called by the flusher, without
+   * the updates lock: writes and flushes to disk go on meanwhile.
+   * @return True if a store was flushed in memory
+   * @throws IOException if the region is closing or too busy
+   */
+  boolean flushStoresInMemory() throws IOException {
+    startRegionOperation();
+    try {
+      boolean flushed = false;
+      for (Store store : this.stores.values()) {
+        if (store.shouldFlushInMemory() && store.flushInMemory() != 0) {
+          flushed = true;
+        }
+      }
+      return flushed;
+    } finally {
+      closeRegionOperation();
+    }
+  }
+
   /*
    * @param size
    * @return True if size is over the flush threshold
@@ -3092,7 +3466,7 @@ public class HRegion implements HeapSize { // , Writable{
   }
 
   /**
-   * Obtain a lock on the given row.  Blocks until success.
+   * Obtain an exclusive lock on the given row.  Blocks until success.
    *
    * I know it's strange to have two mappings:
    * <pre>
@@ -3113,7 +3487,7 @@ public class HRegion implements HeapSize { // , Writable{
     startRegionOperation();
     this.writeRequestsCount.increment();
     try {
-      return internalObtainRowLock(row, true);
+      return internalObtainRowLock(row, true, true);
     } finally {
       closeRegionOperation();
     }
@@ -3121,45 +3495,61 @@ public class HRegion implements HeapSize { // , Writable{
 
   /**
    * Obtains or tries to obtain the given row lock.
+   * <p>
+   * Any number of shared holders of a row lock exclude only exclusive ones.
+   * Row locks are not owned by threads: any thread may release one by its
+   * lock id, as the lock id may be handed to whoever ends up releasing it.
+   * Nor are they reentrant: a thread asking again for a row it holds waits
+   * like any other, so callers already holding the lock pass its lock id.
    * @param waitForLock if true, will block until the lock is available.
    *        Otherwise, just tries to obtain the lock and returns
    *        null if unavailable.
+   * @param exclusive whether to take the lock exclusively or shared
    */
-  private Integer internalObtainRowLock(final byte[] row, boolean waitForLock)
-  throws IOException {
+  private Integer internalObtainRowLock(final byte[] row, boolean waitForLock,
+      boolean exclusive) throws IOException {
     checkRow(row, "row lock");
     startRegionOperation();
     try {
-      HashedBytes rowKey = new HashedBytes(row);
-      CountDownLatch rowLatch = new CountDownLatch(1);
-
-      // loop until we acquire the row lock (unless !waitForLock)
-      while (true) {
-        CountDownLatch existingLatch = lockedRows.putIfAbsent(rowKey, rowLatch);
-        if (existingLatch == null) {
-          break;
-        } else {
+      RowLockContext context = retainRowLockContext(new HashedBytes(row));
+      boolean locked = false;
+      try {
+        locked = context.tryLock(exclusive);
+        if (!locked) {
           // row already locked
           if (!waitForLock) {
             return null;
           }
+          long startTime = EnvironmentEdgeManager.currentTimeMillis();
           try {
-            if (!existingLatch.await(this.rowLockWaitDuration,
-                            TimeUnit.MILLISECONDS)) {
-              throw new IOException("Timed out on getting lock for row="
-                  + Bytes.toStringBinary(row));
-            }
+            locked = context.tryLock(exclusive, this.rowLockWaitDuration);
           } catch (InterruptedException ie) {
-            // Empty
+            InterruptedIOException iie = new InterruptedIOException(
+                "Interrupted getting lock for row=" + Bytes.toStringBinary(row));
+            iie.initCause(ie);
+            throw iie;
+          } finally {
+            this.rowLockWaitCount.increment();
+            this.rowLockWaitMs.add(
+                EnvironmentEdgeManager.currentTimeMillis() - startTime);
+          }
+          if (!locked) {
+            throw new IOException("Timed out on getting lock for row="
+                + Bytes.toStringBinary(row));
           }
         }
+      } finally {
+        if (!locked) {
+          releaseRowLockContext(context);
+        }
       }
 
       // loop until we generate an unused lock id
+      RowLock rowLock = new RowLock(context, exclusive);
       while (true) {
         Integer lockId = lockIdGenerator.incrementAndGet();
-        HashedBytes existingRowKey = lockIds.putIfAbsent(lockId, rowKey);
-        if (existingRowKey == null) {
+        RowLock existingRowLock = lockIds.putIfAbsent(lockId, rowLock);
+        if (existingRowLock == null) {
           return lockId;
         } else {
           // lockId already in use, jump generator to a new spot
@@ -3171,24 +3561,67 @@ public class HRegion implements HeapSize { // , Writable{
     }
   }
 
+  /**
+   * @return the lock object of the given row, registered as one more user so
+   * it stays assigned to the row until released
+   */
+  private RowLockContext retainRowLockContext(final HashedBytes rowKey) {
+    while (true) {
+      RowLockContext context = lockedRows.get(rowKey);
+      if (context == null) {
+        context = rowLockPool.poll();
+        if (context != null) {
+          rowLockPoolSize.decrementAndGet();
+        } else {
+          context = new RowLockContext();
+        }
+        context.assign(rowKey);
+        RowLockContext existingContext = lockedRows.putIfAbsent(rowKey, context);
+        if (existingContext == null) {
+          return context;
+        }
+        releaseRowLockContext(context);
+        context = existingContext;
+      }
+      // The context may have been let go of, and even reassigned, since we
+      // looked it up; it is ours only if still mapped to the row once retained.
+      if (context.retain()) {
+        if (lockedRows.get(rowKey) == context) {
+          return context;
+        }
+        releaseRowLockContext(context);
+      }
+    }
+  }
+
+  /**
+   * Drops a user of the given lock object. The last one unmaps it from its
+   * row and returns it to the pool.
+   */
+  private void releaseRowLockContext(final RowLockContext context) {
+    if (context.release()) {
+      lockedRows.remove(context.row, context);
+      if (rowLockPoolSize.incrementAndGet() <= rowLockPoolMaxSize) {
+        rowLockPool.offer(context);
+      } else {
+        rowLockPoolSize.decrementAndGet();
+      }
+    }
+  }
+
   /**
    * Release the row lock!
    * @param lockId  The lock ID to release.
    */
   public void releaseRowLock(final Integer lockId) {
     if (lockId == null) return; // null lock id, do nothing
-    HashedBytes rowKey = lockIds.remove(lockId);
-    if (rowKey == null) {
+    RowLock rowLock = lockIds.remove(lockId);
+    if (rowLock == null) {
       LOG.warn("Release unknown lockId: " + lockId);
       return;
     }
-    CountDownLatch rowLatch = lockedRows.remove(rowKey);
-    if (rowLatch == null) {
-      LOG.error("Releases row not locked, lockId: " + lockId + " row: "
-          + rowKey);
-      return;
-    }
-    rowLatch.countDown();
+    rowLock.context.unlock(rowLock.exclusive);
+    releaseRowLockContext(rowLock.context);
   }
 
   /**
@@ -3202,7 +3635,7 @@ public class HRegion implements HeapSize { // , Writable{
 
   /**
    * Returns existing row lock if found, otherwise
-   * obtains a new row lock and returns it.
+   * obtains a new exclusive row lock and returns it.
    * @param lockid requested by the user, or null if the user didn't already hold lock
    * @param row the row to lock
    * @param waitForLock if true, will block until the lock is available, otherwise will
@@ -3211,9 +3644,25 @@ public class HRegion implements HeapSize { // , Writable{
    */
   public Integer getLock(Integer lockid, byte [] row, boolean waitForLock)
   throws IOException {
+    return getLock(lockid, row, waitForLock, true);
+  }
+
+  /**
+   * Returns existing row lock if found, otherwise
+   * obtains a new row lock and returns it.
+   * @param lockid requested by the user, or null if the user didn't already hold lock
+   * @param row the row to lock
+   * @param waitForLock if true, will block until the lock is available, otherwise will
+   * simply return null if it could not acquire the lock.
+   * @param exclusive whether a new lock excludes all other holders of the
+   * row, or only the exclusive ones
+   * @return lockid or null if waitForLock is false and the lock was unavailable.
+   */
+  public Integer getLock(Integer lockid, byte [] row, boolean waitForLock,
+      boolean exclusive) throws IOException {
     Integer lid = null;
     if (lockid == null) {
-      lid = internalObtainRowLock(row, waitForLock);
+      lid = internalObtainRowLock(row, waitForLock, exclusive);
     } else {
       if (!isRowLocked(lockid)) {
         throw new IOException("Invalid row lock");
@@ -3223,6 +3672,109 @@ public class HRegion implements HeapSize { // , Writable{
     return lid;
   }
 
+  /**
+   * A held row lock: the lock object of the row and whether it is held
+   * shared or exclusive.
+   */
+  private static final class RowLock {
+    final RowLockContext context;
+    final boolean exclusive;
+
+    RowLock(final RowLockContext context, final boolean exclusive) {
+      this.context = context;
+      this.exclusive = exclusive;
+    }
+  }
+
+  /**
+   * The lock object of a row. It stays mapped to the row while any thread
+   * holds or waits for the lock, then goes back to the region's pool to be
+   * reused for another row.
+   * <p>
+   * The lock is a fair semaphore rather than a read/write lock so that any
+   * thread can release it: a shared holder takes one permit and an exclusive
+   * holder takes them all. Waiters are served in order, so a stream of shared
+   * holders cannot starve an exclusive one.
+   */
+  private static final class RowLockContext {
+    private static final int MAX_HOLDERS = Integer.MAX_VALUE;
+
+    private final Semaphore permits = new Semaphore(MAX_HOLDERS, true);
+    // Threads holding or waiting for the lock; -1 once let go of
+    private final AtomicInteger users = new AtomicInteger(-1);
+    // Row the context is assigned to; published through lockedRows
+    HashedBytes row;
+
+    /**
+     * Takes the lock if no waiter is ahead and no conflicting holder has it.
+     * @return whether the lock was taken
+     */
+    boolean tryLock(final boolean exclusive) {
+      try {
+        // The timed form honors fairness where the untimed one barges
+        return this.permits.tryAcquire(exclusive ? MAX_HOLDERS : 1, 0,
+            TimeUnit.MILLISECONDS);
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
+    /**
+     * Waits up to the given number of milliseconds for the lock.
+     * @return whether the lock was taken
+     */
+    boolean tryLock(final boolean exclusive, final long timeoutMs)
+    throws InterruptedException {
+      return this.permits.tryAcquire(exclusive ? MAX_HOLDERS : 1, timeoutMs,
+          TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Releases a lock taken by {@link #tryLock(boolean)}, from any thread.
+     */
+    void unlock(final boolean exclusive) {
+      this.permits.release(exclusive ? MAX_HOLDERS : 1);
+    }
+
+    /**
+     * Assigns an unused context to the given row, with the caller as its
+     * only user.
+     */
+    void assign(final HashedBytes row) {
+      this.row = row;
+      this.users.set(1);
+    }
+
+    /**
+     * @return false if the context was let go of and must not be used
+     */
+    boolean retain() {
+      while (true) {
+        int count = this.users.get();
+        if (count < 0) {
+          return false;
+        }
+        if (this.users.compareAndSet(count, count + 1)) {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * @return true if the caller was the last user, and the context is let go
+     */
+    boolean release() {
+      while (true) {
+        int count = this.users.get();
+        int next = count == 1 ? -1 : count - 1;
+        if (this.users.compareAndSet(count, next)) {
+          return next < 0;
+        }
+      }
+    }
+  }
+
   /**
    * Determines whether multiple column families are present
    * Precondition: familyPaths is not null
@@ -3351,6 +3903,8 @@ public class HRegion implements HeapSize { // , Writable{
       }
       return true;
     } finally {
+      // The loaded files may hold newer versions of any cached row
+      invalidateCachedRegion();
       closeBulkRegionOperation();
     }
   }
@@ -4384,6 +4938,64 @@ public class HRegion implements HeapSize { // , Writable{
    * @throws IOException read exceptions
    */
   public Result get(final Get get) throws IOException {
+    prepareGet(get);
+    List<KeyValue> results = get(get, true);
+    return new Result(results);
+  }
+
+  /**
+   * Does a batch of gets. The gets without a filter that only differ in their
+   * row from the first of them are served together by a single scanner, which
+   * reseeks from row to row in key order, and only reseeks each store file to
+   * the rows its Bloom filter passes. The other gets, including those
+   * the row cache serves, are done one by one.
+   * @param gets get objects
+   * @return the results, in the order of the gets
+   * @throws IOException read exceptions
+   */
+  public Result[] get(final List<Get> gets) throws IOException {
+    Result[] results = new Result[gets.size()];
+    get(gets, results);
+    return results;
+  }
+
+  /**
+   * Does a batch of gets like {@link #get(List)}, putting the result of each
+   * get in the given array as soon as it has it. If this throws, the gets
+   * that already have a result need not be done again.
+   * @param gets get objects
+   * @param results where to put the results, in the order of the gets
+   * @throws IOException read exceptions
+   */
+  public void get(final List<Get> gets, final Result[] results)
+      throws IOException {
+    List<Integer> batch = new ArrayList<Integer>(gets.size());
+    Get model = null;
+    for (int i = 0; i < gets.size(); i++) {
+      Get get = gets.get(i);
+      prepareGet(get);
+      // Gets served by the row cache are left to get(Get)
+      if (get.getFilter() == null && !isRowCacheable(get)
+          && (model == null || isSameGetShape(model, get))) {
+        model = model == null ? get : model;
+        batch.add(i);
+      }
+    }
+    if (batch.size() > 1) {
+      batchGet(gets, batch, results);
+    }
+    for (int i = 0; i < gets.size(); i++) {
+      if (results[i] == null) {
+        results[i] = new Result(get(gets.get(i), true));
+      }
+    }
+  }
+
+  /**
+   * Checks the row and families of a get, and makes it read all families if
+   * it did not name any.
+   */
+  private void prepareGet(final Get get) throws IOException {
     checkRow(get.getRow(), "Get");
     // Verify families are all valid
     if (get.hasFamilies()) {
@@ -4395,8 +5007,127 @@ public class HRegion implements HeapSize { // , Writable{
         get.addFamily(family);
       }
     }
-    List<KeyValue> results = get(get, true);
-    return new Result(results);
+  }
+
+  /**
+   * @return true if the two gets read the same columns the same way, i.e.
+   *         can be served by one scanner
+   */
+  private static boolean isSameGetShape(Get a, Get b) {
+    if (a.getMaxVersions() != b.getMaxVersions()
+        || a.getCacheBlocks() != b.getCacheBlocks()
+        || a.getCustomId() != b.getCustomId()
+        || a.getMaxResultsPerColumnFamily() != b.getMaxResultsPerColumnFamily()
+        || a.getRowOffsetPerColumnFamily() != b.getRowOffsetPerColumnFamily()
+        || a.getTimeRange().getMin() != b.getTimeRange().getMin()
+        || a.getTimeRange().getMax() != b.getTimeRange().getMax()) {
+      return false;
+    }
+    Map<byte[], NavigableSet<byte[]>> aFamilies = a.getFamilyMap();
+    Map<byte[], NavigableSet<byte[]>> bFamilies = b.getFamilyMap();
+    if (aFamilies.size() != bFamilies.size()) {
+      return false;
+    }
+    for (Map.Entry<byte[], NavigableSet<byte[]>> entry : aFamilies.entrySet()) {
+      if (!bFamilies.containsKey(entry.getKey())) {
+        return false;
+      }
+      NavigableSet<byte[]> aColumns = entry.getValue();
+      NavigableSet<byte[]> bColumns = bFamilies.get(entry.getKey());
+      int aCount = aColumns == null ? 0 : aColumns.size();
+      int bCount = bColumns == null ? 0 : bColumns.size();
+      if (aCount != bCount) {
+        return false;
+      }
+      if (aCount > 0 && !bColumns.containsAll(aColumns)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Serves the given gets, which only differ in their row, with one scanner
+   * walking their rows in key order.
+   * @param gets all gets of the batch
+   * @param batch indexes of the gets to serve
+   * @param results where to put the result of each served get
+   */
+  private void batchGet(List<Get> gets, List<Integer> batch, Result[] results)
+      throws IOException {
+    TreeMap<byte[], List<Integer>> rows =
+        new TreeMap<byte[], List<Integer>>(Bytes.BYTES_COMPARATOR);
+    for (int index : batch) {
+      Get get = gets.get(index);
+      // pre-get CP hook
+      if (coprocessorHost != null) {
+        List<KeyValue> bypassed = new ArrayList<KeyValue>();
+        if (coprocessorHost.preGet(get, bypassed)) {
+          results[index] = new Result(bypassed);
+          continue;
+        }
+      }
+      List<Integer> indexes = rows.get(get.getRow());
+      if (indexes == null) {
+        indexes = new ArrayList<Integer>(1);
+        rows.put(get.getRow(), indexes);
+      }
+      indexes.add(index);
+    }
+    if (rows.isEmpty()) {
+      return;
+    }
+
+    InternalScan scan = new InternalScan(gets.get(batch.get(0)),
+        new ArrayList<byte[]>(rows.keySet()));
+    RegionScanner scanner = null;
+    try {
+      scanner = getScanner(scan);
+      // The scanner skips missing rows, so it may return a row after the one
+      // asked for, which is kept in case one of the following gets wants it.
+      List<KeyValue> nextRow = new ArrayList<KeyValue>();
+      int cmp = -1;
+      boolean moreRows = true;
+      for (Map.Entry<byte[], List<Integer>> entry : rows.entrySet()) {
+        byte[] row = entry.getKey();
+        if (!nextRow.isEmpty()) {
+          KeyValue first = nextRow.get(0);
+          cmp = Bytes.compareTo(first.getBuffer(), first.getRowOffset(),
+              first.getRowLength(), row, 0, row.length);
+        }
+        if ((nextRow.isEmpty() || cmp < 0) && moreRows) {
+          nextRow.clear();
+          scanner.reseek(row);
+          moreRows = scanner.next(nextRow);
+          if (!nextRow.isEmpty()) {
+            KeyValue first = nextRow.get(0);
+            cmp = Bytes.compareTo(first.getBuffer(), first.getRowOffset(),
+                first.getRowLength(), row, 0, row.length);
+          }
+        }
+        List<KeyValue> rowResults = null;
+        if (!nextRow.isEmpty() && cmp == 0) {
+          rowResults = nextRow;
+          nextRow = new ArrayList<KeyValue>();
+        }
+        for (int index : entry.getValue()) {
+          List<KeyValue> getResults = rowResults == null
+              ? new ArrayList<KeyValue>() : new ArrayList<KeyValue>(rowResults);
+          // post-get CP hook
+          if (coprocessorHost != null) {
+            coprocessorHost.postGet(gets.get(index), getResults);
+          }
+          if (this.metricsRegion != null) {
+            this.metricsRegion.updateGet();
+          }
+          results[index] = new Result(getResults);
+        }
+      }
+    } finally {
+      if (scanner != null) {
+        scanner.close();
+      }
+    }
   }
 
   /*
@@ -4417,16 +5148,31 @@ public class HRegion implements HeapSize { // , Writable{
        }
     }
 
-    Scan scan = new Scan(get);
-    scan.setCustomID(get.getCustomId());
+    long rowCacheGeneration = -1;
+    boolean fromRowCache = false;
+    if (results.isEmpty() && isRowCacheable(get)) {
+      // Taken before the scanner gets its read point
+      rowCacheGeneration = rowCache.getGeneration(getRegionName(), get.getRow());
+      fromRowCache = rowCache.getRow(getRegionName(), get.getRow(),
+          get.familySet(), EnvironmentEdgeManager.currentTimeMillis(), results,
+          get.getCustomId());
+    }
 
-    RegionScanner scanner = null;
-    try {
-      scanner = getScanner(scan);
-      scanner.next(results);
-    } finally {
-      if (scanner != null)
-        scanner.close();
+    if (!fromRowCache) {
+      Scan scan = new Scan(get);
+      scan.setCustomID(get.getCustomId());
+
+      RegionScanner scanner = null;
+      try {
+        scanner = getScanner(scan);
+        scanner.next(results);
+      } finally {
+        if (scanner != null)
+          scanner.close();
+      }
+      if (rowCacheGeneration >= 0 && get.getCacheBlocks()) {
+        cacheRow(get, results, rowCacheGeneration);
+      }
     }
 
     // post-get CP hook
@@ -4442,6 +5188,66 @@ public class HRegion implements HeapSize { // , Writable{
     return results;
   }
 
+  /**
+   * @return true if the get reads the latest version of whole families that
+   *         are all served from the row cache
+   */
+  private boolean isRowCacheable(Get get) {
+    if (this.rowCache == null || get.getFilter() != null
+        || get.getMaxVersions() != 1
+        || !get.getTimeRange().isAllTime()
+        || get.getMaxResultsPerColumnFamily() >= 0
+        || get.getRowOffsetPerColumnFamily() > 0) {
+      return false;
+    }
+    for (Map.Entry<byte[], NavigableSet<byte[]>> entry :
+        get.getFamilyMap().entrySet()) {
+      NavigableSet<byte[]> columns = entry.getValue();
+      if (!this.rowCacheFamilies.contains(entry.getKey())
+          || (columns != null && !columns.isEmpty())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Caches the row a get read, until its first KeyValue may have expired.
+   */
+  private void cacheRow(Get get, List<KeyValue> results, long generation) {
+    int ttl = HConstants.FOREVER;
+    for (byte[] family : get.familySet()) {
+      ttl = Math.min(ttl, this.stores.get(family).getFamily().getTimeToLive());
+    }
+    long expiresAt = Long.MAX_VALUE;
+    if (ttl != HConstants.FOREVER) {
+      for (KeyValue kv : results) {
+        expiresAt = Math.min(expiresAt, kv.getTimestamp() + ttl * 1000L);
+      }
+    }
+    this.rowCache.cacheRow(getRegionName(), get.getRow(), get.familySet(),
+        results, expiresAt, generation);
+  }
+
+  /**
+   * Drops a row from the row cache. Has to be called once a mutation to the
+   * row is visible to readers.
+   */
+  private void invalidateCachedRow(byte[] row) {
+    if (this.rowCache != null) {
+      this.rowCache.invalidateRow(getRegionName(), row);
+    }
+  }
+
+  /**
+   * Drops all rows of this region from the row cache.
+   */
+  private void invalidateCachedRegion() {
+    if (this.rowCache != null) {
+      this.rowCache.invalidateRegion(getRegionName());
+    }
+  }
+
   public void mutateRow(RowMutations rm) throws IOException {
     mutateRowsWithLocks(rm.getMutations(), Collections.singleton(rm.getRow()));
   }
@@ -4594,6 +5400,11 @@ public class HRegion implements HeapSize { // , Writable{
           mvcc.completeMemstoreInsert(writeEntry);
           writeEntry = null;
         }
+        if (!mutations.isEmpty()) {
+          for (byte[] row : processor.getRowsToLock()) {
+            invalidateCachedRow(row);
+          }
+        }
         if (locked) {
           this.updatesLock.readLock().unlock();
           locked = false;
@@ -4816,10 +5627,12 @@ public class HRegion implements HeapSize { // , Writable{
       if (writeToWAL) {
         syncOrDefer(txid); // sync the transaction log outside the rowlock
       }
+      requestInMemoryFlush();
     } finally {
       if (w != null) {
         mvcc.completeMemstoreInsert(w);
       }
+      invalidateCachedRow(row);
       closeRegionOperation();
     }
 
@@ -4955,10 +5768,12 @@ public class HRegion implements HeapSize { // , Writable{
       if (writeToWAL) {
         syncOrDefer(txid); // sync the transaction log outside the rowlock
       }
+      requestInMemoryFlush();
     } finally {
       if (w != null) {
         mvcc.completeMemstoreInsert(w);
       }
+      invalidateCachedRow(row);
       closeRegionOperation();
       if (this.metricsRegion != null) {
         this.metricsRegion.updateIncrement();
@@ -4989,7 +5804,7 @@ public class HRegion implements HeapSize { // , Writable{
   public static final long FIXED_OVERHEAD = ClassSize.align(
       ClassSize.OBJECT +
       ClassSize.ARRAY +
-      39 * ClassSize.REFERENCE + 2 * Bytes.SIZEOF_INT +
+      45 * ClassSize.REFERENCE + 3 * Bytes.SIZEOF_INT +
       (10 * Bytes.SIZEOF_LONG) +
       Bytes.SIZEOF_BOOLEAN);
 
@@ -4997,8 +5812,11 @@ public class HRegion implements HeapSize { // , Writable{
       ClassSize.OBJECT + // closeLock
       (2 * ClassSize.ATOMIC_BOOLEAN) + // closed, closing
       (3 * ClassSize.ATOMIC_LONG) + // memStoreSize, numPutsWithoutWAL, dataInMemoryWithoutWAL
-      ClassSize.ATOMIC_INTEGER + // lockIdGenerator
+      (2 * ClassSize.ATOMIC_INTEGER) + // lockIdGenerator, rowLockPoolSize
       (3 * ClassSize.CONCURRENT_HASHMAP) +  // lockedRows, lockIds, scannerReadPoints
+      (2 * ClassSize.align(ClassSize.OBJECT + 2 * ClassSize.REFERENCE)) + // rowLockPool
+      ClassSize.align(ClassSize.OBJECT + ClassSize.REFERENCE) +
+      ClassSize.TREEMAP + // rowCacheFamilies
       WriteState.HEAP_SIZE + // writestate
       ClassSize.CONCURRENT_SKIPLISTMAP + ClassSize.CONCURRENT_SKIPLISTMAP_ENTRY + // stores
       (2 * ClassSize.REENTRANT_LOCK) + // lock, updatesLock
@@ -5382,12 +6200,20 @@ public class HRegion implements HeapSize { // , Writable{
    * @throws IOException If anything goes wrong with DFS
    */
   private void syncOrDefer(long txid) throws IOException {
-    if (this.regionInfo.isMetaRegion() ||
-      !this.htableDescriptor.isDeferredLogFlush()) {
+    if (!isSyncDeferred()) {
       this.log.sync(txid);
     }
   }
 
+  /**
+   * @return true if edits are not synced as they are written, but left to
+   * the deferred log flush of the region's table
+   */
+  private boolean isSyncDeferred() {
+    return !this.regionInfo.isMetaRegion() &&
+      this.htableDescriptor.isDeferredLogFlush();
+  }
+
   /**
    * A mocked list implementaion - discards all updates.
    */
@@ -48,6 +48,9 @@ import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -105,6 +108,7 @@ import org.apache.hadoop.hbase.fs.HFileSystem;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.ipc.HBaseClientRPC;
 import org.apache.hadoop.hbase.ipc.HBaseRPCErrorHandler;
+import org.apache.hadoop.hbase.ipc.HBaseServer;
 import org.apache.hadoop.hbase.ipc.HBaseServerRPC;
 import org.apache.hadoop.hbase.ipc.ProtobufRpcClientEngine;
 import org.apache.hadoop.hbase.ipc.RpcClientEngine;
@@ -362,6 +366,9 @@ public class  HRegionServer implements ClientProtocol,
   // The meta updates are written to a different hlog. If this
   // regionserver holds meta regions, then this field will be non-null.
   protected volatile HLog hlogForMeta;
+  // The WALs the regions write to, by WAL group; see
+  // HLogFactory#getWALGroup. The first one is hlog.
+  protected volatile HLog[] hlogGroups;
 
   LogRoller hlogRoller;
   LogRoller metaHLogRoller;
@@ -425,6 +432,13 @@ public class  HRegionServer implements ClientProtocol,
    */
   private final int rowLockLeaseTimeoutPeriod;
 
+  /**
+   * Runs what is left of Put and Delete batches once their WAL sync
+   * completes, so that handlers do not wait for it. Null if they do; see
+   * {@link SyncCompletion#ASYNC_SYNC_KEY}.
+   */
+  private ThreadPoolExecutor syncCompletionPool;
+
   /**
    * The lease timeout period for client scanners (milliseconds).
    */
@@ -487,6 +501,15 @@ public class  HRegionServer implements ClientProtocol,
     this.scannerLeaseTimeoutPeriod = conf.getInt(HConstants.HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD,
       HConstants.DEFAULT_HBASE_CLIENT_SCANNER_TIMEOUT_PERIOD);
 
+    if (conf.getBoolean(SyncCompletion.ASYNC_SYNC_KEY,
+        SyncCompletion.DEFAULT_ASYNC_SYNC)) {
+      // Unbounded: a batch waiting for an older one to become visible must
+      // not keep that older one from getting a thread
+      this.syncCompletionPool = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+        60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        Threads.newDaemonThreadFactory("RS.syncCompletion"));
+    }
+
     // Server to handle client requests.
     String hostname = Strings.domainNamePointerToHostName(DNS.getDefaultHost(
       conf.get("hbase.regionserver.dns.interface", "default"),
@@ -1157,6 +1180,13 @@ public class  HRegionServer implements ClientProtocol,
         //the directory cleanup to the follow-on closeAndDelete call.
         this.hlogForMeta.close();
       }
+      // Same for the hlogs of the other WAL groups
+      HLog[] groups = this.hlogGroups;
+      if (groups != null) {
+        for (int i = 1; i < groups.length; i++) {
+          groups[i].close();
+        }
+      }
       if (this.hlog != null) {
         if (delete) {
           hlog.closeAndDelete();
@@ -1424,7 +1454,19 @@ public class  HRegionServer implements ClientProtocol,
     // log directories.
     createNewReplicationInstance(conf, this, this.fs, logdir, oldLogDir);
 
-    return instantiateHLog(rootDir, logName);
+    HLog defaultHLog = instantiateHLog(rootDir, logName);
+    this.hlogRoller.addWAL(defaultHLog);
+    // The other WAL groups write their own files in the same directory
+    HLog[] groups = new HLog[HLogFactory.getNumWALGroups(this.conf)];
+    groups[0] = defaultHLog;
+    for (int i = 1; i < groups.length; i++) {
+      groups[i] = HLogFactory.createGroupHLog(this.fs.getBackingFs(), rootDir,
+          logName, this.conf, getGroupWALActionListeners(),
+          this.serverNameFromMasterPOV.toString(), i);
+      this.hlogRoller.addWAL(groups[i]);
+    }
+    this.hlogGroups = groups;
+    return defaultHLog;
   }
 
   private HLog getMetaWAL() throws IOException {
@@ -1438,6 +1480,7 @@ public class  HRegionServer implements ClientProtocol,
       this.hlogForMeta = HLogFactory.createMetaHLog(this.fs.getBackingFs(), 
           rootDir, logName, this.conf, getMetaWALActionListeners(), 
           this.serverNameFromMasterPOV.toString());
+      this.metaHLogRoller.addWAL(this.hlogForMeta);
     }
     return this.hlogForMeta;
   }
@@ -1461,10 +1504,17 @@ public class  HRegionServer implements ClientProtocol,
    * {@link org.apache.hadoop.hbase.regionserver.wal.FSHLog} on construction.
    */
   protected List<WALActionsListener> getWALActionListeners() {
-    List<WALActionsListener> listeners = new ArrayList<WALActionsListener>();
-    // Log roller.
+    // Log roller. The WALs are added to it once created.
     this.hlogRoller = new LogRoller(this, this);
-    listeners.add(this.hlogRoller);
+    return getGroupWALActionListeners();
+  }
+
+  /**
+   * @return List of WALActionsListener for the WALs of the groups past the
+   * first; they share the log roller and replication with the first one.
+   */
+  protected List<WALActionsListener> getGroupWALActionListeners() {
+    List<WALActionsListener> listeners = new ArrayList<WALActionsListener>();
     if (this.replicationSourceHandler != null &&
         this.replicationSourceHandler.getWALActionsListener() != null) {
       // Replication handler is an implementation of WALActionsListener.
@@ -1476,14 +1526,13 @@ public class  HRegionServer implements ClientProtocol,
   protected List<WALActionsListener> getMetaWALActionListeners() {
     List<WALActionsListener> listeners = new ArrayList<WALActionsListener>();
     // Using a tmp log roller to ensure metaLogRoller is alive once it is not
-    // null
-    MetaLogRoller tmpLogRoller = new MetaLogRoller(this, this);
+    // null. The meta WAL is added to it once created.
+    LogRoller tmpLogRoller = new LogRoller(this, this);
     String n = Thread.currentThread().getName();
     Threads.setDaemonThreadRunning(tmpLogRoller.getThread(),
         n + "MetaLogRoller", uncaughtExceptionHandler);
     this.metaHLogRoller = tmpLogRoller;
     tmpLogRoller = null;
-    listeners.add(this.metaHLogRoller);
     return listeners;
   }
 
@@ -1530,6 +1579,10 @@ public class  HRegionServer implements ClientProtocol,
       conf.getInt("hbase.regionserver.executor.closeroot.threads", 1));
     this.service.startExecutorService(ExecutorType.RS_CLOSE_META,
       conf.getInt("hbase.regionserver.executor.closemeta.threads", 1));
+    if (conf.getBoolean(StoreScanner.STORESCANNER_PARALLEL_SEEK_ENABLE, false)) {
+      this.service.startExecutorService(ExecutorType.RS_PARALLEL_SEEK,
+        conf.getInt("hbase.storescanner.parallel.seek.threads", 10));
+    }
 
     Threads.setDaemonThreadRunning(this.hlogRoller.getThread(), n + ".logRoller",
         uncaughtExceptionHandler);
@@ -1646,6 +1699,10 @@ public class  HRegionServer implements ClientProtocol,
         regionInfo.isMetaTable()) {
       return getMetaWAL();
     }
+    HLog[] groups = this.hlogGroups;
+    if (regionInfo != null && groups != null && groups.length > 1) {
+      return groups[HLogFactory.getWALGroup(regionInfo, this.conf)];
+    }
     return this.hlog;
   }
 
@@ -1805,6 +1862,7 @@ public class  HRegionServer implements ClientProtocol,
       this.compactSplitThread.join();
     }
     if (this.service != null) this.service.shutdown();
+    if (this.syncCompletionPool != null) this.syncCompletionPool.shutdown();
     if (this.replicationSourceHandler != null &&
         this.replicationSourceHandler == this.replicationSinkHandler) {
       this.replicationSourceHandler.stopReplicationService();
@@ -2178,6 +2236,7 @@ public class  HRegionServer implements ClientProtocol,
     return this.regionsInTransitionInRS;
   }
 
+  @Override
   public ExecutorService getExecutorService() {
     return service;
   }
@@ -2513,7 +2572,7 @@ public class  HRegionServer implements ClientProtocol,
     HRegion toReturn = this.onlineRegions.remove(r.getRegionInfo().getEncodedName());
 
     if (destination != null) {
-      HLog wal = getWAL();
+      HLog wal = r.getLog();
       long closeSeqNum = wal.getEarliestMemstoreSeqNum(r.getRegionInfo().getEncodedNameAsBytes());
       if (closeSeqNum == HConstants.NO_SEQNUM) {
         // No edits in WAL for this region; get the sequence number when the region was opened.
@@ -2770,6 +2829,7 @@ public class  HRegionServer implements ClientProtocol,
       HRegion region = getRegion(request.getRegion());
       MutateResponse.Builder builder = MutateResponse.newBuilder();
       Mutate mutate = request.getMutate();
+      SyncCompletion completion = null;
       if (!region.getRegionInfo().isMetaTable()) {
         cacheFlusher.reclaimMemStoreMemory();
       }
@@ -2808,7 +2868,12 @@ public class  HRegionServer implements ClientProtocol,
             processed = result;
           }
         } else {
-          region.put(put);
+          completion = newSyncCompletion();
+          if (completion != null) {
+            region.mutate(put, completion);
+          } else {
+            region.put(put);
+          }
           processed = Boolean.TRUE;
         }
         break;
@@ -2836,7 +2901,12 @@ public class  HRegionServer implements ClientProtocol,
             processed = result;
           }
         } else {
-          region.delete(delete, delete.getWriteToWAL());
+          completion = newSyncCompletion();
+          if (completion != null) {
+            region.mutate(delete, completion);
+          } else {
+            region.delete(delete, delete.getWriteToWAL());
+          }
           processed = Boolean.TRUE;
         }
         break;
@@ -2849,13 +2919,29 @@ public class  HRegionServer implements ClientProtocol,
       } else if (r != null) {
         builder.setResult(ProtobufUtil.toResult(r));
       }
-      return builder.build();
+      MutateResponse response = builder.build();
+      if (completion != null) {
+        completion.respondWhenSynced(HBaseServer.getCurrentCall(), response);
+      }
+      return response;
     } catch (IOException ie) {
       checkFileSystem();
       throw new ServiceException(ie);
     }
   }
 
+  /**
+   * @return a completion to leave the WAL syncs of the current call's Puts
+   * and Deletes to, or null if the handler waits for them
+   */
+  private SyncCompletion newSyncCompletion() {
+    if (this.syncCompletionPool == null ||
+        HBaseServer.getCurrentCall() == null) {
+      return null;
+    }
+    return new SyncCompletion(this.syncCompletionPool);
+  }
+
   //
   // remote scanner interface
   //
@@ -2944,6 +3030,9 @@ public class  HRegionServer implements ClientProtocol,
           if (region.getCoprocessorHost() != null) {
             scanner = region.getCoprocessorHost().postScannerOpen(scan, scanner);
           }
+          if (scan.isSmall()) {
+            return smallScan(region, scanner, rows, resultsWireSize);
+          }
           scannerId = addScanner(scanner);
           scannerName = String.valueOf(scannerId);
           ttl = this.scannerLeaseTimeoutPeriod;
@@ -3099,6 +3188,103 @@ public class  HRegionServer implements ClientProtocol,
     }
   }
 
+  /**
+   * Serves a small scan, see {@link Scan#setSmall(boolean)}: reads up to the
+   * given number of rows, bounded by the max result size, and closes the
+   * scanner within the one call. The scanner gets no id and no lease. The
+   * response says whether the region has rows left, so that the client knows
+   * whether to come back or move on to the next region.
+   */
+  private ScanResponse smallScan(final HRegion region,
+      final RegionScanner scanner, final int rows, Long resultsWireSize)
+      throws IOException {
+    ScanResponse.Builder builder = ScanResponse.newBuilder();
+    boolean moreResults = true;
+    boolean moreRows = true;
+    try {
+      List<Result> results = new ArrayList<Result>(rows);
+      long currentScanResultSize = 0;
+      boolean done = false;
+      if (region.getCoprocessorHost() != null) {
+        Boolean bypass = region.getCoprocessorHost().preScannerNext(
+          scanner, results, rows);
+        for (Result r : results) {
+          for (KeyValue kv : r.raw()) {
+            currentScanResultSize += kv.heapSize();
+          }
+        }
+        if (bypass != null && bypass.booleanValue()) {
+          done = true;
+        }
+      }
+
+      if (!done) {
+        long maxResultSize = scanner.getMaxResultSize();
+        if (maxResultSize <= 0) {
+          maxResultSize = maxScannerResultSize;
+        }
+        List<KeyValue> values = new ArrayList<KeyValue>();
+        MultiVersionConsistencyControl.setThreadReadPoint(scanner.getMvccReadPoint());
+        region.startRegionOperation();
+        try {
+          // Only stop on a row boundary with rows returned, so that the
+          // client can resume right after the last row it got
+          int i = 0;
+          while (results.size() < rows && currentScanResultSize < maxResultSize) {
+            moreRows = scanner.nextRaw(values);
+            i++;
+            if (!values.isEmpty()) {
+              for (KeyValue kv : values) {
+                currentScanResultSize += kv.heapSize();
+              }
+              results.add(new Result(values));
+            }
+            if (!moreRows) {
+              break;
+            }
+            values.clear();
+          }
+          region.readRequestsCount.add(i);
+        } finally {
+          region.closeRegionOperation();
+        }
+
+        if (region.getCoprocessorHost() != null) {
+          region.getCoprocessorHost().postScannerNext(scanner, results, rows, true);
+        }
+      }
+
+      if (scanner.isFilterDone() && results.isEmpty()) {
+        moreResults = false;
+      } else {
+        for (Result result : results) {
+          if (result != null) {
+            ClientProtos.Result pbResult = ProtobufUtil.toResult(result);
+            if (resultsWireSize != null) {
+              resultsWireSize += pbResult.getSerializedSize();
+            }
+            builder.addResult(pbResult);
+          }
+        }
+        if (resultsWireSize != null) {
+          builder.setResultSizeBytes(resultsWireSize.longValue());
+        }
+      }
+    } finally {
+      // Nobody will come back for this scanner, so close it even if a
+      // coprocessor asks to bypass the close
+      boolean bypass = region.getCoprocessorHost() != null
+          && region.getCoprocessorHost().preScannerClose(scanner);
+      scanner.close();
+      if (!bypass && region.getCoprocessorHost() != null) {
+        region.getCoprocessorHost().postScannerClose(scanner);
+      }
+    }
+    builder.setMoreResults(moreResults);
+    builder.setMoreResultsInRegion(moreRows);
+    return builder.build();
+  }
+
   /**
    * Atomically bulk load several HFiles into an open region
    * @return true if successful, false is failed but recoverably (no action)
@@ -3172,6 +3358,7 @@ public class  HRegionServer implements ClientProtocol,
     try {
       HRegion region = getRegion(request.getRegion());
       MultiResponse.Builder builder = MultiResponse.newBuilder();
+      SyncCompletion completion = null;
       if (request.hasAtomic() && request.getAtomic()) {
         List<Mutate> mutates = new ArrayList<Mutate>();
         for (ClientProtos.MultiAction actionUnion : request.getActionList()) {
@@ -3183,7 +3370,13 @@ public class  HRegionServer implements ClientProtocol,
           }
         }
         mutateRows(region, mutates);
+      } else if (isGetsOnly(request)) {
+        doBatchGet(builder, region, request);
       } else {
+        // Only leave the syncs if nothing in the call reads what it wrote
+        if (isPutsAndDeletesOnly(request)) {
+          completion = newSyncCompletion();
+        }
         ActionResult.Builder resultBuilder = null;
         List<Mutate> mutates = new ArrayList<Mutate>();
         for (ClientProtos.MultiAction actionUnion : request.getActionList()) {
@@ -3247,15 +3440,86 @@ public class  HRegionServer implements ClientProtocol,
           }
         }
         if (!mutates.isEmpty()) {
-          doBatchOp(builder, region, mutates);
+          doBatchOp(builder, region, mutates, completion);
         }
       }
-      return builder.build();
+      MultiResponse response = builder.build();
+      if (completion != null) {
+        completion.respondWhenSynced(HBaseServer.getCurrentCall(), response);
+      }
+      return response;
     } catch (IOException ie) {
       throw new ServiceException(ie);
     }
   }
 
+  /**
+   * @return true if all the actions of the request are Puts or Deletes
+   */
+  private static boolean isPutsAndDeletesOnly(final MultiRequest request) {
+    for (ClientProtos.MultiAction actionUnion : request.getActionList()) {
+      if (!actionUnion.hasMutate()) {
+        return false;
+      }
+      MutateType type = actionUnion.getMutate().getMutateType();
+      if (type != MutateType.PUT && type != MutateType.DELETE) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if the request has more than one action, all of them gets
+   */
+  private static boolean isGetsOnly(final MultiRequest request) {
+    if (request.getActionCount() < 2) {
+      return false;
+    }
+    for (ClientProtos.MultiAction actionUnion : request.getActionList()) {
+      if (!actionUnion.hasGet()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Serves a multi request made of gets only with one batched get on the
+   * region. If the batch fails the gets it had no result for yet are retried
+   * one at a time, so that errors are reported against the gets that caused
+   * them.
+   */
+  private void doBatchGet(final MultiResponse.Builder builder,
+      final HRegion region, final MultiRequest request) {
+    Result[] results = new Result[request.getActionCount()];
+    try {
+      List<Get> gets = new ArrayList<Get>(request.getActionCount());
+      for (ClientProtos.MultiAction actionUnion : request.getActionList()) {
+        gets.add(ProtobufUtil.toGet(actionUnion.getGet()));
+      }
+      region.get(gets, results);
+    } catch (IOException ie) {
+      LOG.debug("Batched get failed, falling back to single gets for the " +
+          "gets without a result", ie);
+    }
+    ActionResult.Builder resultBuilder = ActionResult.newBuilder();
+    for (int i = 0; i < request.getActionCount(); i++) {
+      requestCount.increment();
+      try {
+        Result r = results[i] != null ? results[i]
+            : region.get(ProtobufUtil.toGet(request.getAction(i).getGet()));
+        if (r != null) {
+          resultBuilder.clear();
+          resultBuilder.setValue(ProtobufUtil.toResult(r));
+          builder.addResult(resultBuilder.build());
+        }
+      } catch (IOException ie) {
+        builder.addResult(ResponseConverter.buildActionResult(ie));
+      }
+    }
+  }
+
 // End Client methods
 // Start Admin methods
 
@@ -3647,12 +3911,14 @@ public class  HRegionServer implements ClientProtocol,
       final RollWALWriterRequest request) throws ServiceException {
     try {
       requestCount.increment();
-      HLog wal = this.getWAL();
-      byte[][] regionsToFlush = wal.rollWriter(true);
       RollWALWriterResponse.Builder builder = RollWALWriterResponse.newBuilder();
-      if (regionsToFlush != null) {
-        for (byte[] region: regionsToFlush) {
-          builder.addRegionToFlush(ByteString.copyFrom(region));
+      HLog[] groups = this.hlogGroups;
+      for (HLog wal : groups != null ? groups : new HLog[] { this.getWAL() }) {
+        byte[][] regionsToFlush = wal.rollWriter(true);
+        if (regionsToFlush != null) {
+          for (byte[] region: regionsToFlush) {
+            builder.addRegionToFlush(ByteString.copyFrom(region));
+          }
         }
       }
       return builder.build();
@@ -3769,6 +4035,20 @@ public class  HRegionServer implements ClientProtocol,
    */
   protected void doBatchOp(final MultiResponse.Builder builder,
       final HRegion region, final List<Mutate> mutates) {
+    doBatchOp(builder, region, mutates, null);
+  }
+
+  /**
+   * Execute a list of Put/Delete mutations.
+   *
+   * @param builder
+   * @param region
+   * @param mutates
+   * @param completion where to leave the WAL syncs, or null to wait for them
+   */
+  protected void doBatchOp(final MultiResponse.Builder builder,
+      final HRegion region, final List<Mutate> mutates,
+      final SyncCompletion completion) {
     @SuppressWarnings("unchecked")
     Pair<Mutation, Integer>[] mutationsWithLocks = new Pair[mutates.size()];
     long before = EnvironmentEdgeManager.currentTimeMillis();
@@ -3797,7 +4077,8 @@ public class  HRegionServer implements ClientProtocol,
         cacheFlusher.reclaimMemStoreMemory();
       }
 
-      OperationStatus codes[] = region.batchMutate(mutationsWithLocks);
+      OperationStatus codes[] = region.batchMutate(mutationsWithLocks,
+        completion);
       for (i = 0; i < codes.length; i++) {
         switch (codes[i].getOperationStatusCode()) {
           case BAD_FAMILY:
@@ -124,6 +124,8 @@ public class HStore implements Store, StoreConfiguration {
   /* how many bytes to write between status checks */
   static int closeCheckInterval = 0;
   private final int blockingStoreFileCount;
+  // Size of the active cells of the memstore it is flushed in memory at
+  private final long inMemoryFlushSize;
   private volatile long storeSize = 0L;
   private volatile long totalUncompressedBytes = 0L;
   private final Object flushLock = new Object();
@@ -209,6 +211,9 @@ public class HStore implements Store, StoreConfiguration {
     // to clone it?
     scanInfo = new ScanInfo(family, ttl, timeToPurgeDeletes, this.comparator);
     this.memstore = new MemStore(conf, this.comparator);
+    this.inMemoryFlushSize = (long) (region.memstoreFlushSize *
+        conf.getFloat(MemStore.INMEMORY_FLUSH_FACTOR_KEY,
+            MemStore.DEFAULT_INMEMORY_FLUSH_FACTOR));
 
     // Setting up cache configuration for this family
     this.cacheConf = new CacheConfig(conf, family);
@@ -1475,7 +1480,11 @@ public class HStore implements Store, StoreConfiguration {
         // Update the candidate keys from the current map file
         rowAtOrBeforeFromStoreFile(sf, state);
       }
-      return state.getCandidate();
+      KeyValue candidate = state.getCandidate();
+      // A memstore candidate must not point into a chunk that a flush
+      // recycles once the lock is released
+      return candidate != null && this.memstore.isChunkPooled() ?
+          candidate.deepCopy() : candidate;
     } finally {
       this.lock.readLock().unlock();
     }
@@ -1787,6 +1796,11 @@ public class HStore implements Store, StoreConfiguration {
     return this.memstore.heapSize();
   }
 
+  @Override
+  public long getFlushableSize() {
+    return this.memstore.keySize();
+  }
+
   public int getCompactPriority() {
     return getCompactPriority(Store.NO_PRIORITY);
   }
@@ -1861,6 +1875,63 @@ public class HStore implements Store, StoreConfiguration {
     return new StoreFlusherImpl(cacheFlushId);
   }
 
+  @Override
+  public boolean shouldFlushInMemory() {
+    return this.inMemoryFlushSize > 0 &&
+        this.memstore.getActiveSize() >= this.inMemoryFlushSize;
+  }
+
+  @Override
+  public long flushInMemory() {
+    // A flush to disk must not snapshot the memstore before the region
+    // accounts for the change, or it would take off the old size
+    this.memstore.pauseInMemoryFlushes();
+    try {
+      long change = flushInMemory(this.region.getSmallestReadPoint());
+      if (change != 0) {
+        this.region.addAndGetGlobalMemstoreSize(change);
+      }
+      return change;
+    } finally {
+      this.memstore.resumeInMemoryFlushes();
+    }
+  }
+
+  @Override
+  public void pauseInMemoryFlushes() {
+    this.memstore.pauseInMemoryFlushes();
+  }
+
+  @Override
+  public void resumeInMemoryFlushes() {
+    this.memstore.resumeInMemoryFlushes();
+  }
+
+  private long flushInMemory(final long smallestReadPoint) {
+    return this.memstore.flushInMemory(smallestReadPoint,
+        new MemStore.InMemoryCompactor() {
+      @Override
+      public List<KeyValue> compact(List<KeyValueScanner> scanners,
+          long smallestReadPoint) throws IOException {
+        // Keep what a flush would write out
+        Scan scan = new Scan();
+        scan.setMaxVersions(scanInfo.getMaxVersions());
+        StoreScanner scanner = new StoreScanner(HStore.this, scanInfo, scan,
+            scanners, ScanType.MINOR_COMPACT, smallestReadPoint,
+            HConstants.OLDEST_TIMESTAMP);
+        List<KeyValue> kept = new ArrayList<KeyValue>();
+        try {
+          while (scanner.next(kept)) {
+            // next() appends a row at a time
+          }
+        } finally {
+          scanner.close();
+        }
+        return kept;
+      }
+    });
+  }
+
   private class StoreFlusherImpl implements StoreFlusher {
 
     private long cacheFlushId;
@@ -1884,8 +1955,11 @@ public class HStore implements Store, StoreConfiguration {
 
     @Override
     public void flushCache(MonitoredTask status) throws IOException {
-      storeFilePath = HStore.this.flushCache(
-        cacheFlushId, snapshot, snapshotTimeRangeTracker, flushedSize, status);
+      // The writes of the snapshot are committed by now, so its flattened
+      // cells can be merged in
+      storeFilePath = HStore.this.flushCache(cacheFlushId,
+        memstore.getSnapshotToFlush(), snapshotTimeRangeTracker, flushedSize,
+        status);
     }
 
     @Override
@@ -1918,7 +1992,7 @@ public class HStore implements Store, StoreConfiguration {
   }
 
   public static final long FIXED_OVERHEAD =
-      ClassSize.align((20 * ClassSize.REFERENCE) + (4 * Bytes.SIZEOF_LONG)
+      ClassSize.align((20 * ClassSize.REFERENCE) + (5 * Bytes.SIZEOF_LONG)
               + (3 * Bytes.SIZEOF_INT) + Bytes.SIZEOF_BOOLEAN);
 
   public static final long DEEP_OVERHEAD = ClassSize.align(FIXED_OVERHEAD
@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.hfile.CachedBlock;
+
+/**
+ * Remembers which cached block each KeyValue read by a compaction came from.
+ * {@link StoreFileScanner}s record the KeyValues they hand out while positioned
+ * in a block that is resident in the block cache, and the {@link Compactor}
+ * looks up every KeyValue it writes so that the output block holding it can be
+ * cached as well. KeyValues are matched by identity since the compaction
+ * writes out the very instances the store file scanners returned.
+ * <p>
+ * Only the KeyValues of one batch are kept; call {@link #clear()} once a batch
+ * has been written. At most {@link #MAX_TRACKED} KeyValues are remembered per
+ * batch, the rest are treated as cold.
+ */
+@InterfaceAudience.Private
+class HotBlockTracker {
+  static final int MAX_TRACKED = 64 * 1024;
+
+  private final Map<KeyValue, CachedBlock> sources =
+      new IdentityHashMap<KeyValue, CachedBlock>();
+
+  /**
+   * Records that the given KeyValue was read from the given cached block.
+   */
+  void add(KeyValue kv, CachedBlock source) {
+    if (sources.size() < MAX_TRACKED) {
+      sources.put(kv, source);
+    }
+  }
+
+  /**
+   * @return the cached block the KeyValue was read from, or null if it was
+   * read from a block that was not cached
+   */
+  CachedBlock getSource(KeyValue kv) {
+    return sources.get(kv);
+  }
+
+  /**
+   * Forgets the KeyValues of the current batch.
+   */
+  void clear() {
+    sources.clear();
+  }
+}
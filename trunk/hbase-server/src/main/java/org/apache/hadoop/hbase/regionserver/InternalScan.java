@@ -18,9 +18,14 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
+import java.io.IOException;
+import java.util.List;
+
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.TimeRange;
+import org.apache.hadoop.hbase.util.Bytes;
 
 /**
  * Special internal-only scanner, currently used for increment operations to
@@ -37,6 +42,7 @@ import org.apache.hadoop.hbase.client.Scan;
 class InternalScan extends Scan {
   private boolean memOnly = false;
   private boolean filesOnly = false;
+  private List<byte[]> batchGetRows = null;
 
   /**
    * @param get get to model scan after
@@ -45,6 +51,27 @@ class InternalScan extends Scan {
     super(get);
   }
 
+  /**
+   * Models a scan over a batch of gets that only differ in their row. The scan
+   * covers the first to the last of the rows, and store files whose Bloom
+   * filter rejects all of them are not read.
+   * @param get get to model scan after, its row and filter are ignored
+   * @param rows the rows of the gets, sorted and without duplicates
+   * @throws IOException if the time range of the get is invalid
+   */
+  public InternalScan(Get get, List<byte[]> rows) throws IOException {
+    super(rows.get(0), Bytes.add(rows.get(rows.size() - 1), new byte[] { 0 }));
+    setCacheBlocks(get.getCacheBlocks());
+    setMaxVersions(get.getMaxVersions());
+    setMaxResultsPerColumnFamily(get.getMaxResultsPerColumnFamily());
+    setRowOffsetPerColumnFamily(get.getRowOffsetPerColumnFamily());
+    TimeRange tr = get.getTimeRange();
+    setTimeRange(tr.getMin(), tr.getMax());
+    setFamilyMap(get.getFamilyMap());
+    setCustomID(get.getCustomId());
+    this.batchGetRows = rows;
+  }
+
   /**
    * StoreFiles will not be scanned. Only MemStore will be scanned.
    */
@@ -76,4 +103,12 @@ class InternalScan extends Scan {
   public boolean isCheckOnlyStoreFiles() {
     return (filesOnly);
   }
+
+  /**
+   * @return the sorted rows of the batch of gets this scan serves, null if
+   *         it does not serve a batch of gets
+   */
+  public List<byte[]> getBatchGetRows() {
+    return batchGetRows;
+  }
 }
@@ -0,0 +1,269 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+
+/**
+ * An immutable {@link java.util.Set} of {@link KeyValue}s kept in a sorted
+ * array. It answers the same lookups as a {@link KeyValueSkipListSet} by
+ * binary search, but costs a reference per KeyValue instead of a skip list
+ * node, and is safe to read from any number of threads. Head, tail and sub
+ * sets are views sharing the array.
+ * <p>
+ * Iterators do not support <code>remove</code>.
+ */
+@InterfaceAudience.Private
+class KeyValueArraySet implements NavigableSet<KeyValue> {
+  static final long FIXED_OVERHEAD = ClassSize.align(ClassSize.OBJECT +
+      (2 * ClassSize.REFERENCE) + (2 * Bytes.SIZEOF_INT));
+
+  private final KeyValue.KVComparator comparator;
+  private final KeyValue[] kvs;
+  // Bounds of this set in kvs, from inclusive and to exclusive
+  private final int from;
+  private final int to;
+
+  /**
+   * @param c comparator the KeyValues are sorted by
+   * @param sorted KeyValues, sorted by <code>c</code>
+   */
+  KeyValueArraySet(final KeyValue.KVComparator c, final List<KeyValue> sorted) {
+    this(c, sorted.toArray(new KeyValue[sorted.size()]), 0, sorted.size());
+  }
+
+  private KeyValueArraySet(final KeyValue.KVComparator c, final KeyValue[] kvs,
+      final int from, final int to) {
+    this.comparator = c;
+    this.kvs = kvs;
+    this.from = from;
+    this.to = to;
+  }
+
+  /*
+   * @return index of the first KeyValue after, or at if inclusive, the
+   * passed one; to if there is none
+   */
+  private int ceilingIndex(final KeyValue kv, final boolean inclusive) {
+    int low = this.from;
+    int high = this.to;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      int cmp = this.comparator.compare(this.kvs[mid], kv);
+      if (cmp < 0 || (cmp == 0 && !inclusive)) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  private KeyValueArraySet subSetOf(final int start, final int end) {
+    return new KeyValueArraySet(this.comparator, this.kvs, start,
+        Math.max(start, end));
+  }
+
+  private KeyValue at(final int index) {
+    return index >= this.from && index < this.to ? this.kvs[index] : null;
+  }
+
+  public KeyValue ceiling(KeyValue e) {
+    return at(ceilingIndex(e, true));
+  }
+
+  public KeyValue higher(KeyValue e) {
+    return at(ceilingIndex(e, false));
+  }
+
+  public KeyValue floor(KeyValue e) {
+    return at(ceilingIndex(e, false) - 1);
+  }
+
+  public KeyValue lower(KeyValue e) {
+    return at(ceilingIndex(e, true) - 1);
+  }
+
+  public Iterator<KeyValue> descendingIterator() {
+    return new Iterator<KeyValue>() {
+      private int next = to - 1;
+
+      public boolean hasNext() {
+        return next >= from;
+      }
+
+      public KeyValue next() {
+        if (next < from) {
+          throw new NoSuchElementException();
+        }
+        return kvs[next--];
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException("Immutable");
+      }
+    };
+  }
+
+  public NavigableSet<KeyValue> descendingSet() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public SortedSet<KeyValue> headSet(final KeyValue toElement) {
+    return headSet(toElement, false);
+  }
+
+  public NavigableSet<KeyValue> headSet(final KeyValue toElement,
+      boolean inclusive) {
+    return subSetOf(this.from, ceilingIndex(toElement, !inclusive));
+  }
+
+  public Iterator<KeyValue> iterator() {
+    return new Iterator<KeyValue>() {
+      private int next = from;
+
+      public boolean hasNext() {
+        return next < to;
+      }
+
+      public KeyValue next() {
+        if (next >= to) {
+          throw new NoSuchElementException();
+        }
+        return kvs[next++];
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException("Immutable");
+      }
+    };
+  }
+
+  public KeyValue pollFirst() {
+    throw new UnsupportedOperationException("Immutable");
+  }
+
+  public KeyValue pollLast() {
+    throw new UnsupportedOperationException("Immutable");
+  }
+
+  public SortedSet<KeyValue> subSet(KeyValue fromElement, KeyValue toElement) {
+    return subSet(fromElement, true, toElement, false);
+  }
+
+  public NavigableSet<KeyValue> subSet(KeyValue fromElement,
+      boolean fromInclusive, KeyValue toElement, boolean toInclusive) {
+    return subSetOf(ceilingIndex(fromElement, fromInclusive),
+        ceilingIndex(toElement, !toInclusive));
+  }
+
+  public SortedSet<KeyValue> tailSet(KeyValue fromElement) {
+    return tailSet(fromElement, true);
+  }
+
+  public NavigableSet<KeyValue> tailSet(KeyValue fromElement, boolean inclusive) {
+    return subSetOf(ceilingIndex(fromElement, inclusive), this.to);
+  }
+
+  public Comparator<? super KeyValue> comparator() {
+    return this.comparator;
+  }
+
+  public KeyValue first() {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+    return this.kvs[this.from];
+  }
+
+  public KeyValue last() {
+    if (isEmpty()) {
+      throw new NoSuchElementException();
+    }
+    return this.kvs[this.to - 1];
+  }
+
+  public boolean add(KeyValue e) {
+    throw new UnsupportedOperationException("Immutable");
+  }
+
+  public boolean addAll(Collection<? extends KeyValue> c) {
+    throw new UnsupportedOperationException("Immutable");
+  }
+
+  public void clear() {
+    throw new UnsupportedOperationException("Immutable");
+  }
+
+  public boolean contains(Object o) {
+    return get((KeyValue) o) != null;
+  }
+
+  public boolean containsAll(Collection<?> c) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public boolean isEmpty() {
+    return this.from == this.to;
+  }
+
+  public boolean remove(Object o) {
+    throw new UnsupportedOperationException("Immutable");
+  }
+
+  public boolean removeAll(Collection<?> c) {
+    throw new UnsupportedOperationException("Immutable");
+  }
+
+  public boolean retainAll(Collection<?> c) {
+    throw new UnsupportedOperationException("Immutable");
+  }
+
+  /**
+   * @return the KeyValue of this set equal to the passed one, or null
+   */
+  public KeyValue get(KeyValue kv) {
+    KeyValue found = at(ceilingIndex(kv, true));
+    return found != null && this.comparator.compare(found, kv) == 0 ?
+        found : null;
+  }
+
+  public int size() {
+    return this.to - this.from;
+  }
+
+  public Object[] toArray() {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+
+  public <T> T[] toArray(T[] a) {
+    throw new UnsupportedOperationException("Not implemented");
+  }
+}
@@ -20,17 +20,23 @@
 package org.apache.hadoop.hbase.regionserver;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.PriorityQueue;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.KeyValue.KVComparator;
+import org.apache.hbase.Cell;
 
 /**
  * Implements a heap merge across any number of KeyValueScanners.
  * <p>
+ * The merge is done with a {@link KeyValueScannerLoserTree}, so that moving
+ * the current scanner forward replays a single path of the tree, or costs a
+ * single comparison while that scanner keeps winning over all the others.
+ * <p>
  * Implements KeyValueScanner itself.
  * <p>
  * This class is used at the Region level to merge across Stores
@@ -43,12 +49,12 @@ import org.apache.hadoop.hbase.KeyValue.KVComparator;
 @InterfaceAudience.Private
 public class KeyValueHeap extends NonLazyKeyValueScanner
     implements KeyValueScanner, InternalScanner {
-  private PriorityQueue<KeyValueScanner> heap = null;
+  private KeyValueScannerLoserTree heap = null;
 
   /**
    * The current sub-scanner, i.e. the one that contains the next key/value
-   * to return to the client. This scanner is NOT included in {@link #heap}
-   * (but we frequently add it back to the heap and pull the new winner out).
+   * to return to the client. This scanner is the top of {@link #heap}, which
+   * is told whenever it moves so that the new winner can be found.
    * We maintain an invariant that the current sub-scanner has already done
    * a real seek, and that current.peek() is always a real key/value (or null)
    * except for the fake last-key-on-row-column supplied by the multi-column
@@ -70,15 +76,16 @@ public class KeyValueHeap extends NonLazyKeyValueScanner
       KVComparator comparator) throws IOException {
     this.comparator = new KVScannerComparator(comparator);
     if (!scanners.isEmpty()) {
-      this.heap = new PriorityQueue<KeyValueScanner>(scanners.size(),
-          this.comparator);
+      List<KeyValueScanner> live =
+          new ArrayList<KeyValueScanner>(scanners.size());
       for (KeyValueScanner scanner : scanners) {
-        if (scanner.peek() != null) {
-          this.heap.add(scanner);
+        if (scanner.peekCell() != null) {
+          live.add(scanner);
         } else {
           scanner.close();
         }
       }
+      this.heap = new KeyValueScannerLoserTree(live, this.comparator);
       this.current = pollRealKV();
     }
   }
@@ -90,23 +97,27 @@ public class KeyValueHeap extends NonLazyKeyValueScanner
     return this.current.peek();
   }
 
+  @Override
+  public Cell peekCell() {
+    if (this.current == null) {
+      return null;
+    }
+    return this.current.peekCell();
+  }
+
   public KeyValue next()  throws IOException {
     if(this.current == null) {
       return null;
     }
     KeyValue kvReturn = this.current.next();
-    KeyValue kvNext = this.current.peek();
+    Cell kvNext = this.current.peekCell();
     if (kvNext == null) {
       this.current.close();
-      this.current = pollRealKV();
+      this.heap.removeTop();
     } else {
-      KeyValueScanner topScanner = this.heap.peek();
-      if (topScanner == null ||
-          this.comparator.compare(kvNext, topScanner.peek()) >= 0) {
-        this.heap.add(this.current);
-        this.current = pollRealKV();
-      }
+      this.heap.updateTop();
     }
+    this.current = pollRealKV();
     return kvReturn;
   }
 
@@ -143,7 +154,7 @@ public class KeyValueHeap extends NonLazyKeyValueScanner
     }
     InternalScanner currentAsInternal = (InternalScanner)this.current;
     boolean mayContainMoreRows = currentAsInternal.next(result, limit, metric);
-    KeyValue pee = this.current.peek();
+    Cell pee = this.current.peekCell();
     /*
      * By definition, any InternalScanner must return false only when it has no
      * further rows to be fetched. So, we can close a scanner if it returns
@@ -153,8 +164,9 @@ public class KeyValueHeap extends NonLazyKeyValueScanner
      */
     if (pee == null || !mayContainMoreRows) {
       this.current.close();
+      this.heap.removeTop();
     } else {
-      this.heap.add(this.current);
+      this.heap.updateTop();
     }
     this.current = pollRealKV();
     return (this.current != null);
@@ -189,7 +201,10 @@ public class KeyValueHeap extends NonLazyKeyValueScanner
       this.kvComparator = kvComparator;
     }
     public int compare(KeyValueScanner left, KeyValueScanner right) {
-      int comparison = compare(left.peek(), right.peek());
+      // Compare the sub-scanners' cells in place, so that a scanner over an
+      // encoded block need not copy out a KeyValue just to find its place.
+      int comparison = this.kvComparator.compareCells(left.peekCell(),
+          right.peekCell());
       if (comparison != 0) {
         return comparison;
       } else {
@@ -224,14 +239,14 @@ public class KeyValueHeap extends NonLazyKeyValueScanner
   }
 
   public void close() {
-    if (this.current != null) {
-      this.current.close();
-    }
     if (this.heap != null) {
-      KeyValueScanner scanner;
-      while ((scanner = this.heap.poll()) != null) {
+      // The current scanner is part of the tree
+      for (KeyValueScanner scanner : this.heap.getScanners()) {
         scanner.close();
       }
+      this.heap.clear();
+    } else if (this.current != null) {
+      this.current.close();
     }
   }
 
@@ -297,20 +312,18 @@ public class KeyValueHeap extends NonLazyKeyValueScanner
     if (current == null) {
       return false;
     }
-    heap.add(current);
     current = null;
 
     KeyValueScanner scanner;
-    while ((scanner = heap.poll()) != null) {
-      KeyValue topKey = scanner.peek();
-      if (comparator.getComparator().compare(seekKey, topKey) <= 0) {
+    while ((scanner = heap.peek()) != null) {
+      Cell topKey = scanner.peekCell();
+      if (comparator.getComparator().compareCells(seekKey, topKey) <= 0) {
         // Top KeyValue is at-or-after Seek KeyValue. We only know that all
         // scanners are at or after seekKey (because fake keys of
         // scanners where a lazy-seek operation has been done are not greater
         // than their real next keys) but we still need to enforce our
         // invariant that the top scanner has done a real seek. This way
         // StoreScanner and RegionScanner do not have to worry about fake keys.
-        heap.add(scanner);
         current = pollRealKV();
         return current != null;
       }
@@ -325,8 +338,9 @@ public class KeyValueHeap extends NonLazyKeyValueScanner
 
       if (!seekResult) {
         scanner.close();
+        heap.removeTop();
       } else {
-        heap.add(scanner);
+        heap.updateTop();
       }
     }
 
@@ -335,66 +349,53 @@ public class KeyValueHeap extends NonLazyKeyValueScanner
   }
 
   /**
-   * Fetches the top sub-scanner from the priority queue, ensuring that a real
-   * seek has been done on it. Works by fetching the top sub-scanner, and if it
-   * has not done a real seek, making it do so (which will modify its top KV),
-   * putting it back, and repeating this until success. Relies on the fact that
-   * on a lazy seek we set the current key of a StoreFileScanner to a KV that
-   * is not greater than the real next KV to be read from that file, so the
-   * scanner that bubbles up to the top of the heap will have global next KV in
-   * this scanner heap if (1) it has done a real seek and (2) its KV is the top
-   * among all top KVs (some of which are fake) in the scanner heap.
+   * Fetches the top sub-scanner from the loser tree, ensuring that a real
+   * seek has been done on it. Works by looking at the top sub-scanner, and if
+   * it has not done a real seek, making it do so (which will modify its top
+   * KV), replaying its path in the tree, and repeating this until success.
+   * Relies on the fact that on a lazy seek we set the current key of a
+   * StoreFileScanner to a KV that is not greater than the real next KV to be
+   * read from that file, so the scanner that bubbles up to the top of the tree
+   * will have global next KV in this scanner heap if (1) it has done a real
+   * seek and (2) its KV is the top among all top KVs (some of which are fake)
+   * in the tree.
    */
   private KeyValueScanner pollRealKV() throws IOException {
-    KeyValueScanner kvScanner = heap.poll();
-    if (kvScanner == null) {
-      return null;
-    }
-
+    KeyValueScanner kvScanner = heap.peek();
     while (kvScanner != null && !kvScanner.realSeekDone()) {
-      if (kvScanner.peek() != null) {
+      if (kvScanner.peekCell() != null) {
         kvScanner.enforceSeek();
-        KeyValue curKV = kvScanner.peek();
-        if (curKV != null) {
-          KeyValueScanner nextEarliestScanner = heap.peek();
-          if (nextEarliestScanner == null) {
-            // The heap is empty. Return the only possible scanner.
-            return kvScanner;
-          }
-
-          // Compare the current scanner to the next scanner. We try to avoid
-          // putting the current one back into the heap if possible.
-          KeyValue nextKV = nextEarliestScanner.peek();
-          if (nextKV == null || comparator.compare(curKV, nextKV) < 0) {
-            // We already have the scanner with the earliest KV, so return it.
-            return kvScanner;
-          }
-
-          // Otherwise, put the scanner back into the heap and let it compete
-          // against all other scanners (both those that have done a "real
-          // seek" and a "lazy seek").
-          heap.add(kvScanner);
+        if (kvScanner.peekCell() != null) {
+          // Let the scanner compete against all other scanners (both those
+          // that have done a "real seek" and a "lazy seek"). The tree
+          // replays its path unless it is still ahead of a known runner-up.
+          heap.updateTop();
         } else {
           // Close the scanner because we did a real seek and found out there
           // are no more KVs.
           kvScanner.close();
+          heap.removeTop();
         }
       } else {
         // Close the scanner because it has already run out of KVs even before
         // we had to do a real seek on it.
         kvScanner.close();
+        heap.removeTop();
       }
-      kvScanner = heap.poll();
+      kvScanner = heap.peek();
     }
 
     return kvScanner;
   }
 
   /**
-   * @return the current Heap
+   * @return the scanners still being merged, other than the current one
    */
-  public PriorityQueue<KeyValueScanner> getHeap() {
-    return this.heap;
+  public List<KeyValueScanner> getHeap() {
+    if (this.heap == null) {
+      return Collections.emptyList();
+    }
+    return this.heap.getScannersBelowTop();
   }
 
   @Override
@@ -24,6 +24,7 @@ import java.util.SortedSet;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hbase.Cell;
 
 /**
  * Scanner that returns the next KeyValue.
@@ -36,6 +37,14 @@ public interface KeyValueScanner {
    */
   public KeyValue peek();
 
+  /**
+   * Look at the next cell in this scanner, but do not iterate scanner. Unlike
+   * {@link #peek()}, this need not copy the cell out of the scanner: the
+   * returned cell may be a view that is only valid until the scanner moves.
+   * @return the next cell, or null if the scanner is exhausted
+   */
+  public Cell peekCell();
+
   /**
    * Return the next KeyValue in this scanner, iterating the scanner
    * @return the next KeyValue
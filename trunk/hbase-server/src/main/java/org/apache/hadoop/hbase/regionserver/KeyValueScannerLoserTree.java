@@ -0,0 +1,231 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A tournament (loser) tree over a fixed set of KeyValueScanners, ordered by
+ * the key each of them currently peeks at.
+ * <p>
+ * Every internal node keeps the loser of the match played there, and the
+ * overall winner is kept aside. When the winner moves on, only the matches on
+ * the path from its leaf to the root are replayed, which is one comparison
+ * per level instead of the poll and add of a binary heap. When the same
+ * scanner wins a replay again, e.g. because it holds a run of adjacent keys,
+ * the best of the losers on its path, which is the runner-up of the whole
+ * tree, is looked up once: as long as the winner stays ahead of it, advancing
+ * the winner costs a single comparison and the tree is not touched. Merges
+ * that alternate between scanners never pay for the runner-up.
+ * <p>
+ * The scanners below the top must not change their key behind the tree's
+ * back; the top one has to be reported with {@link #updateTop()} or
+ * {@link #removeTop()} once it moved. Not thread safe.
+ */
+@InterfaceAudience.Private
+class KeyValueScannerLoserTree {
+  private final Comparator<KeyValueScanner> comparator;
+
+  /** The scanner of every leaf, null once the leaf has been removed */
+  private final KeyValueScanner[] leaves;
+
+  /**
+   * Leaf index of the loser of each internal node 1 .. k-1, the children of
+   * node n being nodes 2n and 2n+1 and leaf i sitting at node k+i. Slot 0
+   * holds the overall winner.
+   */
+  private final int[] losers;
+
+  /** Leaf of the runner-up of the current winner, -1 if not looked up */
+  private int runnerUp = -1;
+
+  private int size;
+
+  /**
+   * @param scanners the scanners to merge, all of them peeking at a key
+   * @param comparator orders the scanners by their current key
+   */
+  KeyValueScannerLoserTree(List<? extends KeyValueScanner> scanners,
+      Comparator<KeyValueScanner> comparator) {
+    this.comparator = comparator;
+    int k = scanners.size();
+    this.leaves = scanners.toArray(new KeyValueScanner[k]);
+    this.size = k;
+    this.losers = new int[Math.max(k, 1)];
+    if (k == 0) {
+      return;
+    }
+    // Play the initial tournament bottom up
+    int[] winners = new int[2 * k];
+    for (int i = 0; i < k; i++) {
+      winners[k + i] = i;
+    }
+    for (int n = k - 1; n >= 1; n--) {
+      int left = winners[2 * n];
+      int right = winners[2 * n + 1];
+      if (beats(right, left)) {
+        winners[n] = right;
+        losers[n] = left;
+      } else {
+        winners[n] = left;
+        losers[n] = right;
+      }
+    }
+    losers[0] = k == 1 ? 0 : winners[1];
+  }
+
+  /**
+   * @return the scanner with the smallest key, null if all scanners have been
+   *         removed
+   */
+  KeyValueScanner peek() {
+    return size == 0 ? null : leaves[losers[0]];
+  }
+
+  /**
+   * Restores the order after the top scanner moved to a later key.
+   */
+  void updateTop() {
+    if (size < 2) {
+      return;
+    }
+    int winner = losers[0];
+    if (runnerUp >= 0 && beats(winner, runnerUp)) {
+      // Still ahead of everybody else, nothing to replay
+      return;
+    }
+    replay(winner);
+    if (losers[0] == winner) {
+      // Won again, likely to keep winning for a while
+      updateRunnerUp();
+    }
+  }
+
+  /**
+   * Takes the top scanner out of the tree, e.g. because it ran out of keys.
+   * @return the removed scanner, null if the tree is empty
+   */
+  KeyValueScanner removeTop() {
+    if (size == 0) {
+      return null;
+    }
+    int winner = losers[0];
+    KeyValueScanner removed = leaves[winner];
+    leaves[winner] = null;
+    size--;
+    replay(winner);
+    return removed;
+  }
+
+  /**
+   * @return the number of scanners left in the tree, including the top one
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return the scanners left in the tree other than the top one, in no
+   *         particular order
+   */
+  List<KeyValueScanner> getScannersBelowTop() {
+    List<KeyValueScanner> scanners = new ArrayList<KeyValueScanner>(size);
+    KeyValueScanner top = peek();
+    for (KeyValueScanner scanner : leaves) {
+      if (scanner != null && scanner != top) {
+        scanners.add(scanner);
+      }
+    }
+    return scanners;
+  }
+
+  /**
+   * @return all scanners left in the tree, in no particular order
+   */
+  List<KeyValueScanner> getScanners() {
+    List<KeyValueScanner> scanners = new ArrayList<KeyValueScanner>(size);
+    for (KeyValueScanner scanner : leaves) {
+      if (scanner != null) {
+        scanners.add(scanner);
+      }
+    }
+    return scanners;
+  }
+
+  /**
+   * Removes all scanners from the tree.
+   */
+  void clear() {
+    for (int i = 0; i < leaves.length; i++) {
+      leaves[i] = null;
+    }
+    size = 0;
+    runnerUp = -1;
+  }
+
+  /**
+   * Replays the matches on the path from the given leaf to the root.
+   */
+  private void replay(int leaf) {
+    int winner = leaf;
+    for (int n = (leaves.length + leaf) >>> 1; n >= 1; n >>>= 1) {
+      if (beats(losers[n], winner)) {
+        int loser = winner;
+        winner = losers[n];
+        losers[n] = loser;
+      }
+    }
+    losers[0] = winner;
+    runnerUp = -1;
+  }
+
+  /**
+   * The runner-up lost against the winner at some point, i.e. it is the best
+   * of the losers on the winner's path.
+   */
+  private void updateRunnerUp() {
+    runnerUp = -1;
+    int winner = losers[0];
+    for (int n = (leaves.length + winner) >>> 1; n >= 1; n >>>= 1) {
+      int loser = losers[n];
+      if (leaves[loser] != null && (runnerUp < 0 || beats(loser, runnerUp))) {
+        runnerUp = loser;
+      }
+    }
+  }
+
+  /**
+   * @return true if leaf a is strictly ahead of leaf b, removed leaves being
+   *         behind everything
+   */
+  private boolean beats(int a, int b) {
+    KeyValueScanner left = leaves[a];
+    if (left == null) {
+      return false;
+    }
+    KeyValueScanner right = leaves[b];
+    if (right == null) {
+      return true;
+    }
+    return comparator.compare(left, right) < 0;
+  }
+}
@@ -32,21 +32,29 @@ import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.HasThread;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Runs periodically to determine if the HLog should be rolled.
+ * Runs periodically to determine if the HLog should be rolled. One roller
+ * takes care of all the WALs added to it with {@link #addWAL(HLog)}, so a
+ * region server writing to several WALs rolls each one as it needs to.
  *
  * NOTE: This class extends Thread rather than Chore because the sleep time
  * can be interrupted when there is something to do, rather than the Chore
  * sleep time which is invariant.
  */
 @InterfaceAudience.Private
-class LogRoller extends HasThread implements WALActionsListener {
+class LogRoller extends HasThread {
   static final Log LOG = LogFactory.getLog(LogRoller.class);
   private final ReentrantLock rollLock = new ReentrantLock();
+  // Set when any of the WALs asked to be rolled
   private final AtomicBoolean rollLog = new AtomicBoolean(false);
+  // The WALs to roll, and whether each asked to be rolled
+  private final Map<HLog, Boolean> walNeedsRoll =
+    new ConcurrentHashMap<HLog, Boolean>();
   private final Server server;
   protected final RegionServerServices services;
   private volatile long lastrolltime = System.currentTimeMillis();
@@ -65,6 +73,15 @@ class LogRoller extends HasThread implements WALActionsListener {
       getInt(HConstants.THREAD_WAKE_FREQUENCY, 10 * 1000);
   }
 
+  /**
+   * Starts rolling the passed WAL, and listening to its roll requests.
+   */
+  public void addWAL(final HLog wal) {
+    if (this.walNeedsRoll.put(wal, Boolean.FALSE) == null) {
+      wal.registerWALActionsListener(new RollRequestListener(wal));
+    }
+  }
+
   @Override
   public void run() {
     while (!server.isStopped()) {
@@ -92,10 +109,20 @@ class LogRoller extends HasThread implements WALActionsListener {
       rollLock.lock(); // FindBugs UL_UNRELEASED_LOCK_EXCEPTION_PATH
       try {
         this.lastrolltime = now;
-        // This is array of actual region names.
-        byte [][] regionsToFlush = getWAL().rollWriter(rollLog.get());
-        if (regionsToFlush != null) {
-          for (byte [] r: regionsToFlush) scheduleFlush(r);
+        // Clear the flag first so a request made while we roll is not lost
+        rollLog.set(false);
+        for (Map.Entry<HLog, Boolean> entry : walNeedsRoll.entrySet()) {
+          boolean requested = entry.getValue().booleanValue();
+          if (!requested && !periodic) {
+            continue;
+          }
+          HLog wal = entry.getKey();
+          walNeedsRoll.put(wal, Boolean.FALSE);
+          // This is array of actual region names.
+          byte [][] regionsToFlush = wal.rollWriter(requested);
+          if (regionsToFlush != null) {
+            for (byte [] r: regionsToFlush) scheduleFlush(r);
+          }
         }
       } catch (FailedLogCloseException e) {
         server.abort("Failed log close in log roller", e);
@@ -109,11 +136,7 @@ class LogRoller extends HasThread implements WALActionsListener {
         LOG.error("Log rolling failed", ex);
         server.abort("Log rolling failed", ex);
       } finally {
-        try {
-          rollLog.set(false);
-        } finally {
-          rollLock.unlock();
-        }
+        rollLock.unlock();
       }
     }
     LOG.info("LogRoller exiting.");
@@ -129,7 +152,8 @@ class LogRoller extends HasThread implements WALActionsListener {
     if (r != null) {
       requester = this.services.getFlushRequester();
       if (requester != null) {
-        requester.requestFlush(r);
+        // All the stores; a small one may hold the edits of the oldest log
+        requester.requestFlush(r, true);
         scheduled = true;
       }
     }
@@ -140,13 +164,6 @@ class LogRoller extends HasThread implements WALActionsListener {
     }
   }
 
-  public void logRollRequested() {
-    synchronized (rollLog) {
-      rollLog.set(true);
-      rollLog.notifyAll();
-    }
-  }
-
   /**
    * Called by region server to wake up this thread if it sleeping.
    * It is sleeping if rollLock is not held.
@@ -160,44 +177,60 @@ class LogRoller extends HasThread implements WALActionsListener {
     }
   }
 
-  protected HLog getWAL() throws IOException {
-    return this.services.getWAL(null);
-  }
+  /**
+   * Passes the roll requests of one WAL on to the roller.
+   */
+  private class RollRequestListener implements WALActionsListener {
+    private final HLog wal;
 
-  @Override
-  public void preLogRoll(Path oldPath, Path newPath) throws IOException {
-    // Not interested
-  }
+    RollRequestListener(final HLog wal) {
+      this.wal = wal;
+    }
 
-  @Override
-  public void postLogRoll(Path oldPath, Path newPath) throws IOException {
-    // Not interested
-  }
+    @Override
+    public void logRollRequested() {
+      walNeedsRoll.put(this.wal, Boolean.TRUE);
+      synchronized (rollLog) {
+        rollLog.set(true);
+        rollLog.notifyAll();
+      }
+    }
 
-  @Override
-  public void preLogArchive(Path oldPath, Path newPath) throws IOException {
-    // Not interested
-  }
+    @Override
+    public void preLogRoll(Path oldPath, Path newPath) throws IOException {
+      // Not interested
+    }
 
-  @Override
-  public void postLogArchive(Path oldPath, Path newPath) throws IOException {
-    // Not interested
-  }
+    @Override
+    public void postLogRoll(Path oldPath, Path newPath) throws IOException {
+      // Not interested
+    }
 
-  @Override
-  public void visitLogEntryBeforeWrite(HRegionInfo info, HLogKey logKey,
-      WALEdit logEdit) {
-    // Not interested.
-  }
+    @Override
+    public void preLogArchive(Path oldPath, Path newPath) throws IOException {
+      // Not interested
+    }
 
-  @Override
-  public void visitLogEntryBeforeWrite(HTableDescriptor htd, HLogKey logKey,
-                                       WALEdit logEdit) {
-    //Not interested
-  }
+    @Override
+    public void postLogArchive(Path oldPath, Path newPath) throws IOException {
+      // Not interested
+    }
 
-  @Override
-  public void logCloseRequested() {
-    // not interested
+    @Override
+    public void visitLogEntryBeforeWrite(HRegionInfo info, HLogKey logKey,
+        WALEdit logEdit) {
+      // Not interested.
+    }
+
+    @Override
+    public void visitLogEntryBeforeWrite(HTableDescriptor htd, HLogKey logKey,
+                                         WALEdit logEdit) {
+      //Not interested
+    }
+
+    @Override
+    public void logCloseRequested() {
+      // not interested
+    }
   }
 }
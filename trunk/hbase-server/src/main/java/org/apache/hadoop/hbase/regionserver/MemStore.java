@@ -19,16 +19,20 @@
 
 package org.apache.hadoop.hbase.regionserver;
 
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.management.RuntimeMXBean;
 import java.rmi.UnexpectedException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NavigableSet;
 import java.util.SortedSet;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.commons.logging.Log;
@@ -43,6 +47,7 @@ import org.apache.hadoop.hbase.io.HeapSize;
 import org.apache.hadoop.hbase.regionserver.MemStoreLAB.Allocation;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.hbase.util.CollectionBackedScanner;
 
 /**
  * The MemStore holds in-memory modifications to the Store.  Modifications
@@ -50,6 +55,12 @@ import org.apache.hadoop.hbase.util.ClassSize;
  * to snapshot and is cleared.  We continue to serve edits out of new memstore
  * and backing snapshot until flusher reports in that the flush succeeded. At
  * this point we let the snapshot go.
+ * <p>
+ * If an in-memory flush size is configured, the store also flushes the
+ * memstore in memory every time its active cells grow past that size: the
+ * cells all readers can see are moved to a flattened segment, a sorted
+ * array, dropping those a flush to disk would drop. See
+ * {@link #flushInMemory(long, InMemoryCompactor)}.
  * TODO: Adjust size of the memstore when we remove items because they have
  * been deleted.
  * TODO: With new KVSLS, need to make sure we update HeapSize with difference
@@ -61,7 +72,16 @@ public class MemStore implements HeapSize {
 
   static final String USEMSLAB_KEY =
     "hbase.hregion.memstore.mslab.enabled";
-  private static final boolean USEMSLAB_DEFAULT = false;
+  static final boolean USEMSLAB_DEFAULT = false;
+
+  /**
+   * Fraction of the region's flush size the active cells of a store's
+   * memstore may reach before they are flushed in memory; 0 disables
+   * in-memory flushes. Can be set per table or column family.
+   */
+  static final String INMEMORY_FLUSH_FACTOR_KEY =
+    "hbase.hregion.memstore.inmemoryflush.factor";
+  static final float DEFAULT_INMEMORY_FLUSH_FACTOR = 0.0f;
 
   private Configuration conf;
 
@@ -72,11 +92,28 @@ public class MemStore implements HeapSize {
   // reference passed.
   volatile KeyValueSkipListSet kvset;
 
+  // kvset as it was when the running in-memory flush started, null if none
+  // is running.  Only ever shrinks, when a write is rolled back.
+  volatile KeyValueSkipListSet pending;
+
+  // Cells moved out of kvset by in-memory flushes, null if none.  Only holds
+  // cells every reader can see, so no write ever has to be rolled back here.
+  volatile KeyValueArraySet flattened;
+
+  // Heap size of flattened, counted in size
+  volatile long flattenedSize;
+
   // Snapshot of memstore.  Made for flusher.
   volatile KeyValueSkipListSet snapshot;
 
+  // The flattened cells of the snapshot, null if none
+  volatile KeyValueArraySet snapshotFlattened;
+
   final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
+  // Held by in-memory flushes; snapshots wait for them
+  final ReentrantLock inMemoryFlushLock = new ReentrantLock();
+
   final KeyValue.KVComparator comparator;
 
   // Used comparing versions -- same r/c and ts but different type.
@@ -92,6 +129,13 @@ public class MemStore implements HeapSize {
   TimeRangeTracker snapshotTimeRangeTracker;
 
   MemStoreLAB allocator;
+  // Allocator of pending, closed once the in-memory flush is done
+  volatile MemStoreLAB pendingAllocator;
+  // Allocator of flattened
+  volatile MemStoreLAB flattenedAllocator;
+  // Allocators of the snapshot, closed once the snapshot is flushed
+  volatile MemStoreLAB snapshotAllocator;
+  volatile MemStoreLAB snapshotFlattenedAllocator;
 
 
 
@@ -126,12 +170,51 @@ public class MemStore implements HeapSize {
   }
 
   void dump() {
-    for (KeyValue kv: this.kvset) {
-      LOG.info(kv);
+    for (NavigableSet<KeyValue> set: getSets()) {
+      for (KeyValue kv: set) {
+        LOG.info(kv);
+      }
+    }
+  }
+
+  /*
+   * @return kvset, pending and flattened, then the snapshot and its flattened
+   * cells, newest first, leaving out the ones there are none of.  Callers
+   * hold the lock.
+   */
+  private List<NavigableSet<KeyValue>> getSets() {
+    List<NavigableSet<KeyValue>> sets = getActiveSets();
+    sets.addAll(getSnapshotSets());
+    return sets;
+  }
+
+  /*
+   * @return kvset, pending and flattened, newest first, leaving out the ones
+   * there are none of.  Callers hold the lock.
+   */
+  private List<NavigableSet<KeyValue>> getActiveSets() {
+    List<NavigableSet<KeyValue>> sets = new ArrayList<NavigableSet<KeyValue>>(3);
+    sets.add(this.kvset);
+    if (this.pending != null) {
+      sets.add(this.pending);
     }
-    for (KeyValue kv: this.snapshot) {
-      LOG.info(kv);
+    if (this.flattened != null) {
+      sets.add(this.flattened);
     }
+    return sets;
+  }
+
+  /*
+   * @return the snapshot and its flattened cells, if any.  Callers hold the
+   * lock.
+   */
+  private List<NavigableSet<KeyValue>> getSnapshotSets() {
+    List<NavigableSet<KeyValue>> sets = new ArrayList<NavigableSet<KeyValue>>(2);
+    sets.add(this.snapshot);
+    if (this.snapshotFlattened != null) {
+      sets.add(this.snapshotFlattened);
+    }
+    return sets;
   }
 
   /**
@@ -140,29 +223,37 @@ public class MemStore implements HeapSize {
    * To get the snapshot made by this method, use {@link #getSnapshot()}
    */
   void snapshot() {
+    this.inMemoryFlushLock.lock();
     this.lock.writeLock().lock();
     try {
       // If snapshot currently has entries, then flusher failed or didn't call
       // cleanup.  Log a warning.
-      if (!this.snapshot.isEmpty()) {
+      if (!this.snapshot.isEmpty() || this.snapshotFlattened != null) {
         LOG.warn("Snapshot called again without clearing previous. " +
           "Doing nothing. Another ongoing flush or did we fail last attempt?");
       } else {
-        if (!this.kvset.isEmpty()) {
+        if (!this.kvset.isEmpty() || this.flattened != null) {
           this.snapshot = this.kvset;
           this.kvset = new KeyValueSkipListSet(this.comparator);
+          this.snapshotFlattened = this.flattened;
+          this.flattened = null;
+          this.flattenedSize = 0;
           this.snapshotTimeRangeTracker = this.timeRangeTracker;
           this.timeRangeTracker = new TimeRangeTracker();
           // Reset heap to not include any keys
           this.size.set(DEEP_OVERHEAD);
           // Reset allocator so we get a fresh buffer for the new memstore
           if (allocator != null) {
+            this.snapshotAllocator = this.allocator;
             this.allocator = new MemStoreLAB(conf);
           }
+          this.snapshotFlattenedAllocator = this.flattenedAllocator;
+          this.flattenedAllocator = null;
         }
       }
     } finally {
       this.lock.writeLock().unlock();
+      this.inMemoryFlushLock.unlock();
     }
   }
 
@@ -178,6 +269,58 @@ public class MemStore implements HeapSize {
     return this.snapshot;
   }
 
+  /**
+   * Return all the cells of the current snapshot, its flattened ones
+   * included, for the flusher to write out.  Call once the writes in the
+   * snapshot are committed or rolled back.
+   * @return Return the cells of the snapshot.
+   * @see {@link #getSnapshot()}
+   */
+  SortedSet<KeyValue> getSnapshotToFlush() {
+    KeyValueSkipListSet ss;
+    KeyValueArraySet ssFlattened;
+    this.lock.readLock().lock();
+    try {
+      ss = this.snapshot;
+      ssFlattened = this.snapshotFlattened;
+    } finally {
+      this.lock.readLock().unlock();
+    }
+    if (ssFlattened == null) {
+      return ss;
+    }
+    return new KeyValueArraySet(this.comparator, merge(ss, ssFlattened));
+  }
+
+  /*
+   * Merges two sorted collections of KeyValues.  Of equal KeyValues, the one
+   * of the first collection comes first.
+   */
+  private List<KeyValue> merge(final Collection<KeyValue> first,
+      final Collection<KeyValue> second) {
+    List<KeyValue> merged = new ArrayList<KeyValue>(first.size() + second.size());
+    Iterator<KeyValue> i1 = first.iterator();
+    Iterator<KeyValue> i2 = second.iterator();
+    KeyValue kv1 = i1.hasNext() ? i1.next() : null;
+    KeyValue kv2 = i2.hasNext() ? i2.next() : null;
+    while (kv1 != null && kv2 != null) {
+      if (this.comparator.compare(kv1, kv2) <= 0) {
+        merged.add(kv1);
+        kv1 = i1.hasNext() ? i1.next() : null;
+      } else {
+        merged.add(kv2);
+        kv2 = i2.hasNext() ? i2.next() : null;
+      }
+    }
+    for (; kv1 != null; kv1 = i1.hasNext() ? i1.next() : null) {
+      merged.add(kv1);
+    }
+    for (; kv2 != null; kv2 = i2.hasNext() ? i2.next() : null) {
+      merged.add(kv2);
+    }
+    return merged;
+  }
+
   /**
    * The passed snapshot was successfully persisted; it can be let go.
    * @param ss The snapshot to clean out.
@@ -186,6 +329,8 @@ public class MemStore implements HeapSize {
    */
   void clearSnapshot(final SortedSet<KeyValue> ss)
   throws UnexpectedException {
+    MemStoreLAB tmpAllocator = null;
+    MemStoreLAB tmpFlattenedAllocator = null;
     this.lock.writeLock().lock();
     try {
       if (this.snapshot != ss) {
@@ -194,13 +339,25 @@ public class MemStore implements HeapSize {
       }
       // OK. Passed in snapshot is same as current snapshot.  If not-empty,
       // create a new snapshot and let the old one go.
-      if (!ss.isEmpty()) {
+      if (!ss.isEmpty() || this.snapshotFlattened != null) {
         this.snapshot = new KeyValueSkipListSet(this.comparator);
+        this.snapshotFlattened = null;
         this.snapshotTimeRangeTracker = new TimeRangeTracker();
       }
+      tmpAllocator = this.snapshotAllocator;
+      this.snapshotAllocator = null;
+      tmpFlattenedAllocator = this.snapshotFlattenedAllocator;
+      this.snapshotFlattenedAllocator = null;
     } finally {
       this.lock.writeLock().unlock();
     }
+    // Their chunks can be reused once the scanners still reading them are gone
+    if (tmpAllocator != null) {
+      tmpAllocator.close();
+    }
+    if (tmpFlattenedAllocator != null) {
+      tmpFlattenedAllocator.close();
+    }
   }
 
   /**
@@ -232,6 +389,11 @@ public class MemStore implements HeapSize {
   }
 
   private KeyValue maybeCloneWithAllocator(KeyValue kv) {
+    return maybeCloneWithAllocator(this.allocator, kv);
+  }
+
+  private static KeyValue maybeCloneWithAllocator(MemStoreLAB allocator,
+      KeyValue kv) {
     if (allocator == null) {
       return kv;
     }
@@ -250,6 +412,166 @@ public class MemStore implements HeapSize {
     return newKv;
   }
 
+  /**
+   * Picks the cells an in-memory flush keeps.
+   * @see MemStore#flushInMemory(long, InMemoryCompactor)
+   */
+  interface InMemoryCompactor {
+    /**
+     * @param scanners over the cells to flush in memory, not yet seeked
+     * @param smallestReadPoint read point of the oldest reader
+     * @return the cells to keep, sorted
+     * @throws IOException
+     */
+    List<KeyValue> compact(List<KeyValueScanner> scanners,
+        long smallestReadPoint) throws IOException;
+  }
+
+  /**
+   * @return heap size of the cells added since the last in-memory flush
+   */
+  long getActiveSize() {
+    return this.size.get() - DEEP_OVERHEAD - this.flattenedSize;
+  }
+
+  /**
+   * Waits for a running in-memory flush to finish, and keeps new ones from
+   * starting until {@link #resumeInMemoryFlushes()} is called by the same
+   * thread.
+   */
+  void pauseInMemoryFlushes() {
+    this.inMemoryFlushLock.lock();
+  }
+
+  /**
+   * Lets in-memory flushes run again.
+   * @see #pauseInMemoryFlushes()
+   */
+  void resumeInMemoryFlushes() {
+    this.inMemoryFlushLock.unlock();
+  }
+
+  /**
+   * Flushes the memstore in memory: the cells of kvset every reader can see
+   * are merged with the flattened ones into a new flattened segment, a
+   * sorted array that costs far less heap than the skip list, and the
+   * compactor drops those a flush to disk would not write out.  The cells
+   * some reader cannot see yet stay in kvset, so that a failed write can
+   * still be rolled back.  If the memstore uses an allocator, the kept cells
+   * are copied to a new one so that the chunks of the dropped cells can go.
+   * <p>
+   * Writes go on while the cells are merged; only one in-memory flush runs
+   * at a time, and {@link #snapshot()} waits for it.
+   * @param smallestReadPoint read point of the oldest reader
+   * @param compactor picks the cells to keep, or null to keep them all
+   * @return change in the heap size of the memstore; 0 if another in-memory
+   * flush is running
+   */
+  long flushInMemory(final long smallestReadPoint,
+      final InMemoryCompactor compactor) {
+    if (!this.inMemoryFlushLock.tryLock()) {
+      return 0;
+    }
+    try {
+      KeyValueSkipListSet active;
+      MemStoreLAB activeAllocator;
+      KeyValueArraySet oldFlattened;
+      this.lock.writeLock().lock();
+      try {
+        if (this.kvset.isEmpty()) {
+          return 0;
+        }
+        active = this.kvset;
+        activeAllocator = this.allocator;
+        oldFlattened = this.flattened;
+        this.pending = active;
+        this.pendingAllocator = activeAllocator;
+        this.kvset = new KeyValueSkipListSet(this.comparator);
+        if (activeAllocator != null) {
+          this.allocator = new MemStoreLAB(conf);
+        }
+      } finally {
+        this.lock.writeLock().unlock();
+      }
+
+      List<KeyValue> visible = new ArrayList<KeyValue>(active.size());
+      List<KeyValue> notVisible = new ArrayList<KeyValue>();
+      long visibleSize = 0;
+      for (KeyValue kv : active) {
+        if (kv.getMemstoreTS() <= smallestReadPoint) {
+          visible.add(kv);
+          visibleSize += heapSizeChange(kv, true);
+        } else {
+          notVisible.add(kv);
+        }
+      }
+      List<KeyValue> kept = null;
+      if (compactor != null) {
+        List<KeyValueScanner> scanners = new ArrayList<KeyValueScanner>(2);
+        scanners.add(new CollectionBackedScanner(visible, this.comparator));
+        if (oldFlattened != null) {
+          scanners.add(new CollectionBackedScanner(oldFlattened, this.comparator));
+        }
+        try {
+          kept = compactor.compact(scanners, smallestReadPoint);
+        } catch (IOException e) {
+          LOG.warn("In-memory compaction failed, flattening all the cells", e);
+        } catch (RuntimeException e) {
+          // The cells must land somewhere
+          LOG.warn("In-memory compaction failed, flattening all the cells", e);
+        }
+      }
+      if (kept == null) {
+        kept = oldFlattened == null ? visible : merge(visible, oldFlattened);
+      }
+      MemStoreLAB newFlattenedAllocator = activeAllocator == null ||
+          kept.isEmpty() ? null : new MemStoreLAB(conf);
+      long newFlattenedSize = ClassSize.align(ClassSize.ARRAY +
+          kept.size() * ClassSize.REFERENCE) + KeyValueArraySet.FIXED_OVERHEAD;
+      for (int i = 0; i < kept.size(); i++) {
+        KeyValue kv = maybeCloneWithAllocator(newFlattenedAllocator, kept.get(i));
+        kept.set(i, kv);
+        newFlattenedSize += kv.heapSize() + ClassSize.REFERENCE;
+      }
+      KeyValueArraySet newFlattened = kept.isEmpty() ? null :
+          new KeyValueArraySet(this.comparator, kept);
+
+      long change;
+      MemStoreLAB oldFlattenedAllocator;
+      this.lock.writeLock().lock();
+      try {
+        // Move back the cells not yet visible that were not rolled back
+        for (KeyValue kv : notVisible) {
+          if (active.get(kv) == kv) {
+            this.kvset.add(maybeCloneWithAllocator(kv));
+          }
+        }
+        if (newFlattened == null) {
+          newFlattenedSize = 0;
+        }
+        change = newFlattenedSize - this.flattenedSize - visibleSize;
+        this.flattened = newFlattened;
+        this.flattenedSize = newFlattenedSize;
+        this.size.addAndGet(change);
+        oldFlattenedAllocator = this.flattenedAllocator;
+        this.flattenedAllocator = newFlattenedAllocator;
+        this.pending = null;
+        this.pendingAllocator = null;
+      } finally {
+        this.lock.writeLock().unlock();
+      }
+      if (activeAllocator != null) {
+        activeAllocator.close();
+      }
+      if (oldFlattenedAllocator != null) {
+        oldFlattenedAllocator.close();
+      }
+      return change;
+    } finally {
+      this.inMemoryFlushLock.unlock();
+    }
+  }
+
   /**
    * Remove n key from the memstore. Only kvs that have the same key and the
    * same memstoreTS are removed.  It is ok to not update timeRangeTracker
@@ -270,6 +592,15 @@ public class MemStore implements HeapSize {
       if (found != null && found.getMemstoreTS() == kv.getMemstoreTS()) {
         this.snapshot.remove(kv);
       }
+      // The cells of a running in-memory flush count in this.size.
+      KeyValueSkipListSet p = this.pending;
+      if (p != null) {
+        found = p.get(kv);
+        if (found != null && found.getMemstoreTS() == kv.getMemstoreTS()) {
+          p.remove(kv);
+          this.size.addAndGet(-heapSizeChange(kv, true));
+        }
+      }
       // If the key is in the memstore, delete it. Update this.size.
       found = this.kvset.get(kv);
       if (found != null && found.getMemstoreTS() == kv.getMemstoreTS()) {
@@ -309,7 +640,11 @@ public class MemStore implements HeapSize {
   KeyValue getNextRow(final KeyValue kv) {
     this.lock.readLock().lock();
     try {
-      return getLowest(getNextRow(kv, this.kvset), getNextRow(kv, this.snapshot));
+      KeyValue lowest = null;
+      for (NavigableSet<KeyValue> set : getSets()) {
+        lowest = getLowest(lowest, getNextRow(kv, set));
+      }
+      return lowest;
     } finally {
       this.lock.readLock().unlock();
     }
@@ -358,13 +693,24 @@ public class MemStore implements HeapSize {
   void getRowKeyAtOrBefore(final GetClosestRowBeforeTracker state) {
     this.lock.readLock().lock();
     try {
-      getRowKeyAtOrBefore(kvset, state);
-      getRowKeyAtOrBefore(snapshot, state);
+      for (NavigableSet<KeyValue> set : getSets()) {
+        getRowKeyAtOrBefore(set, state);
+      }
     } finally {
       this.lock.readLock().unlock();
     }
   }
 
+  /**
+   * @return whether the KeyValues of this memstore live in chunks that get
+   * reused by other memstores once flushed, so that KeyValues kept past a
+   * flush must be copied
+   */
+  boolean isChunkPooled() {
+    MemStoreLAB lab = this.allocator;
+    return lab != null && lab.isPooled();
+  }
+
   /*
    * @param set
    * @param state Accumulates deletes and candidates.
@@ -400,7 +746,7 @@ public class MemStore implements HeapSize {
       // Did we go beyond the target row? If so break.
       if (state.isTooFar(kv, firstOnRow)) break;
       if (state.isExpired(kv)) {
-        i.remove();
+        removeExpired(set, i);
         continue;
       }
       // If we added something, this row is a contender. break.
@@ -412,6 +758,17 @@ public class MemStore implements HeapSize {
     return foundCandidate;
   }
 
+  /*
+   * Removes the expired KeyValue the iterator just returned, unless the set
+   * is flattened and so immutable.
+   */
+  private static void removeExpired(final SortedSet<KeyValue> set,
+      final Iterator<KeyValue> i) {
+    if (!(set instanceof KeyValueArraySet)) {
+      i.remove();
+    }
+  }
+
   /*
    * Walk backwards through the passed set a row at a time until we run out of
    * set or until we get a candidate.
@@ -461,14 +818,16 @@ public class MemStore implements HeapSize {
       KeyValue firstKv = KeyValue.createFirstOnRow(
           row, family, qualifier);
       // Is there a KeyValue in 'snapshot' with the same TS? If so, upgrade the timestamp a bit.
-      SortedSet<KeyValue> snSs = snapshot.tailSet(firstKv);
-      if (!snSs.isEmpty()) {
-        KeyValue snKv = snSs.first();
-        // is there a matching KV in the snapshot?
-        if (snKv.matchingRow(firstKv) && snKv.matchingQualifier(firstKv)) {
-          if (snKv.getTimestamp() == now) {
-            // poop,
-            now += 1;
+      for (SortedSet<KeyValue> snapshotSet : getSnapshotSets()) {
+        SortedSet<KeyValue> snSs = snapshotSet.tailSet(firstKv);
+        if (!snSs.isEmpty()) {
+          KeyValue snKv = snSs.first();
+          // is there a matching KV in the snapshot?
+          if (snKv.matchingRow(firstKv) && snKv.matchingQualifier(firstKv)) {
+            if (snKv.getTimestamp() == now) {
+              // poop,
+              now += 1;
+            }
           }
         }
       }
@@ -479,20 +838,23 @@ public class MemStore implements HeapSize {
       // so we cant add the new KV w/o knowing what's there already, but we also
       // want to take this chance to delete some kvs. So two loops (sad)
 
-      SortedSet<KeyValue> ss = kvset.tailSet(firstKv);
-      Iterator<KeyValue> it = ss.iterator();
-      while ( it.hasNext() ) {
-        KeyValue kv = it.next();
+      // The cells flushed in memory are part of the memstore too
+      for (SortedSet<KeyValue> set : getActiveSets()) {
+        SortedSet<KeyValue> ss = set.tailSet(firstKv);
+        Iterator<KeyValue> it = ss.iterator();
+        while ( it.hasNext() ) {
+          KeyValue kv = it.next();
 
-        // if this isnt the row we are interested in, then bail:
-        if (!kv.matchingColumn(family,qualifier) || !kv.matchingRow(firstKv) ) {
-          break; // rows dont match, bail.
-        }
+          // if this isnt the row we are interested in, then bail:
+          if (!kv.matchingColumn(family,qualifier) || !kv.matchingRow(firstKv) ) {
+            break; // rows dont match, bail.
+          }
 
-        // if the qualifier matches and it's a put, just RM it out of the kvset.
-        if (kv.getType() == KeyValue.Type.Put.getCode() &&
-            kv.getTimestamp() > now && firstKv.matchingQualifier(kv)) {
-          now = kv.getTimestamp();
+          // if the qualifier matches and it's a put, just RM it out of the kvset.
+          if (kv.getType() == KeyValue.Type.Put.getCode() &&
+              kv.getTimestamp() > now && firstKv.matchingQualifier(kv)) {
+            now = kv.getTimestamp();
+          }
         }
       }
 
@@ -566,6 +928,10 @@ public class MemStore implements HeapSize {
         kv.getBuffer(), kv.getRowOffset(), kv.getRowLength(),
         kv.getBuffer(), kv.getFamilyOffset(), kv.getFamilyLength(),
         kv.getBuffer(), kv.getQualifierOffset(), kv.getQualifierLength());
+    // The versions flushed in memory cannot be removed, but they hide the
+    // ones of kvset that sort after them
+    List<KeyValue> flushedVersions = getVisiblePuts(firstKv, readpoint);
+    int nextFlushedVersion = 0;
     SortedSet<KeyValue> ss = kvset.tailSet(firstKv);
     Iterator<KeyValue> it = ss.iterator();
     // versions visible to oldest scanner
@@ -579,6 +945,11 @@ public class MemStore implements HeapSize {
       }
       // check that this is the row and column we are interested in, otherwise bail
       if (kv.matchingRow(cur) && kv.matchingQualifier(cur)) {
+        for (; nextFlushedVersion < flushedVersions.size() &&
+            comparator.compare(flushedVersions.get(nextFlushedVersion), cur) < 0;
+            nextFlushedVersion++) {
+          versionsVisible++;
+        }
         // only remove Puts that concurrent scanners cannot possibly see
         if (cur.getType() == KeyValue.Type.Put.getCode() && cur.getMemstoreTS() <= readpoint) {
           if (versionsVisible > 1) {
@@ -600,6 +971,33 @@ public class MemStore implements HeapSize {
     return addedSize;
   }
 
+  /*
+   * @return the Puts of the column of <code>firstKv</code> the oldest scanner
+   * can see among the cells flushed in memory, sorted.  Callers hold the
+   * lock.
+   */
+  private List<KeyValue> getVisiblePuts(final KeyValue firstKv,
+      final long readpoint) {
+    List<KeyValue> puts = new ArrayList<KeyValue>();
+    List<NavigableSet<KeyValue>> sets = getActiveSets();
+    // Leave out kvset
+    for (NavigableSet<KeyValue> set : sets.subList(1, sets.size())) {
+      for (KeyValue cur : set.tailSet(firstKv)) {
+        if (!firstKv.matchingRow(cur) || !firstKv.matchingQualifier(cur)) {
+          break;
+        }
+        if (cur.getType() == KeyValue.Type.Put.getCode() &&
+            cur.getMemstoreTS() <= readpoint) {
+          puts.add(cur);
+        }
+      }
+    }
+    if (sets.size() > 2) {
+      Collections.sort(puts, this.comparator);
+    }
+    return puts;
+  }
+
   /*
    * Immutable data structure to hold member found in set and the set it was
    * found in.  Include set because it is carrying context.
@@ -628,7 +1026,7 @@ public class MemStore implements HeapSize {
     for (Iterator<KeyValue> i = head.descendingIterator(); i.hasNext();) {
       KeyValue found = i.next();
       if (state.isExpired(found)) {
-        i.remove();
+        removeExpired(set, i);
         continue;
       }
       return new Member(head, found);
@@ -668,30 +1066,37 @@ public class MemStore implements HeapSize {
 
   /*
    * MemStoreScanner implements the KeyValueScanner.
-   * It lets the caller scan the contents of a memstore -- both current
-   * map and snapshot.
+   * It lets the caller scan the contents of a memstore -- the current map,
+   * the cells flushed in memory, and the snapshot.
    * This behaves as if it were a real scanner but does not maintain position.
    */
   protected class MemStoreScanner extends NonLazyKeyValueScanner {
-    // Next row information for either kvset or snapshot
-    private KeyValue kvsetNextRow = null;
-    private KeyValue snapshotNextRow = null;
-
-    // last iterated KVs for kvset and snapshot (to restore iterator state after reseek)
-    private KeyValue kvsetItRow = null;
-    private KeyValue snapshotItRow = null;
-    
-    // iterator based scanning.
-    private Iterator<KeyValue> kvsetIt;
-    private Iterator<KeyValue> snapshotIt;
-
-    // The kvset and snapshot at the time of creating this scanner
-    private KeyValueSkipListSet kvsetAtCreation;
-    private KeyValueSkipListSet snapshotAtCreation;
+    // The sets of the memstore at the time of creating this scanner, newest
+    // first: kvset, pending and flattened, snapshot and its flattened cells
+    private final List<NavigableSet<KeyValue>> setsAtCreation;
+
+    // Next KV of each set
+    private final KeyValue[] nextKVs;
+
+    // last iterated KV of each set (to restore iterator state after reseek)
+    private final KeyValue[] lastKVs;
+
+    // iterator based scanning, one per set
+    private final List<Iterator<KeyValue>> iterators;
 
     // the pre-calculated KeyValue to be returned by peek() or next()
     private KeyValue theNext;
 
+    // The allocators of the sets, kept open until this is closed
+    private List<MemStoreLAB> allocatorsAtCreation;
+
+    // Whether KVs are copied out of the sets before being handed out. The
+    // chunks of a pooled allocator are reused once this scanner is closed,
+    // but the KVs it returned can be held on to longer than that: by the
+    // results of a get or a scan until its response is written, or by a
+    // StoreScanner whose memstore scanner got closed by a flush.
+    private boolean copyKVs = false;
+
     /*
     Some notes...
 
@@ -711,24 +1116,52 @@ public class MemStore implements HeapSize {
       Currently, this problem is only partly managed: during the small amount of time
       when the StoreScanner has not yet created a new MemStoreScanner, we will miss
       the adds to kvset in the MemStoreScanner.
+
+      An in-memory flush swaps kvset too, but the cells added after it cannot be
+      visible to this scanner: they were written after its read point was taken.
     */
 
     MemStoreScanner() {
       super();
 
-      kvsetAtCreation = kvset;
-      snapshotAtCreation = snapshot;
+      setsAtCreation = getSets();
+      int count = setsAtCreation.size();
+      nextKVs = new KeyValue[count];
+      lastKVs = new KeyValue[count];
+      iterators = new ArrayList<Iterator<KeyValue>>(count);
+      for (int i = 0; i < count; i++) {
+        iterators.add(null);
+      }
+
+      allocatorsAtCreation = new ArrayList<MemStoreLAB>(5);
+      addAllocator(allocator);
+      addAllocator(pendingAllocator);
+      addAllocator(flattenedAllocator);
+      addAllocator(snapshotAllocator);
+      addAllocator(snapshotFlattenedAllocator);
     }
 
-    private KeyValue getNext(Iterator<KeyValue> it) {
+    private void addAllocator(MemStoreLAB lab) {
+      if (lab != null) {
+        lab.incScannerCount();
+        allocatorsAtCreation.add(lab);
+        copyKVs |= lab.isPooled();
+      }
+    }
+
+    /*
+     * Returns the next KV of the i-th set visible at the thread's read point.
+     */
+    private KeyValue getNext(int i) {
       long readPoint = MultiVersionConsistencyControl.getThreadReadPoint();
+      Iterator<KeyValue> it = iterators.get(i);
 
       KeyValue v = null;
       try {
         while (it.hasNext()) {
           v = it.next();
           if (v.getMemstoreTS() <= readPoint) {
-            return v;
+            return copyKVs ? v.deepCopy() : v;
           }
         }
 
@@ -736,11 +1169,7 @@ public class MemStore implements HeapSize {
       } finally {
         if (v != null) {
           // in all cases, remember the last KV iterated to
-          if (it == snapshotIt) {
-            snapshotItRow = v;
-          } else {
-            kvsetItRow = v;
-          }
+          lastKVs[i] = v;
         }
       }
     }
@@ -759,12 +1188,12 @@ public class MemStore implements HeapSize {
         return false;
       }
 
-      // kvset and snapshot will never be null.
+      // The sets will never be null.
       // if tailSet can't find anything, SortedSet is empty (not null).
-      kvsetIt = kvsetAtCreation.tailSet(key).iterator();
-      snapshotIt = snapshotAtCreation.tailSet(key).iterator();
-      kvsetItRow = null;
-      snapshotItRow = null;
+      for (int i = 0; i < nextKVs.length; i++) {
+        iterators.set(i, setsAtCreation.get(i).tailSet(key).iterator());
+        lastKVs[i] = null;
+      }
 
       return seekInSubLists(key);
     }
@@ -774,11 +1203,12 @@ public class MemStore implements HeapSize {
      * (Re)initialize the iterators after a seek or a reseek.
      */
     private synchronized boolean seekInSubLists(KeyValue key){
-      kvsetNextRow = getNext(kvsetIt);
-      snapshotNextRow = getNext(snapshotIt);
+      for (int i = 0; i < nextKVs.length; i++) {
+        nextKVs[i] = getNext(i);
+      }
 
       // Calculate the next value
-      theNext = getLowest(kvsetNextRow, snapshotNextRow);
+      theNext = getLowest();
 
       // has data
       return (theNext != null);
@@ -805,8 +1235,10 @@ public class MemStore implements HeapSize {
        the reseeked set to at least that point.
        */
 
-      kvsetIt = kvsetAtCreation.tailSet(getHighest(key, kvsetItRow)).iterator();
-      snapshotIt = snapshotAtCreation.tailSet(getHighest(key, snapshotItRow)).iterator();
+      for (int i = 0; i < nextKVs.length; i++) {
+        iterators.set(i, setsAtCreation.get(i).tailSet(
+            getHighest(key, lastKVs[i])).iterator());
+      }
 
       return seekInSubLists(key);
     }
@@ -826,15 +1258,16 @@ public class MemStore implements HeapSize {
 
       final KeyValue ret = theNext;
 
-      // Advance one of the iterators
-      if (theNext == kvsetNextRow) {
-        kvsetNextRow = getNext(kvsetIt);
-      } else {
-        snapshotNextRow = getNext(snapshotIt);
+      // Advance the iterator theNext came from
+      for (int i = 0; i < nextKVs.length; i++) {
+        if (nextKVs[i] == theNext) {
+          nextKVs[i] = getNext(i);
+          break;
+        }
       }
 
       // Calculate the next value
-      theNext = getLowest(kvsetNextRow, snapshotNextRow);
+      theNext = getLowest();
 
       //long readpoint = ReadWriteConsistencyControl.getThreadReadPoint();
       //DebugPrint.println(" MS@" + hashCode() + " next: " + theNext + " next_next: " +
@@ -843,19 +1276,20 @@ public class MemStore implements HeapSize {
     }
 
     /*
-     * Returns the lower of the two key values, or null if they are both null.
-     * This uses comparator.compare() to compare the KeyValue using the memstore
-     * comparator.
+     * Returns the lowest of the next key values of the sets, or null if they
+     * are all null.  Of equal key values, the one of the newest set wins.
+     * This uses comparator.compare() to compare the KeyValue using the
+     * memstore comparator.
      */
-    private KeyValue getLowest(KeyValue first, KeyValue second) {
-      if (first == null && second == null) {
-        return null;
-      }
-      if (first != null && second != null) {
-        int compare = comparator.compare(first, second);
-        return (compare <= 0 ? first : second);
+    private KeyValue getLowest() {
+      KeyValue lowest = null;
+      for (KeyValue kv : nextKVs) {
+        if (kv != null &&
+            (lowest == null || comparator.compare(kv, lowest) < 0)) {
+          lowest = kv;
+        }
       }
-      return (first != null ? first : second);
+      return lowest;
     }
 
     /*
@@ -875,14 +1309,18 @@ public class MemStore implements HeapSize {
     }
 
     public synchronized void close() {
-      this.kvsetNextRow = null;
-      this.snapshotNextRow = null;
-
-      this.kvsetIt = null;
-      this.snapshotIt = null;
+      for (int i = 0; i < nextKVs.length; i++) {
+        this.nextKVs[i] = null;
+        this.iterators.set(i, null);
+        this.lastKVs[i] = null;
+      }
 
-      this.kvsetItRow = null;
-      this.snapshotItRow = null;
+      if (this.allocatorsAtCreation != null) {
+        for (MemStoreLAB lab : this.allocatorsAtCreation) {
+          lab.decScannerCount();
+        }
+        this.allocatorsAtCreation = null;
+      }
     }
 
     /**
@@ -902,10 +1340,11 @@ public class MemStore implements HeapSize {
   }
 
   public final static long FIXED_OVERHEAD = ClassSize.align(
-      ClassSize.OBJECT + (11 * ClassSize.REFERENCE));
+      ClassSize.OBJECT + (19 * ClassSize.REFERENCE) + Bytes.SIZEOF_LONG);
 
   public final static long DEEP_OVERHEAD = ClassSize.align(FIXED_OVERHEAD +
       ClassSize.REENTRANT_LOCK + ClassSize.ATOMIC_LONG +
+      ClassSize.align(ClassSize.OBJECT + ClassSize.REFERENCE) +
       ClassSize.COPYONWRITE_ARRAYSET + ClassSize.COPYONWRITE_ARRAYLIST +
       (2 * ClassSize.CONCURRENT_SKIPLISTMAP));
 
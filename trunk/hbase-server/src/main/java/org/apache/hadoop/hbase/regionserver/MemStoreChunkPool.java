@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.regionserver.MemStoreLAB.Chunk;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Region server wide pool of {@link MemStoreLAB} chunks.
+ * <p>
+ * Without it every MemStoreLAB allocates its chunks from the JVM and drops
+ * them once its memstore snapshot is flushed, so a write heavy server
+ * pushes a steady stream of large arrays through the old generation. With
+ * it, a MemStoreLAB hands its chunks back once its snapshot is flushed and
+ * no scanner reads it any more, and new MemStoreLABs take chunks from the
+ * pool before they allocate any.
+ * <p>
+ * The pool holds at most {@link #CHUNK_POOL_MAXSIZE_KEY} of the global
+ * memstore limit; chunks handed back to a full pool are left to the garbage
+ * collector. {@link #CHUNK_POOL_INITIALSIZE_KEY} of that is allocated up
+ * front.
+ */
+@InterfaceAudience.Private
+public class MemStoreChunkPool {
+  static final Log LOG = LogFactory.getLog(MemStoreChunkPool.class);
+
+  /** Fraction of the global memstore limit the pool may hold, 0 disables it */
+  public static final String CHUNK_POOL_MAXSIZE_KEY =
+      "hbase.hregion.memstore.chunkpool.maxsize";
+  public static final float DEFAULT_CHUNK_POOL_MAXSIZE = 0.0f;
+
+  /** Fraction of the pool's maximum size that is allocated up front */
+  public static final String CHUNK_POOL_INITIALSIZE_KEY =
+      "hbase.hregion.memstore.chunkpool.initialsize";
+  public static final float DEFAULT_CHUNK_POOL_INITIALSIZE = 0.0f;
+
+  private static MemStoreChunkPool globalPool;
+  private static boolean chunkPoolDisabled = false;
+
+  private final int chunkSize;
+  private final int maxCount;
+  private final BlockingQueue<Chunk> reclaimedChunks;
+  private final AtomicLong hitCount = new AtomicLong(0);
+  private final AtomicLong missCount = new AtomicLong(0);
+
+  /**
+   * @param chunkSize size of the pooled chunks, in bytes
+   * @param maxCount most chunks the pool holds
+   * @param initialCount chunks to allocate up front
+   */
+  MemStoreChunkPool(int chunkSize, int maxCount, int initialCount) {
+    this.chunkSize = chunkSize;
+    this.maxCount = maxCount;
+    this.reclaimedChunks = new LinkedBlockingQueue<Chunk>(maxCount);
+    for (int i = 0; i < initialCount; i++) {
+      Chunk chunk = new Chunk(chunkSize);
+      chunk.init();
+      reclaimedChunks.add(chunk);
+    }
+  }
+
+  /**
+   * Takes a chunk from the pool, or makes a new one if the pool is empty.
+   * The chunk still has to be {@link Chunk#init() initialized}; that is
+   * cheap for a pooled chunk, whose memory is already allocated.
+   */
+  Chunk getChunk() {
+    Chunk chunk = reclaimedChunks.poll();
+    if (chunk == null) {
+      missCount.incrementAndGet();
+      return new Chunk(chunkSize);
+    }
+    hitCount.incrementAndGet();
+    chunk.reset();
+    return chunk;
+  }
+
+  /**
+   * Hands chunks back to the pool, as many as fit.
+   */
+  void putbackChunks(BlockingQueue<Chunk> chunks) {
+    Chunk chunk;
+    while ((chunk = chunks.poll()) != null) {
+      if (!reclaimedChunks.offer(chunk)) {
+        // Full; the rest go to the garbage collector
+        chunks.clear();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Hands a single chunk back to the pool, if it fits.
+   */
+  void putbackChunk(Chunk chunk) {
+    reclaimedChunks.offer(chunk);
+  }
+
+  int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * @return number of chunks the pool holds at most
+   */
+  int getMaxCount() {
+    return maxCount;
+  }
+
+  /**
+   * @return number of chunks in the pool
+   */
+  public int getPoolSize() {
+    return reclaimedChunks.size();
+  }
+
+  /**
+   * @return number of chunks taken from the pool
+   */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * @return number of chunks that had to be allocated as the pool was empty
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * Returns the region server's chunk pool, or <code>null</code> if it, or
+   * the MemStoreLAB, is disabled.
+   *
+   * @param conf  The current configuration.
+   * @return The chunk pool or <code>null</code>.
+   */
+  static synchronized MemStoreChunkPool getPool(Configuration conf) {
+    if (globalPool != null) return globalPool;
+    if (chunkPoolDisabled) return null;
+
+    float poolSizePercentage = conf.getFloat(CHUNK_POOL_MAXSIZE_KEY,
+        DEFAULT_CHUNK_POOL_MAXSIZE);
+    if (poolSizePercentage <= 0 ||
+        !conf.getBoolean(MemStore.USEMSLAB_KEY, MemStore.USEMSLAB_DEFAULT)) {
+      chunkPoolDisabled = true;
+      return null;
+    }
+    if (poolSizePercentage > 1.0) {
+      throw new IllegalArgumentException(CHUNK_POOL_MAXSIZE_KEY +
+          " must be between 0.0 and 1.0");
+    }
+    float initialCountPercentage = conf.getFloat(CHUNK_POOL_INITIALSIZE_KEY,
+        DEFAULT_CHUNK_POOL_INITIALSIZE);
+    if (initialCountPercentage < 0 || initialCountPercentage > 1.0) {
+      throw new IllegalArgumentException(CHUNK_POOL_INITIALSIZE_KEY +
+          " must be between 0.0 and 1.0");
+    }
+    long heapMax =
+        ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+    long globalMemStoreLimit = MemStoreFlusher.globalMemStoreLimit(heapMax,
+        MemStoreFlusher.DEFAULT_UPPER, MemStoreFlusher.UPPER_KEY, conf);
+    int chunkSize = conf.getInt(MemStoreLAB.CHUNK_SIZE_KEY,
+        MemStoreLAB.CHUNK_SIZE_DEFAULT);
+    int maxCount = (int) (globalMemStoreLimit * poolSizePercentage / chunkSize);
+    if (maxCount <= 0) {
+      chunkPoolDisabled = true;
+      return null;
+    }
+    int initialCount = (int) (initialCountPercentage * maxCount);
+    LOG.info("Allocating MemStoreChunkPool with chunk size " +
+        StringUtils.humanReadableInt(chunkSize) + ", max count " + maxCount +
+        ", initial count " + initialCount);
+    globalPool = new MemStoreChunkPool(chunkSize, maxCount, initialCount);
+    return globalPool;
+  }
+}
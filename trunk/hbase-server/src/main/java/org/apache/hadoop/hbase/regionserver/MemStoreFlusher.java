@@ -30,6 +30,9 @@ import java.util.SortedMap;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -41,6 +44,7 @@ import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.DroppedSnapshotException;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.NotServingRegionException;
 import org.apache.hadoop.hbase.RemoteExceptionHandler;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
@@ -79,9 +83,9 @@ class MemStoreFlusher implements FlushRequester {
   protected final long globalMemStoreLimit;
   protected final long globalMemStoreLimitLowMark;
 
-  private static final float DEFAULT_UPPER = 0.4f;
+  static final float DEFAULT_UPPER = 0.4f;
   private static final float DEFAULT_LOWER = 0.35f;
-  private static final String UPPER_KEY =
+  static final String UPPER_KEY =
     "hbase.regionserver.global.memstore.upperLimit";
   private static final String LOWER_KEY =
     "hbase.regionserver.global.memstore.lowerLimit";
@@ -92,6 +96,11 @@ class MemStoreFlusher implements FlushRequester {
   private FlushHandler[] flushHandlers = null;
   private int handlerCount;
 
+  // Flushes regions in memory, off the handlers that asked for it
+  private volatile ExecutorService inMemoryFlusher = null;
+  // Regions waiting for an in-memory flush
+  private final Set<HRegion> regionsInMemoryFlushQueue = new HashSet<HRegion>();
+
   /**
    * @param conf
    * @param server
@@ -318,14 +327,56 @@ class MemStoreFlusher implements FlushRequester {
   }
 
   public void requestFlush(HRegion r) {
+    requestFlush(r, false);
+  }
+
+  public void requestFlush(HRegion r, boolean forceFlushAllStores) {
     synchronized (regionsInQueue) {
-      if (!regionsInQueue.containsKey(r)) {
+      FlushRegionEntry fqe = regionsInQueue.get(r);
+      if (fqe == null) {
         // This entry has no delay so it will be added at the top of the flush
         // queue.  It'll come out near immediately.
-        FlushRegionEntry fqe = new FlushRegionEntry(r);
+        fqe = new FlushRegionEntry(r);
         this.regionsInQueue.put(r, fqe);
         this.flushQueue.add(fqe);
       }
+      if (forceFlushAllStores) {
+        fqe.forceFlushAllStores = true;
+      }
+    }
+  }
+
+  public void requestInMemoryFlush(final HRegion r) {
+    ExecutorService flusher = this.inMemoryFlusher;
+    if (flusher == null) {
+      return;
+    }
+    synchronized (regionsInMemoryFlushQueue) {
+      if (!regionsInMemoryFlushQueue.add(r)) {
+        return;
+      }
+    }
+    try {
+      flusher.execute(new Runnable() {
+        @Override
+        public void run() {
+          synchronized (regionsInMemoryFlushQueue) {
+            regionsInMemoryFlushQueue.remove(r);
+          }
+          try {
+            r.flushStoresInMemory();
+          } catch (NotServingRegionException e) {
+            LOG.debug("Skipping in-memory flush of closing region " + r);
+          } catch (Exception e) {
+            LOG.error("In-memory flush failed for " + r, e);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // Shutting down
+      synchronized (regionsInMemoryFlushQueue) {
+        regionsInMemoryFlushQueue.remove(r);
+      }
     }
   }
 
@@ -356,6 +407,9 @@ class MemStoreFlusher implements FlushRequester {
       flusherThreadFactory.newThread(flushHandlers[i]);
       flushHandlers[i].start();
     }
+    inMemoryFlusher = Executors.newSingleThreadExecutor(
+        Threads.newDaemonThreadFactory(
+            server.getServerName().toString() + "-InMemoryFlusher", eh));
   }
 
   boolean isAlive() {
@@ -373,6 +427,11 @@ class MemStoreFlusher implements FlushRequester {
         Threads.shutdown(flushHander.getThread());
       }
     }
+    if (inMemoryFlusher != null) {
+      // Pending in-memory flushes can be dropped, the memstores get
+      // flushed to disk or dropped as the regions close
+      inMemoryFlusher.shutdownNow();
+    }
   }
 
   /*
@@ -433,6 +492,7 @@ class MemStoreFlusher implements FlushRequester {
    * not flushed.
    */
   private boolean flushRegion(final HRegion region, final boolean emergencyFlush) {
+    boolean forceFlushAllStores = false;
     synchronized (this.regionsInQueue) {
       FlushRegionEntry fqe = this.regionsInQueue.remove(region);
       if (fqe != null && emergencyFlush) {
@@ -440,10 +500,13 @@ class MemStoreFlusher implements FlushRequester {
         // emergencyFlush, then item was removed via a flushQueue.poll.
         flushQueue.remove(fqe);
      }
+      if (fqe != null) {
+        forceFlushAllStores = fqe.forceFlushAllStores;
+      }
     }
     lock.readLock().lock();
     try {
-      boolean shouldCompact = region.flushcache();
+      boolean shouldCompact = region.flushcache(forceFlushAllStores);
       // We just want to check the size
       boolean shouldSplit = region.checkSplit() != null;
       if (shouldSplit) {
@@ -591,6 +654,8 @@ class MemStoreFlusher implements FlushRequester {
     private final long createTime;
     private long whenToExpire;
     private int requeueCount = 0;
+    // Set under the regionsInQueue lock
+    private boolean forceFlushAllStores = false;
 
     FlushRegionEntry(final HRegion r) {
       this.region = r;
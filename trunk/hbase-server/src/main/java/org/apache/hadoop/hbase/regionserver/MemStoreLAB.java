@@ -18,6 +18,9 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -41,6 +44,10 @@ import com.google.common.base.Preconditions;
  * interleaved throughout the heap, and the old generation gets progressively
  * more fragmented until a stop-the-world compacting collection occurs.
  * <p>
+ * If the region server has a {@link MemStoreChunkPool}, chunks come from the
+ * pool, and go back to it once the MemStoreLAB is {@link #close() closed}
+ * and no scanner reads from it any more.
+ * <p>
  * TODO: we should probably benchmark whether word-aligning the allocations
  * would provide a performance improvement - probably would speed up the
  * Bytes.toLong/Bytes.toInt calls in KeyValue, but some of those are cached
@@ -58,11 +65,27 @@ public class MemStoreLAB {
   final static int MAX_ALLOC_DEFAULT = 256  * 1024; // allocs bigger than this don't go through allocator
   final int maxAlloc;
 
+  private final MemStoreChunkPool chunkPool;
+  // Chunks this MemStoreLAB took from the pool, to hand back once closed
+  private final BlockingQueue<Chunk> chunkQueue;
+  private final AtomicInteger openScannerCount = new AtomicInteger();
+  private volatile boolean closed = false;
+  // Whether the chunks went back to the pool already
+  private final AtomicBoolean reclaimed = new AtomicBoolean(false);
+
   public MemStoreLAB() {
     this(new Configuration());
   }
 
   public MemStoreLAB(Configuration conf) {
+    this(conf, MemStoreChunkPool.getPool(conf));
+  }
+
+  /**
+   * @param conf configuration
+   * @param pool where to take chunks from, or null to allocate them
+   */
+  MemStoreLAB(Configuration conf, MemStoreChunkPool pool) {
     chunkSize = conf.getInt(CHUNK_SIZE_KEY, CHUNK_SIZE_DEFAULT);
     maxAlloc = conf.getInt(MAX_ALLOC_KEY, MAX_ALLOC_DEFAULT);
 
@@ -70,6 +93,57 @@ public class MemStoreLAB {
     Preconditions.checkArgument(
       maxAlloc <= chunkSize,
       MAX_ALLOC_KEY + " must be less than " + CHUNK_SIZE_KEY);
+
+    if (pool != null && pool.getChunkSize() == chunkSize) {
+      this.chunkPool = pool;
+      this.chunkQueue = new LinkedBlockingQueue<Chunk>();
+    } else {
+      this.chunkPool = null;
+      this.chunkQueue = null;
+    }
+  }
+
+  /**
+   * Called once nothing gets allocated from this MemStoreLAB any more, when
+   * its memstore snapshot is flushed. Its chunks go back to the pool as soon
+   * as the last scanner reading them is closed.
+   */
+  public void close() {
+    this.closed = true;
+    if (openScannerCount.get() == 0) {
+      recycleChunks();
+    }
+  }
+
+  /**
+   * Called when a scanner that may read from this MemStoreLAB is opened.
+   */
+  public void incScannerCount() {
+    openScannerCount.incrementAndGet();
+  }
+
+  /**
+   * Called when a scanner counted by {@link #incScannerCount()} is closed.
+   */
+  public void decScannerCount() {
+    int count = openScannerCount.decrementAndGet();
+    if (closed && count == 0) {
+      recycleChunks();
+    }
+  }
+
+  /**
+   * @return whether the chunks of this MemStoreLAB go back to a pool, to be
+   * overwritten by another memstore once it is closed and unread
+   */
+  boolean isPooled() {
+    return chunkPool != null;
+  }
+
+  private void recycleChunks() {
+    if (chunkPool != null && reclaimed.compareAndSet(false, true)) {
+      chunkPool.putbackChunks(chunkQueue);
+    }
   }
 
   /**
@@ -121,7 +195,7 @@ public class MemStoreLAB {
 
   /**
    * Get the current chunk, or, if there is no current chunk,
-   * allocate a new one from the JVM.
+   * take one from the pool or allocate a new one from the JVM.
    */
   private Chunk getOrMakeChunk() {
     while (true) {
@@ -134,12 +208,17 @@ public class MemStoreLAB {
       // No current chunk, so we want to allocate one. We race
       // against other allocators to CAS in an uninitialized chunk
       // (which is cheap to allocate)
-      c = new Chunk(chunkSize);
+      c = chunkPool != null ? chunkPool.getChunk() : new Chunk(chunkSize);
       if (curChunk.compareAndSet(null, c)) {
         // we won race - now we need to actually do the expensive
         // allocation step
         c.init();
+        if (chunkQueue != null) {
+          chunkQueue.add(c);
+        }
         return c;
+      } else if (chunkPool != null) {
+        chunkPool.putbackChunk(c);
       }
       // someone else won race - that's fine, we'll try to grab theirs
       // in the next iteration of the loop.
@@ -149,7 +228,7 @@ public class MemStoreLAB {
   /**
    * A chunk of memory out of which allocations are sliced.
    */
-  private static class Chunk {
+  static class Chunk {
     /** Actual underlying data */
     private byte[] data;
 
@@ -172,7 +251,7 @@ public class MemStoreLAB {
      * this is cheap.
      * @param size in bytes
      */
-    private Chunk(int size) {
+    Chunk(int size) {
       this.size = size;
     }
 
@@ -180,11 +259,14 @@ public class MemStoreLAB {
      * Actually claim the memory for this chunk. This should only be called from
      * the thread that constructed the chunk. It is thread-safe against other
      * threads calling alloc(), who will block until the allocation is complete.
+     * A chunk coming back from the pool keeps the memory it already has.
      */
     public void init() {
       assert nextFreeOffset.get() == UNINITIALIZED;
       try {
-        data = new byte[size];
+        if (data == null) {
+          data = new byte[size];
+        }
       } catch (OutOfMemoryError e) {
         boolean failInit = nextFreeOffset.compareAndSet(UNINITIALIZED, OOM);
         assert failInit; // should be true.
@@ -199,6 +281,17 @@ public class MemStoreLAB {
           "Multiple threads tried to init same chunk");
     }
 
+    /**
+     * Makes a pooled chunk uninitialized again, for its next user to
+     * {@link #init()} it. The memory is kept, its contents are not cleared.
+     */
+    void reset() {
+      if (nextFreeOffset.get() != UNINITIALIZED) {
+        nextFreeOffset.set(UNINITIALIZED);
+        allocCount.set(0);
+      }
+    }
+
     /**
      * Try to allocate <code>size</code> bytes from the chunk.
      * @return the offset of the successful allocation, or -1 to indicate not-enough-space
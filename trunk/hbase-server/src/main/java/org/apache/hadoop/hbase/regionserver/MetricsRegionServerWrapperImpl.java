@@ -27,11 +27,14 @@ import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.io.hfile.BlockCache;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
 import org.apache.hadoop.hbase.io.hfile.CacheStats;
+import org.apache.hadoop.hbase.io.hfile.LruBlockCache;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
 import org.apache.hadoop.metrics2.MetricsExecutor;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
@@ -49,6 +52,8 @@ class MetricsRegionServerWrapperImpl
   private final HRegionServer regionServer;
 
   private BlockCache blockCache;
+  private RowCache rowCache;
+  private MemStoreChunkPool chunkPool;
 
   private volatile long numStores = 0;
   private volatile long numStoreFiles = 0;
@@ -59,6 +64,8 @@ class MetricsRegionServerWrapperImpl
   private volatile long writeRequestsCount = 0;
   private volatile long checkAndMutateChecksFailed = 0;
   private volatile long checkAndMutateChecksPassed = 0;
+  private volatile long rowLockWaitCount = 0;
+  private volatile long rowLockWaitTime = 0;
   private volatile long storefileIndexSize = 0;
   private volatile long totalStaticIndexSize = 0;
   private volatile long totalStaticBloomSize = 0;
@@ -93,6 +100,14 @@ class MetricsRegionServerWrapperImpl
     if (this.blockCache != null && this.cacheStats == null) {
       this.cacheStats = blockCache.getStats();
     }
+
+    if (this.rowCache == null) {
+      this.rowCache = RowCache.instantiateRowCache(regionServer.getConfiguration());
+    }
+
+    if (this.chunkPool == null) {
+      this.chunkPool = MemStoreChunkPool.getPool(regionServer.getConfiguration());
+    }
   }
 
   @Override
@@ -228,6 +243,110 @@ class MetricsRegionServerWrapperImpl
     return (int) (this.cacheStats.getHitCachingRatio() * 100);
   }
 
+  @Override
+  public long getBlockCachePinnedSize() {
+    if (!(this.blockCache instanceof LruBlockCache)) {
+      return 0;
+    }
+    return ((LruBlockCache) this.blockCache).getPinnedSize();
+  }
+
+  @Override
+  public Map<String, Long> getBlockCachePinnedSizePerTable() {
+    if (!(this.blockCache instanceof LruBlockCache)) {
+      return Collections.emptyMap();
+    }
+    return ((LruBlockCache) this.blockCache).getPinnedSizePerTable();
+  }
+
+  @Override
+  public long getRowCacheCount() {
+    if (this.rowCache == null) {
+      return 0;
+    }
+    return this.rowCache.size();
+  }
+
+  @Override
+  public long getRowCacheSize() {
+    if (this.rowCache == null) {
+      return 0;
+    }
+    return this.rowCache.heapSize();
+  }
+
+  @Override
+  public long getRowCacheHitCount() {
+    if (this.rowCache == null) {
+      return 0;
+    }
+    return this.rowCache.getHitCount();
+  }
+
+  @Override
+  public long getRowCacheMissCount() {
+    if (this.rowCache == null) {
+      return 0;
+    }
+    return this.rowCache.getMissCount();
+  }
+
+  @Override
+  public long getRowCacheEvictedCount() {
+    if (this.rowCache == null) {
+      return 0;
+    }
+    return this.rowCache.getEvictionCount();
+  }
+
+  @Override
+  public long getRowCacheInvalidatedCount() {
+    if (this.rowCache == null) {
+      return 0;
+    }
+    return this.rowCache.getInvalidationCount();
+  }
+
+  @Override
+  public Map<String, Long> getRowCacheHitCountPerWorkload() {
+    if (this.rowCache == null) {
+      return Collections.emptyMap();
+    }
+    return this.rowCache.getHitCountPerWorkload();
+  }
+
+  @Override
+  public Map<String, Long> getRowCacheMissCountPerWorkload() {
+    if (this.rowCache == null) {
+      return Collections.emptyMap();
+    }
+    return this.rowCache.getMissCountPerWorkload();
+  }
+
+  @Override
+  public long getMemStoreChunkPoolSize() {
+    if (this.chunkPool == null) {
+      return 0;
+    }
+    return this.chunkPool.getPoolSize();
+  }
+
+  @Override
+  public long getMemStoreChunkPoolHitCount() {
+    if (this.chunkPool == null) {
+      return 0;
+    }
+    return this.chunkPool.getHitCount();
+  }
+
+  @Override
+  public long getMemStoreChunkPoolMissCount() {
+    if (this.chunkPool == null) {
+      return 0;
+    }
+    return this.chunkPool.getMissCount();
+  }
+
   @Override public void forceRecompute() {
     this.runnable.run();
   }
@@ -276,6 +395,16 @@ class MetricsRegionServerWrapperImpl
     return checkAndMutateChecksPassed;
   }
 
+  @Override
+  public long getRowLockWaitCount() {
+    return rowLockWaitCount;
+  }
+
+  @Override
+  public long getRowLockWaitTime() {
+    return rowLockWaitTime;
+  }
+
   @Override
   public long getStoreFileIndexSize() {
     return storefileIndexSize;
@@ -341,6 +470,8 @@ class MetricsRegionServerWrapperImpl
       long tempWriteRequestsCount = 0;
       long tempCheckAndMutateChecksFailed = 0;
       long tempCheckAndMutateChecksPassed = 0;
+      long tempRowLockWaitCount = 0;
+      long tempRowLockWaitTime = 0;
       long tempStorefileIndexSize = 0;
       long tempTotalStaticIndexSize = 0;
       long tempTotalStaticBloomSize = 0;
@@ -356,6 +487,8 @@ class MetricsRegionServerWrapperImpl
         tempWriteRequestsCount += r.writeRequestsCount.get();
         tempCheckAndMutateChecksFailed += r.checkAndMutateChecksFailed.get();
         tempCheckAndMutateChecksPassed += r.checkAndMutateChecksPassed.get();
+        tempRowLockWaitCount += r.rowLockWaitCount.get();
+        tempRowLockWaitTime += r.rowLockWaitMs.get();
         tempNumStores += r.stores.size();
         for (Store store : r.stores.values()) {
           tempNumStoreFiles += store.getStorefilesCount();
@@ -401,6 +534,8 @@ class MetricsRegionServerWrapperImpl
       writeRequestsCount = tempWriteRequestsCount;
       checkAndMutateChecksFailed = tempCheckAndMutateChecksFailed;
       checkAndMutateChecksPassed = tempCheckAndMutateChecksPassed;
+      rowLockWaitCount = tempRowLockWaitCount;
+      rowLockWaitTime = tempRowLockWaitTime;
       storefileIndexSize = tempStorefileIndexSize;
       totalStaticIndexSize = tempTotalStaticIndexSize;
       totalStaticBloomSize = tempTotalStaticBloomSize;
@@ -18,31 +18,36 @@
  */
 package org.apache.hadoop.hbase.regionserver;
 
-import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.apache.hadoop.classification.InterfaceAudience;
-import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.ClassSize;
 
-import org.apache.commons.logging.LogFactory;
-import org.apache.commons.logging.Log;
-
 /**
  * Manages the read/write consistency within memstore. This provides
  * an interface for readers to determine what entries to ignore, and
  * a mechanism for writers to obtain new write numbers, then "commit"
  * the new writes for readers to read (thus forming atomic transactions).
+ * <p>
+ * Pending writes form a lock-free linked queue. A writer appends its entry
+ * by linking it behind the last one, which also gives it the next write
+ * number, so the queue is always in write number order. The head of the
+ * queue is the last write readers may see; whichever writer completes an
+ * entry moves the head over all the completed entries behind it at once.
+ * Writers only take a monitor to wait for older writes to complete.
  */
 @InterfaceAudience.Private
 public class MultiVersionConsistencyControl {
-  private volatile long memstoreRead = 0;
-  private volatile long memstoreWrite = 0;
+  // Last entry visible to readers; its write number is the read point
+  private final AtomicReference<WriteEntry> head;
+  // Last entry handed out, or the one before it while a writer appends
+  private final AtomicReference<WriteEntry> tail;
 
   private final Object readWaiters = new Object();
-
-  // This is the pending queue of writes.
-  private final LinkedList<WriteEntry> writeQueue =
-      new LinkedList<WriteEntry>();
+  // Writers waiting on readWaiters; the monitor is left alone when none is
+  private final AtomicInteger readWaiterCount = new AtomicInteger(0);
 
   private static final ThreadLocal<Long> perThreadReadPoint =
       new ThreadLocal<Long>() {
@@ -57,21 +62,23 @@ public class MultiVersionConsistencyControl {
    * Default constructor. Initializes the memstoreRead/Write points to 0.
    */
   public MultiVersionConsistencyControl() {
-    this.memstoreRead = this.memstoreWrite = 0;
+    WriteEntry start = WriteEntry.completed(0);
+    this.head = new AtomicReference<WriteEntry>(start);
+    this.tail = new AtomicReference<WriteEntry>(start);
   }
 
   /**
-   * Initializes the memstoreRead/Write points appropriately.
+   * Initializes the memstoreRead/Write points appropriately. Call before
+   * any write.
    * @param startPoint
    */
   public void initialize(long startPoint) {
-    synchronized (writeQueue) {
-      if (this.memstoreWrite != this.memstoreRead) {
-        throw new RuntimeException("Already used this mvcc. Too late to initialize");
-      }
-
-      this.memstoreRead = this.memstoreWrite = startPoint;
+    if (this.tail.get() != this.head.get()) {
+      throw new RuntimeException("Already used this mvcc. Too late to initialize");
     }
+    WriteEntry start = WriteEntry.completed(startPoint);
+    this.tail.set(start);
+    this.head.set(start);
   }
 
   /**
@@ -114,11 +121,20 @@ public class MultiVersionConsistencyControl {
    * call {@link #completeMemstoreInsert(WriteEntry)}.
    */
   public WriteEntry beginMemstoreInsert() {
-    synchronized (writeQueue) {
-      long nextWriteNumber = ++memstoreWrite;
-      WriteEntry e = new WriteEntry(nextWriteNumber);
-      writeQueue.add(e);
-      return e;
+    WriteEntry e = new WriteEntry();
+    while (true) {
+      WriteEntry last = this.tail.get();
+      WriteEntry next = last.next;
+      if (next != null) {
+        // Another writer linked its entry but did not move the tail yet
+        this.tail.compareAndSet(last, next);
+        continue;
+      }
+      e.writeNumber = last.writeNumber + 1;
+      if (last.casNext(e)) {
+        this.tail.compareAndSet(last, e);
+        return e;
+      }
     }
   }
 
@@ -145,45 +161,30 @@ public class MultiVersionConsistencyControl {
    * @return true if e is visible to MVCC readers (that is, readpoint >= e.writeNumber)
    */
   boolean advanceMemstore(WriteEntry e) {
-    synchronized (writeQueue) {
-      e.markCompleted();
-
-      long nextReadValue = -1;
-      boolean ranOnce=false;
-      while (!writeQueue.isEmpty()) {
-        ranOnce=true;
-        WriteEntry queueFirst = writeQueue.getFirst();
-
-        if (nextReadValue > 0) {
-          if (nextReadValue+1 != queueFirst.getWriteNumber()) {
-            throw new RuntimeException("invariant in completeMemstoreInsert violated, prev: "
-                + nextReadValue + " next: " + queueFirst.getWriteNumber());
-          }
-        }
-
-        if (queueFirst.isCompleted()) {
-          nextReadValue = queueFirst.getWriteNumber();
-          writeQueue.removeFirst();
-        } else {
-          break;
-        }
+    e.markCompleted();
+    boolean advanced = false;
+    while (true) {
+      // Either this pass sees the entries completed by concurrent writers, or
+      // their own pass sees ours: each marks its entry before looking.
+      WriteEntry first = this.head.get();
+      WriteEntry last = first;
+      WriteEntry next;
+      while ((next = last.next) != null && next.isCompleted()) {
+        last = next;
       }
-
-      if (!ranOnce) {
-        throw new RuntimeException("never was a first");
+      if (last == first) {
+        break;
       }
-
-      if (nextReadValue > 0) {
-        synchronized (readWaiters) {
-          memstoreRead = nextReadValue;
-          readWaiters.notifyAll();
-        }
+      if (this.head.compareAndSet(first, last)) {
+        advanced = true;
       }
-      if (memstoreRead >= e.getWriteNumber()) {
-        return true;
+    }
+    if (advanced && this.readWaiterCount.get() > 0) {
+      synchronized (readWaiters) {
+        readWaiters.notifyAll();
       }
-      return false;
     }
+    return memstoreReadPoint() >= e.getWriteNumber();
   }
 
   /**
@@ -191,32 +192,57 @@ public class MultiVersionConsistencyControl {
    * the specified transaction number.
    */
   public void waitForRead(WriteEntry e) {
+    if (memstoreReadPoint() >= e.getWriteNumber()) {
+      return;
+    }
     boolean interrupted = false;
-    synchronized (readWaiters) {
-      while (memstoreRead < e.getWriteNumber()) {
-        try {
-          readWaiters.wait(0);
-        } catch (InterruptedException ie) {
-          // We were interrupted... finish the loop -- i.e. cleanup --and then
-          // on our way out, reset the interrupt flag.
-          interrupted = true;
+    this.readWaiterCount.incrementAndGet();
+    try {
+      synchronized (readWaiters) {
+        while (memstoreReadPoint() < e.getWriteNumber()) {
+          try {
+            readWaiters.wait(0);
+          } catch (InterruptedException ie) {
+            // We were interrupted... finish the loop -- i.e. cleanup --and then
+            // on our way out, reset the interrupt flag.
+            interrupted = true;
+          }
         }
       }
+    } finally {
+      this.readWaiterCount.decrementAndGet();
     }
     if (interrupted) Thread.currentThread().interrupt();
   }
 
   public long memstoreReadPoint() {
-    return memstoreRead;
+    return this.head.get().writeNumber;
   }
 
 
   public static class WriteEntry {
+    private static final AtomicReferenceFieldUpdater<WriteEntry, WriteEntry> NEXT =
+        AtomicReferenceFieldUpdater.newUpdater(WriteEntry.class, WriteEntry.class, "next");
+
+    // Set before the entry is linked into the queue, which publishes it
     private long writeNumber;
-    private boolean completed = false;
-    WriteEntry(long writeNumber) {
-      this.writeNumber = writeNumber;
+    private volatile boolean completed = false;
+    private volatile WriteEntry next;
+
+    WriteEntry() {
     }
+
+    static WriteEntry completed(long writeNumber) {
+      WriteEntry e = new WriteEntry();
+      e.writeNumber = writeNumber;
+      e.completed = true;
+      return e;
+    }
+
+    private boolean casNext(WriteEntry e) {
+      return NEXT.compareAndSet(this, null, e);
+    }
+
     void markCompleted() {
       this.completed = true;
     }
@@ -230,7 +256,8 @@ public class MultiVersionConsistencyControl {
 
   public static final long FIXED_SIZE = ClassSize.align(
       ClassSize.OBJECT +
-      2 * Bytes.SIZEOF_LONG +
-      2 * ClassSize.REFERENCE);
+      4 * ClassSize.REFERENCE) +
+      2 * ClassSize.align(ClassSize.OBJECT + ClassSize.REFERENCE) +
+      ClassSize.ATOMIC_INTEGER;
 
 }
@@ -25,6 +25,7 @@ import org.apache.commons.lang.NotImplementedException;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hbase.Cell;
 
 /**
  * A "non-lazy" scanner which always does a real seek operation. Most scanners
@@ -33,6 +34,12 @@ import org.apache.hadoop.hbase.client.Scan;
 @InterfaceAudience.Private
 public abstract class NonLazyKeyValueScanner implements KeyValueScanner {
 
+  @Override
+  public Cell peekCell() {
+    // Nothing to save over peek() by default.
+    return peek();
+  }
+
   @Override
   public boolean requestSeek(KeyValue kv, boolean forward, boolean useBloom)
       throws IOException {
@@ -0,0 +1,543 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.HeapSize;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.ClassSize;
+import org.apache.hadoop.util.StringUtils;
+
+/**
+ * Region server wide cache of the latest version of whole rows, for the
+ * column families that enable it with
+ * {@link org.apache.hadoop.hbase.HColumnDescriptor#setRowCacheEnabled(boolean)}.
+ * A Get served from here does not open any store scanner.
+ * <p>
+ * Entries are keyed by region and row and hold a copy of the KeyValues of
+ * each cached family, so that they reference neither memstore chunks nor
+ * cached blocks. The cache is split in segments, each an LRU map with an
+ * equal share of the memory budget, {@link #ROW_CACHE_SIZE_KEY}.
+ * <p>
+ * The region drops a row as soon as a mutation to it is visible to readers,
+ * and all of its rows when files are bulk loaded or when it closes. A reader
+ * takes the {@link #getGeneration(byte[], byte[]) generation} of the row's
+ * segment before it opens its scanner, and {@link #cacheRow} only caches what
+ * it read if no row of the segment was dropped in between. That way a row
+ * read before a mutation became visible cannot be cached after the mutation
+ * dropped it.
+ */
+@InterfaceAudience.Private
+public class RowCache implements HeapSize {
+  static final Log LOG = LogFactory.getLog(RowCache.class);
+
+  /** Fraction of the heap given to the row cache, 0 disables it */
+  public static final String ROW_CACHE_SIZE_KEY = HConstants.ROW_CACHE_SIZE_KEY;
+  public static final float DEFAULT_ROW_CACHE_SIZE =
+      HConstants.ROW_CACHE_SIZE_DEFAULT;
+
+  /** Number of independently locked segments of the row cache */
+  public static final String ROW_CACHE_SEGMENTS_KEY =
+      "hbase.regionserver.rowcache.segments";
+  public static final int DEFAULT_ROW_CACHE_SEGMENTS = 32;
+
+  /**
+   * Key object, row array, map entry and cached row object. The region name
+   * array is shared with the region.
+   */
+  static final long ENTRY_OVERHEAD = ClassSize.align(
+      ClassSize.OBJECT + 2 * ClassSize.REFERENCE + Bytes.SIZEOF_INT) +
+      ClassSize.align(ClassSize.ARRAY) +
+      ClassSize.align(ClassSize.MAP_ENTRY + 2 * ClassSize.REFERENCE) +
+      ClassSize.align(ClassSize.OBJECT + 2 * ClassSize.REFERENCE +
+          2 * Bytes.SIZEOF_LONG);
+
+  /** A KeyValue object whose backing array is accounted for separately */
+  static final long KEYVALUE_OVERHEAD = ClassSize.align(ClassSize.OBJECT +
+      ClassSize.REFERENCE + 3 * Bytes.SIZEOF_INT + Bytes.SIZEOF_LONG);
+
+  private static RowCache globalRowCache;
+
+  private final Segment[] segments;
+  private final long maxSize;
+
+  private final AtomicLong hitCount = new AtomicLong(0);
+  private final AtomicLong missCount = new AtomicLong(0);
+  private final AtomicLong evictionCount = new AtomicLong(0);
+  private final AtomicLong invalidationCount = new AtomicLong(0);
+  private final ConcurrentMap<Integer, AtomicLong> hitsPerWorkload =
+      new ConcurrentHashMap<Integer, AtomicLong>();
+  private final ConcurrentMap<Integer, AtomicLong> missesPerWorkload =
+      new ConcurrentHashMap<Integer, AtomicLong>();
+
+  /**
+   * Returns the region server's row cache, or <code>null</code> if it is
+   * disabled.
+   *
+   * @param conf  The current configuration.
+   * @return The row cache or <code>null</code>.
+   */
+  public static synchronized RowCache instantiateRowCache(
+      Configuration conf) {
+    if (globalRowCache != null) return globalRowCache;
+
+    float cachePercentage = conf.getFloat(ROW_CACHE_SIZE_KEY,
+        DEFAULT_ROW_CACHE_SIZE);
+    if (cachePercentage <= 0) {
+      return null;
+    }
+    if (cachePercentage > 1.0) {
+      throw new IllegalArgumentException(ROW_CACHE_SIZE_KEY +
+          " must be between 0.0 and 1.0, and not > 1.0");
+    }
+    // The row cache shares the heap with the MemStores and the block cache
+    HBaseConfiguration.checkForClusterFreeMemoryLimit(conf);
+    MemoryUsage mu = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    long cacheSize = (long) (mu.getMax() * cachePercentage);
+    LOG.info("Allocating RowCache with maximum size " +
+        StringUtils.humanReadableInt(cacheSize));
+    globalRowCache = new RowCache(cacheSize, conf.getInt(
+        ROW_CACHE_SEGMENTS_KEY, DEFAULT_ROW_CACHE_SEGMENTS));
+    return globalRowCache;
+  }
+
+  /**
+   * @param maxSize maximum heap size of the cached rows, in bytes
+   * @param numSegments number of independently locked segments
+   */
+  public RowCache(long maxSize, int numSegments) {
+    if (numSegments < 1) {
+      throw new IllegalArgumentException("At least one segment is needed");
+    }
+    this.maxSize = maxSize;
+    this.segments = new Segment[numSegments];
+    for (int i = 0; i < numSegments; i++) {
+      segments[i] = new Segment(maxSize / numSegments);
+    }
+  }
+
+  private Segment segmentFor(RowKey key) {
+    return segments[(key.hash & Integer.MAX_VALUE) % segments.length];
+  }
+
+  /**
+   * Returns the generation of the segment of a row, to be taken before the
+   * row is read and handed to {@link #cacheRow} afterwards.
+   */
+  public long getGeneration(byte[] regionName, byte[] row) {
+    return segmentFor(new RowKey(regionName, row)).getGeneration();
+  }
+
+  /**
+   * Adds the cached KeyValues of the given families of a row to the results,
+   * if all of them are cached and none has expired. The lookup is counted as
+   * a hit or a miss of the workload.
+   *
+   * @param families the families to return, in order
+   * @param now the current time, to expire rows of families with a TTL
+   * @param results list to add the KeyValues to, left alone on a miss
+   * @param workload id of the workload the read is done for
+   * @return true if the row was served from the cache
+   */
+  public boolean getRow(byte[] regionName, byte[] row,
+      Collection<byte[]> families, long now, List<KeyValue> results,
+      int workload) {
+    RowKey key = new RowKey(regionName, row);
+    CachedRow cached = segmentFor(key).get(key);
+    if (cached != null && now < cached.expiresAt) {
+      int size = results.size();
+      boolean complete = true;
+      for (byte[] family : families) {
+        KeyValue[] kvs = cached.getFamily(family);
+        if (kvs == null) {
+          complete = false;
+          break;
+        }
+        for (KeyValue kv : kvs) {
+          results.add(kv);
+        }
+      }
+      if (complete) {
+        count(hitCount, hitsPerWorkload, workload);
+        return true;
+      }
+      results.subList(size, results.size()).clear();
+    }
+    count(missCount, missesPerWorkload, workload);
+    return false;
+  }
+
+  private static void count(AtomicLong total,
+      ConcurrentMap<Integer, AtomicLong> perWorkload, int workload) {
+    total.incrementAndGet();
+    AtomicLong count = perWorkload.get(workload);
+    if (count == null) {
+      AtomicLong newCount = new AtomicLong();
+      count = perWorkload.putIfAbsent(workload, newCount);
+      if (count == null) {
+        count = newCount;
+      }
+    }
+    count.incrementAndGet();
+  }
+
+  /**
+   * Caches the given families of a row, unless a row of its segment was
+   * dropped since the generation was taken.
+   *
+   * @param families the families that were read, in order
+   * @param results all KeyValues read for these families, in order
+   * @param expiresAt time at which the first of the KeyValues expires
+   * @param generation the segment generation from before the read
+   * @return true if the row was cached
+   */
+  public boolean cacheRow(byte[] regionName, byte[] row,
+      Collection<byte[]> families, List<KeyValue> results, long expiresAt,
+      long generation) {
+    byte[][] cachedFamilies = new byte[families.size()][];
+    KeyValue[][] cachedKvs = new KeyValue[families.size()][];
+    int f = 0;
+    int i = 0;
+    for (byte[] family : families) {
+      int start = i;
+      while (i < results.size() && results.get(i).matchingFamily(family)) {
+        i++;
+      }
+      cachedFamilies[f] = family;
+      cachedKvs[f] = copy(results, start, i);
+      f++;
+    }
+    if (i != results.size()) {
+      // Not in family order, do not bother
+      return false;
+    }
+    RowKey key = new RowKey(regionName, row);
+    return segmentFor(key).put(key,
+        new CachedRow(cachedFamilies, cachedKvs, expiresAt), generation);
+  }
+
+  /**
+   * Copies KeyValues into a single array.
+   */
+  private static KeyValue[] copy(List<KeyValue> kvs, int start, int end) {
+    int length = 0;
+    for (int i = start; i < end; i++) {
+      length += kvs.get(i).getLength();
+    }
+    byte[] buffer = new byte[length];
+    KeyValue[] copies = new KeyValue[end - start];
+    int offset = 0;
+    for (int i = start; i < end; i++) {
+      KeyValue kv = kvs.get(i);
+      System.arraycopy(kv.getBuffer(), kv.getOffset(), buffer, offset,
+          kv.getLength());
+      copies[i - start] = new KeyValue(buffer, offset, kv.getLength());
+      offset += kv.getLength();
+    }
+    return copies;
+  }
+
+  /**
+   * Drops a row from the cache, if cached.
+   */
+  public void invalidateRow(byte[] regionName, byte[] row) {
+    RowKey key = new RowKey(regionName, row);
+    if (segmentFor(key).invalidate(key)) {
+      invalidationCount.incrementAndGet();
+    }
+  }
+
+  /**
+   * Drops all rows of a region from the cache.
+   */
+  public void invalidateRegion(byte[] regionName) {
+    long invalidated = 0;
+    for (Segment segment : segments) {
+      invalidated += segment.invalidateRegion(regionName);
+    }
+    invalidationCount.addAndGet(invalidated);
+  }
+
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * @return the number of cached rows
+   */
+  public long size() {
+    long count = 0;
+    for (Segment segment : segments) {
+      count += segment.count();
+    }
+    return count;
+  }
+
+  @Override
+  public long heapSize() {
+    long size = 0;
+    for (Segment segment : segments) {
+      size += segment.heapSize();
+    }
+    return size;
+  }
+
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /**
+   * @return the number of rows dropped to make room for others
+   */
+  public long getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /**
+   * @return the number of cached rows dropped because they changed
+   */
+  public long getInvalidationCount() {
+    return invalidationCount.get();
+  }
+
+  public Map<String, Long> getHitCountPerWorkload() {
+    return snapshot(hitsPerWorkload);
+  }
+
+  public Map<String, Long> getMissCountPerWorkload() {
+    return snapshot(missesPerWorkload);
+  }
+
+  private static Map<String, Long> snapshot(
+      ConcurrentMap<Integer, AtomicLong> counts) {
+    Map<String, Long> snapshot = new HashMap<String, Long>();
+    for (Map.Entry<Integer, AtomicLong> e : counts.entrySet()) {
+      snapshot.put(String.valueOf(e.getKey()), e.getValue().get());
+    }
+    return snapshot;
+  }
+
+  /**
+   * A region name and row.
+   */
+  static class RowKey {
+    final byte[] regionName;
+    final byte[] row;
+    final int hash;
+
+    RowKey(byte[] regionName, byte[] row) {
+      this.regionName = regionName;
+      this.row = row;
+      this.hash = 31 * Bytes.hashCode(regionName) + Bytes.hashCode(row);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof RowKey)) {
+        return false;
+      }
+      RowKey other = (RowKey) obj;
+      return hash == other.hash && Bytes.equals(row, other.row) &&
+          Bytes.equals(regionName, other.regionName);
+    }
+  }
+
+  /**
+   * The cached families of a row, never modified once cached.
+   */
+  static class CachedRow {
+    final byte[][] families;
+    final KeyValue[][] kvs;
+    final long expiresAt;
+    final long heapSize;
+
+    CachedRow(byte[][] families, KeyValue[][] kvs, long expiresAt) {
+      this.families = families;
+      this.kvs = kvs;
+      this.expiresAt = expiresAt;
+      this.heapSize = calculateHeapSize();
+    }
+
+    /**
+     * @return this row with the families of the other one added, those of
+     *         the other one winning
+     */
+    CachedRow merge(CachedRow other) {
+      int count = other.families.length;
+      for (byte[] family : families) {
+        if (other.getFamily(family) == null) {
+          count++;
+        }
+      }
+      byte[][] mergedFamilies = new byte[count][];
+      KeyValue[][] mergedKvs = new KeyValue[count][];
+      System.arraycopy(other.families, 0, mergedFamilies, 0,
+          other.families.length);
+      System.arraycopy(other.kvs, 0, mergedKvs, 0, other.kvs.length);
+      int n = other.families.length;
+      for (int i = 0; i < families.length; i++) {
+        if (other.getFamily(families[i]) == null) {
+          mergedFamilies[n] = families[i];
+          mergedKvs[n] = kvs[i];
+          n++;
+        }
+      }
+      return new CachedRow(mergedFamilies, mergedKvs,
+          Math.min(expiresAt, other.expiresAt));
+    }
+
+    KeyValue[] getFamily(byte[] family) {
+      for (int i = 0; i < families.length; i++) {
+        if (Bytes.equals(family, families[i])) {
+          return kvs[i];
+        }
+      }
+      return null;
+    }
+
+    private long calculateHeapSize() {
+      long size = 2 * ClassSize.align(ClassSize.ARRAY +
+          families.length * ClassSize.REFERENCE);
+      for (int i = 0; i < families.length; i++) {
+        size += ClassSize.align(ClassSize.ARRAY + kvs[i].length *
+            ClassSize.REFERENCE);
+        if (kvs[i].length > 0) {
+          // All KeyValues of a family share one array
+          size += ClassSize.align(ClassSize.ARRAY + kvs[i][0].getBuffer().length);
+          size += kvs[i].length * KEYVALUE_OVERHEAD;
+        }
+      }
+      return size;
+    }
+  }
+
+  /**
+   * An LRU map of rows with its share of the memory budget.
+   */
+  private class Segment {
+    private final LinkedHashMap<RowKey, CachedRow> map =
+        new LinkedHashMap<RowKey, CachedRow>(16, 0.75f, true);
+    private final long maxSize;
+    private long size = 0;
+    private long generation = 0;
+
+    Segment(long maxSize) {
+      this.maxSize = maxSize;
+    }
+
+    synchronized long getGeneration() {
+      return generation;
+    }
+
+    synchronized CachedRow get(RowKey key) {
+      return map.get(key);
+    }
+
+    synchronized boolean put(RowKey key, CachedRow row, long readGeneration) {
+      if (readGeneration != generation) {
+        return false;
+      }
+      CachedRow previous = map.get(key);
+      if (previous != null) {
+        size -= entrySize(key, previous);
+        row = previous.merge(row);
+      }
+      long entrySize = entrySize(key, row);
+      if (entrySize > maxSize) {
+        if (previous != null) {
+          map.remove(key);
+        }
+        return false;
+      }
+      map.put(key, row);
+      size += entrySize;
+      Iterator<Map.Entry<RowKey, CachedRow>> it = map.entrySet().iterator();
+      while (size > maxSize && it.hasNext()) {
+        Map.Entry<RowKey, CachedRow> eldest = it.next();
+        size -= entrySize(eldest.getKey(), eldest.getValue());
+        it.remove();
+        evictionCount.incrementAndGet();
+      }
+      return true;
+    }
+
+    synchronized boolean invalidate(RowKey key) {
+      generation++;
+      CachedRow previous = map.remove(key);
+      if (previous == null) {
+        return false;
+      }
+      size -= entrySize(key, previous);
+      return true;
+    }
+
+    synchronized long invalidateRegion(byte[] regionName) {
+      generation++;
+      long invalidated = 0;
+      Iterator<Map.Entry<RowKey, CachedRow>> it = map.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<RowKey, CachedRow> entry = it.next();
+        if (Bytes.equals(regionName, entry.getKey().regionName)) {
+          size -= entrySize(entry.getKey(), entry.getValue());
+          it.remove();
+          invalidated++;
+        }
+      }
+      return invalidated;
+    }
+
+    synchronized long count() {
+      return map.size();
+    }
+
+    synchronized long heapSize() {
+      return size;
+    }
+
+    private long entrySize(RowKey key, CachedRow row) {
+      return ENTRY_OVERHEAD + key.row.length + row.heapSize;
+    }
+  }
+}
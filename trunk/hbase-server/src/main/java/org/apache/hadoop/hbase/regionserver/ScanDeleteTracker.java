@@ -45,6 +45,8 @@ public class ScanDeleteTracker implements DeleteTracker {
   private long familyStamp = 0L;
   private byte [] deleteBuffer = null;
   private int deleteOffset = 0;
+  /** Holds the column of the current delete, see {@link #add} */
+  private byte [] deleteCopy = null;
   private int deleteLength = 0;
   private byte deleteType = 0;
   private long deleteTimestamp = 0L;
@@ -84,9 +86,16 @@ public class ScanDeleteTracker implements DeleteTracker {
           return;
         }
       }
-      // new column, or more general delete type
-      deleteBuffer = buffer;
-      deleteOffset = qualifierOffset;
+      // new column, or more general delete type. The column is copied
+      // rather than referenced, as the delete may be a view over a scanner
+      // buffer that the next cell overwrites.
+      if (deleteCopy == null || deleteCopy.length < qualifierLength) {
+        deleteCopy = new byte[qualifierLength];
+      }
+      System.arraycopy(buffer, qualifierOffset, deleteCopy, 0,
+          qualifierLength);
+      deleteBuffer = deleteCopy;
+      deleteOffset = 0;
       deleteLength = qualifierLength;
       deleteType = type;
       deleteTimestamp = timestamp;
@@ -25,6 +25,7 @@ import java.util.NavigableSet;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueTool;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.filter.Filter.ReturnCode;
@@ -32,6 +33,7 @@ import org.apache.hadoop.hbase.io.TimeRange;
 import org.apache.hadoop.hbase.regionserver.DeleteTracker.DeleteResult;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hbase.Cell;
 
 /**
  * A query matcher that is specifically designed for the scan case.
@@ -126,6 +128,9 @@ public class ScanQueryMatcher {
   
   private final boolean isUserScan;
 
+  /** Seek key rebuilt in place for every reusable next row/column hint */
+  private final KeyValue seekKey = new KeyValue();
+
   /**
    * Construct a QueryMatcher for a scan
    * @param scan
@@ -205,28 +210,23 @@ public class ScanQueryMatcher {
    * - ignore the current KeyValue (MatchCode.SKIP)
    * - got to the next row (MatchCode.DONE)
    *
-   * @param kv KeyValue to check
+   * <p>
+   * The cell may be a view that is only valid until its scanner moves: the
+   * matcher copies out whatever it keeps. Filters are handed KeyValues, so
+   * callers that have a filter set are better off passing KeyValues.
+   *
+   * @param kv cell to check
    * @return The match code instance.
    * @throws IOException in case there is an internal consistency problem
    *      caused by a data corruption.
    */
-  public MatchCode match(KeyValue kv) throws IOException {
+  public MatchCode match(Cell kv) throws IOException {
     if (filter != null && filter.filterAllRemaining()) {
       return MatchCode.DONE_SCAN;
     }
 
-    byte [] bytes = kv.getBuffer();
-    int offset = kv.getOffset();
-    int initialOffset = offset;
-
-    int keyLength = Bytes.toInt(bytes, offset, Bytes.SIZEOF_INT);
-    offset += KeyValue.ROW_OFFSET;
-
-    short rowLength = Bytes.toShort(bytes, offset, Bytes.SIZEOF_SHORT);
-    offset += Bytes.SIZEOF_SHORT;
-
     int ret = this.rowComparator.compareRows(row, this.rowOffset, this.rowLength,
-        bytes, offset, rowLength);
+        kv.getRowArray(), kv.getRowOffset(), kv.getRowLength());
     if (ret <= -1) {
       return MatchCode.DONE;
     } else if (ret >= 1) {
@@ -245,15 +245,10 @@ public class ScanQueryMatcher {
       return MatchCode.SEEK_NEXT_ROW;
     }
 
-    //Passing rowLength
-    offset += rowLength;
-
-    //Skipping family
-    byte familyLength = bytes [offset];
-    offset += familyLength + 1;
-
-    int qualLength = keyLength + KeyValue.ROW_OFFSET -
-      (offset - initialOffset) - KeyValue.TIMESTAMP_TYPE_SIZE;
+    // The trackers compare against the qualifier where it lies in the cell
+    byte [] bytes = kv.getQualifierArray();
+    int offset = kv.getQualifierOffset();
+    int qualLength = kv.getQualifierLength();
 
     long timestamp = kv.getTimestamp();
     // check for early out based on timestamp alone
@@ -274,8 +269,9 @@ public class ScanQueryMatcher {
      * 7. Delete marker need to be version counted together with puts
      *    they affect
      */
-    byte type = kv.getType();
-    if (kv.isDelete()) {
+    byte type = kv.getTypeByte();
+    long mvccVersion = kv.getMvccVersion();
+    if (KeyValue.isDelete(type)) {
       if (!keepDeletedCells) {
         // first ignore delete markers if the scanner can do so, and the
         // range does not include the marker
@@ -287,14 +283,14 @@ public class ScanQueryMatcher {
             tr.withinTimeRange(timestamp) :
             tr.withinOrAfterTimeRange(timestamp);
         if (includeDeleteMarker
-            && kv.getMemstoreTS() <= maxReadPointToTrackVersions) {
+            && mvccVersion <= maxReadPointToTrackVersions) {
           this.deletes.add(bytes, offset, qualLength, timestamp, type);
         }
         // Can't early out now, because DelFam come before any other keys
       }
       if (retainDeletesInOutput
           || (!isUserScan && (EnvironmentEdgeManager.currentTimeMillis() - timestamp) <= timeToPurgeDeletes)
-          || kv.getMemstoreTS() > maxReadPointToTrackVersions) {
+          || mvccVersion > maxReadPointToTrackVersions) {
         // always include or it is not time yet to check whether it is OK
         // to purge deltes or not
         return MatchCode.INCLUDE;
@@ -342,7 +338,8 @@ public class ScanQueryMatcher {
      */
     ReturnCode filterResponse = ReturnCode.SKIP;
     if (filter != null) {
-      filterResponse = filter.filterKeyValue(kv);
+      filterResponse = filter.filterKeyValue(kv instanceof KeyValue ?
+          (KeyValue) kv : KeyValueTool.copyToNewKeyValue(kv));
       if (filterResponse == ReturnCode.SKIP) {
         return MatchCode.SKIP;
       } else if (filterResponse == ReturnCode.NEXT_COL) {
@@ -356,7 +353,7 @@ public class ScanQueryMatcher {
     }
 
     MatchCode colChecker = columns.checkColumn(bytes, offset, qualLength,
-        timestamp, type, kv.getMemstoreTS() > maxReadPointToTrackVersions);
+        timestamp, type, mvccVersion > maxReadPointToTrackVersions);
     /*
      * According to current implementation, colChecker can only be
      * SEEK_NEXT_COL, SEEK_NEXT_ROW, SKIP or INCLUDE. Therefore, always return
@@ -372,9 +369,9 @@ public class ScanQueryMatcher {
 
   }
 
-  public boolean moreRowsMayExistAfter(KeyValue kv) {
+  public boolean moreRowsMayExistAfter(Cell kv) {
     if (!Bytes.equals(stopRow , HConstants.EMPTY_END_ROW) &&
-        rowComparator.compareRows(kv.getBuffer(),kv.getRowOffset(),
+        rowComparator.compareRows(kv.getRowArray(), kv.getRowOffset(),
             kv.getRowLength(), stopRow, 0, stopRow.length) >= 0) {
       // KV >= STOPROW
       // then NO there is nothing left.
@@ -426,28 +423,65 @@ public class ScanQueryMatcher {
     }
   }
 
-  public KeyValue getKeyForNextColumn(KeyValue kv) {
+  public KeyValue getKeyForNextColumn(Cell kv) {
     ColumnCount nextColumn = columns.getColumnHint();
     if (nextColumn == null) {
       return KeyValue.createLastOnRow(
-          kv.getBuffer(), kv.getRowOffset(), kv.getRowLength(),
-          kv.getBuffer(), kv.getFamilyOffset(), kv.getFamilyLength(),
-          kv.getBuffer(), kv.getQualifierOffset(), kv.getQualifierLength());
+          kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(),
+          kv.getFamilyArray(), kv.getFamilyOffset(), kv.getFamilyLength(),
+          kv.getQualifierArray(), kv.getQualifierOffset(), kv.getQualifierLength());
     } else {
       return KeyValue.createFirstOnRow(
-          kv.getBuffer(), kv.getRowOffset(), kv.getRowLength(),
-          kv.getBuffer(), kv.getFamilyOffset(), kv.getFamilyLength(),
+          kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(),
+          kv.getFamilyArray(), kv.getFamilyOffset(), kv.getFamilyLength(),
           nextColumn.getBuffer(), nextColumn.getOffset(), nextColumn.getLength());
     }
   }
 
-  public KeyValue getKeyForNextRow(KeyValue kv) {
+  public KeyValue getKeyForNextRow(Cell kv) {
     return KeyValue.createLastOnRow(
-        kv.getBuffer(), kv.getRowOffset(), kv.getRowLength(),
+        kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(),
         null, 0, 0,
         null, 0, 0);
   }
 
+  /**
+   * Like {@link #getKeyForNextColumn(Cell)}, but builds the key in a buffer
+   * owned by this matcher, which the next call overwrites. Only for callers
+   * that are done with the key once their seek returns.
+   */
+  KeyValue getReusableKeyForNextColumn(Cell kv) {
+    ColumnCount nextColumn = columns.getColumnHint();
+    if (nextColumn == null) {
+      seekKey.setKey(
+          kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(),
+          kv.getFamilyArray(), kv.getFamilyOffset(), kv.getFamilyLength(),
+          kv.getQualifierArray(), kv.getQualifierOffset(), kv.getQualifierLength(),
+          HConstants.OLDEST_TIMESTAMP, KeyValue.Type.Minimum);
+    } else {
+      seekKey.setKey(
+          kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(),
+          kv.getFamilyArray(), kv.getFamilyOffset(), kv.getFamilyLength(),
+          nextColumn.getBuffer(), nextColumn.getOffset(), nextColumn.getLength(),
+          HConstants.LATEST_TIMESTAMP, KeyValue.Type.Maximum);
+    }
+    return seekKey;
+  }
+
+  /**
+   * Like {@link #getKeyForNextRow(Cell)}, but builds the key in a buffer
+   * owned by this matcher, which the next call overwrites. Only for callers
+   * that are done with the key once their seek returns.
+   */
+  KeyValue getReusableKeyForNextRow(Cell kv) {
+    seekKey.setKey(
+        kv.getRowArray(), kv.getRowOffset(), kv.getRowLength(),
+        null, 0, 0,
+        null, 0, 0,
+        HConstants.OLDEST_TIMESTAMP, KeyValue.Type.Minimum);
+    return seekKey;
+  }
+
   /**
    * {@link #match} return codes.  These instruct the scanner moving through
    * memstores and StoreFiles what to do with the current KeyValue.
@@ -34,6 +34,8 @@ import org.apache.hadoop.hbase.util.Bytes;
 public class ScanWildcardColumnTracker implements ColumnTracker {
   private byte [] columnBuffer = null;
   private int columnOffset = 0;
+  /** Holds the current column, see {@link #resetBuffer(byte[], int, int)} */
+  private byte [] columnCopy = null;
   private int columnLength = 0;
   private int currentCount = 0;
   private int maxVersions;
@@ -109,8 +111,14 @@ public class ScanWildcardColumnTracker implements ColumnTracker {
   }
 
   private void resetBuffer(byte[] bytes, int offset, int length) {
-    columnBuffer = bytes;
-    columnOffset = offset;
+    // The column is copied rather than referenced, as the cell it comes from
+    // may be a view over a scanner buffer that the next cell overwrites.
+    if (columnCopy == null || columnCopy.length < length) {
+      columnCopy = new byte[length];
+    }
+    System.arraycopy(bytes, offset, columnCopy, 0, length);
+    columnBuffer = columnCopy;
+    columnOffset = 0;
     columnLength = length;
     currentCount = 0;
   }
@@ -156,6 +156,34 @@ public interface Store extends  HeapSize {
 
   public StoreFlusher getStoreFlusher(long cacheFlushId);
 
+  /**
+   * @return true if the memstore outgrew the in-memory flush size, see
+   * {@link #flushInMemory()}
+   */
+  public boolean shouldFlushInMemory();
+
+  /**
+   * Flushes the memstore in memory: moves the cells all readers can see to
+   * an immutable, flat segment, dropping those a flush would not write out.
+   * The region's memstore size is adjusted before this returns.  Called off
+   * the handlers, by the flusher.
+   * @return memstore size delta
+   */
+  public long flushInMemory();
+
+  /**
+   * Waits for a running in-memory flush to finish, and keeps new ones from
+   * starting until {@link #resumeInMemoryFlushes()} is called by the same
+   * thread.
+   */
+  public void pauseInMemoryFlushes();
+
+  /**
+   * Lets in-memory flushes run again.
+   * @see #pauseInMemoryFlushes()
+   */
+  public void resumeInMemoryFlushes();
+
   // Split oriented methods
 
   public boolean canSplit();
@@ -196,6 +224,12 @@ public interface Store extends  HeapSize {
    */
   public long getMemStoreSize();
 
+  /**
+   * @return The size of the edits in this store's memstore, which a flush
+   * takes off the region's memstore size, in bytes
+   */
+  public long getFlushableSize();
+
   public HColumnDescriptor getFamily();
 
   /**
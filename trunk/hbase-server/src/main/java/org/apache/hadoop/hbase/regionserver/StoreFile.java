@@ -26,8 +26,11 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
@@ -53,6 +56,7 @@ import org.apache.hadoop.hbase.io.Reference;
 import org.apache.hadoop.hbase.io.compress.Compression;
 import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
 import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.CachedBlock;
 import org.apache.hadoop.hbase.io.hfile.BlockType;
 import org.apache.hadoop.hbase.io.hfile.HFile;
 import org.apache.hadoop.hbase.io.hfile.HFileScanner;
@@ -1191,6 +1195,15 @@ public class StoreFile {
       trackTimestamps(kv);
     }
 
+    /**
+     * Asks for the block holding the last appended KeyValue to be cached when
+     * it is written, because the KeyValue was read from the given cached block.
+     * @see HFile.Writer#cacheLastBlockOnWrite(CachedBlock)
+     */
+    public void cacheLastBlockOnWrite(CachedBlock source) {
+      writer.cacheLastBlockOnWrite(source);
+    }
+
     public Path getPath() {
       return this.writer.getPath();
     }
@@ -1414,6 +1427,10 @@ public class StoreFile {
      * the lower-level API {@link #passesGeneralBloomFilter(byte[], int, int, byte[],
      * int, int)}.
      *
+     * A scan serving a batch of gets (see
+     * {@link InternalScan#getBatchGetRows()}) passes if any of its rows does,
+     * see {@link #getRowsPassingBloomFilter(List, SortedSet)}.
+     *
      * @param scan the scan specification. Used to determine the row, and to
      *          check whether this is a single-row ("get") scan.
      * @param columns the set of columns. Only used for row-column Bloom
@@ -1424,13 +1441,45 @@ public class StoreFile {
      */
      boolean passesBloomFilter(Scan scan,
         final SortedSet<byte[]> columns) {
+      if (scan instanceof InternalScan
+          && ((InternalScan) scan).getBatchGetRows() != null) {
+        return !getRowsPassingBloomFilter(
+            ((InternalScan) scan).getBatchGetRows(), columns).isEmpty();
+      }
+
       // Multi-column non-get scans will use Bloom filters through the
       // lower-level API function that this function calls.
       if (!scan.isGetScan()) {
         return true;
       }
 
-      byte[] row = scan.getStartRow();
+      return passesBloomFilter(scan.getStartRow(), columns);
+    }
+
+    /**
+     * Checks the rows of a batch of gets against the Bloom filter, see
+     * {@link #passesBloomFilter(Scan, SortedSet)}.
+     * @param rows the rows of the gets
+     * @param columns the columns the gets read
+     * @return the rows that may be in this file, sorted
+     */
+    NavigableSet<byte[]> getRowsPassingBloomFilter(List<byte[]> rows,
+        final SortedSet<byte[]> columns) {
+      NavigableSet<byte[]> passing = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+      for (byte[] row : rows) {
+        if (passesBloomFilter(row, columns)) {
+          passing.add(row);
+        }
+      }
+      return passing;
+    }
+
+    /**
+     * Checks whether a single row passes the Bloom filter, see
+     * {@link #passesBloomFilter(Scan, SortedSet)}.
+     */
+    private boolean passesBloomFilter(byte[] row,
+        final SortedSet<byte[]> columns) {
       switch (this.bloomFilterType) {
         case ROW:
           return passesGeneralBloomFilter(row, 0, row.length, null, 0, 0);
@@ -29,8 +29,11 @@ import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.TimeRange;
+import org.apache.hadoop.hbase.io.hfile.CachedBlock;
 import org.apache.hadoop.hbase.io.hfile.HFileScanner;
 import org.apache.hadoop.hbase.regionserver.StoreFile.Reader;
+import org.apache.hbase.Cell;
 
 /**
  * KeyValueScanner adaptor over the Reader.  It also provides hooks into
@@ -43,6 +46,12 @@ public class StoreFileScanner implements KeyValueScanner {
   // the reader it comes from:
   private final StoreFile.Reader reader;
   private final HFileScanner hfs;
+  /**
+   * The cell this scanner is at. It may be a view into {@link #hfs} that
+   * moves along with it, in which case {@link #cur} is only made from it
+   * when a KeyValue is asked for.
+   */
+  private Cell curCell = null;
   private KeyValue cur = null;
   private int customId;
 
@@ -62,6 +71,15 @@ public class StoreFileScanner implements KeyValueScanner {
 
   private ScanQueryMatcher matcher;
 
+  /** Told about KeyValues handed out from cached blocks, if set */
+  private HotBlockTracker hotBlockTracker;
+
+  /**
+   * When serving a batch of gets, the rows of the batch that passed the Bloom
+   * filter of the file; seeks to the other rows are not done. Null otherwise.
+   */
+  private NavigableSet<byte[]> batchGetRows;
+
   /**
    * Implements a {@link KeyValueScanner} on top of the specified {@link HFileScanner}
    * @param hfs HFile scanner
@@ -116,21 +134,45 @@ public class StoreFileScanner implements KeyValueScanner {
   }
 
   public String toString() {
-    return "StoreFileScanner[" + hfs.toString() + ", cur=" + cur + "]";
+    return "StoreFileScanner[" + hfs.toString() + ", cur=" + curCell + "]";
   }
 
   public KeyValue peek() {
+    if (cur == null && curCell != null) {
+      cur = hfs.getKeyValue();
+    }
     return cur;
   }
 
+  @Override
+  public Cell peekCell() {
+    return curCell;
+  }
+
+  /**
+   * Moves to the given cell, leaving the KeyValue to be made on demand if it
+   * is only a view.
+   */
+  private void setCurrent(Cell cell) {
+    curCell = cell;
+    cur = cell instanceof KeyValue ? (KeyValue) cell : null;
+  }
+
   public KeyValue next() throws IOException {
-    KeyValue retKey = cur;
+    KeyValue retKey = peek();
+
+    if (hotBlockTracker != null && retKey != null) {
+      CachedBlock source = hfs.getCurrentCachedBlock();
+      if (source != null) {
+        hotBlockTracker.add(retKey, source);
+      }
+    }
 
     try {
-      // only seek if we aren't at the end. cur == null implies 'end'.
-      if (cur != null) {
+      // only seek if we aren't at the end. curCell == null implies 'end'.
+      if (curCell != null) {
         hfs.next();
-        cur = hfs.getKeyValue();
+        setCurrent(hfs.getCell());
         skipKVsNewerThanReadpoint();
       }
     } catch(IOException e) {
@@ -140,6 +182,10 @@ public class StoreFileScanner implements KeyValueScanner {
   }
 
   public boolean seek(KeyValue key) throws IOException {
+    KeyValue batchGetKey = skipRejectedBatchGetRows(key);
+    if (batchGetKey != key) {
+      return delaySeek(batchGetKey, false);
+    }
     seekCount.incrementAndGet();
 
     // TODO(adding counters for HFile)
@@ -159,7 +205,7 @@ public class StoreFileScanner implements KeyValueScanner {
         }
 
         this.isReseekable = true;
-        cur = hfs.getKeyValue();
+        setCurrent(hfs.getCell());
 
         return skipKVsNewerThanReadpoint();
       } finally {
@@ -171,6 +217,10 @@ public class StoreFileScanner implements KeyValueScanner {
   }
 
   public boolean reseek(KeyValue key) throws IOException {
+    KeyValue batchGetKey = skipRejectedBatchGetRows(key);
+    if (batchGetKey != key) {
+      return delaySeek(batchGetKey, true);
+    }
     seekCount.incrementAndGet();
 
 //    // TODO(adding counters for HFile)
@@ -188,7 +238,7 @@ public class StoreFileScanner implements KeyValueScanner {
           close();
           return false;
         }
-        cur = hfs.getKeyValue();
+        setCurrent(hfs.getCell());
 
         return skipKVsNewerThanReadpoint();
       } finally {
@@ -200,19 +250,60 @@ public class StoreFileScanner implements KeyValueScanner {
     }
   }
 
+  /**
+   * When serving a batch of gets, moves a seek to a row the Bloom filter
+   * rejected on to the next row of the batch that passed it. The file has
+   * nothing for the rejected rows, and the rows in between are not asked for.
+   * @param key key to seek to
+   * @return the given key if it has to be sought, the first key of the next
+   *         passing row otherwise, or null if there is no such row
+   */
+  private KeyValue skipRejectedBatchGetRows(KeyValue key) {
+    if (batchGetRows == null) {
+      return key;
+    }
+    byte[] row = key.getRow();
+    if (batchGetRows.contains(row)) {
+      return key;
+    }
+    byte[] nextRow = batchGetRows.higher(row);
+    return nextRow == null ? null : KeyValue.createFirstOnRow(nextRow);
+  }
+
+  /**
+   * Pretends to be at the given key without reading the file, like
+   * {@link #requestSeek(KeyValue, boolean, boolean)} does, so that the seek
+   * is only done if this scanner gets to the top of the heap.
+   * @param key key to seek to later, or null if this scanner is done
+   * @param forward whether the seek can be a reseek
+   * @return false if the scanner is done
+   */
+  private boolean delaySeek(KeyValue key, boolean forward) {
+    if (key == null) {
+      close();
+      realSeekDone = true;
+      return false;
+    }
+    delayedReseek = forward;
+    delayedSeekKV = key;
+    setCurrent(key);
+    realSeekDone = false;
+    return true;
+  }
+
   protected boolean skipKVsNewerThanReadpoint() throws IOException {
     long readPoint = MultiVersionConsistencyControl.getThreadReadPoint();
 
     // We want to ignore all key-values that are newer than our current
     // readPoint
     while(enforceMVCC
-        && cur != null
-        && (cur.getMemstoreTS() > readPoint)) {
+        && curCell != null
+        && (curCell.getMvccVersion() > readPoint)) {
       hfs.next();
-      cur = hfs.getKeyValue();
+      setCurrent(hfs.getCell());
     }
 
-    if (cur == null) {
+    if (curCell == null) {
       close();
       return false;
     }
@@ -222,16 +313,21 @@ public class StoreFileScanner implements KeyValueScanner {
     // that a newer KV's memstoreTS was reset to 0. But, there is an
     // older KV which was not reset to 0 (because it was
     // not old enough during flush). Make sure that we set it correctly now,
-    // so that the comparision order does not change.
-    if (cur.getMemstoreTS() <= readPoint) {
-      cur.setMemstoreTS(0);
+    // so that the comparision order does not change. A view cannot be
+    // changed, so it is turned into a KeyValue first, which is rare since
+    // most KVs in a file were already written out with a memstoreTS of 0.
+    long memstoreTS = curCell.getMvccVersion();
+    if (memstoreTS != 0 && memstoreTS <= readPoint) {
+      KeyValue kv = peek();
+      kv.setMemstoreTS(0);
+      setCurrent(kv);
     }
     return true;
   }
 
   public void close() {
     // Nothing to close on HFileScanner?
-    cur = null;
+    setCurrent(null);
   }
 
   /**
@@ -291,6 +387,11 @@ public class StoreFileScanner implements KeyValueScanner {
   @Override
   public boolean requestSeek(KeyValue kv, boolean forward, boolean useBloom)
       throws IOException {
+    KeyValue batchGetKey = skipRejectedBatchGetRows(kv);
+    if (batchGetKey != kv) {
+      return delaySeek(batchGetKey, forward);
+    }
+
     if (kv.getFamilyLength() == 0) {
       useBloom = false;
     }
@@ -327,7 +428,7 @@ public class StoreFileScanner implements KeyValueScanner {
         // a higher timestamp than the max timestamp in this file. We know that
         // the next point when we have to consider this file again is when we
         // pass the max timestamp of this file (with the same row/column).
-        cur = kv.createFirstOnRowColTS(maxTimestampInFile);
+        setCurrent(kv.createFirstOnRowColTS(maxTimestampInFile));
       } else {
         // This will be the case e.g. when we need to seek to the next
         // row/column, and we don't know exactly what they are, so we set the
@@ -335,7 +436,7 @@ public class StoreFileScanner implements KeyValueScanner {
         // row/column.
         enforceSeek();
       }
-      return cur != null;
+      return curCell != null;
     }
 
     // Multi-column Bloom filter optimization.
@@ -345,7 +446,7 @@ public class StoreFileScanner implements KeyValueScanner {
     // key/value and the store scanner will progress to the next column. This
     // is obviously not a "real real" seek, but unlike the fake KV earlier in
     // this method, we want this to be propagated to ScanQueryMatcher.
-    cur = kv.createLastOnRowCol();
+    setCurrent(kv.createLastOnRowCol());
 
     realSeekDone = true;
     return true;
@@ -387,15 +488,44 @@ public class StoreFileScanner implements KeyValueScanner {
     return seekCount.get();
   }
 
+  /**
+   * Besides deciding whether the file is worth reading, tells the underlying
+   * HFile scanner the time range of the scan, so that it can step over the
+   * data blocks the file-level check could not exclude. Raw scans return
+   * delete markers of any age and read every block. For a batch of gets it
+   * also remembers which of their rows passed the Bloom filter, so that the
+   * other rows are never sought.
+   */
   @Override
   public boolean shouldUseScanner(Scan scan, SortedSet<byte[]> columns,
       long oldestUnexpiredTS) {
-    return reader.passesTimerangeFilter(scan, oldestUnexpiredTS) &&
-        reader.passesBloomFilter(scan, columns);
+    boolean use = reader.passesTimerangeFilter(scan, oldestUnexpiredTS);
+    if (use && scan instanceof InternalScan
+        && ((InternalScan) scan).getBatchGetRows() != null) {
+      batchGetRows = reader.getRowsPassingBloomFilter(
+          ((InternalScan) scan).getBatchGetRows(), columns);
+      use = !batchGetRows.isEmpty();
+    } else {
+      use = use && reader.passesBloomFilter(scan, columns);
+    }
+    if (use && !scan.isRaw()) {
+      TimeRange tr = scan.getTimeRange();
+      long minStamp = tr.isAllTime() ? Long.MIN_VALUE : tr.getMin();
+      hfs.setTimeRange(Math.max(minStamp, oldestUnexpiredTS), tr.getMax());
+    }
+    return use;
   }
 
   public void setCustomId(int customId) {
     this.customId = customId;
     hfs.setCustomId(customId);
   }
+
+  /**
+   * Sets the tracker told about every KeyValue this scanner returns while
+   * positioned in a block that is resident in the block cache.
+   */
+  void setHotBlockTracker(HotBlockTracker hotBlockTracker) {
+    this.hotBlockTracker = hotBlockTracker;
+  }
 }
@@ -20,9 +20,12 @@
 package org.apache.hadoop.hbase.regionserver;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.NavigableSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -31,10 +34,13 @@ import org.apache.hadoop.hbase.DoNotRetryIOException;
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.executor.ExecutorService;
 import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.regionserver.HStore.ScanInfo;
+import org.apache.hadoop.hbase.regionserver.handler.ParallelSeekHandler;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManager;
+import org.apache.hbase.Cell;
 
 /**
  * Scanner scans both the memstore and the HStore. Coalesce KeyValue stream
@@ -66,6 +72,18 @@ public class StoreScanner extends NonLazyKeyValueScanner
 
   protected int customId;
 
+  /**
+   * If true, the initial seeks of the store file scanners are issued
+   * concurrently on the region server's {@link ParallelSeekHandler} executor.
+   * For lazy seeks this covers the real seeks left after the Bloom filter
+   * checks; reseeks of the scanner heap while scanning stay sequential.
+   */
+  public static final String STORESCANNER_PARALLEL_SEEK_ENABLE =
+      "hbase.storescanner.parallel.seek.enable";
+
+  /** Region server the parallel seeks run on, set if they are enabled */
+  protected RegionServerServices parallelSeekServer = null;
+
   /** We don't ever expect to change this, the constant is just for clarity. */
   static final boolean LAZY_SEEK_ENABLED_BY_DEFAULT = true;
 
@@ -96,6 +114,17 @@ public class StoreScanner extends NonLazyKeyValueScanner
     // for multi-row (non-"get") scans because this is not done in
     // StoreFile.passesBloomFilter(Scan, SortedSet<byte[]>).
     useRowColBloom = numCol > 1 || (!isGet && numCol == 1);
+
+    // Parallel seeks only pay off with more than one store file to seek
+    if (store != null && store.getHRegion() != null
+        && store.getStorefilesCount() > 1) {
+      RegionServerServices rsServices = store.getHRegion().getRegionServerServices();
+      if (rsServices != null && rsServices.getExecutorService() != null
+          && rsServices.getConfiguration().getBoolean(
+              STORESCANNER_PARALLEL_SEEK_ENABLE, false)) {
+        parallelSeekServer = rsServices;
+      }
+    }
   }
 
   /**
@@ -126,15 +155,8 @@ public class StoreScanner extends NonLazyKeyValueScanner
     // key does not exist, then to the start of the next matching Row).
     // Always check bloom filter to optimize the top row seek for delete
     // family marker.
-    if (explicitColumnQuery && lazySeekEnabledGlobally) {
-      for (KeyValueScanner scanner : scanners) {
-        scanner.requestSeek(matcher.getStartKey(), false, true);
-      }
-    } else {
-      for (KeyValueScanner scanner : scanners) {
-        scanner.seek(matcher.getStartKey());
-      }
-    }
+    seekScanners(scanners, matcher.getStartKey(),
+        explicitColumnQuery && lazySeekEnabledGlobally);
 
     // set storeLimit
     this.storeLimit = scan.getMaxResultsPerColumnFamily();
@@ -203,6 +225,90 @@ public class StoreScanner extends NonLazyKeyValueScanner
     heap = new KeyValueHeap(scanners, scanInfo.getComparator());
   }
 
+  /**
+   * Seeks all the given scanners to the given key.
+   * <p>
+   * With parallel seeks enabled, a lazy seek still consults the Bloom filters
+   * of every store file, but then issues the real seeks of the files it could
+   * not rule out concurrently, rather than one at a time as each file reaches
+   * the top of the heap.
+   * @param isLazy whether to only request lazy seeks, see
+   *          {@link KeyValueScanner#requestSeek}
+   */
+  protected void seekScanners(List<? extends KeyValueScanner> scanners,
+      KeyValue seekKey, boolean isLazy) throws IOException {
+    if (isLazy) {
+      for (KeyValueScanner scanner : scanners) {
+        scanner.requestSeek(seekKey, false, true);
+      }
+      if (parallelSeekServer != null) {
+        List<KeyValueScanner> pending = new ArrayList<KeyValueScanner>();
+        for (KeyValueScanner scanner : scanners) {
+          if (scanner instanceof StoreFileScanner && !scanner.realSeekDone()) {
+            pending.add(scanner);
+          }
+        }
+        if (pending.size() > 1) {
+          parallelSeek(pending, null);
+        }
+      }
+    } else if (parallelSeekServer != null && scanners.size() > 1) {
+      parallelSeek(scanners, seekKey);
+    } else {
+      for (KeyValueScanner scanner : scanners) {
+        scanner.seek(seekKey);
+      }
+    }
+  }
+
+  /**
+   * Seeks the store file scanners concurrently on the region server's
+   * executor, and the memstore scanners in the calling thread, then waits
+   * for all of them to be done.
+   * @param kv key to seek to, or null to carry out the real seeks that
+   *          earlier lazy seeks of the scanners deferred
+   */
+  private void parallelSeek(final List<? extends KeyValueScanner> scanners,
+      final KeyValue kv) throws IOException {
+    ExecutorService executor = parallelSeekServer.getExecutorService();
+    long readPoint = MultiVersionConsistencyControl.getThreadReadPoint();
+    CountDownLatch latch = new CountDownLatch(scanners.size());
+    List<ParallelSeekHandler> handlers =
+        new ArrayList<ParallelSeekHandler>(scanners.size());
+    for (KeyValueScanner scanner : scanners) {
+      if (scanner instanceof StoreFileScanner) {
+        ParallelSeekHandler seekHandler = kv == null ?
+            new ParallelSeekHandler(parallelSeekServer, scanner, readPoint, latch) :
+            new ParallelSeekHandler(parallelSeekServer, scanner, kv, readPoint, latch);
+        executor.submit(seekHandler);
+        handlers.add(seekHandler);
+      } else {
+        if (kv == null) {
+          scanner.enforceSeek();
+        } else {
+          scanner.seek(kv);
+        }
+        latch.countDown();
+      }
+    }
+    try {
+      // Seeks submitted while the executor shuts down are dropped, so don't
+      // wait on them forever.
+      while (!latch.await(100, TimeUnit.MILLISECONDS)) {
+        if (parallelSeekServer.isStopping() || parallelSeekServer.isStopped()) {
+          throw new InterruptedIOException("Region server is stopping");
+        }
+      }
+    } catch (InterruptedException ie) {
+      throw new InterruptedIOException(ie.getMessage());
+    }
+    for (ParallelSeekHandler handler : handlers) {
+      if (handler.getErr() != null) {
+        throw new IOException(handler.getErr());
+      }
+    }
+  }
+
   /**
    * Get a filtered list of scanners. Assumes we are not in a compaction.
    * @return list of scanners to seek
@@ -334,6 +440,7 @@ public class StoreScanner extends NonLazyKeyValueScanner
       matcher.setRow(row, offset, length);
     }
 
+    Cell cell;
     KeyValue kv;
     KeyValue prevKV = null;
 
@@ -341,21 +448,30 @@ public class StoreScanner extends NonLazyKeyValueScanner
     KeyValue.KVComparator comparator =
         store != null ? store.getComparator() : null;
 
+    // Cells are matched where they lie in the scanners, and only the ones
+    // returned are made into KeyValues. Filters are handed KeyValues, so
+    // with a filter every cell is made into one up front.
+    Filter f = matcher.getFilter();
+
     long cumulativeMetric = 0;
     int count = 0;
     try {
-      LOOP: while((kv = this.heap.peek()) != null) {
-        // Check that the heap gives us KVs in an increasing order.
-        assert prevKV == null || comparator == null || comparator.compare(prevKV, kv) <= 0 :
-          "Key " + prevKV + " followed by a " + "smaller key " + kv + " in cf " + store;
-        prevKV = kv;
-        ScanQueryMatcher.MatchCode qcode = matcher.match(kv);
+      LOOP: while((cell = f != null ? this.heap.peek() : this.heap.peekCell())
+          != null) {
+        // Check that the heap gives us KVs in an increasing order. Views are
+        // moved along by their scanners, so only KeyValues can be kept.
+        assert prevKV == null || comparator == null ||
+          comparator.compareCells(prevKV, cell) <= 0 :
+          "Key " + prevKV + " followed by a " + "smaller key " + cell +
+          " in cf " + store;
+        prevKV = cell instanceof KeyValue ? (KeyValue) cell : null;
+        ScanQueryMatcher.MatchCode qcode = matcher.match(cell);
         switch(qcode) {
           case INCLUDE:
           case INCLUDE_AND_SEEK_NEXT_ROW:
           case INCLUDE_AND_SEEK_NEXT_COL:
 
-            Filter f = matcher.getFilter();
+            kv = this.heap.peek();
             if (f != null) {
               kv = f.transform(kv);
             }
@@ -367,7 +483,7 @@ public class StoreScanner extends NonLazyKeyValueScanner
               if (!matcher.moreRowsMayExistAfter(kv)) {
                 return false;
               }
-              reseek(matcher.getKeyForNextRow(kv));
+              seekToNextRow(kv);
               break LOOP;
             }
 
@@ -385,9 +501,9 @@ public class StoreScanner extends NonLazyKeyValueScanner
               if (!matcher.moreRowsMayExistAfter(kv)) {
                 return false;
               }
-              reseek(matcher.getKeyForNextRow(kv));
+              seekToNextRow(kv);
             } else if (qcode == ScanQueryMatcher.MatchCode.INCLUDE_AND_SEEK_NEXT_COL) {
-              reseek(matcher.getKeyForNextColumn(kv));
+              seekToNextColumn(kv);
             } else {
               this.heap.next();
             }
@@ -407,15 +523,15 @@ public class StoreScanner extends NonLazyKeyValueScanner
           case SEEK_NEXT_ROW:
             // This is just a relatively simple end of scan fix, to short-cut end
             // us if there is an endKey in the scan.
-            if (!matcher.moreRowsMayExistAfter(kv)) {
+            if (!matcher.moreRowsMayExistAfter(cell)) {
               return false;
             }
 
-            reseek(matcher.getKeyForNextRow(kv));
+            seekToNextRow(cell);
             break;
 
           case SEEK_NEXT_COL:
-            reseek(matcher.getKeyForNextColumn(kv));
+            seekToNextColumn(cell);
             break;
 
           case SKIP:
@@ -423,7 +539,8 @@ public class StoreScanner extends NonLazyKeyValueScanner
             break;
 
           case SEEK_NEXT_USING_HINT:
-            KeyValue nextKV = matcher.getNextKeyHint(kv);
+            // Only filters ask for this, so the cell is a KeyValue
+            KeyValue nextKV = matcher.getNextKeyHint(this.heap.peek());
             if (nextKV != null) {
               reseek(nextKV);
             } else {
@@ -516,9 +633,7 @@ public class StoreScanner extends NonLazyKeyValueScanner
      * could have done it now by storing the scan object from the constructor */
     List<KeyValueScanner> scanners = getScannersNoCompaction(customId);
 
-    for(KeyValueScanner scanner : scanners) {
-      scanner.seek(lastTopKey);
-    }
+    seekScanners(scanners, lastTopKey, false);
 
     // Combine all seeked scanners with a heap
     heap = new KeyValueHeap(scanners, store.comparator);
@@ -540,13 +655,36 @@ public class StoreScanner extends NonLazyKeyValueScanner
     }
   }
 
+  /**
+   * Reseeks past the row of the given KeyValue. Unless the seek is lazy, in
+   * which case the store file scanners hang on to the seek key, the key is
+   * built in a buffer the matcher reuses for every seek.
+   */
+  private boolean seekToNextRow(Cell kv) throws IOException {
+    return reseek(isLazySeek() ? matcher.getKeyForNextRow(kv)
+        : matcher.getReusableKeyForNextRow(kv));
+  }
+
+  /**
+   * Reseeks past the column of the given KeyValue, see
+   * {@link #seekToNextRow(KeyValue)}.
+   */
+  private boolean seekToNextColumn(Cell kv) throws IOException {
+    return reseek(isLazySeek() ? matcher.getKeyForNextColumn(kv)
+        : matcher.getReusableKeyForNextColumn(kv));
+  }
+
+  private boolean isLazySeek() {
+    return explicitColumnQuery && lazySeekEnabledGlobally;
+  }
+
   @Override
   public synchronized boolean reseek(KeyValue kv) throws IOException {
     //Heap will not be null, if this is called from next() which.
     //If called from RegionScanner.reseek(...) make sure the scanner
     //stack is reset if needed.
     checkReseek();
-    if (explicitColumnQuery && lazySeekEnabledGlobally) {
+    if (isLazySeek()) {
       return heap.requestSeek(kv, true, useRowColBloom);
     } else {
       return heap.reseek(kv);
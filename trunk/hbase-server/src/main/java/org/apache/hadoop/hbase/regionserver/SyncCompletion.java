@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.ipc.Delayable;
+import org.apache.hadoop.hbase.regionserver.wal.HLog;
+
+import com.google.protobuf.Message;
+
+/**
+ * Tracks the WAL syncs the mutations of one RPC call wait for, so that the
+ * handler does not have to. The region appends a mini batch, releases its
+ * row locks and {@link #add adds} the rest of the batch, which makes the
+ * edits visible and runs the post coprocessor hooks, to be run once the
+ * batch is synced. The handler then builds its response and hands it to
+ * {@link #respondWhenSynced}, which delays the call until every added batch
+ * has run; the response, or the first failure, is then sent by the RPC
+ * responder.
+ * <p>
+ * The batches run on the given executor, never on the thread writing the
+ * log: making edits visible waits for older writes to become visible, which
+ * may themselves wait for a sync. The executor must therefore not queue
+ * tasks behind busy threads.
+ */
+@InterfaceAudience.Private
+public class SyncCompletion {
+  static final Log LOG = LogFactory.getLog(SyncCompletion.class);
+
+  /**
+   * If true, handlers do not wait for the WAL sync of Puts and Deletes; the
+   * response is sent once the edits are synced.
+   */
+  public static final String ASYNC_SYNC_KEY =
+      "hbase.regionserver.wal.async.sync";
+  public static final boolean DEFAULT_ASYNC_SYNC = false;
+
+  /**
+   * What is left to do of a mini batch once its sync completes.
+   */
+  public interface Callback {
+    /**
+     * @param e why the sync failed, or null if it succeeded
+     * @throws IOException if the batch fails
+     */
+    void syncCompleted(IOException e) throws IOException;
+  }
+
+  private final Executor executor;
+  private int pending = 0;
+  private IOException error;
+  private Delayable call;
+  private Message response;
+
+  public SyncCompletion(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Asks the log to sync up to the given transaction and runs the callback
+   * on the executor once it did, or failed to.
+   * @param log the log the batch was appended to
+   * @param txid transaction id of the batch
+   * @param callback rest of the batch
+   */
+  public void add(HLog log, long txid, final Callback callback) {
+    synchronized (this) {
+      assert this.call == null : "Batch added after the response";
+      this.pending++;
+    }
+    log.sync(txid, new HLog.SyncListener() {
+      @Override
+      public void syncCompleted(final IOException e) {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            IOException failure = e;
+            try {
+              callback.syncCompleted(e);
+            } catch (IOException ioe) {
+              if (failure == null) failure = ioe;
+            } catch (RuntimeException re) {
+              if (failure == null) failure = new IOException(re);
+            }
+            finished(failure);
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Delays the call until all the added batches have run, then sends the
+   * given response, or the first failure.
+   * @param call the call to respond to
+   * @param response what to respond
+   * @return true if the call was delayed; false if all the batches had
+   * already run, in which case the caller returns the response itself
+   * @throws IOException if a batch that already ran failed
+   */
+  public synchronized boolean respondWhenSynced(Delayable call,
+      Message response) throws IOException {
+    if (this.pending == 0) {
+      if (this.error != null) {
+        throw this.error;
+      }
+      return false;
+    }
+    call.startDelay(true);
+    this.call = call;
+    this.response = response;
+    return true;
+  }
+
+  private void finished(IOException e) {
+    synchronized (this) {
+      if (e != null && this.error == null) {
+        this.error = e;
+      }
+      this.pending--;
+      if (this.pending > 0 || this.call == null) {
+        return;
+      }
+    }
+    // The last batch has run and nothing touches the fields any more
+    try {
+      if (this.error == null) {
+        this.call.endDelay(this.response);
+      } else {
+        this.call.endDelayThrowing(this.error);
+      }
+    } catch (IOException ioe) {
+      LOG.warn("Failed to respond to " + this.call, ioe);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.handler;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.Server;
+import org.apache.hadoop.hbase.executor.EventHandler;
+import org.apache.hadoop.hbase.regionserver.KeyValueScanner;
+import org.apache.hadoop.hbase.regionserver.MultiVersionConsistencyControl;
+
+/**
+ * Handler to seek storefiles in parallel.
+ */
+@InterfaceAudience.Private
+public class ParallelSeekHandler extends EventHandler {
+  private static final Log LOG = LogFactory.getLog(ParallelSeekHandler.class);
+  private KeyValueScanner scanner;
+  private KeyValue keyValue;
+  private long readPoint;
+  private CountDownLatch latch;
+  private volatile Throwable err = null;
+
+  /**
+   * @param keyValue key to seek to, or null to carry out the real seek a
+   * lazy seek of the scanner deferred, see {@link KeyValueScanner#enforceSeek()}
+   * @param readPoint MVCC read point of the scan, which the seek has to
+   * observe on the executor's thread
+   * @param latch counted down once the seek is done, successful or not
+   */
+  public ParallelSeekHandler(Server server, KeyValueScanner scanner,
+      KeyValue keyValue, long readPoint, CountDownLatch latch) {
+    super(server, EventType.RS_PARALLEL_SEEK);
+    this.scanner = scanner;
+    this.keyValue = keyValue;
+    this.readPoint = readPoint;
+    this.latch = latch;
+  }
+
+  /**
+   * Creates a handler that carries out the real seek a lazy seek of the
+   * scanner deferred.
+   */
+  public ParallelSeekHandler(Server server, KeyValueScanner scanner,
+      long readPoint, CountDownLatch latch) {
+    this(server, scanner, null, readPoint, latch);
+  }
+
+  @Override
+  public void process() {
+    try {
+      MultiVersionConsistencyControl.setThreadReadPoint(readPoint);
+      if (keyValue == null) {
+        scanner.enforceSeek();
+      } else {
+        scanner.seek(keyValue);
+      }
+    } catch (IOException e) {
+      LOG.error("Failed parallel seek of " + scanner + " to " + describeKey(), e);
+      setErr(e);
+    } catch (RuntimeException e) {
+      LOG.error("Failed parallel seek of " + scanner + " to " + describeKey(), e);
+      setErr(e);
+    } finally {
+      latch.countDown();
+    }
+  }
+
+  private String describeKey() {
+    return keyValue == null ? "its requested key" : keyValue.toString();
+  }
+
+  public Throwable getErr() {
+    return err;
+  }
+
+  public void setErr(Throwable err) {
+    this.err = err;
+  }
+}
@@ -26,21 +26,21 @@ import java.lang.reflect.Method;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.Lock;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
@@ -96,10 +96,12 @@ import org.apache.hadoop.util.StringUtils;
  * a message in F.
  *
  * <p>
- * Synchronized methods can never execute in parallel. However, between the
- * start of a cache flush and the completion point, appends are allowed but log
- * rolling is not. To prevent log rolling taking place during this period, a
- * separate reentrant lock is used.
+ * Appends do not take a lock. Handlers publish their edits to a ring buffer
+ * and a single appender thread writes them out and syncs them in batches;
+ * see {@link RingBufferAppender}. Between the start of a cache flush and the
+ * completion point, appends are allowed but log rolling is not. To prevent
+ * log rolling taking place during this period, a separate reentrant lock is
+ * used.
  *
  * <p>To read an HLog, call {@link HLogFactory#createReader(org.apache.hadoop.fs.FileSystem,
  * org.apache.hadoop.fs.Path, org.apache.hadoop.conf.Configuration)}.
@@ -108,6 +110,10 @@ import org.apache.hadoop.util.StringUtils;
 @InterfaceAudience.Private
 class FSHLog implements HLog, Syncable {
   static final Log LOG = LogFactory.getLog(FSHLog.class);
+
+  static final int DEFAULT_RING_BUFFER_SLOTS = 8 * 1024;
+  // How long a handler waits before looking for a free slot again
+  private static final long SLOT_WAIT_NANOS = 10 * 1000;
   
   private final FileSystem fs;
   private final Path rootDir;
@@ -121,7 +127,7 @@ class FSHLog implements HLog, Syncable {
   private final String prefix;
   private final AtomicLong unflushedEntries = new AtomicLong(0);
   private volatile long syncedTillHere = 0;
-  private long lastDeferredTxid;
+  private volatile long lastDeferredTxid;
   private final Path oldLogDir;
   private volatile boolean logRollRunning;
   private boolean failIfLogDirExists;
@@ -151,8 +157,7 @@ class FSHLog implements HLog, Syncable {
 
 
   /**
-   * This lock synchronizes all operations on oldestUnflushedSeqNums and oldestFlushingSeqNums,
-   * with the exception of append's putIfAbsent into oldestUnflushedSeqNums.
+   * This lock synchronizes all operations on oldestUnflushedSeqNums and oldestFlushingSeqNums.
    * We only use these to find out the low bound seqNum, or to find regions with old seqNums to
    * force flush them, so we don't care about these numbers messing with anything. */
   private final Object oldestSeqNumsLock = new Object();
@@ -164,16 +169,19 @@ class FSHLog implements HLog, Syncable {
   private final Object rollWriterLock = new Object();
 
   /**
-   * Map of encoded region names to their most recent sequence/edit id in their memstore.
+   * Map of encoded region names to the oldest sequence/edit id in the memstore of each of
+   * their stores, by family name. Regions flush some of their stores only, so the oldest
+   * edit of a region is that of its oldest store.
    */
-  private final ConcurrentSkipListMap<byte [], Long> oldestUnflushedSeqNums =
-    new ConcurrentSkipListMap<byte [], Long>(Bytes.BYTES_COMPARATOR);
+  private final Map<byte[], Map<byte[], Long>> oldestUnflushedSeqNums =
+    new TreeMap<byte[], Map<byte[], Long>>(Bytes.BYTES_COMPARATOR);
   /**
-   * Map of encoded region names to their most recent sequence/edit id in their memstore;
-   * contains the regions that are currently flushing. That way we can store two numbers for
-   * flushing and non-flushing (oldestUnflushedSeqNums) memstore for the same region.
+   * Map of encoded region names to the oldest sequence/edit id in the memstore of each of
+   * their stores; contains the stores that are currently flushing. That way we can store two
+   * numbers for flushing and non-flushing (oldestUnflushedSeqNums) memstore for the same store.
    */
-  private final Map<byte[], Long> oldestFlushingSeqNums = new HashMap<byte[], Long>();
+  private final Map<byte[], Map<byte[], Long>> oldestFlushingSeqNums =
+    new TreeMap<byte[], Map<byte[], Long>>(Bytes.BYTES_COMPARATOR);
 
   private volatile boolean closed = false;
 
@@ -203,11 +211,9 @@ class FSHLog implements HLog, Syncable {
   // of the default Hdfs block size.
   private final long logrollsize;
 
-  // We synchronize on updateLock to prevent updates and to prevent a log roll
-  // during an update
-  // locked during appends
-  private final Object updateLock = new Object();
-  private final Object flushLock = new Object();
+  // Held by the appender while it writes and syncs, and by a log roll while it
+  // swaps the writer, so nothing goes to a writer that is being closed
+  private final ReentrantLock writerLock = new ReentrantLock();
 
   private final boolean enabled;
 
@@ -219,9 +225,9 @@ class FSHLog implements HLog, Syncable {
   private final int maxLogs;
 
   /**
-   * Thread that handles optional sync'ing
+   * Thread that writes and syncs the appended entries
    */
-  private final LogSyncer logSyncerThread;
+  private final RingBufferAppender appender;
 
   /** Number of log close errors tolerated before we abort */
   private final int closeErrorsTolerated;
@@ -349,7 +355,9 @@ class FSHLog implements HLog, Syncable {
     this.closeErrorsTolerated = conf.getInt(
         "hbase.regionserver.logroll.errors.tolerated", 0);
     
-    this.logSyncerThread = new LogSyncer(this.optionalFlushInterval);
+    this.appender = new RingBufferAppender(
+        conf.getInt("hbase.regionserver.hlog.ringbuffer.slots",
+            DEFAULT_RING_BUFFER_SLOTS), this.optionalFlushInterval);
     
     LOG.info("HLog configuration: blocksize=" +
       StringUtils.byteDesc(this.blocksize) +
@@ -379,11 +387,11 @@ class FSHLog implements HLog, Syncable {
     // handle the reflection necessary to call getNumCurrentReplicas()
     this.getNumCurrentReplicas = getGetNumCurrentReplicas(this.hdfs_out);
 
-    Threads.setDaemonThreadRunning(logSyncerThread.getThread(),
-        Thread.currentThread().getName() + ".logSyncer");
     coprocessorHost = new WALCoprocessorHost(this, conf);
 
     this.metrics = new MetricsWAL();
+    Threads.setDaemonThreadRunning(appender.getThread(),
+        Thread.currentThread().getName() + ".logAppender");
   }
   
   // use reflection to search for getDefaultBlockSize(Path f)
@@ -506,7 +514,7 @@ class FSHLog implements HLog, Syncable {
           LOG.debug("HLog " + (isClosed ? "closed" : "closing") + ". Skipping rolling of writer");
           return regionsToFlush;
         }
-        // Do all the preparation outside of the updateLock to block
+        // Do all the preparation outside of the writerLock to block
         // as less as possible the incoming writes
         long currentFilenum = this.filenum;
         Path oldPath = null;
@@ -534,13 +542,17 @@ class FSHLog implements HLog, Syncable {
 
         Path oldFile = null;
         int oldNumEntries = 0;
-        synchronized (updateLock) {
+        writerLock.lock();
+        try {
           // Clean up current writer.
           oldNumEntries = this.numEntries.get();
           oldFile = cleanupCurrentWriter(currentFilenum);
           this.writer = nextWriter;
+          this.appender.writerRolled();
           this.hdfs_out = nextHdfsOut;
           this.numEntries.set(0);
+        } finally {
+          writerLock.unlock();
         }
         LOG.info("Rolled log" + (oldFile != null ? " for file=" + FSUtils.getPath(oldFile)
           + ", entries=" + oldNumEntries + ", filesize=" + this.fs.getFileStatus(oldFile).getLen()
@@ -594,11 +606,12 @@ class FSHLog implements HLog, Syncable {
   private void cleanOldLogs() throws IOException {
     long oldestOutstandingSeqNum = Long.MAX_VALUE;
     synchronized (oldestSeqNumsLock) {
-      Long oldestFlushing = (oldestFlushingSeqNums.size() > 0)
-        ? Collections.min(oldestFlushingSeqNums.values()) : Long.MAX_VALUE;
-      Long oldestUnflushed = (oldestUnflushedSeqNums.size() > 0)
-        ? Collections.min(oldestUnflushedSeqNums.values()) : Long.MAX_VALUE;
-      oldestOutstandingSeqNum = Math.min(oldestFlushing, oldestUnflushed);
+      for (Map<byte[], Long> storeSeqNums : oldestFlushingSeqNums.values()) {
+        oldestOutstandingSeqNum = Math.min(oldestOutstandingSeqNum, getOldest(storeSeqNums));
+      }
+      for (Map<byte[], Long> storeSeqNums : oldestUnflushedSeqNums.values()) {
+        oldestOutstandingSeqNum = Math.min(oldestOutstandingSeqNum, getOldest(storeSeqNums));
+      }
     }
 
     // Get the set of all log files whose last sequence number is smaller than
@@ -638,6 +651,18 @@ class FSHLog implements HLog, Syncable {
         .toArray(new byte[][] { HConstants.EMPTY_BYTE_ARRAY });
   }
 
+  /*
+   * @return the oldest of the sequence ids of the stores of a region;
+   * Long.MAX_VALUE if there are none
+   */
+  private static long getOldest(final Map<byte[], Long> storeSeqNums) {
+    long oldest = Long.MAX_VALUE;
+    for (Long seqNum : storeSeqNums.values()) {
+      oldest = Math.min(oldest, seqNum.longValue());
+    }
+    return oldest;
+  }
+
   private byte[][] getRegionsToForceFlush() throws IOException {
     // If too many log files, figure which regions we need to flush.
     // Array is an array of encoded region names.
@@ -646,8 +671,12 @@ class FSHLog implements HLog, Syncable {
     if (logCount > this.maxLogs && logCount > 0) {
       // This is an array of encoded region names.
       synchronized (oldestSeqNumsLock) {
+        Map<byte[], Long> regionsToSeqNums = new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+        for (Map.Entry<byte[], Map<byte[], Long>> e : this.oldestUnflushedSeqNums.entrySet()) {
+          regionsToSeqNums.put(e.getKey(), getOldest(e.getValue()));
+        }
         regions = findMemstoresWithEditsEqualOrOlderThan(this.outputfiles.firstKey(),
-          this.oldestUnflushedSeqNums);
+          regionsToSeqNums);
       }
       if (regions != null) {
         StringBuilder sb = new StringBuilder();
@@ -665,7 +694,7 @@ class FSHLog implements HLog, Syncable {
 
   /*
    * Cleans up current writer closing and adding to outputfiles.
-   * Presumes we're operating inside an updateLock scope.
+   * Presumes we're operating inside a writerLock scope.
    * @return Path to current writer or null if none.
    * @throws IOException
    */
@@ -674,14 +703,19 @@ class FSHLog implements HLog, Syncable {
     if (this.writer != null) {
       // Close the current writer, get a new one.
       try {
-        // Wait till all current transactions are written to the hlog.
-        // No new transactions can occur because we have the updatelock.
-        if (this.unflushedEntries.get() != this.syncedTillHere) {
+        // Sync what the appender wrote to this writer. It cannot write more
+        // while we have the writerLock; entries still in the ring buffer go
+        // to the next writer.
+        long writtenTill = this.appender.getWrittenTill();
+        if (writtenTill > this.syncedTillHere &&
+            !this.appender.hasFailedWrite()) {
           LOG.debug("cleanupCurrentWriter " +
-                   " waiting for transactions to get synced " +
-                   " total " + this.unflushedEntries.get() +
+                   " syncing transactions " +
+                   " written " + writtenTill +
                    " synced till here " + syncedTillHere);
-          sync();
+          this.writer.sync();
+          this.syncedTillHere = writtenTill;
+          this.appender.wakeUp();
         }
         this.writer.close();
         this.writer = null;
@@ -799,11 +833,11 @@ class FSHLog implements HLog, Syncable {
       return;
     }
     try {
-      logSyncerThread.close();
-      // Make sure we synced everything
-      logSyncerThread.join(this.optionalFlushInterval*2);
+      appender.close();
+      // Make sure we wrote and synced everything
+      appender.join(this.optionalFlushInterval*2);
     } catch (InterruptedException e) {
-      LOG.error("Exception while waiting for syncer thread to die", e);
+      LOG.error("Exception while waiting for appender thread to die", e);
       Thread.currentThread().interrupt();
     }
     try {
@@ -820,7 +854,8 @@ class FSHLog implements HLog, Syncable {
         i.logCloseRequested();
       }
     }
-    synchronized (updateLock) {
+    writerLock.lock();
+    try {
       this.closed = true;
       if (LOG.isDebugEnabled()) {
         LOG.debug("closing hlog writer in " + this.dir.toString());
@@ -828,6 +863,8 @@ class FSHLog implements HLog, Syncable {
       if (this.writer != null) {
         this.writer.close();
       }
+    } finally {
+      writerLock.unlock();
     }
   }
 
@@ -850,23 +887,11 @@ class FSHLog implements HLog, Syncable {
     if (this.closed) {
       throw new IOException("Cannot append; log is closed");
     }
-    long txid = 0;
-    synchronized (updateLock) {
-      long seqNum = obtainSeqNum();
-      logKey.setLogSeqNum(seqNum);
-      // The 'lastSeqWritten' map holds the sequence number of the oldest
-      // write for each region (i.e. the first edit added to the particular
-      // memstore). When the cache is flushed, the entry for the
-      // region being flushed is removed if the sequence number of the flush
-      // is greater than or equal to the value in lastSeqWritten.
-      this.oldestUnflushedSeqNums.putIfAbsent(regionInfo.getEncodedNameAsBytes(),
-        Long.valueOf(seqNum));
-      doWrite(regionInfo, logKey, logEdit, htd);
-      txid = this.unflushedEntries.incrementAndGet();
-      this.numEntries.incrementAndGet();
-      if (htd.isDeferredLogFlush()) {
-        lastDeferredTxid = txid;
-      }
+    // The appender sets the sequence number when it writes the entry
+    long txid = this.appender.publish(regionInfo, logKey, logEdit, htd);
+    this.numEntries.incrementAndGet();
+    if (htd.isDeferredLogFlush()) {
+      lastDeferredTxid = txid;
     }
 
     // Sync if catalog region, and if not then check if that table supports
@@ -901,8 +926,8 @@ class FSHLog implements HLog, Syncable {
    * systems should process the log appropriately upon each startup (and prior
    * to initializing HLog).
    *
-   * synchronized prevents appends during the completion of a cache flush or for
-   * the duration of a log roll.
+   * The edits are only published to the ring buffer here; the appender
+   * thread writes them, so a log roll never sees half an append.
    *
    * @param info
    * @param tableName
@@ -920,25 +945,16 @@ class FSHLog implements HLog, Syncable {
       if (this.closed) {
         throw new IOException("Cannot append; log is closed");
       }
-      long txid = 0;
-      synchronized (this.updateLock) {
-        long seqNum = obtainSeqNum();
-        // The 'lastSeqWritten' map holds the sequence number of the oldest
-        // write for each region (i.e. the first edit added to the particular
-        // memstore). . When the cache is flushed, the entry for the
-        // region being flushed is removed if the sequence number of the flush
-        // is greater than or equal to the value in lastSeqWritten.
-        // Use encoded name.  Its shorter, guaranteed unique and a subset of
-        // actual  name.
-        byte [] encodedRegionName = info.getEncodedNameAsBytes();
-        this.oldestUnflushedSeqNums.putIfAbsent(encodedRegionName, seqNum);
-        HLogKey logKey = makeKey(encodedRegionName, tableName, seqNum, now, clusterId);
-        doWrite(info, logKey, edits, htd);
-        this.numEntries.incrementAndGet();
-        txid = this.unflushedEntries.incrementAndGet();
-        if (htd.isDeferredLogFlush()) {
-          lastDeferredTxid = txid;
-        }
+      // Use encoded name.  Its shorter, guaranteed unique and a subset of
+      // actual  name. The appender sets the sequence number when it writes
+      // the entry.
+      byte [] encodedRegionName = info.getEncodedNameAsBytes();
+      HLogKey logKey = makeKey(encodedRegionName, tableName,
+        HConstants.NO_SEQNUM, now, clusterId);
+      long txid = this.appender.publish(info, logKey, edits, htd);
+      this.numEntries.incrementAndGet();
+      if (htd.isDeferredLogFlush()) {
+        lastDeferredTxid = txid;
       }
       // Sync if catalog region, and if not then check if that table supports
       // deferred log flushing
@@ -966,172 +982,435 @@ class FSHLog implements HLog, Syncable {
   }
 
   /**
-   * This class is responsible to hold the HLog's appended Entry list
-   * and to sync them according to a configurable interval.
-   *
-   * Deferred log flushing works first by piggy backing on this process by
-   * simply not sync'ing the appended Entry. It can also be sync'd by other
-   * non-deferred log flushed entries outside of this thread.
+   * A slot of the append ring buffer. A handler fills the slot of the
+   * transaction id it claimed, then publishes it; the appender empties it
+   * again once the entry is written.
    */
-  class LogSyncer extends HasThread {
+  private static class RingBufferSlot {
+    HRegionInfo info;
+    HLogKey key;
+    WALEdit edit;
+    HTableDescriptor htd;
+  }
 
-    private final long optionalFlushInterval;
+  /**
+   * A request to sync the log up to a transaction id. The handler asking for
+   * the sync waits on it until the appender has synced past its transaction,
+   * or failed to, unless it left a listener to be told instead.
+   */
+  static class SyncFuture {
+    private final long txid;
+    private final SyncListener listener;
+    private boolean done = false;
+    private IOException error;
+
+    SyncFuture(long txid) {
+      this(txid, null);
+    }
 
-    private final AtomicBoolean closeLogSyncer = new AtomicBoolean(false);
+    SyncFuture(long txid, SyncListener listener) {
+      this.txid = txid;
+      this.listener = listener;
+    }
 
-    // List of pending writes to the HLog. There corresponds to transactions
-    // that have not yet returned to the client. We keep them cached here
-    // instead of writing them to HDFS piecemeal, because the HDFS write 
-    // method is pretty heavyweight as far as locking is concerned. The 
-    // goal is to increase the batchsize for writing-to-hdfs as well as
-    // sync-to-hdfs, so that we can get better system throughput.
-    private List<Entry> pendingWrites = new LinkedList<Entry>();
+    long getTxid() {
+      return this.txid;
+    }
 
-    LogSyncer(long optionalFlushInterval) {
-      this.optionalFlushInterval = optionalFlushInterval;
+    /**
+     * @param error why the sync failed, or null if it succeeded
+     */
+    void done(IOException error) {
+      synchronized (this) {
+        if (this.done) {
+          return;
+        }
+        this.done = true;
+        this.error = error;
+        notifyAll();
+      }
+      if (this.listener != null) {
+        try {
+          this.listener.syncCompleted(error);
+        } catch (RuntimeException e) {
+          // Do not let a listener take the appender down
+          LOG.error("Sync listener failed for txid " + this.txid, e);
+        }
+      }
     }
 
-    @Override
-    public void run() {
+    /**
+     * Waits until the sync is done. Like the monitor based syncing it
+     * replaces, it does not give up on an interrupt.
+     * @throws IOException if the sync failed
+     */
+    synchronized void get() throws IOException {
+      boolean interrupted = false;
       try {
-        // awaiting with a timeout doesn't always
-        // throw exceptions on interrupt
-        while(!this.isInterrupted() && !closeLogSyncer.get()) {
-
+        while (!this.done) {
           try {
-            if (unflushedEntries.get() <= syncedTillHere) {
-              synchronized (closeLogSyncer) {
-                closeLogSyncer.wait(this.optionalFlushInterval);
-              }
-            }
-            // Calling sync since we waited or had unflushed entries.
-            // Entries appended but not sync'd are taken care of here AKA
-            // deferred log flush
-            sync();
-          } catch (IOException e) {
-            LOG.error("Error while syncing, requesting close of hlog ", e);
-            requestLogRoll();
+            wait();
+          } catch (InterruptedException e) {
+            interrupted = true;
           }
         }
-      } catch (InterruptedException e) {
-        LOG.debug(getName() + " interrupted while waiting for sync requests");
       } finally {
-        LOG.info(getName() + " exiting");
+        if (interrupted) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      if (this.error != null) {
+        throw this.error;
+      }
+    }
+  }
+
+  /**
+   * Single consumer of the append ring buffer.
+   * <p>
+   * Handlers claim a transaction id with an atomic increment, fill the ring
+   * buffer slot of that id and publish it; none of them takes a lock. This
+   * thread takes the published entries in transaction order, gives them
+   * their sequence numbers and writes them out in batches. A batch is synced
+   * with a single call when any handler waits on a {@link SyncFuture} for
+   * one of its entries, so concurrent handlers share their syncs, and every
+   * <code>optionalFlushInterval</code> otherwise for the deferred log flush
+   * entries nobody waits for.
+   * <p>
+   * Sequence numbers are obtained here rather than by the handlers so they
+   * go into the log files in ascending order.
+   */
+  class RingBufferAppender extends HasThread {
+    private final RingBufferSlot[] slots;
+    // Transaction id last published in each slot
+    private final AtomicLongArray published;
+    private final int mask;
+    private final long optionalFlushInterval;
+
+    // Transaction id up to which the slots were emptied; a handler may fill
+    // the slot of transaction t once this is at least t - slots.length.
+    private volatile long consumedTill = 0;
+    // Transaction id up to which entries were written to a writer. Only
+    // changed with the writerLock held.
+    private volatile long writtenTill = 0;
+
+    // Set once a write to the current writer failed. Nothing that writer got
+    // after its last sync can be trusted, so it is not synced any more and
+    // the entries written to it since then fail until the log is rolled.
+    // Only changed with the writerLock held.
+    private volatile boolean writerFailed = false;
+    // The entries of the last failure: after failedAfter, up to and
+    // including failedTill. Syncs asking for them fail, also once later
+    // entries were synced to the next writer.
+    private volatile long failedAfter = 0;
+    private volatile long failedTill = 0;
+    private volatile IOException writeFailure;
+
+    private final ConcurrentLinkedQueue<SyncFuture> syncRequests =
+      new ConcurrentLinkedQueue<SyncFuture>();
+    // Sync requests taken from the queue, waiting for their entries
+    private final List<SyncFuture> pendingSyncs = new ArrayList<SyncFuture>();
+
+    private volatile boolean waiting = false;
+    private volatile boolean closing = false;
+    private volatile boolean finished = false;
+    private long lastSyncTime = EnvironmentEdgeManager.currentTimeMillis();
+
+    RingBufferAppender(int numSlots, long optionalFlushInterval) {
+      int size = Integer.highestOneBit(Math.max(numSlots, 2) - 1) << 1;
+      this.slots = new RingBufferSlot[size];
+      for (int i = 0; i < size; i++) {
+        this.slots[i] = new RingBufferSlot();
+      }
+      // Transaction ids start at 1, so no slot starts out published
+      this.published = new AtomicLongArray(size);
+      this.mask = size - 1;
+      this.optionalFlushInterval = optionalFlushInterval;
+    }
+
+    /**
+     * Puts an entry in the ring buffer, waiting for a free slot if the
+     * appender is a whole ring behind.
+     * @return transaction id of the entry
+     * @throws IOException if the appender is gone
+     */
+    long publish(HRegionInfo info, HLogKey key, WALEdit edit,
+        HTableDescriptor htd) throws IOException {
+      long txid = unflushedEntries.incrementAndGet();
+      while (txid - this.slots.length > this.consumedTill) {
+        if (this.finished) {
+          throw new IOException("Cannot append; log is closed");
+        }
+        LockSupport.parkNanos(this, SLOT_WAIT_NANOS);
+      }
+      int index = (int) txid & this.mask;
+      RingBufferSlot slot = this.slots[index];
+      slot.info = info;
+      slot.key = key;
+      slot.edit = edit;
+      slot.htd = htd;
+      this.published.set(index, txid);
+      wakeUp();
+      return txid;
+    }
+
+    /**
+     * Hands a sync request to the appender.
+     */
+    void requestSync(SyncFuture future) {
+      this.syncRequests.add(future);
+      wakeUp();
+      if (this.finished) {
+        // The appender may have exited before seeing the request
+        failSyncRequests();
       }
     }
 
-    // appends new writes to the pendingWrites. It is better to keep it in
-    // our own queue rather than writing it to the HDFS output stream because
-    // HDFSOutputStream.writeChunk is not lightweight at all.
-    synchronized void append(Entry e) throws IOException {
-      pendingWrites.add(e);
+    long getWrittenTill() {
+      return this.writtenTill;
+    }
+
+    /**
+     * Waits until the entries up to the given transaction id were written,
+     * and so have their sequence numbers, or the appender is gone.
+     */
+    void waitForWritten(long txid) {
+      while (this.writtenTill < txid && !this.finished) {
+        wakeUp();
+        LockSupport.parkNanos(this, SLOT_WAIT_NANOS);
+      }
     }
 
-    // Returns all currently pending writes. New writes
-    // will accumulate in a new list.
-    synchronized List<Entry> getPendingWrites() {
-      List<Entry> save = this.pendingWrites;
-      this.pendingWrites = new LinkedList<Entry>();
-      return save;
+    /**
+     * @return whether a write to the current writer failed
+     */
+    boolean hasFailedWrite() {
+      return this.writerFailed;
     }
 
-    // writes out pending entries to the HLog
-    void hlogFlush(Writer writer, List<Entry> pending) throws IOException {
-      if (pending == null) return;
+    /**
+     * Tells the appender the writer it failed to write to was replaced.
+     * Called with the writerLock held.
+     */
+    void writerRolled() {
+      this.writerFailed = false;
+    }
 
-      // write out all accumulated Entries to hdfs.
-      for (Entry e : pending) {
-        writer.append(e);
+    /**
+     * @return the write failure that the given entry was lost to, or null if
+     * the entry is not known to be lost
+     */
+    IOException getWriteFailure(long txid) {
+      if (txid > this.failedAfter && txid <= this.failedTill) {
+        return this.writeFailure;
       }
+      return null;
     }
 
-    void close() {
-      synchronized (closeLogSyncer) {
-        closeLogSyncer.set(true);
-        closeLogSyncer.notifyAll();
+    void wakeUp() {
+      if (this.waiting) {
+        LockSupport.unpark(getThread());
       }
     }
-  }
 
-  // sync all known transactions
-  private void syncer() throws IOException {
-    syncer(this.unflushedEntries.get()); // sync all pending items
-  }
+    void close() {
+      this.closing = true;
+      LockSupport.unpark(getThread());
+    }
 
-  // sync all transactions upto the specified txid
-  private void syncer(long txid) throws IOException {
-    Writer tempWriter;
-    synchronized (this.updateLock) {
-      if (this.closed) return;
-      // Guaranteed non-null.
-      // Note that parallel sync can close tempWriter.
-      // The current method of dealing with this is to catch exceptions.
-      // See HBASE-4387, HBASE-5623, HBASE-7329.
-      tempWriter = this.writer;
-    }
-    // if the transaction that we are interested in is already 
-    // synced, then return immediately.
-    if (txid <= this.syncedTillHere) {
-      return;
+    /**
+     * @return highest transaction id such that it and all before it were
+     * published
+     */
+    private long availableTill() {
+      long available = this.writtenTill;
+      long limit = available + this.slots.length;
+      while (available < limit &&
+          this.published.get((int) (available + 1) & this.mask) == available + 1) {
+        available++;
+      }
+      return available;
     }
-    try {
-      long doneUpto;
-      long now = EnvironmentEdgeManager.currentTimeMillis();
-      // First flush all the pending writes to HDFS. Then 
-      // issue the sync to HDFS. If sync is successful, then update
-      // syncedTillHere to indicate that transactions till this
-      // number has been successfully synced.
-      synchronized (flushLock) {
-        if (txid <= this.syncedTillHere) {
-          return;
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          boolean stopping = this.closing || isInterrupted();
+          takeSyncRequests();
+          long available = availableTill();
+          if (available > this.writtenTill) {
+            write(available);
+          }
+          long now = EnvironmentEdgeManager.currentTimeMillis();
+          if (this.writtenTill > syncedTillHere && (stopping ||
+              !this.pendingSyncs.isEmpty() ||
+              now - this.lastSyncTime >= this.optionalFlushInterval)) {
+            sync(now);
+          }
+          completeSyncs(null);
+          if (stopping) {
+            if (availableTill() == this.writtenTill) {
+              if (this.writtenTill >= unflushedEntries.get()) {
+                break;
+              }
+              // A handler is still filling its slot
+              LockSupport.parkNanos(this, SLOT_WAIT_NANOS);
+            }
+            continue;
+          }
+          this.waiting = true;
+          if (availableTill() == this.writtenTill &&
+              this.syncRequests.isEmpty() && !this.closing) {
+            LockSupport.parkNanos(this, this.optionalFlushInterval * 1000000L);
+          }
+          this.waiting = false;
         }
-        doneUpto = this.unflushedEntries.get();
-        List<Entry> pending = logSyncerThread.getPendingWrites();
-        try {
-          logSyncerThread.hlogFlush(tempWriter, pending);
-        } catch(IOException io) {
-          synchronized (this.updateLock) {
-            // HBASE-4387, HBASE-5623, retry with updateLock held
-            tempWriter = this.writer;
-            logSyncerThread.hlogFlush(tempWriter, pending);
+      } finally {
+        this.finished = true;
+        completeSyncs(new IOException("Cannot sync; log is closed"));
+        failSyncRequests();
+        LOG.info(getName() + " exiting");
+      }
+    }
+
+    private void takeSyncRequests() {
+      SyncFuture future;
+      while ((future = this.syncRequests.poll()) != null) {
+        this.pendingSyncs.add(future);
+      }
+    }
+
+    /**
+     * Writes out the published entries up to the given transaction id.
+     */
+    private void write(long available) {
+      IOException error = null;
+      writerLock.lock();
+      try {
+        for (long txid = this.writtenTill + 1; txid <= available; txid++) {
+          RingBufferSlot slot = this.slots[(int) txid & this.mask];
+          HRegionInfo info = slot.info;
+          HLogKey key = slot.key;
+          WALEdit edit = slot.edit;
+          HTableDescriptor htd = slot.htd;
+          slot.info = null;
+          slot.key = null;
+          slot.edit = null;
+          slot.htd = null;
+          try {
+            long seqNum;
+            // The 'oldestUnflushedSeqNums' map holds the sequence number of the oldest
+            // write for each store (i.e. the first edit added to the particular
+            // memstore). When the cache is flushed, the entries for the
+            // stores being flushed are removed. The sequence number is taken
+            // together with the record, so a flush never gets a lower one
+            // than an edit it does not see recorded.
+            synchronized (oldestSeqNumsLock) {
+              seqNum = obtainSeqNum();
+              recordOldestUnflushed(info.getEncodedNameAsBytes(), edit, seqNum);
+            }
+            key.setLogSeqNum(seqNum);
+            doWrite(info, key, edit, htd);
+          } catch (IOException e) {
+            if (!this.writerFailed) {
+              this.writeFailure = e;
+              this.failedAfter = syncedTillHere;
+              this.writerFailed = true;
+            }
+            error = e;
           }
+          if (this.writerFailed) {
+            this.failedTill = txid;
+          }
+          this.writtenTill = txid;
         }
+      } finally {
+        writerLock.unlock();
       }
-      // another thread might have sync'ed avoid double-sync'ing
-      if (txid <= this.syncedTillHere) {
-        return;
+      this.consumedTill = available;
+      if (error != null) {
+        // doWrite requested a log roll already
+        completeSyncs(error);
       }
+    }
+
+    /**
+     * Syncs everything written so far with a single call.
+     */
+    private void sync(long now) {
+      long syncTill = this.writtenTill;
+      Writer tempWriter = null;
+      writerLock.lock();
       try {
-        tempWriter.sync();
-      } catch(IOException ex) {
-        synchronized (this.updateLock) {
-          // HBASE-4387, HBASE-5623, retry with updateLock held
-          // TODO: we don't actually need to do it for concurrent close - what is the point
-          //       of syncing new unrelated writer? Keep behavior for now.
-          tempWriter = this.writer;
+        // Syncing a writer that lost a write would pass off the entries
+        // written after it as synced. The roll was requested already.
+        if (!closed && writer != null && !this.writerFailed) {
+          tempWriter = writer;
           tempWriter.sync();
+          syncedTillHere = Math.max(syncedTillHere, syncTill);
         }
+      } catch (IOException e) {
+        LOG.fatal("Could not sync. Requesting close of hlog", e);
+        requestLogRoll();
+        completeSyncs(e);
+        return;
+      } finally {
+        writerLock.unlock();
+        this.lastSyncTime = now;
       }
-      this.syncedTillHere = Math.max(this.syncedTillHere, doneUpto);
-
-      this.metrics.finishSync(EnvironmentEdgeManager.currentTimeMillis() - now);
-      // TODO: preserving the old behavior for now, but this check is strange. It's not
-      //       protected by any locks here, so for all we know rolling locks might start
-      //       as soon as we enter the "if". Is this best-effort optimization check?
-      if (!this.logRollRunning) {
+      if (tempWriter == null) {
+        return;
+      }
+      metrics.finishSync(EnvironmentEdgeManager.currentTimeMillis() - now);
+      if (!logRollRunning) {
         checkLowReplication();
         try {
-          if (tempWriter.getLength() > this.logrollsize) {
+          if (tempWriter.getLength() > logrollsize) {
             requestLogRoll();
           }
         } catch (IOException x) {
           LOG.debug("Log roll failed and will be retried. (This is not an error)");
         }
       }
-    } catch (IOException e) {
-      LOG.fatal("Could not sync. Requesting close of hlog", e);
-      requestLogRoll();
-      throw e;
+    }
+
+    /**
+     * Completes the pending sync requests that are synced, or fails the ones
+     * whose entries were written but could not be synced.
+     * @param error the write or sync failure, null if none
+     */
+    private void completeSyncs(IOException error) {
+      Iterator<SyncFuture> it = this.pendingSyncs.iterator();
+      while (it.hasNext()) {
+        SyncFuture future = it.next();
+        IOException lost = getWriteFailure(future.getTxid());
+        if (lost != null) {
+          future.done(lost);
+          it.remove();
+        } else if (future.getTxid() <= syncedTillHere) {
+          future.done(null);
+          it.remove();
+        } else if (error != null &&
+            (future.getTxid() <= this.writtenTill || this.finished)) {
+          future.done(error);
+          it.remove();
+        }
+      }
+    }
+
+    /**
+     * Fails the sync requests nobody will take any more once the appender
+     * is gone.
+     */
+    private void failSyncRequests() {
+      IOException error = new IOException("Cannot sync; log is closed");
+      SyncFuture future;
+      while ((future = this.syncRequests.poll()) != null) {
+        IOException lost = getWriteFailure(future.getTxid());
+        future.done(lost != null ? lost :
+            future.getTxid() <= syncedTillHere ? null : error);
+      }
     }
   }
 
@@ -1209,19 +1488,45 @@ class FSHLog implements HLog, Syncable {
   }
 
   public void hsync() throws IOException {
-    syncer();
+    sync();
   }
 
   public void hflush() throws IOException {
-    syncer();
+    sync();
   }
 
   public void sync() throws IOException {
-    syncer();
+    // sync all pending items
+    sync(this.unflushedEntries.get());
   }
 
   public void sync(long txid) throws IOException {
-    syncer(txid);
+    IOException lost = this.appender.getWriteFailure(txid);
+    if (lost != null) {
+      throw lost;
+    }
+    // if the transaction that we are interested in is already
+    // synced, then return immediately.
+    if (txid <= this.syncedTillHere || this.closed) {
+      return;
+    }
+    SyncFuture future = new SyncFuture(txid);
+    this.appender.requestSync(future);
+    future.get();
+  }
+
+  @Override
+  public void sync(long txid, SyncListener listener) {
+    IOException lost = this.appender.getWriteFailure(txid);
+    if (lost != null) {
+      listener.syncCompleted(lost);
+      return;
+    }
+    if (txid <= this.syncedTillHere || this.closed) {
+      listener.syncCompleted(null);
+      return;
+    }
+    this.appender.requestSync(new SyncFuture(txid, listener));
   }
 
   private void requestLogRoll() {
@@ -1232,6 +1537,10 @@ class FSHLog implements HLog, Syncable {
     }
   }
 
+  /**
+   * Writes one entry to the current writer. Called by the appender thread,
+   * in transaction order, with the writerLock held.
+   */
   protected void doWrite(HRegionInfo info, HLogKey logKey, WALEdit logEdit,
                            HTableDescriptor htd)
   throws IOException {
@@ -1247,8 +1556,8 @@ class FSHLog implements HLog, Syncable {
       long now = EnvironmentEdgeManager.currentTimeMillis();
       // coprocessor hook:
       if (!coprocessorHost.preWALWrite(info, logKey, logEdit)) {
-        // write to our buffer for the Hlog file.
-        logSyncerThread.append(new FSHLog.Entry(logKey, logEdit));
+        // write to the Hlog file; the appender syncs it with its batch.
+        this.writer.append(new FSHLog.Entry(logKey, logEdit));
       }
       long took = EnvironmentEdgeManager.currentTimeMillis() - now;
       coprocessorHost.postWALWrite(info, logKey, logEdit);
@@ -1280,19 +1589,77 @@ class FSHLog implements HLog, Syncable {
     return outputfiles.size();
   }
 
+  /*
+   * Records the sequence id of an edit as the oldest unflushed one of the
+   * stores it touches, unless they already have an older one. Called with
+   * oldestSeqNumsLock held.
+   */
+  private void recordOldestUnflushed(final byte[] encodedRegionName,
+      final WALEdit edit, final long seqNum) {
+    Map<byte[], Long> storeSeqNums = this.oldestUnflushedSeqNums.get(encodedRegionName);
+    KeyValue last = null;
+    for (KeyValue kv : edit.getKeyValues()) {
+      // Most edits touch a single family; only look up the family once
+      if ((last != null && kv.matchingFamily(last)) || kv.matchingFamily(HLog.METAFAMILY)) {
+        continue;
+      }
+      last = kv;
+      if (storeSeqNums == null) {
+        storeSeqNums = new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+        this.oldestUnflushedSeqNums.put(encodedRegionName, storeSeqNums);
+      }
+      byte[] family = kv.getFamily();
+      if (!storeSeqNums.containsKey(family)) {
+        storeSeqNums.put(family, Long.valueOf(seqNum));
+      }
+    }
+  }
+
   @Override
   public Long startCacheFlush(final byte[] encodedRegionName) {
+    return startCacheFlush(encodedRegionName, null);
+  }
+
+  @Override
+  public Long startCacheFlush(final byte[] encodedRegionName,
+      final Collection<byte[]> families) {
     Long oldRegionSeqNum = null;
+    long flushSeqNum;
     if (!closeBarrier.beginOp()) {
       return null;
     }
+    // The caller holds off the updates of the region, so its edits were all
+    // published already. Let the appender give them their sequence numbers
+    // and record them as unflushed, so that they all go with this flush and
+    // are below its sequence number.
+    this.appender.waitForWritten(this.unflushedEntries.get());
     synchronized (oldestSeqNumsLock) {
-      oldRegionSeqNum = this.oldestUnflushedSeqNums.remove(encodedRegionName);
-      if (oldRegionSeqNum != null) {
-        Long oldValue = this.oldestFlushingSeqNums.put(encodedRegionName, oldRegionSeqNum);
-        assert oldValue == null : "Flushing map not cleaned up for "
-          + Bytes.toString(encodedRegionName);
+      Map<byte[], Long> unflushed = this.oldestUnflushedSeqNums.get(encodedRegionName);
+      if (unflushed != null) {
+        Map<byte[], Long> flushing = new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+        if (families == null) {
+          flushing.putAll(unflushed);
+        } else {
+          for (byte[] family : families) {
+            Long seqNum = unflushed.get(family);
+            if (seqNum != null) {
+              flushing.put(family, seqNum);
+            }
+          }
+        }
+        unflushed.keySet().removeAll(flushing.keySet());
+        if (unflushed.isEmpty()) {
+          this.oldestUnflushedSeqNums.remove(encodedRegionName);
+        }
+        if (!flushing.isEmpty()) {
+          oldRegionSeqNum = getOldest(flushing);
+          Map<byte[], Long> oldValue =
+            this.oldestFlushingSeqNums.put(encodedRegionName, flushing);
+          assert oldValue == null : "Flushing map not cleaned up for "
+            + Bytes.toString(encodedRegionName);
+        }
       }
+      flushSeqNum = obtainSeqNum();
     }
     if (oldRegionSeqNum == null) {
       // TODO: if we have no oldRegionSeqNum, and WAL is not disabled, presumably either
@@ -1303,7 +1670,7 @@ class FSHLog implements HLog, Syncable {
       LOG.warn("Couldn't find oldest seqNum for the region we are about to flush: ["
         + Bytes.toString(encodedRegionName) + "]");
     }
-    return obtainSeqNum();
+    return flushSeqNum;
   }
 
   @Override
@@ -1319,15 +1686,24 @@ class FSHLog implements HLog, Syncable {
   public void abortCacheFlush(byte[] encodedRegionName) {
     Long currentSeqNum = null, seqNumBeforeFlushStarts = null;
     synchronized (oldestSeqNumsLock) {
-      seqNumBeforeFlushStarts = this.oldestFlushingSeqNums.remove(encodedRegionName);
-      if (seqNumBeforeFlushStarts != null) {
-        currentSeqNum =
-          this.oldestUnflushedSeqNums.put(encodedRegionName, seqNumBeforeFlushStarts);
+      Map<byte[], Long> flushing = this.oldestFlushingSeqNums.remove(encodedRegionName);
+      if (flushing != null) {
+        Map<byte[], Long> unflushed = this.oldestUnflushedSeqNums.get(encodedRegionName);
+        if (unflushed == null) {
+          unflushed = new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+          this.oldestUnflushedSeqNums.put(encodedRegionName, unflushed);
+        }
+        for (Map.Entry<byte[], Long> e : flushing.entrySet()) {
+          Long current = unflushed.put(e.getKey(), e.getValue());
+          if (current != null && current.longValue() <= e.getValue().longValue()) {
+            currentSeqNum = current;
+            seqNumBeforeFlushStarts = e.getValue();
+          }
+        }
       }
     }
     closeBarrier.endOp();
-    if ((currentSeqNum != null)
-        && (currentSeqNum.longValue() <= seqNumBeforeFlushStarts.longValue())) {
+    if (currentSeqNum != null) {
       String errorStr = "Region " + Bytes.toString(encodedRegionName) +
           "acquired edits out of order current memstore seq=" + currentSeqNum
           + ", previous oldest unflushed id=" + seqNumBeforeFlushStarts;
@@ -1401,8 +1777,10 @@ class FSHLog implements HLog, Syncable {
 
   @Override
   public long getEarliestMemstoreSeqNum(byte[] encodedRegionName) {
-    Long result = oldestUnflushedSeqNums.get(encodedRegionName);
-    return result == null ? HConstants.NO_SEQNUM : result.longValue();
+    synchronized (oldestSeqNumsLock) {
+      Map<byte[], Long> storeSeqNums = oldestUnflushedSeqNums.get(encodedRegionName);
+      return storeSeqNums == null ? HConstants.NO_SEQNUM : getOldest(storeSeqNums);
+    }
   }
 
   /**
@@ -23,6 +23,7 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collection;
 import java.util.NavigableSet;
 import java.util.UUID;
 import java.util.regex.Pattern;
@@ -88,6 +89,20 @@ public interface HLog {
     long getLength() throws IOException;
   }
 
+  /**
+   * Notified when a sync asked for with {@link HLog#sync(long, SyncListener)}
+   * completes.
+   */
+  public interface SyncListener {
+    /**
+     * Called once the requested transaction and all before it are synced,
+     * or the sync failed. It may run on the thread that writes the log, so it
+     * must not block.
+     * @param e why the sync failed, or null if it succeeded
+     */
+    void syncCompleted(IOException e);
+  }
+
   /**
    * Utility class that lets us keep track of the edit with it's key Only used
    * when splitting logs
@@ -315,6 +330,15 @@ public interface HLog {
 
   public void sync(long txid) throws IOException;
 
+  /**
+   * Like {@link #sync(long)}, but does not wait for the sync. The listener
+   * is called once the transaction is synced; that may happen before this
+   * method returns.
+   * @param txid should sync up to which transaction
+   * @param listener notified when the sync completes
+   */
+  public void sync(long txid, SyncListener listener);
+
   /**
    * Obtain a log sequence number.
    */
@@ -331,12 +355,28 @@ public interface HLog {
    * in case of flush succeeding, the seqNum of that first edit after start becomes the
    * valid oldest seqNum for this region.
    *
+   * The caller must hold off appends for the region. This waits until the edits appended
+   * before the call have their seqNums, so that the flush takes all of them and returns a
+   * seqNum above them.
+   *
    * @return current seqNum, to pass on to flushers (who will put it into the metadata of
    *         the resulting file as an upper-bound seqNum for that file), or NULL if flush
    *         should not be started.
    */
   public Long startCacheFlush(final byte[] encodedRegionName);
 
+  /**
+   * Like {@link #startCacheFlush(byte[])}, for a flush of some of the stores of the region
+   * only. The oldest seqNums of the other stores stay in place, so the log files holding
+   * their edits are kept.
+   *
+   * @param encodedRegionName Encoded region name.
+   * @param families Families of the stores to flush, or null for all of them.
+   * @return current seqNum, or NULL if flush should not be started.
+   */
+  public Long startCacheFlush(final byte[] encodedRegionName,
+      final Collection<byte[]> families);
+
   /**
    * Complete the cache flush.
    * @param encodedRegionName Encoded region name.
@@ -29,11 +29,29 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.regionserver.wal.HLog.Reader;
 import org.apache.hadoop.hbase.regionserver.wal.HLog.Writer;
+import org.apache.hadoop.hbase.util.Bytes;
 
 public class HLogFactory {
     private static final Log LOG = LogFactory.getLog(HLogFactory.class);
+
+    /**
+     * Number of WALs a region server writes to. Each region goes to one of
+     * them, chosen by {@link #getWALGroup(HRegionInfo, Configuration)}.
+     */
+    public static final String WAL_GROUPS_KEY = "hbase.regionserver.hlog.groups";
+
+    /**
+     * How regions are assigned to a WAL group: "region" spreads the regions
+     * by the hash of their encoded name, "table" keeps all the regions of a
+     * table in the same group.
+     */
+    public static final String WAL_GROUPING_KEY = "hbase.regionserver.hlog.grouping";
+
+    /** Appended to the log file prefix, with the group number, for groups past the first */
+    static final String WAL_GROUP_SEPARATOR = "-wal";
     
     public static HLog createHLog(final FileSystem fs, final Path root, final String logName,
         final Configuration conf) throws IOException {
@@ -58,6 +76,49 @@ public class HLogFactory {
             conf, listeners, false, prefix, true);
     }
     
+    /**
+     * Creates the WAL of a group past the first. It lives in the same
+     * directory as the first one, which is the one created by
+     * {@link #createHLog(FileSystem, Path, String, Configuration, List, String)},
+     * and its files are told apart by their prefix.
+     * @param group the group number, at least one
+     */
+    public static HLog createGroupHLog(final FileSystem fs, final Path root,
+        final String logName, final Configuration conf,
+        final List<WALActionsListener> listeners, final String prefix,
+        final int group) throws IOException {
+      return new FSHLog(fs, root, logName, HConstants.HREGION_OLDLOGDIR_NAME,
+            conf, listeners, false, getWALGroupPrefix(prefix, group), false);
+    }
+
+    /**
+     * @return the number of WALs to write to, at least one
+     */
+    public static int getNumWALGroups(final Configuration conf) {
+      return Math.max(1, conf.getInt(WAL_GROUPS_KEY, 1));
+    }
+
+    /**
+     * @return the WAL group the edits of the passed region go to
+     */
+    public static int getWALGroup(final HRegionInfo info, final Configuration conf) {
+      int groups = getNumWALGroups(conf);
+      if (groups == 1) {
+        return 0;
+      }
+      byte [] key = "table".equals(conf.get(WAL_GROUPING_KEY, "region")) ?
+          info.getTableName() : info.getEncodedNameAsBytes();
+      return (Bytes.hashCode(key) & Integer.MAX_VALUE) % groups;
+    }
+
+    /**
+     * @return the log file prefix of a WAL group; the first group keeps the
+     * passed prefix so a single WAL names its files as before
+     */
+    public static String getWALGroupPrefix(final String prefix, final int group) {
+      return group == 0 ? prefix : prefix + WAL_GROUP_SEPARATOR + group;
+    }
+
     /*
      * WAL Reader
      */
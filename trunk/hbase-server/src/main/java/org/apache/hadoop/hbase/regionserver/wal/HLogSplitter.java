@@ -25,7 +25,9 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -217,6 +219,7 @@ public class HLogSplitter {
     }
     logAndReport("Splitting " + logfiles.length + " hlog(s) in "
     + srcDir.toString());
+    Arrays.sort(logfiles, LOG_FILE_ORDER);
     splits = splitLog(logfiles);
 
     splitTime = EnvironmentEdgeManager.currentTimeMillis() - startTime;
@@ -259,6 +262,36 @@ public class HLogSplitter {
     this.distributedLogSplittingHelper = helper;
   }
 
+  /**
+   * Orders the hlogs of a region server by WAL group, then by when they were
+   * started. The edits of a region all go to one of the WALs of a region
+   * server, so this reads them in the order they were written whatever the
+   * number of WALs.
+   */
+  static final Comparator<FileStatus> LOG_FILE_ORDER = new Comparator<FileStatus>() {
+    @Override
+    public int compare(FileStatus a, FileStatus b) {
+      String aName = a.getPath().getName();
+      String bName = b.getPath().getName();
+      int c = HLogUtil.getWALPrefix(aName).compareTo(HLogUtil.getWALPrefix(bName));
+      if (c != 0) {
+        return c;
+      }
+      try {
+        return Long.valueOf(getFileNum(aName)).compareTo(getFileNum(bName));
+      } catch (NumberFormatException e) {
+        return aName.compareTo(bName);
+      }
+    }
+
+    private long getFileNum(String name) {
+      if (name.endsWith(HLog.META_HLOG_FILE_EXTN)) {
+        name = name.substring(0, name.length() - HLog.META_HLOG_FILE_EXTN.length());
+      }
+      return Long.parseLong(name.substring(name.lastIndexOf('.') + 1));
+    }
+  };
+
   /**
    * Splits the HLog edits in the given list of logfiles (that are a mix of edits
    * on multiple regions) by region and then splits them per region directories,
@@ -286,6 +286,27 @@ public class HLogUtil {
     return filesSorted;
   }
 
+  /**
+   * Returns the prefix of a hlog file name. The files of a WAL all have the
+   * same prefix, so it tells which of the WALs of a region server, see
+   * {@link HLogFactory#getWALGroup(org.apache.hadoop.hbase.HRegionInfo, Configuration)},
+   * wrote the file.
+   * @param hlogName name of the hlog file, e.g.
+   *          <code>10.20.20.171%3A60020.1277499063250</code>
+   * @return the prefix, e.g. <code>10.20.20.171%3A60020</code>, with the meta
+   *         extension kept for meta hlogs
+   */
+  public static String getWALPrefix(final String hlogName) {
+    String name = hlogName;
+    String extension = "";
+    if (name.endsWith(HLog.META_HLOG_FILE_EXTN)) {
+      name = name.substring(0, name.length() - HLog.META_HLOG_FILE_EXTN.length());
+      extension = HLog.META_HLOG_FILE_EXTN;
+    }
+    int index = name.lastIndexOf('.');
+    return (index < 0 ? name : name.substring(0, index)) + extension;
+  }
+
   public static boolean isMetaFile(Path p) {
     if (p.getName().endsWith(HLog.META_HLOG_FILE_EXTN)) {
       return true;
@@ -18,7 +18,7 @@
 
 package org.apache.hadoop.hbase.regionserver.wal;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -32,6 +32,12 @@ import com.google.common.base.Preconditions;
  * to take in the worst case is about:
  * <code>(2 ^ 15) * 5 (Regionname, Row key, CF, Column qual, table) * 100 bytes (these are some big names) = ~16MB</code>.
  * If you want to get silly, even at 1kb entries, it maxes out at 160 megabytes.
+ * <p>
+ * Lookups run for every row, family and qualifier written to a compressed
+ * WAL, so they do not allocate: the hashtable and the list are primitive
+ * arrays indexed by dictionary index. Only an entry that gets added is
+ * copied. Indexes are handed out, and evicted, in the same order as before,
+ * so logs written with earlier versions still read back.
  */
 @InterfaceAudience.Private
 public class LRUDictionary implements Dictionary {
@@ -65,24 +71,40 @@ public class LRUDictionary implements Dictionary {
   /*
    * Internal class used to implement LRU eviction and dual lookup (by key and
    * value).
-   * 
+   *
+   * Entries live at their index in the arrays. The LRU list is threaded
+   * through the prev and next arrays, and the open addressing hashtable,
+   * with linear probing, holds the index of the entry in each used slot.
+   *
    * This is not thread safe. Don't use in multi-threaded applications.
    */
   static class BidirectionalLRUMap {
     static final int MAX_SIZE = Short.MAX_VALUE;
+    // Keeps the table at most half full
+    private static final int TABLE_SIZE = Integer.highestOneBit(MAX_SIZE) << 2;
+    private static final int TABLE_MASK = TABLE_SIZE - 1;
+    private static final short EMPTY = -1;
+
     private int currSize = 0;
 
     // Head and tail of the LRU list.
-    private Node head;
-    private Node tail;
+    private int head = EMPTY;
+    private int tail = EMPTY;
 
-    private HashMap<Node, Short> nodeToIndex = new HashMap<Node, Short>();
-    private Node[] indexToNode = new Node[MAX_SIZE];
+    private final byte[][] entries = new byte[MAX_SIZE][];
+    private final int[] hashes = new int[MAX_SIZE];
+    private final short[] prev = new short[MAX_SIZE]; // link towards the head
+    private final short[] next = new short[MAX_SIZE]; // link towards the tail
+    private final short[] table = new short[TABLE_SIZE];
 
     public BidirectionalLRUMap() {
-      for (int i = 0; i < MAX_SIZE; i++) {
-        indexToNode[i] = new Node();
-      }
+      Arrays.fill(table, EMPTY);
+    }
+
+    private static int hash(byte[] array, int offset, int length) {
+      int h = Bytes.hashCode(array, offset, length);
+      // Spread the high bits down, the table only looks at the low ones
+      return h ^ (h >>> 16);
     }
 
     private short put(byte[] array, int offset, int length) {
@@ -91,126 +113,133 @@ public class LRUDictionary implements Dictionary {
       byte[] stored = new byte[length];
       Bytes.putBytes(stored, 0, array, offset, length);
 
+      short idx;
       if (currSize < MAX_SIZE) {
         // There is space to add without evicting.
-        indexToNode[currSize].setContents(stored, 0, stored.length);
-        setHead(indexToNode[currSize]);
-        short ret = (short) currSize++;
-        nodeToIndex.put(indexToNode[ret], ret);
-        return ret;
+        idx = (short) currSize++;
       } else {
-        short s = nodeToIndex.remove(tail);
-        tail.setContents(stored, 0, stored.length);
-        // we need to rehash this.
-        nodeToIndex.put(tail, s);
-        moveToHead(tail);
-        return s;
+        idx = (short) tail;
+        removeFromTable(idx);
+        unlink(idx);
       }
+      entries[idx] = stored;
+      hashes[idx] = hash(stored, 0, length);
+      addToTable(idx);
+      setHead(idx);
+      return idx;
     }
 
     private short findIdx(byte[] array, int offset, int length) {
-      Short s;
-      final Node comparisonNode = new Node();
-      comparisonNode.setContents(array, offset, length);
-      if ((s = nodeToIndex.get(comparisonNode)) != null) {
-        moveToHead(indexToNode[s]);
-        return s;
-      } else {
-        return -1;
+      int hash = hash(array, offset, length);
+      for (int slot = hash & TABLE_MASK; table[slot] != EMPTY;
+          slot = (slot + 1) & TABLE_MASK) {
+        short idx = table[slot];
+        byte[] entry = entries[idx];
+        if (hashes[idx] == hash &&
+            Bytes.equals(entry, 0, entry.length, array, offset, length)) {
+          moveToHead(idx);
+          return idx;
+        }
       }
+      return -1;
     }
 
     private byte[] get(short idx) {
       Preconditions.checkElementIndex(idx, currSize);
-      moveToHead(indexToNode[idx]);
-      return indexToNode[idx].container;
+      moveToHead(idx);
+      return entries[idx];
     }
 
-    private void moveToHead(Node n) {
-      if (head == n) {
-        // no-op -- it's already the head.
-        return;
-      }
-      // At this point we definitely have prev, since it's not the head.
-      assert n.prev != null;
-      // Unlink prev.
-      n.prev.next = n.next;
-
-      // Unlink next
-      if (n.next != null) {
-        n.next.prev = n.prev;
-      } else {
-        assert n == tail;
-        tail = n.prev;
+    /**
+     * Adds the entry to the table. An equal entry already there is replaced,
+     * so lookups find the most recently added of the two.
+     */
+    private void addToTable(short idx) {
+      int slot = hashes[idx] & TABLE_MASK;
+      byte[] entry = entries[idx];
+      while (table[slot] != EMPTY) {
+        short other = table[slot];
+        if (hashes[other] == hashes[idx] && Bytes.equals(entry, entries[other])) {
+          break;
+        }
+        slot = (slot + 1) & TABLE_MASK;
       }
-      // Node is now removed from the list. Re-add it at the head.
-      setHead(n);
+      table[slot] = idx;
     }
-    
-    private void setHead(Node n) {
-      // assume it's already unlinked from the list at this point.
-      n.prev = null;
-      n.next = head;
-      if (head != null) {
-        assert head.prev == null;
-        head.prev = n;
-      }
-
-      head = n;
 
-      // First entry
-      if (tail == null) {
-        tail = n;
+    private void removeFromTable(short idx) {
+      int slot = hashes[idx] & TABLE_MASK;
+      while (table[slot] != idx) {
+        if (table[slot] == EMPTY) {
+          // Was replaced by an equal entry added later
+          return;
+        }
+        slot = (slot + 1) & TABLE_MASK;
       }
-    }
-
-    private void clear() {
-      currSize = 0;
-      nodeToIndex.clear();
-      tail = null;
-      head = null;
-
-      for (Node n : indexToNode) {
-        n.container = null;
+      // Shift back the entries of the probe run that follows, so that every
+      // entry stays reachable from its home slot
+      int hole = slot;
+      for (int j = (slot + 1) & TABLE_MASK; table[j] != EMPTY;
+          j = (j + 1) & TABLE_MASK) {
+        int home = hashes[table[j]] & TABLE_MASK;
+        boolean homeInGap = hole <= j ?
+            (hole < home && home <= j) : (hole < home || home <= j);
+        if (!homeInGap) {
+          table[hole] = table[j];
+          hole = j;
+        }
       }
+      table[hole] = EMPTY;
+    }
 
-      for (int i = 0; i < MAX_SIZE; i++) {
-        indexToNode[i].next = null;
-        indexToNode[i].prev = null;
+    private void moveToHead(short idx) {
+      if (head == idx) {
+        // no-op -- it's already the head.
+        return;
       }
+      unlink(idx);
+      // Node is now removed from the list. Re-add it at the head.
+      setHead(idx);
     }
 
-    private static class Node {
-      byte[] container;
-      int offset;
-      int length;
-      Node next; // link towards the tail
-      Node prev; // link towards the head
-
-      public Node() {
+    private void unlink(short idx) {
+      short p = prev[idx];
+      short n = next[idx];
+      if (p != EMPTY) {
+        next[p] = n;
+      } else {
+        head = n;
       }
-
-      private void setContents(byte[] container, int offset, int length) {
-        this.container = container;
-        this.offset = offset;
-        this.length = length;
+      if (n != EMPTY) {
+        prev[n] = p;
+      } else {
+        tail = p;
       }
+    }
 
-      @Override
-      public int hashCode() {
-        return Bytes.hashCode(container, offset, length);
+    private void setHead(short idx) {
+      // assume it's already unlinked from the list at this point.
+      prev[idx] = EMPTY;
+      next[idx] = (short) head;
+      if (head != EMPTY) {
+        assert prev[head] == EMPTY;
+        prev[head] = idx;
       }
 
-      @Override
-      public boolean equals(Object other) {
-        if (!(other instanceof Node)) {
-          return false;
-        }
+      head = idx;
 
-        Node casted = (Node) other;
-        return Bytes.equals(container, offset, length, casted.container,
-            casted.offset, casted.length);
+      // First entry
+      if (tail == EMPTY) {
+        tail = idx;
       }
     }
+
+    private void clear() {
+      currSize = 0;
+      tail = EMPTY;
+      head = EMPTY;
+      Arrays.fill(entries, null);
+      Arrays.fill(table, EMPTY);
+    }
   }
 }
@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
@@ -41,6 +42,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.Stoppable;
+import org.apache.hadoop.hbase.regionserver.wal.HLogUtil;
 import org.apache.hadoop.hbase.replication.ReplicationZookeeper;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperListener;
 import org.apache.hadoop.hbase.zookeeper.ZooKeeperWatcher;
@@ -51,7 +53,9 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 /**
  * This class is responsible to manage all the replication
  * sources. There are two classes of sources:
- * <li> Normal sources are persistent and one per peer cluster</li>
+ * <li> Normal sources are persistent and one per peer cluster and WAL group.
+ * The region server may write to several WALs at once, each a sequence of
+ * hlogs with their own prefix; a source follows the hlogs of one of them</li>
  * <li> Old sources are recovered from a failed region server and our
  * only goal is to finish replicating the HLog queue it had up in ZK</li>
  *
@@ -77,8 +81,11 @@ public class ReplicationSourceManager {
   private final Map<String, SortedSet<String>> hlogsById;
   private final Configuration conf;
   private final FileSystem fs;
-  // The path to the latest log we saw, for new coming sources
-  private Path latestPath;
+  // The path to the latest log we saw of each WAL group, for new coming sources
+  private final Map<String, Path> latestPaths = new HashMap<String, Path>();
+  // The WAL group each normal source follows, null until it got its first log
+  private final Map<ReplicationSourceInterface, String> sourceGroups =
+      new HashMap<ReplicationSourceInterface, String>();
   // List of all the other region servers in this cluster
   private final List<String> otherRegionServers = new ArrayList<String>();
   // Path to the hlogs directories
@@ -158,11 +165,16 @@ public class ReplicationSourceManager {
     synchronized (this.hlogsById) {
       SortedSet<String> hlogs = this.hlogsById.get(id);
       if (!queueRecovered && !hlogs.first().equals(key)) {
-        SortedSet<String> hlogSet = hlogs.headSet(key);
-        for (String hlog : hlogSet) {
-          this.zkHelper.removeLogFromList(hlog, id);
+        // Older logs of other WAL groups may still be being replicated
+        String group = HLogUtil.getWALPrefix(key);
+        Iterator<String> it = hlogs.headSet(key).iterator();
+        while (it.hasNext()) {
+          String hlog = it.next();
+          if (group.equals(HLogUtil.getWALPrefix(hlog))) {
+            this.zkHelper.removeLogFromList(hlog, id);
+            it.remove();
+          }
         }
-        hlogSet.clear();
       }
     }
   }
@@ -195,32 +207,59 @@ public class ReplicationSourceManager {
   }
 
   /**
-   * Add a new normal source to this region server
+   * Add a new normal source to this region server, one for each WAL group
+   * seen so far
    * @param id the id of the peer cluster
-   * @return the source that was created
+   * @return the source that was created for the first WAL group
    * @throws IOException
    */
   public ReplicationSourceInterface addSource(String id) throws IOException {
-    ReplicationSourceInterface src =
-        getReplicationSource(this.conf, this.fs, this, stopper, replicating, id);
+    ReplicationSourceInterface first = null;
     synchronized (this.hlogsById) {
-      this.sources.add(src);
       this.hlogsById.put(id, new TreeSet<String>());
-      // Add the latest hlog to that source's queue
-      if (this.latestPath != null) {
-        String name = this.latestPath.getName();
-        this.hlogsById.get(id).add(name);
-        try {
-          this.zkHelper.addLogToList(name, src.getPeerClusterZnode());
-        } catch (KeeperException ke) {
-          String message = "Cannot add log to zk for" +
-            " replication when creating a new source";
-          stopper.stop(message);
-          throw new IOException(message, ke);
+      if (this.latestPaths.isEmpty()) {
+        // It follows the WAL group of the first log rolled
+        first = addGroupSource(id, null);
+      }
+      for (Map.Entry<String, Path> e : this.latestPaths.entrySet()) {
+        ReplicationSourceInterface src = addGroupSource(id, e.getKey());
+        if (first == null) {
+          first = src;
         }
-        src.enqueueLog(this.latestPath);
       }
     }
+    return first;
+  }
+
+  /**
+   * Add a new normal source following one WAL group, and give it the latest
+   * hlog of the group. Presumes we're inside a hlogsById lock scope.
+   * @param id the id of the peer cluster
+   * @param group the WAL group, null if not known yet
+   * @return the source that was created
+   * @throws IOException
+   */
+  private ReplicationSourceInterface addGroupSource(String id, String group)
+      throws IOException {
+    ReplicationSourceInterface src =
+        getReplicationSource(this.conf, this.fs, this, stopper, replicating, id);
+    this.sources.add(src);
+    this.sourceGroups.put(src, group);
+    // Add the latest hlog to that source's queue
+    Path latestPath = group == null ? null : this.latestPaths.get(group);
+    if (latestPath != null) {
+      String name = latestPath.getName();
+      this.hlogsById.get(id).add(name);
+      try {
+        this.zkHelper.addLogToList(name, src.getPeerClusterZnode());
+      } catch (KeeperException ke) {
+        String message = "Cannot add log to zk for" +
+          " replication when creating a new source";
+        stopper.stop(message);
+        throw new IOException(message, ke);
+      }
+      src.enqueueLog(latestPath);
+    }
     src.startup();
     return src;
   }
@@ -269,17 +308,22 @@ public class ReplicationSourceManager {
           throw new IOException("Cannot add log to zk for replication", ke);
         }
       }
+      String group = HLogUtil.getWALPrefix(name);
       for (SortedSet<String> hlogs : this.hlogsById.values()) {
         if (this.sources.isEmpty()) {
           // If there's no slaves, don't need to keep the old hlogs since
           // we only consider the last one when a new slave comes in
-          hlogs.clear();
+          Iterator<String> it = hlogs.iterator();
+          while (it.hasNext()) {
+            if (group.equals(HLogUtil.getWALPrefix(it.next()))) {
+              it.remove();
+            }
+          }
         }
         hlogs.add(name);
       }
+      this.latestPaths.put(group, newLog);
     }
-
-    this.latestPath = newLog;
   }
 
   void postLogRoll(Path newLog) throws IOException {
@@ -289,8 +333,26 @@ public class ReplicationSourceManager {
     }
 
     // This only updates the sources we own, not the recovered ones
-    for (ReplicationSourceInterface source : this.sources) {
-      source.enqueueLog(newLog);    
+    String group = HLogUtil.getWALPrefix(newLog.getName());
+    synchronized (this.hlogsById) {
+      List<String> peersWithoutSource = new ArrayList<String>(this.hlogsById.keySet());
+      for (ReplicationSourceInterface source : this.sources) {
+        String sourceGroup = this.sourceGroups.get(source);
+        if (sourceGroup == null &&
+            peersWithoutSource.contains(source.getPeerClusterId())) {
+          // A source waiting for its first log
+          sourceGroup = group;
+          this.sourceGroups.put(source, group);
+        }
+        if (group.equals(sourceGroup)) {
+          source.enqueueLog(newLog);
+          peersWithoutSource.remove(source.getPeerClusterId());
+        }
+      }
+      // First log of a WAL group
+      for (String id : peersWithoutSource) {
+        addGroupSource(id, group);
+      }
     }
   }
 
@@ -374,7 +436,6 @@ public class ReplicationSourceManager {
         + sources.size() + " and another "
         + oldsources.size() + " that were recovered");
     String terminateMessage = "Replication stream was removed by a user";
-    ReplicationSourceInterface srcToRemove = null;
     List<ReplicationSourceInterface> oldSourcesToDelete =
         new ArrayList<ReplicationSourceInterface>();
     // First close all the recovered sources for this peer
@@ -389,19 +450,25 @@ public class ReplicationSourceManager {
     }
     LOG.info("Number of deleted recovered sources for " + id + ": "
         + oldSourcesToDelete.size());
-    // Now look for the one on this cluster
-    for (ReplicationSourceInterface src : this.sources) {
-      if (id.equals(src.getPeerClusterId())) {
-        srcToRemove = src;
-        break;
+    // Now look for the ones on this cluster, one per WAL group
+    List<ReplicationSourceInterface> srcsToRemove =
+        new ArrayList<ReplicationSourceInterface>();
+    synchronized (this.hlogsById) {
+      for (ReplicationSourceInterface src : this.sources) {
+        if (id.equals(src.getPeerClusterId())) {
+          srcsToRemove.add(src);
+        }
+      }
+      if (srcsToRemove.isEmpty()) {
+        LOG.error("The queue we wanted to close is missing " + id);
+        return;
+      }
+      for (ReplicationSourceInterface src : srcsToRemove) {
+        src.terminate(terminateMessage);
+        this.sources.remove(src);
+        this.sourceGroups.remove(src);
       }
     }
-    if (srcToRemove == null) {
-      LOG.error("The queue we wanted to close is missing " + id);
-      return;
-    }
-    srcToRemove.terminate(terminateMessage);
-    this.sources.remove(srcToRemove);
     this.zkHelper.deleteSource(id, true);
   }
 
@@ -99,6 +99,17 @@ public class TestScan {
     Assert.assertNull(scan.getAttributesMap().get("attribute1"));
   }
 
+  @Test
+  public void testSmallScanSerialization() throws IOException {
+    Scan scan = new Scan();
+    Assert.assertFalse(scan.isSmall());
+    scan.setSmall(true);
+
+    Scan scan2 = ProtobufUtil.toScan(ProtobufUtil.toScan(scan));
+    Assert.assertTrue(scan2.isSmall());
+    Assert.assertTrue(new Scan(scan2).isSmall());
+  }
+
   @Test
   public void testNullQualifier() {
     Scan scan = new Scan();
@@ -17,7 +17,9 @@
 package org.apache.hadoop.hbase.client;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -25,6 +27,8 @@ import java.util.List;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
 import org.apache.hadoop.hbase.HTestConst;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.MediumTests;
@@ -424,6 +428,134 @@ public class TestScannersFromClientSide {
 
   }
 
+  /**
+   * Test that a small scan returns the same rows as a regular one across
+   * region boundaries, with and without a stop row, and when the result size
+   * ends batches early.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testSmallScan() throws Exception {
+    byte [] TABLE = Bytes.toBytes("testSmallScan");
+    HTableDescriptor desc = new HTableDescriptor(TABLE);
+    desc.addFamily(new HColumnDescriptor(FAMILY));
+    byte [][] splits = new byte [][] {
+      Bytes.toBytes("row025"), Bytes.toBytes("row050"), Bytes.toBytes("row075") };
+    TEST_UTIL.getHBaseAdmin().createTable(desc, splits);
+    HTable ht = new HTable(TEST_UTIL.getConfiguration(), TABLE);
+
+    List<Put> puts = new ArrayList<Put>();
+    for (int i = 0; i < 100; i += 3) {
+      Put put = new Put(Bytes.toBytes(String.format("row%03d", i)));
+      put.add(FAMILY, QUALIFIER, VALUE);
+      puts.add(put);
+    }
+    ht.put(puts);
+
+    for (int caching : new int[] { 1, 7, 100 }) {
+      verifySmallScan(ht, new Scan(), caching);
+      verifySmallScan(ht, new Scan(Bytes.toBytes("row020"),
+          Bytes.toBytes("row060")), caching);
+    }
+
+    // Batches cut short by the result size resume in the same region
+    Scan sizeLimited = new Scan();
+    sizeLimited.setMaxResultSize(1);
+    verifySmallScan(ht, sizeLimited, 100);
+
+    // A batch can only resume at the start of a row
+    Scan batchScan = new Scan();
+    batchScan.setSmall(true);
+    batchScan.setBatch(1);
+    try {
+      ht.getScanner(batchScan);
+      fail("Small scans should not accept setBatch");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+    ht.close();
+  }
+
+  /**
+   * Test that a scan prefetching in the background returns the same rows as
+   * a regular one, with the read ahead limited by rows and by size.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testAsyncPrefetchScan() throws Exception {
+    byte [] TABLE = Bytes.toBytes("testAsyncPrefetchScan");
+    HTableDescriptor desc = new HTableDescriptor(TABLE);
+    desc.addFamily(new HColumnDescriptor(FAMILY));
+    byte [][] splits = new byte [][] {
+      Bytes.toBytes("row030"), Bytes.toBytes("row060") };
+    TEST_UTIL.getHBaseAdmin().createTable(desc, splits);
+    HTable ht = new HTable(TEST_UTIL.getConfiguration(), TABLE);
+
+    List<Put> puts = new ArrayList<Put>();
+    for (int i = 0; i < 100; i++) {
+      Put put = new Put(Bytes.toBytes(String.format("row%03d", i)));
+      put.add(FAMILY, QUALIFIER, VALUE);
+      puts.add(put);
+    }
+    ht.put(puts);
+
+    for (long maxResultSize : new long[] { 1, 1024, -1 }) {
+      Scan scan = new Scan();
+      scan.setCaching(7);
+      scan.setMaxResultSize(maxResultSize);
+      scan.setAsyncPrefetch(true);
+      ResultScanner scanner = ht.getScanner(scan);
+      assertTrue(scanner instanceof ClientAsyncPrefetchScanner);
+      int i = 0;
+      for (Result result : scanner) {
+        assertTrue(Bytes.equals(Bytes.toBytes(String.format("row%03d", i)),
+            result.getRow()));
+        i++;
+      }
+      assertEquals(100, i);
+      assertNull(scanner.next());
+      scanner.close();
+    }
+
+    // Closing early must not wait for the prefetching to finish
+    Scan scan = new Scan();
+    scan.setCaching(1);
+    scan.setAsyncPrefetch(true);
+    ResultScanner scanner = ht.getScanner(scan);
+    assertTrue(Bytes.equals(Bytes.toBytes("row000"), scanner.next().getRow()));
+    scanner.close();
+    assertNull(scanner.next());
+    ht.close();
+  }
+
+  private void verifySmallScan(HTable ht, Scan scan, int caching)
+      throws Exception {
+    List<Result> expected = new ArrayList<Result>();
+    ResultScanner scanner = ht.getScanner(new Scan(scan));
+    for (Result result : scanner) {
+      expected.add(result);
+    }
+    scanner.close();
+
+    Scan smallScan = new Scan(scan);
+    smallScan.setSmall(true);
+    smallScan.setCaching(caching);
+    scanner = ht.getScanner(smallScan);
+    assertTrue(scanner instanceof ClientSmallScanner);
+    List<Result> actual = new ArrayList<Result>();
+    for (Result result : scanner) {
+      actual.add(result);
+    }
+    scanner.close();
+
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertTrue(Bytes.equals(expected.get(i).getRow(), actual.get(i).getRow()));
+    }
+  }
+
   static void verifyResult(Result result, List<KeyValue> expKvList, boolean toLog,
       String msg) {
 
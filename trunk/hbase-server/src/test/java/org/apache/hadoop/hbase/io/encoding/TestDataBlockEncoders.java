@@ -36,6 +36,7 @@ import org.apache.hadoop.hbase.io.compress.Compression;
 import org.apache.hadoop.hbase.io.hfile.HFileBlock;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.test.RedundantKVGenerator;
+import org.apache.hbase.Cell;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.junit.runner.RunWith;
@@ -318,6 +319,125 @@ public class TestDataBlockEncoders {
     }
   }
 
+  /**
+   * Test that the KeyValues handed out by a seeker stay valid while it moves
+   * on, and that keys compare in place like their copies do.
+   */
+  @Test
+  public void testKeyValuesAndCompareKeyOnSample() throws IOException {
+    List<KeyValue> sampleKv = generator.generateTestKeyValues(NUMBER_OF_KV);
+    ByteBuffer originalBuffer =
+        RedundantKVGenerator.convertKvToByteBuffer(sampleKv,
+            includesMemstoreTS);
+
+    for (DataBlockEncoding encoding : DataBlockEncoding.values()) {
+      if (encoding.getEncoder() == null) {
+        continue;
+      }
+      DataBlockEncoder encoder = encoding.getEncoder();
+      ByteBuffer encodedBuffer =
+          ByteBuffer.wrap(encodeBytes(encoding, originalBuffer));
+      DataBlockEncoder.EncodedSeeker seeker =
+          encoder.createSeeker(KeyValue.KEY_COMPARATOR, includesMemstoreTS);
+      List<KeyValue> kvs = new ArrayList<KeyValue>();
+      // Twice over, so that the second pass runs into arrays handed out
+      // during the first one if they were reused
+      for (int pass = 0; pass < 2; pass++) {
+        seeker.setCurrentBuffer(encodedBuffer.duplicate());
+        int i = 0;
+        do {
+          KeyValue expected = sampleKv.get(i);
+          ByteBuffer key = seeker.getKeyDeepCopy();
+          for (KeyValue other : new KeyValue[] { expected,
+              sampleKv.get(Math.max(0, i - 1)),
+              sampleKv.get(Math.min(sampleKv.size() - 1, i + 1)) }) {
+            int expectedCompare = KeyValue.KEY_COMPARATOR.compare(
+                other.getBuffer(), other.getKeyOffset(), other.getKeyLength(),
+                key.array(), key.arrayOffset(), key.limit());
+            int actualCompare = seeker.compareKey(KeyValue.KEY_COMPARATOR,
+                other.getBuffer(), other.getKeyOffset(), other.getKeyLength());
+            assertEquals(encoding + " compareKey at " + i,
+                Integer.signum(expectedCompare), Integer.signum(actualCompare));
+          }
+          kvs.add(seeker.getKeyValue());
+          i++;
+        } while (seeker.next());
+        assertEquals(sampleKv.size(), i);
+      }
+
+      for (int i = 0; i < kvs.size(); i++) {
+        KeyValue expected = sampleKv.get(i % sampleKv.size());
+        KeyValue actual = kvs.get(i);
+        assertEquals(encoding + " KeyValue " + i,
+            Bytes.toStringBinary(expected.getBuffer(), expected.getOffset(),
+                expected.getLength()),
+            Bytes.toStringBinary(actual.getBuffer(), actual.getOffset(),
+                actual.getLength()));
+        if (includesMemstoreTS) {
+          assertEquals(expected.getMemstoreTS(), actual.getMemstoreTS());
+        }
+      }
+    }
+  }
+
+  /**
+   * Test that the cell view of a seeker reads the same parts as the KeyValue
+   * it hands out, and sorts against other KeyValues the same way.
+   */
+  @Test
+  public void testCurrentCellOnSample() throws IOException {
+    List<KeyValue> sampleKv = generator.generateTestKeyValues(NUMBER_OF_KV);
+    ByteBuffer originalBuffer =
+        RedundantKVGenerator.convertKvToByteBuffer(sampleKv,
+            includesMemstoreTS);
+
+    for (DataBlockEncoding encoding : DataBlockEncoding.values()) {
+      if (encoding.getEncoder() == null) {
+        continue;
+      }
+      DataBlockEncoder encoder = encoding.getEncoder();
+      ByteBuffer encodedBuffer =
+          ByteBuffer.wrap(encodeBytes(encoding, originalBuffer));
+      DataBlockEncoder.EncodedSeeker seeker =
+          encoder.createSeeker(KeyValue.KEY_COMPARATOR, includesMemstoreTS);
+      seeker.setCurrentBuffer(encodedBuffer);
+      int i = 0;
+      do {
+        String where = encoding + " cell " + i;
+        KeyValue expected = seeker.getKeyValue();
+        Cell cell = seeker.getCurrentCell();
+        assertEquals(where, Bytes.toStringBinary(expected.getRow()),
+            Bytes.toStringBinary(cell.getRowArray(), cell.getRowOffset(),
+                cell.getRowLength()));
+        assertEquals(where, Bytes.toStringBinary(expected.getFamily()),
+            Bytes.toStringBinary(cell.getFamilyArray(), cell.getFamilyOffset(),
+                cell.getFamilyLength()));
+        assertEquals(where, Bytes.toStringBinary(expected.getQualifier()),
+            Bytes.toStringBinary(cell.getQualifierArray(),
+                cell.getQualifierOffset(), cell.getQualifierLength()));
+        assertEquals(where, expected.getTimestamp(), cell.getTimestamp());
+        assertEquals(where, expected.getTypeByte(), cell.getTypeByte());
+        assertEquals(where, expected.getMvccVersion(), cell.getMvccVersion());
+        assertEquals(where, Bytes.toStringBinary(expected.getValue()),
+            Bytes.toStringBinary(cell.getValueArray(), cell.getValueOffset(),
+                cell.getValueLength()));
+
+        for (KeyValue other : new KeyValue[] { expected,
+            sampleKv.get(Math.max(0, i - 1)),
+            sampleKv.get(Math.min(sampleKv.size() - 1, i + 1)) }) {
+          assertEquals(where, Integer.signum(
+              KeyValue.COMPARATOR.compare(other, expected)),
+              Integer.signum(KeyValue.COMPARATOR.compareCells(other, cell)));
+          assertEquals(where, Integer.signum(
+              KeyValue.COMPARATOR.compare(expected, other)),
+              Integer.signum(KeyValue.COMPARATOR.compareCells(cell, other)));
+        }
+        i++;
+      } while (seeker.next());
+      assertEquals(sampleKv.size(), i);
+    }
+  }
+
   private void checkSeekingConsistency(
       List<DataBlockEncoder.EncodedSeeker> encodedSeekers, boolean seekBefore,
       KeyValue keyValue) {
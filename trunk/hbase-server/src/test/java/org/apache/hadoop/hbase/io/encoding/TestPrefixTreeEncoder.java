@@ -0,0 +1,120 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.encoding;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.test.RedundantKVGenerator;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the prefix tree encoding on blocks of long, redundant rows.
+ */
+@Category(SmallTests.class)
+public class TestPrefixTreeEncoder {
+  private static final int NUM_ROWS = 500;
+  private static final int COLUMNS_PER_ROW = 4;
+  private static final byte[] FAMILY = Bytes.toBytes("family");
+
+  private static byte[] row(int i) {
+    return Bytes.toBytes(String.format(
+        "com.example.www/some/long/redundant/path/user%08d", i));
+  }
+
+  private static List<KeyValue> generateKeyValues() {
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    for (int i = 0; i < NUM_ROWS; i++) {
+      for (int j = 0; j < COLUMNS_PER_ROW; j++) {
+        kvs.add(new KeyValue(row(i), FAMILY, Bytes.toBytes("q" + j),
+            1234567890L + i % 3, Bytes.toBytes(i * COLUMNS_PER_ROW + j)));
+      }
+    }
+    return kvs;
+  }
+
+  private static ByteBuffer encode(BufferedDataBlockEncoder encoder,
+      ByteBuffer data) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    encoder.internalEncodeKeyValues(new DataOutputStream(baos), data, false);
+    return ByteBuffer.wrap(baos.toByteArray());
+  }
+
+  @Test
+  public void testSmallerThanPrefixEncoding() throws IOException {
+    ByteBuffer data = RedundantKVGenerator.convertKvToByteBuffer(
+        generateKeyValues(), false);
+    int prefixTree = encode(new PrefixTreeEncoder(), data).limit();
+    int prefix = encode(new PrefixKeyDeltaEncoder(), data).limit();
+    assertTrue("prefix tree " + prefixTree + ", prefix " + prefix,
+        prefixTree < prefix / 2);
+  }
+
+  @Test
+  public void testSeekToEveryKey() throws IOException {
+    List<KeyValue> kvs = generateKeyValues();
+    ByteBuffer encoded = encode(new PrefixTreeEncoder(),
+        RedundantKVGenerator.convertKvToByteBuffer(kvs, false));
+    DataBlockEncoder.EncodedSeeker seeker = new PrefixTreeEncoder()
+        .createSeeker(KeyValue.KEY_COMPARATOR, false);
+    seeker.setCurrentBuffer(encoded);
+
+    for (int i = 0; i < kvs.size(); i++) {
+      KeyValue kv = kvs.get(i);
+      seeker.rewind();
+      assertEquals(0, seeker.seekToKeyInBlock(kv.getBuffer(),
+          kv.getKeyOffset(), kv.getKeyLength(), false));
+      assertKeyValue(kv, seeker.getKeyValue());
+
+      if (i > 0) {
+        seeker.rewind();
+        assertEquals(1, seeker.seekToKeyInBlock(kv.getBuffer(),
+            kv.getKeyOffset(), kv.getKeyLength(), true));
+        assertKeyValue(kvs.get(i - 1), seeker.getKeyValue());
+      }
+    }
+
+    // Forward seeks from where the previous one ended, past row boundaries
+    seeker.rewind();
+    for (int i = 0; i < kvs.size(); i += 37) {
+      KeyValue firstOnRow = KeyValue.createFirstOnRow(kvs.get(i).getRow());
+      assertEquals(1, seeker.seekToKeyInBlock(firstOnRow.getBuffer(),
+          firstOnRow.getKeyOffset(), firstOnRow.getKeyLength(), false));
+      assertTrue(seeker.next());
+      assertTrue(Bytes.equals(kvs.get(i).getRow(),
+          seeker.getKeyValue().getRow()));
+    }
+  }
+
+  private static void assertKeyValue(KeyValue expected, KeyValue actual) {
+    assertEquals(Bytes.toStringBinary(expected.getBuffer(),
+        expected.getOffset(), expected.getLength()),
+        Bytes.toStringBinary(actual.getBuffer(), actual.getOffset(),
+            actual.getLength()));
+  }
+}
@@ -0,0 +1,222 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.encoding.DataBlockEncoding;
+import org.apache.hadoop.hbase.io.hfile.CachedBlock.BlockPriority;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.regionserver.StoreFile;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests that a compaction caches the output blocks built from cells of cached
+ * input blocks, with the priority of those blocks and within the configured
+ * share of the block cache, and leaves the other output blocks uncached.
+ */
+@Category(MediumTests.class)
+public class TestCacheHotBlocksOnCompaction {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+
+  private static final byte[] FAMILY = Bytes.toBytes("cf");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final int BLOCK_SIZE = 1024;
+  private static final int ROWS_PER_FILE = 500;
+  /** First row of the cold file; the hot file holds the rows before it */
+  private static final byte[] FIRST_COLD_ROW = row(ROWS_PER_FILE);
+
+  private Configuration conf;
+  private LruBlockCache blockCache;
+  private HRegion region;
+
+  @Before
+  public void setUp() {
+    conf = TEST_UTIL.getConfiguration();
+    conf.setBoolean(CacheConfig.CACHE_HOT_BLOCKS_ON_COMPACTION_KEY, true);
+    blockCache = (LruBlockCache) new CacheConfig(conf).getBlockCache();
+    blockCache.clearCache();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (region != null) {
+      HRegion.closeHRegion(region);
+      region = null;
+    }
+    conf.setBoolean(CacheConfig.CACHE_HOT_BLOCKS_ON_COMPACTION_KEY,
+        CacheConfig.DEFAULT_CACHE_HOT_BLOCKS_ON_COMPACTION);
+    conf.setFloat(CacheConfig.CACHE_HOT_BLOCKS_ON_COMPACTION_MAX_FRACTION_KEY,
+        CacheConfig.DEFAULT_CACHE_HOT_BLOCKS_ON_COMPACTION_MAX_FRACTION);
+    blockCache.clearCache();
+  }
+
+  @Test
+  public void testHotBlocksCachedWithSourcePriority() throws IOException {
+    Path compacted = compactHotAndColdFile("testHotBlocksCachedWithSourcePriority");
+    HFile.Reader reader = HFile.createReader(
+        TEST_UTIL.getTestFileSystem(), compacted, new CacheConfig(conf));
+    try {
+      HFileBlockIndex.BlockIndexReader index = reader.getDataBlockIndexReader();
+      int numBlocks = index.getRootBlockCount();
+      assertTrue(numBlocks > 4);
+      int hot = 0;
+      int cold = 0;
+      for (int i = 0; i < numBlocks; i++) {
+        CachedBlock cached = blockCache.getCachedBlock(dataBlockKey(reader, index, i));
+        if (Bytes.compareTo(firstRow(index, i), FIRST_COLD_ROW) >= 0) {
+          // Only cells of the cold file
+          assertNull("Block " + i + " is cold", cached);
+          cold++;
+        } else if (i + 1 < numBlocks &&
+            Bytes.compareTo(firstRow(index, i + 1), FIRST_COLD_ROW) < 0) {
+          // Only cells of the hot file
+          assertTrue("Block " + i + " is hot", cached != null);
+          assertEquals(BlockPriority.MULTI, cached.getPriority());
+          hot++;
+        }
+      }
+      assertTrue(hot > 0);
+      assertTrue(cold > 0);
+    } finally {
+      reader.close(false);
+    }
+  }
+
+  @Test
+  public void testHotBlocksWithinBudget() throws IOException {
+    // Room for a few blocks only
+    long budget = 4 * BLOCK_SIZE * 2;
+    conf.setFloat(CacheConfig.CACHE_HOT_BLOCKS_ON_COMPACTION_MAX_FRACTION_KEY,
+        (float) budget / blockCache.getMaxSize());
+    Path compacted = compactHotAndColdFile("testHotBlocksWithinBudget");
+    HFile.Reader reader = HFile.createReader(
+        TEST_UTIL.getTestFileSystem(), compacted, new CacheConfig(conf));
+    try {
+      HFileBlockIndex.BlockIndexReader index = reader.getDataBlockIndexReader();
+      int numHotBlocks = 0;
+      List<CachedBlock> cached = new ArrayList<CachedBlock>();
+      for (int i = 0; i < index.getRootBlockCount(); i++) {
+        if (Bytes.compareTo(firstRow(index, i), FIRST_COLD_ROW) < 0) {
+          numHotBlocks++;
+        }
+        CachedBlock cb = blockCache.getCachedBlock(dataBlockKey(reader, index, i));
+        if (cb != null) {
+          cached.add(cb);
+        }
+      }
+      long cachedSize = 0;
+      for (CachedBlock cb : cached) {
+        cachedSize += cb.getBuffer().heapSize();
+      }
+      assertTrue(cached.size() > 0);
+      assertTrue(cached.size() < numHotBlocks);
+      assertTrue(cachedSize + " > " + budget, cachedSize <= budget);
+    } finally {
+      reader.close(false);
+    }
+  }
+
+  /**
+   * Writes a hot file, whose data blocks are all read twice into the block
+   * cache, and a cold file holding the rows after it, and compacts them.
+   * @return the path of the compacted file
+   */
+  private Path compactHotAndColdFile(String table) throws IOException {
+    region = TEST_UTIL.createTestRegion(table, new HColumnDescriptor(FAMILY)
+        .setBlocksize(BLOCK_SIZE)
+        .setDataBlockEncoding(DataBlockEncoding.NONE));
+    loadRows(0, ROWS_PER_FILE);
+    region.flushcache();
+    String hotFile = getOnlyStoreFile().getPath().getName();
+    loadRows(ROWS_PER_FILE, 2 * ROWS_PER_FILE);
+    region.flushcache();
+
+    // Reading twice makes the blocks multi-access
+    scanAll();
+    scanAll();
+    for (StoreFile sf : region.getStore(FAMILY).getStorefiles()) {
+      if (!sf.getPath().getName().equals(hotFile)) {
+        blockCache.evictBlocksByHfileName(sf.getPath().getName());
+      }
+    }
+
+    region.compactStores(true);
+    return getOnlyStoreFile().getPath();
+  }
+
+  private void loadRows(int start, int end) throws IOException {
+    byte[] value = new byte[100];
+    for (int i = start; i < end; i++) {
+      Put put = new Put(row(i));
+      put.add(FAMILY, QUALIFIER, value);
+      region.put(put);
+    }
+  }
+
+  private void scanAll() throws IOException {
+    RegionScanner scanner = region.getScanner(new Scan());
+    try {
+      List<KeyValue> results = new ArrayList<KeyValue>();
+      while (scanner.next(results)) {
+        results.clear();
+      }
+    } finally {
+      scanner.close();
+    }
+  }
+
+  private StoreFile getOnlyStoreFile() {
+    List<StoreFile> files = region.getStore(FAMILY).getStorefiles();
+    assertEquals(1, files.size());
+    return files.get(0);
+  }
+
+  private static byte[] row(int i) {
+    return Bytes.toBytes(String.format("row%05d", i));
+  }
+
+  private static byte[] firstRow(HFileBlockIndex.BlockIndexReader index, int i) {
+    return KeyValue.createKeyValueFromKey(index.getRootBlockKey(i)).getRow();
+  }
+
+  private static BlockCacheKey dataBlockKey(HFile.Reader reader,
+      HFileBlockIndex.BlockIndexReader index, int i) {
+    return new BlockCacheKey(reader.getName(), index.getRootBlockOffset(i),
+        DataBlockEncoding.NONE, BlockType.DATA);
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests that HFile scanners step over the data blocks whose timestamp range
+ * cannot match, and only those.
+ */
+@Category(SmallTests.class)
+public class TestDataBlockTimeRanges {
+  private static final HBaseTestingUtility TEST_UTIL =
+      new HBaseTestingUtility();
+
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] DELETED_QUALIFIER = Bytes.toBytes("p");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final int NUM_ROWS = 1000;
+  private static final int DELETE_ROW = 500;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private CacheConfig cacheConf;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = TEST_UTIL.getConfiguration();
+    fs = FileSystem.get(conf);
+    cacheConf = new CacheConfig(conf);
+  }
+
+  /**
+   * Writes one KeyValue per row with the row number as its timestamp, and a
+   * column delete marker in one row, in small blocks.
+   */
+  private Path writeFile(String name) throws IOException {
+    Path path = new Path(TEST_UTIL.getDataTestDir(), name);
+    HFile.Writer writer = HFile.getWriterFactory(conf, cacheConf)
+        .withPath(fs, path)
+        .withBlockSize(1024)
+        .withComparator(KeyValue.KEY_COMPARATOR)
+        .create();
+    for (int i = 0; i < NUM_ROWS; i++) {
+      byte[] row = Bytes.toBytes(String.format("row%04d", i));
+      if (i == DELETE_ROW) {
+        writer.append(new KeyValue(row, FAMILY, DELETED_QUALIFIER, i,
+            KeyValue.Type.DeleteColumn));
+      }
+      writer.append(new KeyValue(row, FAMILY, QUALIFIER, i, Bytes.toBytes(i)));
+    }
+    writer.close();
+    return path;
+  }
+
+  private List<KeyValue> scan(Path path, long minStamp, long maxStamp)
+      throws IOException {
+    HFile.Reader reader = HFile.createReader(fs, path, cacheConf);
+    HFileScanner scanner = reader.getScanner(false, false);
+    scanner.setTimeRange(minStamp, maxStamp);
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    if (scanner.seekTo()) {
+      do {
+        kvs.add(scanner.getKeyValue());
+      } while (scanner.next());
+    }
+    reader.close();
+    return kvs;
+  }
+
+  @Test
+  public void testTimeRangesRecorded() throws IOException {
+    Path path = writeFile("testTimeRangesRecorded");
+    HFileReaderV2 reader =
+        (HFileReaderV2) HFile.createReader(fs, path, cacheConf);
+    DataBlockTimeRanges ranges = reader.getDataBlockTimeRanges();
+    assertNotNull(ranges);
+    assertTrue(ranges.size() > 10);
+    assertEquals(reader.getTrailer().getFirstDataBlockOffset(),
+        ranges.getOffset(0));
+    assertEquals(reader.getTrailer().getLastDataBlockOffset(),
+        ranges.getOffset(ranges.size() - 1));
+    reader.close();
+  }
+
+  @Test
+  public void testSkipOlderAndNewerBlocks() throws IOException {
+    Path path = writeFile("testSkipOlderAndNewerBlocks");
+    HFile.getSkippedDataBlocksCount();
+    List<KeyValue> kvs = scan(path, 800, 900);
+    assertTrue(HFile.getSkippedDataBlocksCount() > 0);
+
+    // Every KeyValue in the range is there, in order, and most others are not
+    List<Long> inRange = new ArrayList<Long>();
+    for (KeyValue kv : kvs) {
+      if (kv.getTimestamp() >= 800 && kv.getTimestamp() < 900) {
+        inRange.add(kv.getTimestamp());
+      }
+    }
+    assertEquals(100, inRange.size());
+    for (int i = 0; i < inRange.size(); i++) {
+      assertEquals(800L + i, inRange.get(i).longValue());
+    }
+    assertTrue(kvs.size() < NUM_ROWS / 2);
+  }
+
+  @Test
+  public void testBlocksWithDeletesNotSkippedAsNewer() throws IOException {
+    Path path = writeFile("testBlocksWithDeletesNotSkippedAsNewer");
+    List<KeyValue> kvs = scan(path, 0, 100);
+    boolean sawDelete = false;
+    for (KeyValue kv : kvs) {
+      sawDelete |= kv.isDelete();
+    }
+    assertTrue(sawDelete);
+    assertTrue(kvs.size() < NUM_ROWS / 2);
+
+    // Too old is too old, deletes or not
+    kvs = scan(path, 600, 700);
+    for (KeyValue kv : kvs) {
+      assertTrue(!kv.isDelete());
+    }
+  }
+
+  @Test
+  public void testAllTimeReadsEverything() throws IOException {
+    Path path = writeFile("testAllTimeReadsEverything");
+    HFile.getSkippedDataBlocksCount();
+    assertEquals(NUM_ROWS + 1,
+        scan(path, Long.MIN_VALUE, Long.MAX_VALUE).size());
+    assertEquals(0, HFile.getSkippedDataBlocksCount());
+  }
+}
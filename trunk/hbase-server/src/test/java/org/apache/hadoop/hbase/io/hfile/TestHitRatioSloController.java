@@ -0,0 +1,144 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.SmallTests;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the control steps of the block cache hit ratio SLO controller.
+ */
+@Category(SmallTests.class)
+public class TestHitRatioSloController {
+
+  private final Map<Integer, Long> hits = new HashMap<Integer, Long>();
+  private final Map<Integer, Long> misses = new HashMap<Integer, Long>();
+  private final Map<Integer, Long> occupancy = new HashMap<Integer, Long>();
+
+  /** Adds one period worth of requests to the cumulative counters */
+  private void period(int workload, long periodHits, long periodMisses) {
+    hits.put(workload, (hits.containsKey(workload) ? hits.get(workload) : 0) + periodHits);
+    misses.put(workload,
+        (misses.containsKey(workload) ? misses.get(workload) : 0) + periodMisses);
+  }
+
+  @Test
+  public void testParseTargets() {
+    Map<Integer, Float> targets = HitRatioSloController.parseTargets(" 80:0.95, 90:0.5");
+    assertEquals(2, targets.size());
+    assertEquals(0.95f, targets.get(80), 0.0001f);
+    assertEquals(0.5f, targets.get(90), 0.0001f);
+    assertTrue(HitRatioSloController.parseTargets(null).isEmpty());
+    assertTrue(HitRatioSloController.parseTargets("").isEmpty());
+    for (String bad : new String[] { "80", "80:x", "80:1.5", "80:0" }) {
+      try {
+        HitRatioSloController.parseTargets(bad);
+        assertTrue("Expected failure parsing " + bad, false);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testViolationThrottlesOtherWorkloadsAndReservesShare() {
+    HitRatioSloController controller = new HitRatioSloController();
+    controller.setTarget(80, 0.9f);
+    occupancy.put(80, 100L);
+    occupancy.put(90, 900L);
+
+    period(80, 500, 500);
+    period(90, 500, 500);
+    controller.adjust(hits, misses, occupancy, 1000);
+
+    assertTrue(controller.getViolations().containsKey(80));
+    assertFalse(controller.getViolations().containsKey(90));
+    assertEquals(0.5f, controller.getAdmissionProbabilities().get(90), 0.0001f);
+    assertNull(controller.getAdmissionProbabilities().get(80));
+    // Grows from what it holds: 10% plus one step
+    assertEquals(0.15f, controller.getReservedShares().get(80), 0.0001f);
+    assertTrue(controller.getProtectedWorkloads(occupancy, 1000).contains(80));
+    assertTrue(controller.admit(80));
+
+    // Keep missing: the donor is throttled down to the minimum, and the
+    // reserved share to its limit, after which capacity is exhausted
+    for (int i = 0; i < 20; i++) {
+      period(80, 500, 500);
+      period(90, 500, 500);
+      controller.adjust(hits, misses, occupancy, 1000);
+    }
+    assertEquals(HitRatioSloController.MIN_ADMISSION,
+        controller.getAdmissionProbabilities().get(90), 0.0001f);
+    assertEquals(HitRatioSloController.MAX_RESERVED_SHARE,
+        controller.getReservedShares().get(80), 0.0001f);
+    assertTrue(controller.getViolations().get(80).contains("capacity exhausted"));
+
+    // Target met: admission recovers step by step
+    period(80, 950, 50);
+    period(90, 500, 500);
+    controller.adjust(hits, misses, occupancy, 1000);
+    assertTrue(controller.getViolations().isEmpty());
+    assertEquals(HitRatioSloController.MIN_ADMISSION
+        + HitRatioSloController.ADMISSION_RECOVERY_STEP,
+        controller.getAdmissionProbabilities().get(90), 0.0001f);
+    for (int i = 0; i < 20; i++) {
+      period(80, 950, 50);
+      controller.adjust(hits, misses, occupancy, 1000);
+    }
+    assertNull(controller.getAdmissionProbabilities().get(90));
+    assertTrue(controller.admit(90));
+  }
+
+  @Test
+  public void testSurplusReleasesShareAndQuietPeriodsAreIgnored() {
+    HitRatioSloController controller = new HitRatioSloController();
+    controller.setTarget(80, 0.5f);
+    occupancy.put(80, 0L);
+
+    // Too few requests to judge
+    period(80, 0, 10);
+    controller.adjust(hits, misses, occupancy, 1000);
+    assertTrue(controller.getViolations().isEmpty());
+    assertTrue(controller.getReservedShares().isEmpty());
+
+    period(80, 10, 990);
+    controller.adjust(hits, misses, occupancy, 1000);
+    assertEquals(HitRatioSloController.SHARE_STEP,
+        controller.getReservedShares().get(80), 0.0001f);
+    assertTrue(controller.getViolations().get(80).contains("no untargeted workload"));
+
+    period(80, 990, 10);
+    controller.adjust(hits, misses, occupancy, 1000);
+    assertEquals(HitRatioSloController.SHARE_STEP / 2,
+        controller.getReservedShares().get(80), 0.0001f);
+
+    controller.removeTarget(80);
+    controller.adjust(hits, misses, occupancy, 1000);
+    assertTrue(controller.getReservedShares().isEmpty());
+  }
+}
@@ -26,9 +26,11 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.Random;
 
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.HBaseTestingUtility;
 import org.apache.hadoop.hbase.SmallTests;
 import org.apache.hadoop.hbase.io.HeapSize;
+import org.apache.hadoop.hbase.io.hfile.CachedBlock.BlockPriority;
 import org.apache.hadoop.hbase.io.hfile.LruBlockCache.EvictionThread;
 import org.apache.hadoop.hbase.util.ClassSize;
 import org.junit.After;
@@ -430,6 +432,132 @@ public class TestLruBlockCache {
 
   }
 
+  @Test
+  public void testCacheBlockWithPriority() throws Exception {
+
+    long maxSize = 100000;
+    long blockSize = calculateBlockSize(maxSize, 10);
+
+    LruBlockCache cache = new LruBlockCache(maxSize, blockSize, false);
+
+    CachedItem [] blocks = generateFixedBlocks(2, blockSize, "block");
+
+    // Blocks rewritten from a multi-access block keep its priority and workload
+    cache.cacheBlock(blocks[0].cacheKey, blocks[0], BlockPriority.MULTI, 80);
+    cache.cacheBlock(blocks[1].cacheKey, blocks[1], false, 90);
+
+    CachedBlock cb = cache.getCachedBlock(blocks[0].cacheKey);
+    assertEquals(BlockPriority.MULTI, cb.getPriority());
+    assertEquals(80, cb.getCustomId());
+    assertEquals(BlockPriority.SINGLE,
+        cache.getCachedBlock(blocks[1].cacheKey).getPriority());
+
+    // Peeking at the cache is not an access
+    assertEquals(0, cache.getStats().getRequestCount());
+    assertEquals(0, cb.getNumAccesses());
+    assertEquals(null, cache.getCachedBlock(new BlockCacheKey("missing", 0)));
+    assertEquals(0, cache.getStats().getRequestCount());
+  }
+
+  @Test
+  public void testPinnedIndexAndBloomBlocks() throws Exception {
+
+    long maxSize = 100000;
+    long blockSize = calculateBlockSize(maxSize, 10);
+
+    LruBlockCache cache = new LruBlockCache(maxSize, blockSize, false,
+        (int)Math.ceil(1.2*maxSize/blockSize),
+        LruBlockCache.DEFAULT_LOAD_FACTOR,
+        LruBlockCache.DEFAULT_CONCURRENCY_LEVEL,
+        0.98f, // min
+        0.99f, // acceptable
+        0.25f, // single
+        0.50f, // multi
+        0.25f, // memory
+        0.25f); // pinned, room for two blocks
+
+    CachedItem [] dataBlocks = generateFixedBlocks(10, blockSize, "data");
+    CachedItem [] pinnedBlocks = new CachedItem [] {
+        new CachedItem("leafIndex", (int)blockSize, BlockType.LEAF_INDEX),
+        new CachedItem("bloomChunk", (int)blockSize, BlockType.BLOOM_CHUNK),
+        new CachedItem("intermediateIndex", (int)blockSize,
+            BlockType.INTERMEDIATE_INDEX)
+    };
+
+    cache.cacheBlock(pinnedBlocks[0].cacheKey, pinnedBlocks[0]);
+    cache.cacheBlock(pinnedBlocks[1].cacheKey, pinnedBlocks[1]);
+    long expectedPinnedSize = pinnedBlocks[0].cacheBlockHeapSize() +
+        pinnedBlocks[1].cacheBlockHeapSize();
+    assertEquals(expectedPinnedSize, cache.getPinnedSize());
+    assertEquals(expectedPinnedSize, cache.getPinnedSizePerTable()
+        .get(LruBlockCache.UNKNOWN_TABLE).longValue());
+
+    // A burst of data blocks only evicts data blocks
+    for (CachedItem block : dataBlocks) {
+      cache.cacheBlock(block.cacheKey, block);
+    }
+    assertTrue(cache.getEvictionCount() > 0);
+    assertTrue(cache.getBlock(pinnedBlocks[0].cacheKey, true, false) != null);
+    assertTrue(cache.getBlock(pinnedBlocks[1].cacheKey, true, false) != null);
+    assertEquals(expectedPinnedSize, cache.getPinnedSize());
+
+    // Overflowing the pinned region evicts the oldest pinned block
+    cache.cacheBlock(pinnedBlocks[2].cacheKey, pinnedBlocks[2]);
+    assertTrue(cache.getBlock(pinnedBlocks[0].cacheKey, true, false) == null);
+    assertTrue(cache.getBlock(pinnedBlocks[1].cacheKey, true, false) != null);
+    assertTrue(cache.getBlock(pinnedBlocks[2].cacheKey, true, false) != null);
+    assertEquals(pinnedBlocks[1].cacheBlockHeapSize() +
+        pinnedBlocks[2].cacheBlockHeapSize(), cache.getPinnedSize());
+  }
+
+  @Test
+  public void testPinnedOverflowOnlyEvictsPinnedBlocks() throws Exception {
+
+    long maxSize = 100000;
+    long blockSize = calculateBlockSize(maxSize, 10);
+
+    LruBlockCache cache = new LruBlockCache(maxSize, blockSize, false,
+        (int)Math.ceil(1.2*maxSize/blockSize),
+        LruBlockCache.DEFAULT_LOAD_FACTOR,
+        LruBlockCache.DEFAULT_CONCURRENCY_LEVEL,
+        0.50f, // min
+        0.99f, // acceptable
+        0.25f, // single
+        0.50f, // multi
+        0.25f, // memory
+        0.15f); // pinned, room for one block
+
+    CachedItem [] dataBlocks = generateFixedBlocks(6, blockSize, "data");
+    CachedItem [] pinnedBlocks = new CachedItem [] {
+        new CachedItem("leafIndex", (int)blockSize, BlockType.LEAF_INDEX),
+        new CachedItem("bloomChunk", (int)blockSize, BlockType.BLOOM_CHUNK)
+    };
+
+    // A reader and a writer of the same file; closing one keeps the mapping
+    Path path = new Path("/hbase/testTable/region/family/bloomChunk");
+    cache.registerHFile("bloomChunk", path);
+    cache.registerHFile("bloomChunk", path);
+    cache.unregisterHFile("bloomChunk");
+
+    cache.cacheBlock(pinnedBlocks[0].cacheKey, pinnedBlocks[0]);
+    for (CachedItem block : dataBlocks) {
+      cache.cacheBlock(block.cacheKey, block);
+    }
+    // The cache is above its minimum size but well under the acceptable one
+    assertTrue(cache.heapSize() > maxSize * 0.5f);
+
+    cache.cacheBlock(pinnedBlocks[1].cacheKey, pinnedBlocks[1]);
+    assertEquals(1, cache.getEvictedCount());
+    assertTrue(cache.getBlock(pinnedBlocks[0].cacheKey, true, false) == null);
+    assertTrue(cache.getBlock(pinnedBlocks[1].cacheKey, true, false) != null);
+    for (CachedItem block : dataBlocks) {
+      assertTrue(cache.getBlock(block.cacheKey, true, false) != null);
+    }
+    assertEquals(pinnedBlocks[1].cacheBlockHeapSize(), cache.getPinnedSize());
+    assertEquals(pinnedBlocks[1].cacheBlockHeapSize(),
+        cache.getPinnedSizePerTable().get("testTable").longValue());
+  }
+
   // test setMaxSize
   @Test
   public void testResizeBlockCache() throws Exception {
@@ -631,10 +759,16 @@ public class TestLruBlockCache {
   private static class CachedItem implements Cacheable {
     BlockCacheKey cacheKey;
     int size;
+    BlockType blockType;
 
     CachedItem(String blockName, int size) {
+      this(blockName, size, BlockType.DATA);
+    }
+
+    CachedItem(String blockName, int size, BlockType blockType) {
       this.cacheKey = new BlockCacheKey(blockName, 0);
       this.size = size;
+      this.blockType = blockType;
     }
 
     /** The size of this item reported to the block cache layer */
@@ -666,7 +800,7 @@ public class TestLruBlockCache {
     
     @Override
     public BlockType getBlockType() {
-      return BlockType.DATA;
+      return blockType;
     }
 
   }
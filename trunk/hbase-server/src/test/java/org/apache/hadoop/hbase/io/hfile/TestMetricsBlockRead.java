@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.metrics2.MetricHistogram;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+
+/**
+ * Tests that block read latencies are tagged and converted before they reach
+ * the histograms of the metrics source.
+ */
+@Category(SmallTests.class)
+public class TestMetricsBlockRead {
+
+  @Test
+  public void testLatenciesAreTaggedWithWorkloadTypeAndTable() {
+    MetricsBlockReadSource source = Mockito.mock(MetricsBlockReadSource.class);
+    MetricHistogram fsRead = mockHistogram(source, "80", "DATA", "usertable",
+        MetricsBlockReadSource.FS_READ_TIME);
+    MetricHistogram l1Hit = mockHistogram(source, "90", "INDEX", "usertable",
+        MetricsBlockReadSource.L1_HIT_TIME);
+    MetricHistogram l2Hit = mockHistogram(source, "90", "BLOOM", "usertable",
+        MetricsBlockReadSource.L2_HIT_TIME);
+    MetricHistogram decode = mockHistogram(source, "0", "DATA", "usertable",
+        MetricsBlockReadSource.DECODE_TIME);
+    MetricsBlockRead metrics = new MetricsBlockRead(source,
+        new Path("hdfs://localhost:8020/hbase/usertable/1588230740/info/3944417774205889744"));
+    assertEquals("usertable", metrics.getTable());
+
+    metrics.updateFsRead(80, BlockType.DATA, 5000000);
+    metrics.updateCacheHit(90, BlockType.LEAF_INDEX, true, 3000);
+    metrics.updateCacheHit(90, BlockType.BLOOM_CHUNK, false, 40000);
+    metrics.updateDecode(0, BlockType.ENCODED_DATA, 7000);
+
+    Mockito.verify(fsRead).add(5000);
+    Mockito.verify(l1Hit).add(3);
+    Mockito.verify(l2Hit).add(40);
+    Mockito.verify(decode).add(7);
+  }
+
+  @Test
+  public void testHistogramsAreLookedUpOnce() {
+    MetricsBlockReadSource source = Mockito.mock(MetricsBlockReadSource.class);
+    MetricHistogram fsRead = mockHistogram(source, "80", "DATA", "usertable",
+        MetricsBlockReadSource.FS_READ_TIME);
+    MetricsBlockRead metrics = new MetricsBlockRead(source,
+        new Path("/hbase/usertable/1588230740/info/3944417774205889744"));
+
+    metrics.updateFsRead(80, BlockType.DATA, 1000);
+    metrics.updateFsRead(80, BlockType.ENCODED_DATA, 2000);
+    metrics.updateFsRead(80, BlockType.DATA, 3000);
+
+    Mockito.verify(source, Mockito.times(1)).getHistogram("80", "DATA", "usertable",
+        MetricsBlockReadSource.FS_READ_TIME);
+    Mockito.verify(fsRead).add(1);
+    Mockito.verify(fsRead).add(2);
+    Mockito.verify(fsRead).add(3);
+  }
+
+  @Test
+  public void testUnknownTable() {
+    MetricsBlockReadSource source = Mockito.mock(MetricsBlockReadSource.class);
+    assertEquals(LruBlockCache.UNKNOWN_TABLE,
+        new MetricsBlockRead(source, new Path("/hfile")).getTable());
+    assertEquals(LruBlockCache.UNKNOWN_TABLE,
+        new MetricsBlockRead(source, null).getTable());
+  }
+
+  private static MetricHistogram mockHistogram(MetricsBlockReadSource source,
+      String workload, String blockCategory, String table, String metric) {
+    MetricHistogram histogram = Mockito.mock(MetricHistogram.class);
+    Mockito.when(source.getHistogram(workload, blockCategory, table, metric))
+        .thenReturn(histogram);
+    return histogram;
+  }
+}
@@ -18,8 +18,10 @@
  */
 package org.apache.hadoop.hbase.io.hfile.bucket;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -29,6 +31,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.SmallTests;
 import org.apache.hadoop.hbase.io.hfile.BlockCacheKey;
 import org.apache.hadoop.hbase.io.hfile.CacheTestUtils;
+import org.apache.hadoop.hbase.io.hfile.CacheTestUtils.HFileBlockPair;
 import org.apache.hadoop.hbase.io.hfile.Cacheable;
 import org.apache.hadoop.hbase.io.hfile.bucket.BucketAllocator.BucketSizeInfo;
 import org.apache.hadoop.hbase.io.hfile.bucket.BucketAllocator.IndexStatistics;
@@ -151,4 +154,50 @@ public class TestBucketCache {
     CacheTestUtils.testHeapSizeChanges(cache, BLOCK_SIZE);
   }
 
+  /**
+   * Blocks of a file backed cache are found again after a restart, through
+   * the block index persisted on shutdown.
+   */
+  @Test
+  public void testRetrieveFromFile() throws Exception {
+    String filePath = "testRetrieveFromFile";
+    String persistenceFile = "testRetrieveFromFile.persistence";
+    int numBlocks = 10;
+    try {
+      BucketCache fileCache = new BucketCache("file:" + filePath, capacitySize,
+          writeThreads, writerQLen, persistenceFile);
+      HFileBlockPair[] blocks = CacheTestUtils.generateHFileBlocks(BLOCK_SIZE,
+          numBlocks);
+      for (HFileBlockPair block : blocks) {
+        fileCache.cacheBlockWithWait(block.getBlockName(), block.getBlock(),
+            false, true);
+      }
+      while (fileCache.getIndexedBlockCount() < numBlocks) {
+        Thread.sleep(10);
+      }
+      long usedSize = fileCache.getAllocator().getUsedSize();
+      fileCache.shutdown();
+      assertTrue(new File(persistenceFile).exists());
+
+      fileCache = new BucketCache("file:" + filePath, capacitySize,
+          writeThreads, writerQLen, persistenceFile);
+      try {
+        assertEquals(numBlocks, fileCache.getBlockCount());
+        assertEquals(usedSize, fileCache.getAllocator().getUsedSize());
+        for (HFileBlockPair block : blocks) {
+          assertEquals(block.getBlock(),
+              fileCache.getBlock(block.getBlockName(), true, false));
+        }
+        assertEquals(1,
+            fileCache.evictBlocksByHfileName(blocks[0].getBlockName().getHfileName()));
+        assertEquals(numBlocks - 1, fileCache.getIndexedBlockCount());
+      } finally {
+        fileCache.shutdown();
+      }
+    } finally {
+      new File(filePath).delete();
+      new File(persistenceFile).delete();
+    }
+  }
+
 }
@@ -0,0 +1,171 @@
+/**
+ * Copyright The Apache Software Foundation
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with this
+ * work for additional information regarding copyright ownership. The ASF
+ * licenses this file to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.hadoop.hbase.io.hfile.bucket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.io.hfile.bucket.BucketCache.BlockPriority;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the off-heap (HFile, offset) to bucket location index.
+ */
+@Category(SmallTests.class)
+public class TestOffHeapBlockIndex {
+
+  @Test
+  public void testPutGetRemove() {
+    OffHeapBlockIndex index = new OffHeapBlockIndex(100, 4);
+    OffHeapBlockIndex.Entry entry = new OffHeapBlockIndex.Entry();
+
+    assertTrue(index.put("file1", 0, 1024, 100, BlockPriority.SINGLE, 1, (byte) 2));
+    assertTrue(index.put("file2", 0, 2048, 200, BlockPriority.MEMORY, 2, (byte) 3));
+    assertEquals(2, index.size());
+    assertEquals(2, index.getFileCount());
+
+    assertTrue(index.get("file1", 0, entry));
+    assertEquals("file1", entry.getHfileName());
+    assertEquals(1024, entry.getBucketOffset());
+    assertEquals(100, entry.getLength());
+    assertEquals(BlockPriority.SINGLE, entry.getPriority());
+    assertEquals(1, entry.getAccessTime());
+    assertEquals(2, entry.getDeserialiserIndex());
+
+    assertTrue(index.get("file2", 0, entry));
+    assertEquals(2048, entry.getBucketOffset());
+    assertEquals(BlockPriority.MEMORY, entry.getPriority());
+    assertFalse(index.get("file1", 1, entry));
+    assertFalse(index.get("file3", 0, entry));
+
+    // Replacing keeps the count
+    assertFalse(index.put("file1", 0, 4096, 100, BlockPriority.SINGLE, 5, (byte) 2));
+    assertEquals(2, index.size());
+    assertTrue(index.get("file1", 0, entry));
+    assertEquals(4096, entry.getBucketOffset());
+
+    // Conditional remove only matches the current location
+    assertFalse(index.remove("file1", 0, 1024));
+    assertTrue(index.remove("file1", 0, 4096));
+    assertFalse(index.contains("file1", 0));
+    assertEquals(1, index.size());
+    assertEquals(1, index.getFileCount());
+
+    assertTrue(index.remove("file2", 0, -1));
+    assertEquals(0, index.size());
+    assertEquals(0, index.getFileCount());
+  }
+
+  @Test
+  public void testAccessPromotesSingleToMulti() {
+    OffHeapBlockIndex index = new OffHeapBlockIndex(10, 1);
+    OffHeapBlockIndex.Entry entry = new OffHeapBlockIndex.Entry();
+    index.put("file", 64, 0, 10, BlockPriority.SINGLE, 1, (byte) 0);
+    index.put("file", 128, 256, 10, BlockPriority.MEMORY, 1, (byte) 0);
+
+    assertTrue(index.access("file", 64, 7));
+    assertTrue(index.get("file", 64, entry));
+    assertEquals(BlockPriority.MULTI, entry.getPriority());
+    assertEquals(7, entry.getAccessTime());
+
+    assertTrue(index.access("file", 128, 8));
+    assertTrue(index.get("file", 128, entry));
+    assertEquals(BlockPriority.MEMORY, entry.getPriority());
+
+    assertFalse(index.access("file", 192, 9));
+  }
+
+  @Test
+  public void testGrowAndReuseRemovedSlots() {
+    // Start tiny so that the segments have to grow and rehash
+    OffHeapBlockIndex index = new OffHeapBlockIndex(0, 2);
+    long initialSize = index.getOffHeapSize();
+    int numFiles = 20;
+    int blocksPerFile = 500;
+    for (int f = 0; f < numFiles; f++) {
+      for (int b = 0; b < blocksPerFile; b++) {
+        assertTrue(index.put("file" + f, b * 65536L, (f * blocksPerFile + b) * 256L,
+            b, BlockPriority.MULTI, b, (byte) 1));
+      }
+    }
+    assertEquals(numFiles * blocksPerFile, index.size());
+    assertTrue(index.getOffHeapSize() > initialSize);
+
+    OffHeapBlockIndex.Entry entry = new OffHeapBlockIndex.Entry();
+    for (int f = 0; f < numFiles; f++) {
+      for (int b = 0; b < blocksPerFile; b++) {
+        assertTrue(index.get("file" + f, b * 65536L, entry));
+        assertEquals((f * blocksPerFile + b) * 256L, entry.getBucketOffset());
+      }
+    }
+
+    List<Long> offsets = index.getBlockOffsets("file3");
+    assertEquals(blocksPerFile, offsets.size());
+    Set<Long> unique = new HashSet<Long>(offsets);
+    assertEquals(blocksPerFile, unique.size());
+
+    // Drop every block of half of the files, their ids get recycled
+    for (int f = 0; f < numFiles; f += 2) {
+      for (long offset : index.getBlockOffsets("file" + f)) {
+        assertTrue(index.remove("file" + f, offset, -1));
+      }
+    }
+    assertEquals(numFiles / 2, index.getFileCount());
+    for (int f = 0; f < numFiles; f += 2) {
+      for (int b = 0; b < blocksPerFile; b++) {
+        assertTrue(index.put("new" + f, b * 65536L, b, b, BlockPriority.SINGLE, b,
+            (byte) 1));
+      }
+    }
+    assertEquals(numFiles * blocksPerFile, index.size());
+    for (int f = 0; f < numFiles; f++) {
+      String name = (f % 2 == 0 ? "new" : "file") + f;
+      for (int b = 0; b < blocksPerFile; b++) {
+        assertTrue(index.get(name, b * 65536L, entry));
+        assertEquals(b, entry.getLength());
+      }
+    }
+    assertFalse(index.contains("file0", 0));
+    assertTrue(index.contains("new0", 0));
+    assertTrue(index.contains("file1", 0));
+
+    final int[] visited = new int[1];
+    index.scan(new OffHeapBlockIndex.Visitor() {
+      @Override
+      public void visit(OffHeapBlockIndex.Entry e) {
+        assertTrue(e.getHfileName().startsWith("file")
+            || e.getHfileName().startsWith("new"));
+        visited[0]++;
+      }
+    });
+    assertEquals(numFiles * blocksPerFile, visited[0]);
+
+    index.clear();
+    assertEquals(0, index.size());
+    assertEquals(0, index.getFileCount());
+    assertFalse(index.contains("file1", 0));
+  }
+}
@@ -31,6 +31,7 @@ import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.ServerName;
 import org.apache.hadoop.hbase.ZooKeeperConnectionException;
 import org.apache.hadoop.hbase.catalog.CatalogTracker;
+import org.apache.hadoop.hbase.executor.ExecutorService;
 import org.apache.hadoop.hbase.client.AdminProtocol;
 import org.apache.hadoop.hbase.client.ClientProtocol;
 import org.apache.hadoop.hbase.client.Get;
@@ -476,6 +477,11 @@ class MockRegionServer implements AdminProtocol, ClientProtocol, RegionServerSer
     return null;
   }
 
+  @Override
+  public ExecutorService getExecutorService() {
+    return null;
+  }
+
   @Override
   public HLog getWAL(HRegionInfo regionInfo) throws IOException {
     // TODO Auto-generated method stub
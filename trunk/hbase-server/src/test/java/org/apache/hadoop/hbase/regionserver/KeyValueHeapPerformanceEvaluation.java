@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.CollectionBackedScanner;
+
+/**
+ * Measures how fast {@link KeyValueHeap} merges a number of in-memory
+ * scanners, next to a plain PriorityQueue merge as the baseline. Two key
+ * layouts are run: keys spread uniformly over the scanners, where the current
+ * scanner changes on almost every key, and keys laid out in runs, where the
+ * current scanner stays on top for a while as with a large older file next to
+ * a few small recent ones.
+ * <p>
+ * Usage: KeyValueHeapPerformanceEvaluation [keys] [iterations]
+ */
+public class KeyValueHeapPerformanceEvaluation {
+  private static final int[] NUM_SCANNERS = { 2, 5, 10, 20, 50 };
+  private static final int DEFAULT_NUM_KEYS = 500000;
+  private static final int DEFAULT_ITERATIONS = 5;
+  private static final int RUN_LENGTH = 64;
+
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final byte[] VALUE = new byte[16];
+
+  private static final Comparator<KeyValueScanner> SCANNER_COMPARATOR =
+      new Comparator<KeyValueScanner>() {
+        @Override
+        public int compare(KeyValueScanner left, KeyValueScanner right) {
+          return KeyValue.COMPARATOR.compare(left.peek(), right.peek());
+        }
+      };
+
+  private final int numKeys;
+  private final int iterations;
+  private final KeyValue[] keys;
+
+  public KeyValueHeapPerformanceEvaluation(int numKeys, int iterations) {
+    this.numKeys = numKeys;
+    this.iterations = iterations;
+    this.keys = new KeyValue[numKeys];
+    for (int i = 0; i < numKeys; i++) {
+      keys[i] = new KeyValue(Bytes.toBytes(String.format("row%010d", i)),
+          FAMILY, QUALIFIER, VALUE);
+    }
+  }
+
+  /**
+   * Spreads the keys over the lists, in runs of the given length.
+   */
+  private List<List<KeyValue>> distribute(int numScanners, int runLength,
+      Random rand) {
+    List<List<KeyValue>> lists = new ArrayList<List<KeyValue>>(numScanners);
+    for (int i = 0; i < numScanners; i++) {
+      lists.add(new ArrayList<KeyValue>(numKeys / numScanners + 1));
+    }
+    List<KeyValue> target = null;
+    for (int i = 0; i < numKeys; i++) {
+      if (i % runLength == 0) {
+        target = lists.get(rand.nextInt(numScanners));
+      }
+      target.add(keys[i]);
+    }
+    return lists;
+  }
+
+  private static List<KeyValueScanner> toScanners(List<List<KeyValue>> lists) {
+    List<KeyValueScanner> scanners =
+        new ArrayList<KeyValueScanner>(lists.size());
+    for (List<KeyValue> list : lists) {
+      scanners.add(new CollectionBackedScanner(list));
+    }
+    return scanners;
+  }
+
+  private static long mergeWithHeap(List<List<KeyValue>> lists)
+      throws IOException {
+    KeyValueHeap heap = new KeyValueHeap(toScanners(lists), KeyValue.COMPARATOR);
+    long count = 0;
+    while (heap.next() != null) {
+      count++;
+    }
+    heap.close();
+    return count;
+  }
+
+  private static long mergeWithPriorityQueue(List<List<KeyValue>> lists)
+      throws IOException {
+    PriorityQueue<KeyValueScanner> queue =
+        new PriorityQueue<KeyValueScanner>(lists.size(), SCANNER_COMPARATOR);
+    for (KeyValueScanner scanner : toScanners(lists)) {
+      if (scanner.peek() != null) {
+        queue.add(scanner);
+      }
+    }
+    long count = 0;
+    KeyValueScanner scanner;
+    while ((scanner = queue.poll()) != null) {
+      scanner.next();
+      count++;
+      if (scanner.peek() != null) {
+        queue.add(scanner);
+      }
+    }
+    return count;
+  }
+
+  private void runOne(String layout, int numScanners, int runLength)
+      throws IOException {
+    List<List<KeyValue>> lists =
+        distribute(numScanners, runLength, new Random(numScanners));
+    // Warm up both code paths before timing them
+    mergeWithHeap(lists);
+    mergeWithPriorityQueue(lists);
+
+    long heapNs = 0;
+    long queueNs = 0;
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      long merged = mergeWithHeap(lists);
+      heapNs += System.nanoTime() - start;
+      if (merged != numKeys) {
+        throw new IllegalStateException("Merged " + merged + " of " + numKeys);
+      }
+      start = System.nanoTime();
+      mergeWithPriorityQueue(lists);
+      queueNs += System.nanoTime() - start;
+    }
+    double total = (double) numKeys * iterations;
+    System.out.println(String.format(
+        "%-8s scanners=%-3d KeyValueHeap %7.1f ns/key, PriorityQueue %7.1f ns/key",
+        layout, numScanners, heapNs / total, queueNs / total));
+  }
+
+  public void run() throws IOException {
+    for (int numScanners : NUM_SCANNERS) {
+      runOne("uniform", numScanners, 1);
+      runOne("runs", numScanners, RUN_LENGTH);
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int numKeys = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NUM_KEYS;
+    int iterations =
+        args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+    new KeyValueHeapPerformanceEvaluation(numKeys, iterations).run();
+  }
+}
@@ -18,6 +18,9 @@
 
 package org.apache.hadoop.hbase.regionserver;
 
+import java.util.Collections;
+import java.util.Map;
+
 public class MetricsRegionServerWrapperStub implements MetricsRegionServerWrapper {
 
   @Override
@@ -100,6 +103,16 @@ public class MetricsRegionServerWrapperStub implements MetricsRegionServerWrappe
     return 405;
   }
 
+  @Override
+  public long getRowLockWaitCount() {
+    return 460;
+  }
+
+  @Override
+  public long getRowLockWaitTime() {
+    return 461;
+  }
+
   @Override
   public long getStoreFileIndexSize() {
     return 406;
@@ -180,6 +193,71 @@ public class MetricsRegionServerWrapperStub implements MetricsRegionServerWrappe
     return 97;
   }
 
+  @Override
+  public long getBlockCachePinnedSize() {
+    return 420;
+  }
+
+  @Override
+  public Map<String, Long> getBlockCachePinnedSizePerTable() {
+    return Collections.singletonMap("testTable", 421L);
+  }
+
+  @Override
+  public long getRowCacheCount() {
+    return 440;
+  }
+
+  @Override
+  public long getRowCacheSize() {
+    return 441;
+  }
+
+  @Override
+  public long getRowCacheHitCount() {
+    return 442;
+  }
+
+  @Override
+  public long getRowCacheMissCount() {
+    return 443;
+  }
+
+  @Override
+  public long getRowCacheEvictedCount() {
+    return 444;
+  }
+
+  @Override
+  public long getRowCacheInvalidatedCount() {
+    return 445;
+  }
+
+  @Override
+  public Map<String, Long> getRowCacheHitCountPerWorkload() {
+    return Collections.singletonMap("80", 442L);
+  }
+
+  @Override
+  public Map<String, Long> getRowCacheMissCountPerWorkload() {
+    return Collections.singletonMap("80", 443L);
+  }
+
+  @Override
+  public long getMemStoreChunkPoolSize() {
+    return 450;
+  }
+
+  @Override
+  public long getMemStoreChunkPoolHitCount() {
+    return 451;
+  }
+
+  @Override
+  public long getMemStoreChunkPoolMissCount() {
+    return 452;
+  }
+
 
   @Override
   public long getUpdatesBlockedTime() {
@@ -0,0 +1,113 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how many memstore inserts per second a single
+ * {@link MultiVersionConsistencyControl} lets through as the number of
+ * writing threads grows, the way all the handlers writing to one region
+ * share its mvcc. Each write begins an insert, optionally spins for a while
+ * to stand in for the memstore update, and completes the insert, waiting for
+ * the read point to catch up.
+ * <p>
+ * Usage: MultiVersionConsistencyControlPerformanceEvaluation [seconds] [spins]
+ */
+public class MultiVersionConsistencyControlPerformanceEvaluation {
+  private static final int[] NUM_THREADS = { 1, 2, 4, 8, 16, 32, 64 };
+  private static final int DEFAULT_SECONDS = 5;
+  private static final int DEFAULT_SPINS = 0;
+
+  private final int seconds;
+  private final int spins;
+
+  public MultiVersionConsistencyControlPerformanceEvaluation(int seconds,
+      int spins) {
+    this.seconds = seconds;
+    this.spins = spins;
+  }
+
+  /**
+   * Keeps the spin loop from being optimized away.
+   */
+  static volatile long sink;
+
+  /**
+   * @return inserts completed per second by the given number of threads
+   */
+  double run(int numThreads) throws InterruptedException {
+    final MultiVersionConsistencyControl mvcc =
+        new MultiVersionConsistencyControl();
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicLong ops = new AtomicLong();
+    final long[] stopAt = new long[1];
+    Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      threads[i] = new Thread("writer-" + i) {
+        @Override
+        public void run() {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          long done = 0;
+          long x = 0;
+          while (System.nanoTime() < stopAt[0]) {
+            MultiVersionConsistencyControl.WriteEntry e =
+                mvcc.beginMemstoreInsert();
+            for (int s = 0; s < spins; s++) {
+              x += s;
+            }
+            mvcc.completeMemstoreInsert(e);
+            done++;
+          }
+          sink = x;
+          ops.addAndGet(done);
+        }
+      };
+      threads[i].start();
+    }
+    long begin = System.nanoTime();
+    stopAt[0] = begin + seconds * 1000000000L;
+    start.countDown();
+    for (Thread t : threads) {
+      t.join();
+    }
+    long elapsed = System.nanoTime() - begin;
+    if (mvcc.memstoreReadPoint() != ops.get()) {
+      throw new IllegalStateException("Read point " +
+          mvcc.memstoreReadPoint() + " after " + ops.get() + " inserts");
+    }
+    return ops.get() * 1000000000.0 / elapsed;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int seconds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_SECONDS;
+    int spins = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SPINS;
+    MultiVersionConsistencyControlPerformanceEvaluation eval =
+        new MultiVersionConsistencyControlPerformanceEvaluation(seconds, spins);
+    System.out.println(String.format("%8s %16s", "threads", "inserts/sec"));
+    for (int numThreads : NUM_THREADS) {
+      System.out.println(String.format("%8d %16.0f", numThreads,
+          eval.run(numThreads)));
+    }
+  }
+}
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.regionserver.HStore.ScanInfo;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Measures the time and the heap allocated per returned cell when a
+ * {@link StoreScanner} runs over an in-memory store, to keep an eye on the
+ * query matcher and column tracker hot path. Three scans are run: a wildcard
+ * scan reading every cell, a wildcard scan that has to seek past older
+ * versions of every column, and a scan of explicit columns. The allocated
+ * bytes come from the HotSpot per-thread allocation counter, so they only
+ * cover the scanning thread.
+ * <p>
+ * Note the memstore scanner itself allocates a skip list view on every
+ * reseek, so the seeking scans do not get to zero.
+ * <p>
+ * Usage: StoreScannerPerformanceEvaluation [rows] [iterations]
+ */
+public class StoreScannerPerformanceEvaluation {
+  private static final int DEFAULT_NUM_ROWS = 100000;
+  private static final int DEFAULT_ITERATIONS = 5;
+  private static final int NUM_COLUMNS = 10;
+  private static final int NUM_VERSIONS = 3;
+
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] VALUE = new byte[16];
+
+  private final int numRows;
+  private final int iterations;
+  private final MemStore memstore;
+  private final ScanInfo scanInfo;
+  private final com.sun.management.ThreadMXBean threadBean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  public StoreScannerPerformanceEvaluation(int numRows, int iterations) {
+    this.numRows = numRows;
+    this.iterations = iterations;
+    this.memstore = new MemStore(HBaseConfiguration.create(),
+        KeyValue.COMPARATOR);
+    for (int i = 0; i < numRows; i++) {
+      byte[] row = Bytes.toBytes(String.format("row%010d", i));
+      for (int j = 0; j < NUM_COLUMNS; j++) {
+        byte[] qualifier = Bytes.toBytes("q" + j);
+        for (int ts = 1; ts <= NUM_VERSIONS; ts++) {
+          memstore.add(new KeyValue(row, FAMILY, qualifier, ts, VALUE));
+        }
+      }
+    }
+    this.scanInfo = new ScanInfo(FAMILY, 0, Integer.MAX_VALUE,
+        Long.MAX_VALUE, false, 0, KeyValue.COMPARATOR);
+  }
+
+  private static NavigableSet<byte[]> columns(String... qualifiers) {
+    NavigableSet<byte[]> columns = new TreeSet<byte[]>(Bytes.BYTES_COMPARATOR);
+    for (String qualifier : qualifiers) {
+      columns.add(Bytes.toBytes(qualifier));
+    }
+    return columns;
+  }
+
+  private long allocatedBytes() {
+    return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  /**
+   * Runs the scan to its end, reusing one result list.
+   * @return the number of cells returned and the bytes allocated meanwhile
+   */
+  private long[] scanAll(Scan scan, NavigableSet<byte[]> columns)
+      throws IOException {
+    StoreScanner scanner = new StoreScanner(scan, scanInfo,
+        ScanType.USER_SCAN, columns, memstore.getScanners());
+    List<KeyValue> results = new ArrayList<KeyValue>();
+    long cells = 0;
+    long start = allocatedBytes();
+    boolean more;
+    do {
+      more = scanner.next(results);
+      cells += results.size();
+      results.clear();
+    } while (more);
+    long allocated = allocatedBytes() - start;
+    scanner.close();
+    return new long[] { cells, allocated };
+  }
+
+  private void runOne(String name, int maxVersions,
+      NavigableSet<byte[]> columns, long expectedCells) throws IOException {
+    Scan scan = new Scan();
+    scan.setMaxVersions(maxVersions);
+    // Warm up before timing
+    scanAll(scan, columns);
+
+    long cells = 0;
+    long allocated = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      long[] result = scanAll(scan, columns);
+      if (result[0] != expectedCells) {
+        throw new IllegalStateException("Got " + result[0] + " of "
+            + expectedCells + " cells");
+      }
+      cells += result[0];
+      allocated += result[1];
+    }
+    long ns = System.nanoTime() - start;
+    System.out.println(String.format(
+        "%-16s %7.1f ns/cell, %7.2f bytes allocated/cell",
+        name, (double) ns / cells, (double) allocated / cells));
+  }
+
+  public void run() throws IOException {
+    runOne("all versions", NUM_VERSIONS, null,
+        (long) numRows * NUM_COLUMNS * NUM_VERSIONS);
+    runOne("latest version", 1, null, (long) numRows * NUM_COLUMNS);
+    runOne("explicit columns", 1, columns("q1", "q4", "q7"),
+        (long) numRows * 3);
+  }
+
+  public static void main(String[] args) throws IOException {
+    int numRows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_NUM_ROWS;
+    int iterations =
+        args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ITERATIONS;
+    new StoreScannerPerformanceEvaluation(numRows, iterations).run();
+  }
+}
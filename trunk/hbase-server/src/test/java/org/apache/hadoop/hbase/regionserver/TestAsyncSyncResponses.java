@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Checks the region server sends the delayed responses of mutations when
+ * {@link SyncCompletion#ASYNC_SYNC_KEY} is set. A response that never goes
+ * out makes the client time out.
+ */
+@Category(MediumTests.class)
+public class TestAsyncSyncResponses {
+  private static final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private static final byte[] TABLE = Bytes.toBytes("TestAsyncSyncResponses");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+  private static HTable table;
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    TEST_UTIL.getConfiguration().setBoolean(SyncCompletion.ASYNC_SYNC_KEY, true);
+    TEST_UTIL.getConfiguration().setInt(HConstants.HBASE_RPC_TIMEOUT_KEY, 10000);
+    TEST_UTIL.getConfiguration().setInt(HConstants.HBASE_CLIENT_RETRIES_NUMBER, 1);
+    TEST_UTIL.startMiniCluster(1);
+    table = TEST_UTIL.createTable(TABLE, FAMILY);
+  }
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    table.close();
+    TEST_UTIL.shutdownMiniCluster();
+  }
+
+  private static Put put(String row) {
+    Put put = new Put(Bytes.toBytes(row));
+    put.add(FAMILY, QUALIFIER, Bytes.toBytes(row));
+    return put;
+  }
+
+  private static void assertValue(String row) throws Exception {
+    assertArrayEquals(Bytes.toBytes(row), table.get(new Get(Bytes.toBytes(row)))
+        .getValue(FAMILY, QUALIFIER));
+  }
+
+  @Test
+  public void testPutAndDelete() throws Exception {
+    table.put(put("single"));
+    assertValue("single");
+
+    table.delete(new Delete(Bytes.toBytes("single")));
+    assertTrue(table.get(new Get(Bytes.toBytes("single"))).isEmpty());
+  }
+
+  @Test
+  public void testMulti() throws Exception {
+    List<Put> puts = new ArrayList<Put>();
+    for (int i = 0; i < 10; i++) {
+      puts.add(put("multi" + i));
+    }
+    table.put(puts);
+    for (int i = 0; i < 10; i++) {
+      assertValue("multi" + i);
+    }
+  }
+}
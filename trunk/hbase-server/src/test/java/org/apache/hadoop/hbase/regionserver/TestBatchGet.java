@@ -0,0 +1,243 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.Coprocessor;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.coprocessor.BaseRegionObserver;
+import org.apache.hadoop.hbase.coprocessor.ObserverContext;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Checks that a batch of gets served by a single scanner returns what the
+ * gets return one by one.
+ */
+@RunWith(Parameterized.class)
+@Category(SmallTests.class)
+public class TestBatchGet {
+  private static final String TABLE_NAME = "TestBatchGet";
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final byte[] OTHER_QUALIFIER = Bytes.toBytes("r");
+
+  private final static HBaseTestingUtility TEST_UTIL =
+      new HBaseTestingUtility();
+
+  private final BloomType bloomType;
+  private HRegion region;
+
+  @Parameters
+  public static final Collection<Object[]> parameters() {
+    List<Object[]> configurations = new ArrayList<Object[]>();
+    for (BloomType bloomType : BloomType.values()) {
+      configurations.add(new Object[] { bloomType });
+    }
+    return configurations;
+  }
+
+  public TestBatchGet(BloomType bloomType) {
+    this.bloomType = bloomType;
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    region = TEST_UTIL.createTestRegion(TABLE_NAME + bloomType,
+        new HColumnDescriptor(FAMILY).setBloomFilterType(bloomType));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    HRegion.closeHRegion(region);
+  }
+
+  private static byte[] row(int i) {
+    return Bytes.toBytes(String.format("row%04d", i));
+  }
+
+  private void put(int from, int to, int step) throws IOException {
+    for (int i = from; i < to; i += step) {
+      Put put = new Put(row(i));
+      put.add(FAMILY, QUALIFIER, Bytes.toBytes(i));
+      put.add(FAMILY, OTHER_QUALIFIER, Bytes.toBytes(-i));
+      region.put(put);
+    }
+  }
+
+  @Test
+  public void testBatchMatchesSingleGets() throws IOException {
+    // Rows spread over three store files and the memstore, some of them
+    // deleted, and every fifth row missing altogether
+    put(0, 100, 5);
+    region.flushcache();
+    put(1, 100, 5);
+    region.flushcache();
+    put(2, 100, 5);
+    region.flushcache();
+    put(3, 100, 5);
+    for (int i = 0; i < 100; i += 7) {
+      region.delete(new Delete(row(i)), true);
+    }
+
+    List<Get> gets = new ArrayList<Get>();
+    // Unsorted, with duplicates, missing rows and rows past the last one
+    for (int i = 120; i >= 0; i -= 3) {
+      Get get = new Get(row(i));
+      get.addColumn(FAMILY, QUALIFIER);
+      gets.add(get);
+    }
+    gets.add(gets.get(3));
+    Get wider = new Get(row(11));
+    wider.addFamily(FAMILY);
+    gets.add(wider);
+    Get filtered = new Get(row(12));
+    filtered.addColumn(FAMILY, QUALIFIER);
+    filtered.setFilter(new KeyOnlyFilter());
+    gets.add(filtered);
+
+    Result[] results = region.get(gets);
+    assertEquals(gets.size(), results.length);
+    for (int i = 0; i < gets.size(); i++) {
+      Result expected = region.get(gets.get(i));
+      assertResultEquals(expected, results[i]);
+    }
+    assertEquals(2, results[results.length - 2].size());
+    assertEquals(0, results[results.length - 1].getValue(FAMILY, QUALIFIER).length);
+  }
+
+  @Test
+  public void testBatchSkipsRowsRejectedByBloomFilter() throws IOException {
+    // Each store file has every third row
+    put(0, 300, 3);
+    region.flushcache();
+    put(1, 300, 3);
+    region.flushcache();
+    put(2, 300, 3);
+    region.flushcache();
+
+    List<Get> gets = new ArrayList<Get>();
+    for (int i = 0; i < 300; i++) {
+      Get get = new Get(row(i));
+      get.addColumn(FAMILY, QUALIFIER);
+      gets.add(get);
+    }
+    long seeksBefore = StoreFileScanner.getSeekCount();
+    Result[] results = region.get(gets);
+    long seeks = StoreFileScanner.getSeekCount() - seeksBefore;
+    for (int i = 0; i < gets.size(); i++) {
+      assertResultEquals(region.get(gets.get(i)), results[i]);
+      assertEquals(i, Bytes.toInt(results[i].getValue(FAMILY, QUALIFIER)));
+    }
+    if (bloomType != BloomType.NONE) {
+      // Without the Bloom filters every file would be sought to every row
+      assertTrue("Sought " + seeks + " times", seeks < 2 * gets.size());
+    }
+  }
+
+  @Test
+  public void testFailedBatchKeepsEarlierResults() throws Exception {
+    RegionCoprocessorHost host = new RegionCoprocessorHost(region, null,
+        TEST_UTIL.getConfiguration());
+    region.setCoprocessorHost(host);
+    host.load(FailingGetObserver.class, Coprocessor.PRIORITY_USER,
+        TEST_UTIL.getConfiguration());
+    put(0, 10, 1);
+    region.flushcache();
+
+    List<Get> gets = new ArrayList<Get>();
+    for (int i = 0; i < 5; i++) {
+      Get get = new Get(row(i));
+      get.addColumn(FAMILY, QUALIFIER);
+      gets.add(get);
+    }
+    // Another shape, so done on its own after the batch
+    Get failing = new Get(FailingGetObserver.FAILING_ROW);
+    failing.addFamily(FAMILY);
+    gets.add(failing);
+
+    FailingGetObserver.preGets.set(0);
+    Result[] results = new Result[gets.size()];
+    try {
+      region.get(gets, results);
+      fail("The get of the failing row should have thrown");
+    } catch (IOException expected) {
+    }
+    assertEquals(gets.size(), FailingGetObserver.preGets.get());
+    for (int i = 0; i < 5; i++) {
+      assertEquals(i, Bytes.toInt(results[i].getValue(FAMILY, QUALIFIER)));
+    }
+    assertNull(results[5]);
+  }
+
+  /**
+   * Counts the gets, failing those of one row.
+   */
+  public static class FailingGetObserver extends BaseRegionObserver {
+    static final byte[] FAILING_ROW = row(7);
+    static final AtomicInteger preGets = new AtomicInteger();
+
+    @Override
+    public void preGet(ObserverContext<RegionCoprocessorEnvironment> e,
+        Get get, List<KeyValue> results) throws IOException {
+      preGets.incrementAndGet();
+      if (Bytes.equals(FAILING_ROW, get.getRow())) {
+        throw new IOException("Failing get of " + Bytes.toString(FAILING_ROW));
+      }
+    }
+  }
+
+  private static void assertResultEquals(Result expected, Result actual) {
+    assertEquals(expected.size(), actual.size());
+    if (expected.isEmpty()) {
+      return;
+    }
+    KeyValue[] expectedKvs = expected.raw();
+    KeyValue[] actualKvs = actual.raw();
+    for (int i = 0; i < expectedKvs.length; i++) {
+      assertEquals(0, KeyValue.COMPARATOR.compare(expectedKvs[i], actualKvs[i]));
+      assertArrayEquals(expectedKvs[i].getValue(), actualKvs[i].getValue());
+    }
+  }
+}
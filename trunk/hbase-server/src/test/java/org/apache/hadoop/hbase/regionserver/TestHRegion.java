@@ -63,6 +63,9 @@ import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Put;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.executor.EventHandler;
+import org.apache.hadoop.hbase.executor.ExecutorService;
+import org.apache.hadoop.hbase.executor.ExecutorService.ExecutorType;
 import org.apache.hadoop.hbase.filter.BinaryComparator;
 import org.apache.hadoop.hbase.filter.ColumnCountGetFilter;
 import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
@@ -80,6 +83,7 @@ import org.apache.hadoop.hbase.regionserver.HRegion.RegionScannerImpl;
 import org.apache.hadoop.hbase.regionserver.wal.HLog;
 import org.apache.hadoop.hbase.regionserver.wal.HLogFactory;
 import org.apache.hadoop.hbase.regionserver.wal.HLogKey;
+import org.apache.hadoop.hbase.regionserver.wal.HLogSplitter;
 import org.apache.hadoop.hbase.regionserver.wal.HLogUtil;
 import org.apache.hadoop.hbase.regionserver.wal.MetricsWALSource;
 import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
@@ -87,6 +91,7 @@ import org.apache.hadoop.hbase.test.MetricsAssertHelper;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.EnvironmentEdgeManagerTestHelper;
 import org.apache.hadoop.hbase.util.IncrementingEnvironmentEdge;
+import org.apache.hadoop.hbase.util.MockRegionServerServices;
 import org.apache.hadoop.hbase.util.Pair;
 import org.apache.hadoop.hbase.util.PairOfSameType;
 import org.apache.hadoop.hbase.util.Threads;
@@ -381,6 +386,325 @@ public class TestHRegion extends HBaseTestCase {
     }
   }
 
+  /**
+   * Test that a flush of the large family only leaves the edits of the small
+   * family to WAL replay, and reports a complete sequence id below them.
+   */
+  public void testFlushLargeFamilyOnly() throws Exception {
+    String method = "testFlushLargeFamilyOnly";
+    byte[] tableName = Bytes.toBytes(method);
+    byte[] large = Bytes.toBytes("large");
+    byte[] small = Bytes.toBytes("small");
+    Configuration conf = HBaseConfiguration.create(this.conf);
+    conf.setLong(HRegion.FLUSH_SIZE_LOWER_BOUND_KEY, 10 * 1024);
+    HTableDescriptor htd = new HTableDescriptor(tableName);
+    htd.addFamily(new HColumnDescriptor(large));
+    htd.addFamily(new HColumnDescriptor(small));
+    HRegionInfo hri = new HRegionInfo(tableName, null, null, false);
+    Path rootDir = new Path(DIR + method);
+    FileSystem fs = FileSystem.get(conf);
+    HRegion.closeHRegion(HRegion.createHRegion(hri, rootDir, conf, htd));
+    Path tableDir = HTableDescriptor.getTableDir(rootDir, tableName);
+
+    HLog wal = HLogFactory.createHLog(fs, rootDir,
+        HConstants.HREGION_LOGDIR_NAME, conf);
+    this.region = new HRegion(tableDir, wal, fs, conf, hri, htd,
+        new MockRegionServerServices());
+    try {
+      wal.setSequenceNumber(region.initialize());
+      // The small family gets the oldest edits
+      for (int i = 0; i < 10; i++) {
+        Put put = new Put(Bytes.toBytes("row" + i));
+        put.add(small, qual1, value1);
+        region.put(put);
+      }
+      for (int i = 0; i < 20; i++) {
+        Put put = new Put(Bytes.toBytes("row" + i));
+        put.add(large, qual1, new byte[1024]);
+        region.put(put);
+      }
+
+      region.flushcache(false);
+      assertEquals(1, region.getStore(large).getStorefilesCount());
+      assertEquals(0, region.getStore(small).getStorefilesCount());
+      long completeSequenceId = region.completeSequenceId;
+
+      // Crash: no flush on close
+      region.close(true);
+      wal.close();
+
+      HLogSplitter splitter = HLogSplitter.createLogSplitter(conf, rootDir,
+          new Path(rootDir, HConstants.HREGION_LOGDIR_NAME),
+          new Path(rootDir, HConstants.HREGION_OLDLOGDIR_NAME), fs);
+      List<Path> splits = splitter.splitLog();
+      assertEquals(1, splits.size());
+      long oldestSmallEdit = Long.MAX_VALUE;
+      HLog.Reader reader = HLogFactory.createReader(fs, splits.get(0), conf);
+      try {
+        HLog.Entry entry;
+        while ((entry = reader.next()) != null) {
+          for (KeyValue kv : entry.getEdit().getKeyValues()) {
+            if (kv.matchingFamily(small)) {
+              oldestSmallEdit = Math.min(oldestSmallEdit,
+                  entry.getKey().getLogSeqNum());
+            }
+          }
+        }
+      } finally {
+        reader.close();
+      }
+      assertTrue(oldestSmallEdit != Long.MAX_VALUE);
+      assertTrue("Complete sequence id " + completeSequenceId +
+          " not below the oldest unflushed edit " + oldestSmallEdit,
+          completeSequenceId < oldestSmallEdit);
+
+      // The small family comes back from the WAL
+      HLog wal2 = HLogFactory.createHLog(fs, rootDir, method + ".logs2", conf);
+      this.region = new HRegion(tableDir, wal2, fs, conf, hri, htd, null);
+      wal2.setSequenceNumber(region.initialize());
+      for (int i = 0; i < 20; i++) {
+        Result result = region.get(new Get(Bytes.toBytes("row" + i)));
+        assertEquals(1024, result.getValue(large, qual1).length);
+        if (i < 10) {
+          assertTrue(Bytes.equals(value1, result.getValue(small, qual1)));
+        }
+      }
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+  }
+
+  /**
+   * Test that flushes of the large family, while edits keep coming in for the
+   * small one, always report a complete sequence id below the oldest edit of
+   * the small family they leave to WAL replay.
+   */
+  public void testFlushLargeFamilyOnlyWithConcurrentAppends() throws Exception {
+    String method = "testFlushLargeFamilyOnlyWithConcurrentAppends";
+    byte[] tableName = Bytes.toBytes(method);
+    byte[] large = Bytes.toBytes("large");
+    final byte[] small = Bytes.toBytes("small");
+    Configuration conf = HBaseConfiguration.create(this.conf);
+    conf.setLong(HRegion.FLUSH_SIZE_LOWER_BOUND_KEY, 100 * 1024);
+    HTableDescriptor htd = new HTableDescriptor(tableName);
+    htd.addFamily(new HColumnDescriptor(large));
+    htd.addFamily(new HColumnDescriptor(small));
+    HRegionInfo hri = new HRegionInfo(tableName, null, null, false);
+    Path rootDir = new Path(DIR + method);
+    FileSystem fs = FileSystem.get(conf);
+    HRegion.closeHRegion(HRegion.createHRegion(hri, rootDir, conf, htd));
+    Path tableDir = HTableDescriptor.getTableDir(rootDir, tableName);
+
+    HLog wal = HLogFactory.createHLog(fs, rootDir,
+        HConstants.HREGION_LOGDIR_NAME, conf);
+    this.region = new HRegion(tableDir, wal, fs, conf, hri, htd,
+        new MockRegionServerServices());
+    try {
+      wal.setSequenceNumber(region.initialize());
+      final HRegion region = this.region;
+      final AtomicBoolean done = new AtomicBoolean(false);
+      final AtomicInteger smallRows = new AtomicInteger(0);
+      final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+      // Keeps the small family well below the flush lower bound
+      Thread smallWriter = new Thread(method + ".smallWriter") {
+        @Override
+        public void run() {
+          try {
+            while (!done.get() && smallRows.get() < 200) {
+              Put put = new Put(Bytes.toBytes("small" + smallRows.get()));
+              put.add(small, qual1, value1);
+              region.put(put);
+              smallRows.incrementAndGet();
+              Threads.sleep(5);
+            }
+          } catch (Throwable t) {
+            error.set(t);
+          }
+        }
+      };
+      smallWriter.start();
+      long completeSequenceId = Long.MAX_VALUE;
+      for (int round = 0; round < 5; round++) {
+        for (int i = 0; i < 150; i++) {
+          Put put = new Put(Bytes.toBytes("large" + round + "-" + i));
+          put.add(large, qual1, new byte[1024]);
+          region.put(put);
+        }
+        region.flushcache(false);
+        // The reported id never goes past the oldest small edit, which is
+        // still only in the WAL
+        completeSequenceId = region.completeSequenceId;
+      }
+      done.set(true);
+      smallWriter.join();
+      assertNull(error.get());
+      assertEquals(5, region.getStore(large).getStorefilesCount());
+      assertEquals(0, region.getStore(small).getStorefilesCount());
+
+      // Crash: no flush on close
+      region.close(true);
+      wal.close();
+
+      HLogSplitter splitter = HLogSplitter.createLogSplitter(conf, rootDir,
+          new Path(rootDir, HConstants.HREGION_LOGDIR_NAME),
+          new Path(rootDir, HConstants.HREGION_OLDLOGDIR_NAME), fs);
+      List<Path> splits = splitter.splitLog();
+      assertEquals(1, splits.size());
+      long oldestSmallEdit = Long.MAX_VALUE;
+      HLog.Reader reader = HLogFactory.createReader(fs, splits.get(0), conf);
+      try {
+        HLog.Entry entry;
+        while ((entry = reader.next()) != null) {
+          for (KeyValue kv : entry.getEdit().getKeyValues()) {
+            if (kv.matchingFamily(small)) {
+              oldestSmallEdit = Math.min(oldestSmallEdit,
+                  entry.getKey().getLogSeqNum());
+            }
+          }
+        }
+      } finally {
+        reader.close();
+      }
+      assertTrue(oldestSmallEdit != Long.MAX_VALUE);
+      assertTrue("Complete sequence id " + completeSequenceId +
+          " not below the oldest unflushed edit " + oldestSmallEdit,
+          completeSequenceId < oldestSmallEdit);
+
+      // Every small edit comes back from the WAL
+      HLog wal2 = HLogFactory.createHLog(fs, rootDir, method + ".logs2", conf);
+      this.region = new HRegion(tableDir, wal2, fs, conf, hri, htd, null);
+      wal2.setSequenceNumber(this.region.initialize());
+      for (int i = 0; i < smallRows.get(); i++) {
+        Result result = this.region.get(new Get(Bytes.toBytes("small" + i)));
+        assertTrue(Bytes.equals(value1, result.getValue(small, qual1)));
+      }
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+  }
+
+  /**
+   * Test that seeking the store files in parallel, including the real seeks
+   * deferred by lazy seeks of explicit column gets, returns the same results
+   * as seeking them one after the other.
+   */
+  public void testParallelSeekMatchesSerialSeek() throws Exception {
+    String method = "testParallelSeekMatchesSerialSeek";
+    byte[] tableName = Bytes.toBytes(method);
+    byte[] family = Bytes.toBytes("fam1");
+    byte[][] qualifiers = { qual1, qual2, qual3 };
+    final Configuration conf = HBaseConfiguration.create(this.conf);
+    HTableDescriptor htd = new HTableDescriptor(tableName);
+    htd.addFamily(new HColumnDescriptor(family).setMaxVersions(3));
+    HRegionInfo hri = new HRegionInfo(tableName, null, null, false);
+    Path rootDir = new Path(DIR + method);
+    FileSystem fs = FileSystem.get(conf);
+    HRegion.closeHRegion(HRegion.createHRegion(hri, rootDir, conf, htd));
+    Path tableDir = HTableDescriptor.getTableDir(rootDir, tableName);
+
+    final AtomicInteger parallelSeeks = new AtomicInteger();
+    final ExecutorService executor = new ExecutorService(method) {
+      @Override
+      public void submit(EventHandler eh) {
+        parallelSeeks.incrementAndGet();
+        super.submit(eh);
+      }
+    };
+    executor.startExecutorService(ExecutorType.RS_PARALLEL_SEEK, 3);
+    HLog wal = HLogFactory.createHLog(fs, rootDir,
+        HConstants.HREGION_LOGDIR_NAME, conf);
+    this.region = new HRegion(tableDir, wal, fs, conf, hri, htd,
+        new MockRegionServerServices() {
+          @Override
+          public Configuration getConfiguration() {
+            return conf;
+          }
+
+          @Override
+          public ExecutorService getExecutorService() {
+            return executor;
+          }
+        });
+    try {
+      wal.setSequenceNumber(region.initialize());
+      // Overlapping rows and columns spread over several store files, with
+      // deletes and unflushed edits on top
+      long ts = 1;
+      for (int file = 0; file < 4; file++) {
+        for (int i = file; i < 20; i += 2) {
+          Put put = new Put(Bytes.toBytes("row" + i));
+          for (int q = 0; q <= (i + file) % qualifiers.length; q++) {
+            put.add(family, qualifiers[q], ts++, Bytes.toBytes("v" + file + q));
+          }
+          region.put(put);
+        }
+        if (file == 2) {
+          Delete delete = new Delete(Bytes.toBytes("row4"));
+          delete.deleteColumns(family, qual1);
+          region.delete(delete, true);
+        }
+        region.flushcache();
+      }
+      Put put = new Put(Bytes.toBytes("row5"));
+      put.add(family, qual2, ts++, Bytes.toBytes("memstore"));
+      region.put(put);
+      assertEquals(4, region.getStore(family).getStorefilesCount());
+
+      conf.setBoolean(StoreScanner.STORESCANNER_PARALLEL_SEEK_ENABLE, false);
+      List<Result> serial = readAll(region, family, qualifiers);
+      assertEquals(0, parallelSeeks.get());
+
+      conf.setBoolean(StoreScanner.STORESCANNER_PARALLEL_SEEK_ENABLE, true);
+      List<Result> parallel = readAll(region, family, qualifiers);
+      assertTrue(parallelSeeks.get() > 0);
+
+      assertEquals(serial.size(), parallel.size());
+      for (int i = 0; i < serial.size(); i++) {
+        Result.compareResults(serial.get(i), parallel.get(i));
+      }
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Runs explicit column, multi column and whole row gets on every row, and
+   * a column scan, returning all their results in order.
+   */
+  private List<Result> readAll(HRegion region, byte[] family,
+      byte[][] qualifiers) throws IOException {
+    List<Result> results = new ArrayList<Result>();
+    for (int i = 0; i < 20; i++) {
+      byte[] row = Bytes.toBytes("row" + i);
+      for (byte[] qualifier : qualifiers) {
+        results.add(region.get(new Get(row).addColumn(family, qualifier)));
+      }
+      Get get = new Get(row).addColumn(family, qual1).addColumn(family, qual3);
+      get.setMaxVersions(3);
+      results.add(region.get(get));
+      results.add(region.get(new Get(row).setMaxVersions()));
+    }
+    Scan scan = new Scan();
+    scan.addColumn(family, qual2);
+    scan.setMaxVersions(2);
+    RegionScanner scanner = region.getScanner(scan);
+    try {
+      boolean more;
+      do {
+        List<KeyValue> kvs = new ArrayList<KeyValue>();
+        more = scanner.next(kvs);
+        results.add(new Result(kvs));
+      } while (more);
+    } finally {
+      scanner.close();
+    }
+    return results;
+  }
+
   public void testGetWhileRegionClose() throws IOException {
     Configuration hc = initSplit();
     int numRows = 100;
@@ -1570,6 +1894,54 @@ public class TestHRegion extends HBaseTestCase {
     }
   }
 
+  public void testGet_RowCache() throws IOException {
+    byte [] tableName = Bytes.toBytes("testtable");
+    byte [] row = Bytes.toBytes("row");
+    byte [] fam = Bytes.toBytes("fam");
+    byte [] qual1 = Bytes.toBytes("qual1");
+    byte [] qual2 = Bytes.toBytes("qual2");
+
+    Configuration rowCacheConf = new Configuration(conf);
+    rowCacheConf.setFloat(RowCache.ROW_CACHE_SIZE_KEY, 0.01f);
+    HTableDescriptor htd = new HTableDescriptor(tableName);
+    htd.addFamily(new HColumnDescriptor(fam).setRowCacheEnabled(true));
+    HRegionInfo info = new HRegionInfo(htd.getName(), null, null, false);
+    Path path = new Path(DIR + this.getName());
+    this.region = HRegion.createHRegion(info, path, rowCacheConf, htd);
+    RowCache rowCache = RowCache.instantiateRowCache(rowCacheConf);
+    try {
+      region.put(new Put(row).add(fam, qual1, Bytes.toBytes("v1")));
+      assertEquals("v1", Bytes.toString(region.get(new Get(row)).getValue(fam, qual1)));
+      long hits = rowCache.getHitCount();
+      assertEquals("v1", Bytes.toString(region.get(new Get(row)).getValue(fam, qual1)));
+      assertEquals(hits + 1, rowCache.getHitCount());
+
+      // Mutations are seen right away
+      region.put(new Put(row).add(fam, qual1, Bytes.toBytes("v2")));
+      assertEquals("v2", Bytes.toString(region.get(new Get(row)).getValue(fam, qual1)));
+      region.append(new Append(row).add(fam, qual2, Bytes.toBytes("a")), true);
+      Result result = region.get(new Get(row));
+      assertEquals(2, result.size());
+      assertEquals("a", Bytes.toString(result.getValue(fam, qual2)));
+
+      // A flush does not change the row
+      region.flushcache();
+      hits = rowCache.getHitCount();
+      assertEquals(2, region.get(new Get(row)).size());
+      assertEquals(hits + 1, rowCache.getHitCount());
+
+      // Gets of some columns are not served from the row cache
+      assertEquals(1, region.get(new Get(row).addColumn(fam, qual2)).size());
+      assertEquals(hits + 1, rowCache.getHitCount());
+
+      region.delete(new Delete(row), true);
+      assertTrue(region.get(new Get(row)).isEmpty());
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+  }
+
   //Test that checked if there was anything special when reading from the ROOT
   //table. To be able to use this test you need to comment the part in
   //HTableDescriptor that checks for '-' and '.'. You also need to remove the
@@ -3729,7 +4101,129 @@ public class TestHRegion extends HBaseTestCase {
     assertEquals(1, kvs.size());
     assertEquals(Bytes.toBytes("value1"), kvs.get(0).getValue());
   }
-  
+
+  /**
+   * Test that the stores of a region flushed in parallel each get their file
+   * and still read back all the data
+   * @throws Exception
+   */
+  public void testParallelStoreFlush() throws Exception {
+    byte[][] families = new byte[6][];
+    for (int i = 0; i < families.length; i++) {
+      families[i] = Bytes.toBytes("family" + i);
+    }
+    byte[] qualifier = Bytes.toBytes("qualifier");
+    Configuration conf = HBaseConfiguration.create(this.conf);
+    conf.setInt(HConstants.HSTORE_FLUSH_THREADS_MAX, 3);
+    this.region = initHRegion(tableName, getName(), conf, families);
+    try {
+      int numRows = 100;
+      putData(0, numRows, qualifier, families);
+      region.flushcache();
+      for (byte[] family : families) {
+        assertEquals(1, region.getStore(family).getStorefilesCount());
+      }
+      assertEquals(0, region.getMemstoreSize().get());
+      for (int i = 0; i < numRows; i++) {
+        Result res = region.get(new Get(Bytes.toBytes("" + i)));
+        assertEquals(families.length, res.size());
+      }
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+  }
+
+  /**
+   * Shared row locks of different threads are held together, an exclusive one
+   * keeps out every other lock, locks are released by whichever thread holds
+   * their lock id, and waits for a lock are counted.
+   * @throws Exception
+   */
+  public void testSharedAndExclusiveRowLocks() throws Exception {
+    byte[] family = Bytes.toBytes("family");
+    final byte[] row = Bytes.toBytes("row");
+    this.region = initHRegion(tableName, getName(), conf, family);
+    try {
+      final AtomicReference<Integer> sharedFromOther = new AtomicReference<Integer>();
+      final AtomicReference<Integer> exclusiveFromOther = new AtomicReference<Integer>();
+      Integer shared = region.getLock(null, row, true, false);
+      Thread other = new Thread() {
+        @Override
+        public void run() {
+          try {
+            sharedFromOther.set(region.getLock(null, row, false, false));
+            region.releaseRowLock(sharedFromOther.get());
+            exclusiveFromOther.set(region.getLock(null, row, false, true));
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+      other.start();
+      other.join();
+      assertNotNull(sharedFromOther.get());
+      assertNull(exclusiveFromOther.get());
+      // A shared lock is not upgraded
+      assertNull(region.getLock(null, row, false, true));
+      region.releaseRowLock(shared);
+
+      // The exclusive lock keeps out its own thread too
+      Integer exclusive = region.obtainRowLock(row);
+      assertNull(region.getLock(null, row, false, true));
+      assertNull(region.getLock(null, row, false, false));
+      assertTrue(region.isRowLocked(exclusive));
+      assertSame(exclusive, region.getLock(exclusive, row, false, true));
+
+      assertEquals(0, region.rowLockWaitCount.get());
+      other = new Thread() {
+        @Override
+        public void run() {
+          try {
+            sharedFromOther.set(region.getLock(null, row, true, false));
+            region.releaseRowLock(sharedFromOther.get());
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+      sharedFromOther.set(null);
+      other.start();
+      while (other.getState() != Thread.State.TIMED_WAITING) {
+        Thread.sleep(10);
+      }
+      region.releaseRowLock(exclusive);
+      other.join();
+      assertNotNull(sharedFromOther.get());
+      assertEquals(1, region.rowLockWaitCount.get());
+      assertFalse(region.isRowLocked(exclusive));
+
+      // A lock taken by one thread is released by another
+      other = new Thread() {
+        @Override
+        public void run() {
+          try {
+            exclusiveFromOther.set(region.getLock(null, row, false, true));
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+      other.start();
+      other.join();
+      assertNotNull(exclusiveFromOther.get());
+      assertNull(region.getLock(null, row, false, false));
+      region.releaseRowLock(exclusiveFromOther.get());
+      assertFalse(region.isRowLocked(exclusiveFromOther.get()));
+      exclusive = region.getLock(null, row, false, true);
+      assertNotNull(exclusive);
+      region.releaseRowLock(exclusive);
+    } finally {
+      HRegion.closeHRegion(this.region);
+      this.region = null;
+    }
+  }
+
   private void putData(int startRow, int numRows, byte [] qf,
       byte [] ...families)
   throws IOException {
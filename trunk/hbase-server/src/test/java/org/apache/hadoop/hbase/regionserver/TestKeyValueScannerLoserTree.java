@@ -0,0 +1,207 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.CollectionBackedScanner;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the loser tree behind {@link KeyValueHeap}.
+ */
+@Category(SmallTests.class)
+public class TestKeyValueScannerLoserTree {
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final byte[] VALUE = Bytes.toBytes("v");
+
+  private static final Comparator<KeyValueScanner> PEEK_COMPARATOR =
+      new Comparator<KeyValueScanner>() {
+        @Override
+        public int compare(KeyValueScanner left, KeyValueScanner right) {
+          return KeyValue.COMPARATOR.compare(left.peek(), right.peek());
+        }
+      };
+
+  private static KeyValue kv(int row) {
+    return new KeyValue(Bytes.toBytes(String.format("row%06d", row)), FAMILY,
+        QUALIFIER, VALUE);
+  }
+
+  /**
+   * Spreads rows 0 .. numRows-1 randomly over the given number of scanners.
+   */
+  private static List<KeyValueScanner> createScanners(int numScanners,
+      int numRows, Random rand) {
+    List<List<KeyValue>> lists = new ArrayList<List<KeyValue>>(numScanners);
+    for (int i = 0; i < numScanners; i++) {
+      lists.add(new ArrayList<KeyValue>());
+    }
+    for (int row = 0; row < numRows; row++) {
+      lists.get(rand.nextInt(numScanners)).add(kv(row));
+    }
+    List<KeyValueScanner> scanners = new ArrayList<KeyValueScanner>();
+    for (List<KeyValue> list : lists) {
+      scanners.add(new CollectionBackedScanner(list));
+    }
+    return scanners;
+  }
+
+  @Test
+  public void testMergeMatchesSortedOrder() throws IOException {
+    Random rand = new Random(12345);
+    int numRows = 2000;
+    for (int numScanners : new int[] { 1, 2, 3, 5, 8, 13, 32, 50 }) {
+      KeyValueHeap heap = new KeyValueHeap(
+          createScanners(numScanners, numRows, rand), KeyValue.COMPARATOR);
+      for (int row = 0; row < numRows; row++) {
+        KeyValue next = heap.next();
+        assertEquals("scanners=" + numScanners, 0,
+            KeyValue.COMPARATOR.compare(kv(row), next));
+      }
+      assertNull(heap.next());
+      assertEquals(0, heap.getHeap().size());
+      heap.close();
+    }
+  }
+
+  @Test
+  public void testSeekAcrossScanners() throws IOException {
+    Random rand = new Random(54321);
+    int numRows = 1000;
+    KeyValueHeap heap = new KeyValueHeap(createScanners(17, numRows, rand),
+        KeyValue.COMPARATOR);
+    int row = 0;
+    while (row < numRows) {
+      assertEquals(0, KeyValue.COMPARATOR.compare(kv(row), heap.peek()));
+      row += 1 + rand.nextInt(40);
+      if (row >= numRows) {
+        break;
+      }
+      heap.reseek(kv(row));
+    }
+    // Scanners that ran out on the way are gone, so only seek forward
+    heap.seek(kv(numRows - 1));
+    assertEquals(0, KeyValue.COMPARATOR.compare(kv(numRows - 1), heap.peek()));
+    heap.close();
+  }
+
+  @Test
+  public void testUpdateAndRemoveTop() throws IOException {
+    List<KeyValueScanner> scanners = new ArrayList<KeyValueScanner>();
+    scanners.add(new CollectionBackedScanner(KeyValue.COMPARATOR, kv(0), kv(1),
+        kv(2), kv(9)));
+    scanners.add(new CollectionBackedScanner(KeyValue.COMPARATOR, kv(3), kv(5)));
+    scanners.add(new CollectionBackedScanner(KeyValue.COMPARATOR, kv(4), kv(6)));
+    KeyValueScannerLoserTree tree =
+        new KeyValueScannerLoserTree(scanners, PEEK_COMPARATOR);
+    assertEquals(3, tree.size());
+
+    List<KeyValue> merged = new ArrayList<KeyValue>();
+    KeyValueScanner top;
+    while ((top = tree.peek()) != null) {
+      assertEquals(tree.size() - 1, tree.getScannersBelowTop().size());
+      merged.add(top.next());
+      if (top.peek() == null) {
+        assertSame(top, tree.removeTop());
+      } else {
+        tree.updateTop();
+      }
+    }
+    assertEquals(0, tree.size());
+    assertNull(tree.removeTop());
+
+    List<KeyValue> expected = new ArrayList<KeyValue>();
+    for (int row : new int[] { 0, 1, 2, 3, 4, 5, 6, 9 }) {
+      expected.add(kv(row));
+    }
+    assertEquals(expected, merged);
+  }
+
+  @Test
+  public void testComparisonsPerAdvance() throws IOException {
+    final int[] comparisons = new int[1];
+    Comparator<KeyValueScanner> countingComparator = new Comparator<KeyValueScanner>() {
+      @Override
+      public int compare(KeyValueScanner left, KeyValueScanner right) {
+        comparisons[0]++;
+        return PEEK_COMPARATOR.compare(left, right);
+      }
+    };
+    int numScanners = 8;
+
+    // Scanners taking turns: every advance replays one path, nothing more
+    List<List<KeyValue>> lists = new ArrayList<List<KeyValue>>();
+    for (int i = 0; i < numScanners; i++) {
+      lists.add(new ArrayList<KeyValue>());
+    }
+    for (int row = 0; row < 800; row++) {
+      lists.get(row % numScanners).add(kv(row));
+    }
+    List<KeyValueScanner> scanners = new ArrayList<KeyValueScanner>();
+    for (List<KeyValue> list : lists) {
+      scanners.add(new CollectionBackedScanner(list));
+    }
+    KeyValueScannerLoserTree tree =
+        new KeyValueScannerLoserTree(scanners, countingComparator);
+    for (int row = 0; row < 400; row++) {
+      KeyValueScanner top = tree.peek();
+      assertEquals(0, KeyValue.COMPARATOR.compare(kv(row), top.next()));
+      comparisons[0] = 0;
+      tree.updateTop();
+      assertTrue(comparisons[0] <= 3);
+    }
+
+    // One scanner holding a run of keys: a single comparison per advance
+    // once it has won twice
+    scanners = new ArrayList<KeyValueScanner>();
+    List<KeyValue> run = new ArrayList<KeyValue>();
+    for (int row = 0; row < 100; row++) {
+      run.add(kv(row));
+    }
+    scanners.add(new CollectionBackedScanner(run));
+    for (int i = 1; i < numScanners; i++) {
+      scanners.add(new CollectionBackedScanner(KeyValue.COMPARATOR, kv(100 + i)));
+    }
+    tree = new KeyValueScannerLoserTree(scanners, countingComparator);
+    for (int row = 0; row < 99; row++) {
+      KeyValueScanner top = tree.peek();
+      assertSame(scanners.get(0), top);
+      assertEquals(0, KeyValue.COMPARATOR.compare(kv(row), top.next()));
+      comparisons[0] = 0;
+      tree.updateTop();
+      if (row > 0) {
+        assertEquals(1, comparisons[0]);
+      }
+    }
+  }
+}
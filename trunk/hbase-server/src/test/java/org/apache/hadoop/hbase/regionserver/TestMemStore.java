@@ -35,6 +35,7 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.*;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.regionserver.HStore.ScanInfo;
+import org.apache.hadoop.hbase.regionserver.MemStoreLAB.Allocation;
 import org.apache.hadoop.hbase.util.Bytes;
 
 import com.google.common.base.Joiner;
@@ -469,6 +470,82 @@ public class TestMemStore extends TestCase {
     }
   }
 
+  /**
+   * Test that an in-memory flush keeps every cell readable, leaves the
+   * cells not yet visible to all readers in the active set, and that the
+   * flattened cells are part of the next snapshot.
+   * @throws IOException
+   */
+  public void testInMemoryFlush() throws IOException {
+    addRows(this.memstore);
+    int count = ROW_COUNT * QUALIFIER_COUNT;
+    byte [] row = Bytes.toBytes("uncommitted");
+    KeyValue uncommitted = new KeyValue(row, FAMILY, row, row);
+    uncommitted.setMemstoreTS(10);
+    this.memstore.add(uncommitted);
+    long sizeBefore = this.memstore.heapSize();
+
+    long change = this.memstore.flushInMemory(5, null);
+    assertTrue("Flattening should save heap", change < 0);
+    assertEquals(sizeBefore + change, this.memstore.heapSize());
+    assertEquals(count, this.memstore.flattened.size());
+    assertEquals(1, this.memstore.kvset.size());
+    assertSame(uncommitted, this.memstore.kvset.first());
+    assertTrue(this.memstore.getActiveSize() < sizeBefore + change -
+        MemStore.DEEP_OVERHEAD);
+
+    // A scanner reads the active and the flattened cells
+    MultiVersionConsistencyControl.setThreadReadPoint(Long.MAX_VALUE);
+    KeyValueScanner s = this.memstore.getScanners().get(0);
+    s.seek(KeyValue.LOWESTKEY);
+    int seen = 0;
+    while (s.next() != null) {
+      seen++;
+    }
+    s.close();
+    assertEquals(count + 1, seen);
+
+    // A second flush merges into the flattened cells
+    uncommitted.setMemstoreTS(0);
+    this.memstore.flushInMemory(5, null);
+    assertEquals(count + 1, this.memstore.flattened.size());
+    assertTrue(this.memstore.kvset.isEmpty());
+
+    this.memstore.snapshot();
+    assertNull(this.memstore.flattened);
+    assertEquals(count + 1, this.memstore.getSnapshotToFlush().size());
+    this.memstore.clearSnapshot(this.memstore.getSnapshot());
+    assertEquals(0, this.memstore.getSnapshotToFlush().size());
+    assertEquals(MemStore.DEEP_OVERHEAD, this.memstore.heapSize());
+  }
+
+  /**
+   * Test that updateColumnValue and upsert see the cells flushed in memory
+   */
+  public void testUpsertAfterInMemoryFlush() throws IOException {
+    byte [] row = Bytes.toBytes("row");
+    this.memstore.add(new KeyValue(row, FAMILY, CONTENTS, 100,
+        Bytes.toBytes(1L)));
+    this.memstore.flushInMemory(Long.MAX_VALUE, null);
+    // The new value must not sort after the flattened one
+    this.memstore.updateColumnValue(row, FAMILY, CONTENTS, 2L, 50);
+    assertEquals(100, this.memstore.kvset.first().getTimestamp());
+
+    this.memstore = new MemStore();
+    this.memstore.add(new KeyValue(row, FAMILY, CONTENTS, 300,
+        Bytes.toBytes(3L)));
+    this.memstore.flushInMemory(Long.MAX_VALUE, null);
+    this.memstore.add(new KeyValue(row, FAMILY, CONTENTS, 200,
+        Bytes.toBytes(2L)));
+    this.memstore.add(new KeyValue(row, FAMILY, CONTENTS, 100,
+        Bytes.toBytes(1L)));
+    this.memstore.upsert(Arrays.asList(new KeyValue(row, FAMILY, CONTENTS,
+        400, Bytes.toBytes(4L))), 1L);
+    // The flattened version counts, so the oldest one goes
+    assertEquals(2, this.memstore.kvset.size());
+    assertEquals(200, this.memstore.kvset.last().getTimestamp());
+  }
+
   public void testMultipleVersionsSimple() throws Exception {
     MemStore m = new MemStore(new Configuration(), KeyValue.COMPARATOR);
     byte [] row = Bytes.toBytes("testRow");
@@ -838,6 +915,44 @@ public class TestMemStore extends TestCase {
         " size: " + size + ")");
   }
   
+  /**
+   * Test that the KeyValues a scanner returned stay intact after their
+   * chunks went back to the pool and got overwritten by another memstore.
+   */
+  public void testScannedKVsOutliveRecycledChunks() throws IOException {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setBoolean(MemStore.USEMSLAB_KEY, true);
+    int chunkSize = conf.getInt(MemStoreLAB.CHUNK_SIZE_KEY,
+        MemStoreLAB.CHUNK_SIZE_DEFAULT);
+    MemStoreChunkPool pool = new MemStoreChunkPool(chunkSize, 10, 0);
+    memstore = new MemStore(conf, KeyValue.COMPARATOR);
+    memstore.allocator = new MemStoreLAB(conf, pool);
+
+    byte [] row = Bytes.toBytes("row");
+    byte [] value = Bytes.toBytes("value");
+    KeyValue kv = new KeyValue(row, FAMILY, CONTENTS, 1, value);
+    memstore.add(kv);
+
+    MultiVersionConsistencyControl.setThreadReadPoint(Long.MAX_VALUE);
+    KeyValueScanner s = memstore.getScanners().get(0);
+    s.seek(KeyValue.LOWESTKEY);
+    KeyValue read = s.next();
+
+    // Flush, then close the scanner: the chunk goes back to the pool
+    memstore.snapshot();
+    memstore.clearSnapshot(memstore.getSnapshot());
+    s.close();
+    assertEquals(1, pool.getPoolSize());
+
+    // The next memstore overwrites it
+    Allocation alloc = new MemStoreLAB(conf, pool).allocateBytes(1024);
+    Arrays.fill(alloc.getData(), (byte) 0xff);
+
+    assertTrue(Bytes.equals(row, read.getRow()));
+    assertTrue(Bytes.equals(value, read.getValue()));
+    assertEquals(0, KeyValue.COMPARATOR.compare(kv, read));
+  }
+
   //////////////////////////////////////////////////////////////////////////////
   // Helpers
   //////////////////////////////////////////////////////////////////////////////
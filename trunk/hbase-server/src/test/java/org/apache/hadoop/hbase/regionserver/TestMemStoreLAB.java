@@ -149,6 +149,54 @@ public class TestMemStoreLAB {
 
   }
   
+  /**
+   * Test that the chunks of a closed MemStoreLAB go back to the pool, but
+   * only once the scanners reading them are closed
+   */
+  @Test
+  public void testChunksReturnToPool() {
+    Configuration conf = new Configuration();
+    int chunkSize = conf.getInt(MemStoreLAB.CHUNK_SIZE_KEY,
+        MemStoreLAB.CHUNK_SIZE_DEFAULT);
+    MemStoreChunkPool pool = new MemStoreChunkPool(chunkSize, 10, 0);
+    MemStoreLAB mslab = new MemStoreLAB(conf, pool);
+    for (int i = 0; i < 3 * 1024; i++) {
+      assertNotNull(mslab.allocateBytes(1024));
+    }
+    assertEquals(2, pool.getMissCount());
+    assertEquals(0, pool.getPoolSize());
+
+    mslab.incScannerCount();
+    mslab.close();
+    assertEquals(0, pool.getPoolSize());
+    mslab.decScannerCount();
+    assertEquals(2, pool.getPoolSize());
+
+    // The next MemStoreLAB reuses the chunks, from their start
+    MemStoreLAB next = new MemStoreLAB(conf, pool);
+    Allocation alloc = next.allocateBytes(1024);
+    assertEquals(0, alloc.getOffset());
+    assertEquals(1, pool.getHitCount());
+    assertEquals(1, pool.getPoolSize());
+  }
+
+  /**
+   * Test that a full pool drops the chunks handed back to it
+   */
+  @Test
+  public void testFullPoolDropsChunks() {
+    Configuration conf = new Configuration();
+    int chunkSize = conf.getInt(MemStoreLAB.CHUNK_SIZE_KEY,
+        MemStoreLAB.CHUNK_SIZE_DEFAULT);
+    MemStoreChunkPool pool = new MemStoreChunkPool(chunkSize, 1, 0);
+    MemStoreLAB mslab = new MemStoreLAB(conf, pool);
+    for (int i = 0; i < 3 * 1024; i++) {
+      mslab.allocateBytes(1024);
+    }
+    mslab.close();
+    assertEquals(1, pool.getPoolSize());
+  }
+
   private static class AllocRecord implements Comparable<AllocRecord>{
     private final Allocation alloc;
     private final int size;
@@ -54,6 +54,8 @@ public class TestMetricsRegionServer {
     HELPER.assertCounter("writeRequestCount", 707, serverSource);
     HELPER.assertCounter("checkMutateFailedCount", 401, serverSource);
     HELPER.assertCounter("checkMutatePassedCount", 405, serverSource);
+    HELPER.assertCounter("rowLockWaitCount", 460, serverSource);
+    HELPER.assertCounter("rowLockWaitTime", 461, serverSource);
     HELPER.assertGauge("storeFileIndexSize", 406, serverSource);
     HELPER.assertGauge("staticIndexSize", 407, serverSource);
     HELPER.assertGauge("staticBloomSize", 408, serverSource);
@@ -70,6 +72,18 @@ public class TestMetricsRegionServer {
     HELPER.assertCounter("blockCacheEvictionCount", 418, serverSource);
     HELPER.assertGauge("blockCountHitPercent", 98, serverSource);
     HELPER.assertGauge("blockCacheExpressHitPercent", 97, serverSource);
+    HELPER.assertGauge("blockCachePinnedSize", 420, serverSource);
+    HELPER.assertGauge("table.testTable.blockCachePinnedSize", 421, serverSource);
+    HELPER.assertGauge("rowCacheCount", 440, serverSource);
+    HELPER.assertGauge("rowCacheSize", 441, serverSource);
+    HELPER.assertCounter("rowCacheHitCount", 442, serverSource);
+    HELPER.assertCounter("rowCacheMissCount", 443, serverSource);
+    HELPER.assertCounter("rowCacheEvictionCount", 444, serverSource);
+    HELPER.assertCounter("rowCacheInvalidationCount", 445, serverSource);
+    HELPER.assertGauge("memStoreChunkPoolSize", 450, serverSource);
+    HELPER.assertCounter("memStoreChunkPoolHitCount", 451, serverSource);
+    HELPER.assertCounter("memStoreChunkPoolMissCount", 452, serverSource);
+    HELPER.assertCounter("workload.80.rowCacheHitCount", 442, serverSource);
     HELPER.assertCounter("updatesBlockedTime", 419, serverSource);
   }
 
@@ -129,4 +129,26 @@ public class TestMultiVersionConsistencyControl extends TestCase {
 
   }
 
+  public void testOutOfOrderCompletion() {
+    MultiVersionConsistencyControl mvcc = new MultiVersionConsistencyControl();
+    mvcc.initialize(10);
+    MultiVersionConsistencyControl.WriteEntry first = mvcc.beginMemstoreInsert();
+    MultiVersionConsistencyControl.WriteEntry second = mvcc.beginMemstoreInsert();
+    MultiVersionConsistencyControl.WriteEntry third = mvcc.beginMemstoreInsert();
+    assertEquals(11, first.getWriteNumber());
+    assertEquals(13, third.getWriteNumber());
+
+    // Later writes stay invisible until the ones before them complete
+    assertFalse(mvcc.advanceMemstore(third));
+    assertFalse(mvcc.advanceMemstore(second));
+    assertEquals(10, mvcc.memstoreReadPoint());
+    assertTrue(mvcc.advanceMemstore(first));
+    assertEquals(13, mvcc.memstoreReadPoint());
+
+    MultiVersionConsistencyControl.WriteEntry fourth = mvcc.beginMemstoreInsert();
+    assertEquals(14, fourth.getWriteNumber());
+    mvcc.completeMemstoreInsert(fourth);
+    assertEquals(14, mvcc.memstoreReadPoint());
+  }
+
 }
@@ -283,5 +283,40 @@ public class TestQueryMatcher extends HBaseTestCase {
     }
   }
 
-}
+  /**
+   * Verify the seek keys built in the matcher's reused buffer are the same
+   * as freshly allocated ones, for both the explicit and wildcard trackers.
+   */
+  public void testReusableSeekKeys() throws IOException {
+    ScanQueryMatcher explicit = new ScanQueryMatcher(scan,
+        new HStore.ScanInfo(fam2, 0, 1, ttl, false, 0, rowComparator),
+        get.getFamilyMap().get(fam2),
+        EnvironmentEdgeManager.currentTimeMillis() - ttl);
+    ScanQueryMatcher wildcard = new ScanQueryMatcher(scan,
+        new HStore.ScanInfo(fam2, 0, 1, ttl, false, 0, rowComparator), null,
+        EnvironmentEdgeManager.currentTimeMillis() - ttl);
+
+    KeyValue[] kvs = new KeyValue[] {
+        new KeyValue(row1, fam2, col1, 1, data),
+        new KeyValue(row1, fam2, col3, 1, data),
+        new KeyValue(row2, fam2, col5, 1, data)
+    };
+    for (ScanQueryMatcher qm : new ScanQueryMatcher[] { explicit, wildcard }) {
+      for (KeyValue kv : kvs) {
+        qm.setRow(kv.getBuffer(), kv.getRowOffset(), kv.getRowLength());
+        qm.match(kv);
+        assertKeyEquals(qm.getKeyForNextColumn(kv),
+            qm.getReusableKeyForNextColumn(kv));
+        assertKeyEquals(qm.getKeyForNextRow(kv),
+            qm.getReusableKeyForNextRow(kv));
+      }
+    }
+  }
 
+  private static void assertKeyEquals(KeyValue expected, KeyValue actual) {
+    assertEquals(Bytes.toStringBinary(expected.getBuffer(),
+        expected.getOffset(), expected.getLength()),
+        Bytes.toStringBinary(actual.getBuffer(), actual.getOffset(),
+            actual.getLength()));
+  }
+}
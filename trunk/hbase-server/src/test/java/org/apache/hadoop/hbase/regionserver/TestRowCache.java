@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(SmallTests.class)
+public class TestRowCache {
+  private static final byte[] REGION = Bytes.toBytes("region");
+  private static final byte[] OTHER_REGION = Bytes.toBytes("otherRegion");
+  private static final byte[] FAMILY1 = Bytes.toBytes("f1");
+  private static final byte[] FAMILY2 = Bytes.toBytes("f2");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final int WORKLOAD = 80;
+
+  private static List<byte[]> families(byte[]... families) {
+    return Arrays.asList(families);
+  }
+
+  private static List<KeyValue> row(byte[] row, byte[]... families) {
+    List<KeyValue> kvs = new ArrayList<KeyValue>();
+    for (byte[] family : families) {
+      kvs.add(new KeyValue(row, family, QUALIFIER, 1L, row));
+    }
+    return kvs;
+  }
+
+  private static void cache(RowCache cache, byte[] region, byte[] row,
+      byte[]... families) {
+    assertTrue(cache.cacheRow(region, row, families(families),
+        row(row, families), Long.MAX_VALUE, cache.getGeneration(region, row)));
+  }
+
+  @Test
+  public void testHeapBudget() {
+    Configuration conf = HBaseConfiguration.create();
+    conf.setFloat(RowCache.ROW_CACHE_SIZE_KEY, 0.1f);
+    HBaseConfiguration.checkForClusterFreeMemoryLimit(conf);
+
+    // With the default MemStore and block cache sizes, too little is left
+    conf.setFloat(RowCache.ROW_CACHE_SIZE_KEY, 0.3f);
+    try {
+      HBaseConfiguration.checkForClusterFreeMemoryLimit(conf);
+      fail("Row cache should not fit in the heap");
+    } catch (RuntimeException expected) {
+    }
+  }
+
+  @Test
+  public void testHitsAndMisses() {
+    RowCache cache = new RowCache(1024 * 1024, 4);
+    byte[] row = Bytes.toBytes("row");
+    List<KeyValue> results = new ArrayList<KeyValue>();
+    assertFalse(cache.getRow(REGION, row, families(FAMILY1), 0, results,
+        WORKLOAD));
+
+    cache(cache, REGION, row, FAMILY1, FAMILY2);
+    assertTrue(cache.getRow(REGION, row, families(FAMILY1, FAMILY2), 0,
+        results, WORKLOAD));
+    assertEquals(row(row, FAMILY1, FAMILY2), results);
+    results.clear();
+    assertTrue(cache.getRow(REGION, row, families(FAMILY2), 0, results, 0));
+    assertEquals(row(row, FAMILY2), results);
+
+    // Same row of another region
+    results.clear();
+    assertFalse(cache.getRow(OTHER_REGION, row, families(FAMILY1), 0,
+        results, WORKLOAD));
+    assertTrue(results.isEmpty());
+
+    assertEquals(2, cache.getHitCount());
+    assertEquals(2, cache.getMissCount());
+    assertEquals(Long.valueOf(1),
+        cache.getHitCountPerWorkload().get(String.valueOf(WORKLOAD)));
+    assertEquals(Long.valueOf(1), cache.getHitCountPerWorkload().get("0"));
+    assertEquals(Long.valueOf(2),
+        cache.getMissCountPerWorkload().get(String.valueOf(WORKLOAD)));
+  }
+
+  @Test
+  public void testFamiliesAddedToCachedRow() {
+    RowCache cache = new RowCache(1024 * 1024, 4);
+    byte[] row = Bytes.toBytes("row");
+    cache(cache, REGION, row, FAMILY2);
+    List<KeyValue> results = new ArrayList<KeyValue>();
+    assertFalse(cache.getRow(REGION, row, families(FAMILY1, FAMILY2), 0,
+        results, WORKLOAD));
+    assertTrue(results.isEmpty());
+
+    cache(cache, REGION, row, FAMILY1);
+    assertTrue(cache.getRow(REGION, row, families(FAMILY1, FAMILY2), 0,
+        results, WORKLOAD));
+    assertEquals(row(row, FAMILY1, FAMILY2), results);
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testInvalidation() {
+    RowCache cache = new RowCache(1024 * 1024, 1);
+    byte[] row = Bytes.toBytes("row");
+    byte[] otherRow = Bytes.toBytes("otherRow");
+    cache(cache, REGION, row, FAMILY1);
+    cache(cache, REGION, otherRow, FAMILY1);
+    cache(cache, OTHER_REGION, row, FAMILY1);
+
+    cache.invalidateRow(REGION, row);
+    List<KeyValue> results = new ArrayList<KeyValue>();
+    assertFalse(cache.getRow(REGION, row, families(FAMILY1), 0, results, 0));
+    assertTrue(cache.getRow(REGION, otherRow, families(FAMILY1), 0, results,
+        0));
+
+    cache.invalidateRegion(REGION);
+    assertFalse(cache.getRow(REGION, otherRow, families(FAMILY1), 0, results,
+        0));
+    assertTrue(cache.getRow(OTHER_REGION, row, families(FAMILY1), 0, results,
+        0));
+    assertEquals(2, cache.getInvalidationCount());
+    assertEquals(1, cache.size());
+  }
+
+  @Test
+  public void testNotCachedIfInvalidatedWhileRead() {
+    RowCache cache = new RowCache(1024 * 1024, 1);
+    byte[] row = Bytes.toBytes("row");
+    long generation = cache.getGeneration(REGION, row);
+    // A mutation becomes visible while the row is being read
+    cache.invalidateRow(REGION, row);
+    assertFalse(cache.cacheRow(REGION, row, families(FAMILY1),
+        row(row, FAMILY1), Long.MAX_VALUE, generation));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testExpiry() {
+    RowCache cache = new RowCache(1024 * 1024, 1);
+    byte[] row = Bytes.toBytes("row");
+    cache.cacheRow(REGION, row, families(FAMILY1), row(row, FAMILY1), 100,
+        cache.getGeneration(REGION, row));
+    List<KeyValue> results = new ArrayList<KeyValue>();
+    assertTrue(cache.getRow(REGION, row, families(FAMILY1), 99, results, 0));
+    results.clear();
+    assertFalse(cache.getRow(REGION, row, families(FAMILY1), 100, results, 0));
+  }
+
+  @Test
+  public void testEviction() {
+    RowCache cache = new RowCache(64 * 1024, 2);
+    int numRows = 10000;
+    for (int i = 0; i < numRows; i++) {
+      cache(cache, REGION, Bytes.toBytes(i), FAMILY1);
+    }
+    assertTrue(cache.heapSize() <= cache.getMaxSize());
+    assertTrue(cache.getEvictionCount() > 0);
+    assertEquals(numRows, cache.size() + cache.getEvictionCount());
+
+    // The most recently cached row is still there
+    List<KeyValue> results = new ArrayList<KeyValue>();
+    assertTrue(cache.getRow(REGION, Bytes.toBytes(numRows - 1),
+        families(FAMILY1), 0, results, 0));
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.ipc.Delayable;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MutateResponse;
+import org.apache.hadoop.hbase.regionserver.wal.HLog;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+@Category(SmallTests.class)
+public class TestSyncCompletion {
+  private static final Executor SAME_THREAD = new Executor() {
+    @Override
+    public void execute(Runnable command) {
+      command.run();
+    }
+  };
+
+  private final MutateResponse response =
+      MutateResponse.newBuilder().setProcessed(true).build();
+  private final List<HLog.SyncListener> listeners =
+      new ArrayList<HLog.SyncListener>();
+  private HLog log;
+  private Delayable call;
+
+  /** Records what the batch saw of its sync */
+  private static class Batch implements SyncCompletion.Callback {
+    boolean ran = false;
+    IOException syncError;
+
+    @Override
+    public void syncCompleted(IOException e) {
+      this.ran = true;
+      this.syncError = e;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    log = mock(HLog.class);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) {
+        listeners.add((HLog.SyncListener) invocation.getArguments()[1]);
+        return null;
+      }
+    }).when(log).sync(anyLong(), any(HLog.SyncListener.class));
+    call = mock(Delayable.class);
+  }
+
+  @Test
+  public void testNothingPending() throws IOException {
+    SyncCompletion completion = new SyncCompletion(SAME_THREAD);
+    assertFalse(completion.respondWhenSynced(call, response));
+    verify(call, never()).startDelay(true);
+  }
+
+  @Test
+  public void testRespondsOnceAllSynced() throws IOException {
+    SyncCompletion completion = new SyncCompletion(SAME_THREAD);
+    Batch first = new Batch();
+    Batch second = new Batch();
+    completion.add(log, 1, first);
+    completion.add(log, 2, second);
+    assertTrue(completion.respondWhenSynced(call, response));
+    verify(call).startDelay(true);
+
+    listeners.get(0).syncCompleted(null);
+    assertTrue(first.ran);
+    assertNull(first.syncError);
+    verify(call, never()).endDelay(response);
+
+    listeners.get(1).syncCompleted(null);
+    assertTrue(second.ran);
+    verify(call).endDelay(response);
+  }
+
+  @Test
+  public void testSyncedBeforeResponse() throws IOException {
+    SyncCompletion completion = new SyncCompletion(SAME_THREAD);
+    Batch batch = new Batch();
+    completion.add(log, 1, batch);
+    listeners.get(0).syncCompleted(null);
+    assertTrue(batch.ran);
+    // The handler returns the response itself
+    assertFalse(completion.respondWhenSynced(call, response));
+    verify(call, never()).startDelay(true);
+  }
+
+  @Test
+  public void testSyncFailure() throws IOException {
+    SyncCompletion completion = new SyncCompletion(SAME_THREAD);
+    Batch batch = new Batch();
+    completion.add(log, 1, batch);
+    assertTrue(completion.respondWhenSynced(call, response));
+
+    IOException error = new IOException("sync failed");
+    listeners.get(0).syncCompleted(error);
+    assertTrue(batch.ran);
+    assertSame(error, batch.syncError);
+    verify(call).endDelayThrowing(error);
+    verify(call, never()).endDelay(response);
+  }
+
+  @Test
+  public void testSyncFailureBeforeResponse() {
+    SyncCompletion completion = new SyncCompletion(SAME_THREAD);
+    completion.add(log, 1, new Batch());
+    IOException error = new IOException("sync failed");
+    listeners.get(0).syncCompleted(error);
+    try {
+      completion.respondWhenSynced(call, response);
+      fail("Expected the sync failure");
+    } catch (IOException e) {
+      assertSame(error, e);
+    }
+    assertEquals(1, listeners.size());
+  }
+}
@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.handler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.Server;
+import org.apache.hadoop.hbase.SmallTests;
+import org.apache.hadoop.hbase.regionserver.KeyValueScanner;
+import org.apache.hadoop.hbase.regionserver.MultiVersionConsistencyControl;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.MockServer;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Test of the {@link ParallelSeekHandler}.
+ */
+@Category(SmallTests.class)
+public class TestParallelSeekHandler {
+  private final static HBaseTestingUtility HTU = new HBaseTestingUtility();
+  private static final KeyValue KV = new KeyValue(Bytes.toBytes("row"),
+      Bytes.toBytes("f"), Bytes.toBytes("q"), Bytes.toBytes("v"));
+
+  /**
+   * The seek has to run with the read point of the scan that issued it, not
+   * the one of the executor's thread.
+   */
+  @Test
+  public void testSeekUsesScanReadPoint() throws Exception {
+    Server server = new MockServer(HTU, false);
+    final long[] seenReadPoint = new long[] { -1 };
+    KeyValueScanner scanner = Mockito.mock(KeyValueScanner.class);
+    Mockito.when(scanner.seek(KV)).thenAnswer(new Answer<Boolean>() {
+      @Override
+      public Boolean answer(InvocationOnMock invocation) {
+        seenReadPoint[0] = MultiVersionConsistencyControl.getThreadReadPoint();
+        return true;
+      }
+    });
+    CountDownLatch latch = new CountDownLatch(1);
+    final ParallelSeekHandler handler =
+        new ParallelSeekHandler(server, scanner, KV, 42L, latch);
+    Thread t = new Thread(handler);
+    t.start();
+    latch.await();
+    t.join();
+    assertEquals(42L, seenReadPoint[0]);
+    assertNull(handler.getErr());
+  }
+
+  @Test
+  public void testSeekErrorIsKeptAndLatchReleased() throws Exception {
+    Server server = new MockServer(HTU, false);
+    IOException ioe = new IOException("injected");
+    KeyValueScanner scanner = Mockito.mock(KeyValueScanner.class);
+    Mockito.when(scanner.seek(KV)).thenThrow(ioe);
+    CountDownLatch latch = new CountDownLatch(1);
+    ParallelSeekHandler handler =
+        new ParallelSeekHandler(server, scanner, KV, 0L, latch);
+    handler.process();
+    assertEquals(0, latch.getCount());
+    assertSame(ioe, handler.getErr());
+  }
+}
@@ -128,6 +128,7 @@ public final class HLogPerformanceEvaluation extends Configured implements Tool
     boolean noSync = false;
     boolean verify = false;
     boolean verbose = false;
+    boolean compress = false;
     long roll = Long.MAX_VALUE;
     // Process command line args
     for (int i = 0; i < args.length; i++) {
@@ -155,6 +156,8 @@ public final class HLogPerformanceEvaluation extends Configured implements Tool
           verbose = true;
         } else if (cmd.equals("-roll")) {
           roll = Long.parseLong(args[++i]);
+        } else if (cmd.equals("-compress")) {
+          compress = true;
         } else if (cmd.equals("-h")) {
           printUsageAndExit();
         } else if (cmd.equals("--help")) {
@@ -168,6 +171,10 @@ public final class HLogPerformanceEvaluation extends Configured implements Tool
       }
     }
 
+    if (compress) {
+      getConf().setBoolean(HConstants.ENABLE_WAL_COMPRESSION, true);
+    }
+
     // Run HLog Performance Evaluation
     FileSystem fs = FileSystem.get(getConf());
     LOG.info("" + fs);
@@ -288,6 +295,7 @@ public final class HLogPerformanceEvaluation extends Configured implements Tool
     System.err.println("  -verify          Verify edits written in sequence");
     System.err.println("  -verbose         Output extra info; e.g. all edit seq ids when verifying");
     System.err.println("  -roll <N>        Roll the way every N appends");
+    System.err.println("  -compress        Compress the WAL with dictionaries");
     System.err.println("");
     System.err.println("Examples:");
     System.err.println("");
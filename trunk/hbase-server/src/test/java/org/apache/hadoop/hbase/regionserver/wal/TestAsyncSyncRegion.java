@@ -0,0 +1,287 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hbase.regionserver.wal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Coprocessor;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.MediumTests;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.coprocessor.BaseRegionObserver;
+import org.apache.hadoop.hbase.coprocessor.ObserverContext;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.ipc.Delayable;
+import org.apache.hadoop.hbase.protobuf.generated.ClientProtos.MutateResponse;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.RegionCoprocessorHost;
+import org.apache.hadoop.hbase.regionserver.SyncCompletion;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.MockRegionServerServices;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests the Puts a region leaves to a {@link SyncCompletion}, as the region
+ * server does with {@link SyncCompletion#ASYNC_SYNC_KEY} set, against a real
+ * log whose writes can be held back or failed.
+ */
+@Category(MediumTests.class)
+public class TestAsyncSyncRegion {
+  private static final byte[] TABLE = Bytes.toBytes("TestAsyncSyncRegion");
+  private static final byte[] FAMILY = Bytes.toBytes("f");
+  private static final byte[] QUALIFIER = Bytes.toBytes("q");
+  private static final byte[] ROW = Bytes.toBytes("row");
+  private static final byte[] VALUE = Bytes.toBytes("value");
+  private static final long WAIT_SECONDS = 30;
+
+  private final HBaseTestingUtility TEST_UTIL = new HBaseTestingUtility();
+  private final MutateResponse response =
+      MutateResponse.newBuilder().setProcessed(true).build();
+
+  /** Writes to the log wait on this while it is not null */
+  private final AtomicReference<CountDownLatch> writeGate =
+      new AtomicReference<CountDownLatch>();
+  private final AtomicBoolean failNextWrite = new AtomicBoolean(false);
+  private final AtomicReference<Throwable> aborted =
+      new AtomicReference<Throwable>();
+
+  private FSHLog log;
+  private HRegion region;
+  private ExecutorService executor;
+
+  /** Counts the post-put hooks */
+  public static class PostPutObserver extends BaseRegionObserver {
+    static final AtomicInteger postPuts = new AtomicInteger();
+
+    @Override
+    public void postPut(ObserverContext<RegionCoprocessorEnvironment> e,
+        Put put, WALEdit edit, boolean writeToWAL) throws IOException {
+      postPuts.incrementAndGet();
+    }
+  }
+
+  /** Stands in for the RPC call, recording how its delay ended */
+  private static class RecordingCall implements Delayable {
+    private final CountDownLatch ended = new CountDownLatch(1);
+    private volatile boolean delayed = false;
+    private volatile Object result;
+    private volatile Throwable error;
+
+    @Override
+    public void startDelay(boolean delayReturnValue) {
+      assertTrue(delayReturnValue);
+      this.delayed = true;
+    }
+
+    @Override
+    public boolean isDelayed() {
+      return this.delayed;
+    }
+
+    @Override
+    public boolean isReturnValueDelayed() {
+      return this.delayed;
+    }
+
+    @Override
+    public void endDelay(Object result) {
+      this.result = result;
+      this.ended.countDown();
+    }
+
+    @Override
+    public void endDelay() {
+      endDelay(null);
+    }
+
+    @Override
+    public void endDelayThrowing(Throwable t) {
+      this.error = t;
+      this.ended.countDown();
+    }
+
+    boolean hasEnded() {
+      return this.ended.getCount() == 0;
+    }
+
+    void awaitEnd() throws InterruptedException {
+      assertTrue("Response never sent",
+          this.ended.await(WAIT_SECONDS, TimeUnit.SECONDS));
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = TEST_UTIL.getConfiguration();
+    conf.setBoolean(SyncCompletion.ASYNC_SYNC_KEY, true);
+    FileSystem fs = FileSystem.get(conf);
+    Path rootDir = TEST_UTIL.getDataTestDir();
+    HTableDescriptor htd = new HTableDescriptor(TABLE);
+    htd.addFamily(new HColumnDescriptor(FAMILY));
+    HRegionInfo hri = new HRegionInfo(TABLE, null, null, false);
+    HRegion.closeHRegion(HRegion.createHRegion(hri, rootDir, conf, htd));
+
+    log = new FSHLog(fs, rootDir, "logs", conf) {
+      @Override
+      protected void doWrite(HRegionInfo info, HLogKey logKey,
+          WALEdit logEdit, HTableDescriptor htd) throws IOException {
+        CountDownLatch gate = writeGate.get();
+        if (gate != null) {
+          try {
+            gate.await();
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+        }
+        if (failNextWrite.compareAndSet(true, false)) {
+          throw new IOException("Injected write failure");
+        }
+        super.doWrite(info, logKey, logEdit, htd);
+      }
+    };
+    region = new HRegion(HTableDescriptor.getTableDir(rootDir, TABLE), log,
+        fs, conf, hri, htd, new MockRegionServerServices() {
+          @Override
+          public void abort(String why, Throwable e) {
+            aborted.set(e);
+          }
+        });
+    log.setSequenceNumber(region.initialize());
+    RegionCoprocessorHost host = new RegionCoprocessorHost(region, null, conf);
+    region.setCoprocessorHost(host);
+    host.load(PostPutObserver.class, Coprocessor.PRIORITY_USER, conf);
+    PostPutObserver.postPuts.set(0);
+    // One thread, so draining it shows every batch has run
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    writeGate.set(null);
+    executor.shutdown();
+    HRegion.closeHRegion(region);
+  }
+
+  private Put put() {
+    Put put = new Put(ROW);
+    put.add(FAMILY, QUALIFIER, VALUE);
+    return put;
+  }
+
+  private boolean isVisible() throws IOException {
+    Result result = region.get(new Get(ROW));
+    return Bytes.equals(VALUE, result.getValue(FAMILY, QUALIFIER));
+  }
+
+  @Test
+  public void testPutVisibleOnceSynced() throws Exception {
+    CountDownLatch gate = new CountDownLatch(1);
+    writeGate.set(gate);
+    SyncCompletion completion = new SyncCompletion(executor);
+    RecordingCall call = new RecordingCall();
+    // The handler neither waits for the sync nor sends the response
+    region.mutate(put(), completion);
+    assertTrue(completion.respondWhenSynced(call, response));
+    assertTrue(call.isDelayed());
+
+    assertFalse(isVisible());
+    assertEquals(0, PostPutObserver.postPuts.get());
+    assertFalse(call.hasEnded());
+
+    gate.countDown();
+    call.awaitEnd();
+    assertSame(response, call.result);
+    assertNull(call.error);
+    // Visible and hooked before the response went out
+    assertTrue(isVisible());
+    assertEquals(1, PostPutObserver.postPuts.get());
+    assertNull(aborted.get());
+  }
+
+  @Test
+  public void testPutSyncedBeforeResponse() throws Exception {
+    SyncCompletion completion = new SyncCompletion(executor);
+    region.mutate(put(), completion);
+    long deadline = System.currentTimeMillis() + WAIT_SECONDS * 1000;
+    while (PostPutObserver.postPuts.get() == 0 &&
+        System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    // The batch runs its hooks on the executor, so it is done after this
+    executor.submit(new Runnable() {
+      @Override
+      public void run() {
+      }
+    }).get(WAIT_SECONDS, TimeUnit.SECONDS);
+    assertEquals(1, PostPutObserver.postPuts.get());
+    // Once every batch ran, the handler returns the response itself
+    RecordingCall call = new RecordingCall();
+    assertFalse(completion.respondWhenSynced(call, response));
+    assertFalse(call.isDelayed());
+    assertTrue(isVisible());
+  }
+
+  @Test
+  public void testFailedSyncRollsBack() throws Exception {
+    CountDownLatch gate = new CountDownLatch(1);
+    writeGate.set(gate);
+    failNextWrite.set(true);
+    SyncCompletion completion = new SyncCompletion(executor);
+    RecordingCall call = new RecordingCall();
+    region.mutate(put(), completion);
+    assertTrue(completion.respondWhenSynced(call, response));
+
+    gate.countDown();
+    call.awaitEnd();
+    assertNull(call.result);
+    assertTrue(call.error instanceof IOException);
+    // Rolled back, no post hook, and the server was told to abort
+    assertFalse(isVisible());
+    assertEquals(0, PostPutObserver.postPuts.get());
+    assertNotNull(aborted.get());
+
+    // Let the region close cleanly
+    writeGate.set(null);
+    log.rollWriter(true);
+  }
+}
@@ -22,9 +22,11 @@ import static org.junit.Assert.*;
 
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -148,6 +150,18 @@ public class TestHLog  {
     assertEquals(0, errCode);
   }
 
+  /**
+   * Same as above with over a hundred writers, so most of their syncs are
+   * shared.
+   * @throws Exception
+   */
+  @Test
+  public void testMaintainOrderWithManyConcurrentWrites() throws Exception {
+    int errCode =
+      HLogPerformanceEvaluation.innerMain(new String [] {"-threads", "128", "-verify", "-iterations", "100"});
+    assertEquals(0, errCode);
+  }
+
   /**
    * Just write multiple logs then split.  Before fix for HADOOP-2283, this
    * would fail.
@@ -603,6 +617,69 @@ public class TestHLog  {
     }
   }
 
+  /**
+   * Test that once a write to the log failed, the entries written after it to
+   * the same writer cannot be synced, and that the failed entries stay failed
+   * after the log was rolled while the new entries sync again.
+   */
+  @Test
+  public void testSyncFailsAfterFailedWrite() throws IOException {
+    final byte [] tableName = Bytes.toBytes("tablename");
+    final AtomicBoolean failNextWrite = new AtomicBoolean(false);
+    FSHLog log = new FSHLog(fs, hbaseDir, getName(), conf) {
+      @Override
+      protected void doWrite(HRegionInfo info, HLogKey logKey,
+          WALEdit logEdit, HTableDescriptor htd) throws IOException {
+        if (failNextWrite.compareAndSet(true, false)) {
+          throw new IOException("Injected write failure");
+        }
+        super.doWrite(info, logKey, logEdit, htd);
+      }
+    };
+    try {
+      HRegionInfo hri = new HRegionInfo(tableName,
+          HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+      HTableDescriptor htd = new HTableDescriptor();
+      htd.addFamily(new HColumnDescriptor("column"));
+
+      long synced = appendNoSync(log, hri, tableName, htd);
+      log.sync(synced);
+
+      failNextWrite.set(true);
+      long failed = appendNoSync(log, hri, tableName, htd);
+      long afterFailed = appendNoSync(log, hri, tableName, htd);
+      assertSyncFails(log, afterFailed);
+      assertSyncFails(log, failed);
+
+      log.rollWriter(true);
+      long rolled = appendNoSync(log, hri, tableName, htd);
+      log.sync(rolled);
+      assertSyncFails(log, failed);
+      assertSyncFails(log, afterFailed);
+      log.sync(synced);
+    } finally {
+      log.closeAndDelete();
+    }
+  }
+
+  private long appendNoSync(HLog log, HRegionInfo hri, byte [] tableName,
+      HTableDescriptor htd) throws IOException {
+    WALEdit edit = new WALEdit();
+    edit.add(new KeyValue(Bytes.toBytes("row"), Bytes.toBytes("column"),
+        Bytes.toBytes("0"), System.currentTimeMillis(), new byte[] { '0' }));
+    return log.appendNoSync(hri, tableName, edit,
+        HConstants.DEFAULT_CLUSTER_ID, System.currentTimeMillis(), htd);
+  }
+
+  private void assertSyncFails(HLog log, long txid) {
+    try {
+      log.sync(txid);
+      fail("Sync of " + txid + " should fail after a failed write");
+    } catch (IOException e) {
+      assertEquals("Injected write failure", e.getMessage());
+    }
+  }
+
   /**
    * Test that we can visit entries before they are appended
    * @throws Exception
@@ -696,6 +773,91 @@ public class TestHLog  {
     }
   }
 
+  /**
+   * Tests that flushing some of the stores of a region keeps the oldest
+   * unflushed sequence number of the others.
+   * @throws IOException
+   */
+  @Test
+  public void testFlushSomeStores() throws IOException {
+    final byte [] tableName = Bytes.toBytes("testFlushSomeStores");
+    final byte [] row = Bytes.toBytes("row");
+    final byte [] small = Bytes.toBytes("small");
+    final byte [] large = Bytes.toBytes("large");
+    HLog log = HLogFactory.createHLog(fs, hbaseDir, getName(), conf);
+    try {
+      HRegionInfo hri = new HRegionInfo(tableName,
+          HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+      HTableDescriptor htd = new HTableDescriptor();
+      htd.addFamily(new HColumnDescriptor(small));
+      htd.addFamily(new HColumnDescriptor(large));
+      byte [] region = hri.getEncodedNameAsBytes();
+      long now = System.currentTimeMillis();
+
+      WALEdit edit = new WALEdit();
+      edit.add(new KeyValue(row, small, row, now, row));
+      log.append(hri, tableName, edit, now, htd);
+      long smallSeqNum = log.getEarliestMemstoreSeqNum(region);
+      assertTrue(smallSeqNum != HConstants.NO_SEQNUM);
+      edit = new WALEdit();
+      edit.add(new KeyValue(row, large, row, now, row));
+      log.append(hri, tableName, edit, now, htd);
+      assertEquals(smallSeqNum, log.getEarliestMemstoreSeqNum(region));
+
+      // Flushing the large store leaves the edit of the small one
+      assertNotNull(log.startCacheFlush(region, Collections.singletonList(large)));
+      log.completeCacheFlush(region);
+      assertEquals(smallSeqNum, log.getEarliestMemstoreSeqNum(region));
+
+      // An aborted flush puts back what it took
+      assertNotNull(log.startCacheFlush(region, Collections.singletonList(small)));
+      assertEquals(HConstants.NO_SEQNUM, log.getEarliestMemstoreSeqNum(region));
+      log.abortCacheFlush(region);
+      assertEquals(smallSeqNum, log.getEarliestMemstoreSeqNum(region));
+
+      assertNotNull(log.startCacheFlush(region));
+      log.completeCacheFlush(region);
+      assertEquals(HConstants.NO_SEQNUM, log.getEarliestMemstoreSeqNum(region));
+    } finally {
+      log.closeAndDelete();
+    }
+  }
+
+  /**
+   * Tests that a flush started right after edits were appended, before the
+   * appender wrote them out, takes all of them and gets a sequence number
+   * above them.
+   * @throws IOException
+   */
+  @Test
+  public void testFlushTakesEditsNotWrittenYet() throws IOException {
+    final byte [] tableName = Bytes.toBytes("testFlushTakesEditsNotWrittenYet");
+    HLog log = HLogFactory.createHLog(fs, hbaseDir, getName(), conf);
+    try {
+      HRegionInfo hri = new HRegionInfo(tableName,
+          HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+      HTableDescriptor htd = new HTableDescriptor();
+      htd.addFamily(new HColumnDescriptor("column"));
+      byte [] region = hri.getEncodedNameAsBytes();
+      for (int round = 0; round < 10; round++) {
+        for (int i = 0; i < 100; i++) {
+          appendNoSync(log, hri, tableName, htd);
+        }
+        Long flushSeqNum = log.startCacheFlush(region);
+        assertNotNull(flushSeqNum);
+        // None of the edits is left to be recorded as unflushed later on
+        assertEquals(HConstants.NO_SEQNUM, log.getEarliestMemstoreSeqNum(region));
+        log.completeCacheFlush(region);
+
+        log.sync(appendNoSync(log, hri, tableName, htd));
+        assertTrue(log.getEarliestMemstoreSeqNum(region) > flushSeqNum);
+        assertNotNull(log.startCacheFlush(region));
+        log.completeCacheFlush(region);
+      }
+    } finally {
+      log.closeAndDelete();
+    }
+  }
 
   @Test
   public void testGetServerNameFromHLogDirectoryName() throws IOException {
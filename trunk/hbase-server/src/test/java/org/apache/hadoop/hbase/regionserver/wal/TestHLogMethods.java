@@ -21,10 +21,12 @@ package org.apache.hadoop.hbase.regionserver.wal;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.NavigableSet;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.*;
@@ -154,6 +156,55 @@ public class TestHLogMethods {
     assertEquals(0, sink.totalBuffered);
   }
   
+  @Test
+  public void testWALGroups() {
+    Configuration conf = new Configuration();
+    HRegionInfo hri = new HRegionInfo(TEST_TABLE, Bytes.toBytes("a"),
+        Bytes.toBytes("b"));
+    assertEquals(1, HLogFactory.getNumWALGroups(conf));
+    assertEquals(0, HLogFactory.getWALGroup(hri, conf));
+
+    conf.setInt(HLogFactory.WAL_GROUPS_KEY, 4);
+    conf.set(HLogFactory.WAL_GROUPING_KEY, "table");
+    int group = HLogFactory.getWALGroup(hri, conf);
+    assertTrue(group >= 0 && group < 4);
+    // All the regions of a table share a group
+    for (int i = 0; i < 10; i++) {
+      HRegionInfo other = new HRegionInfo(TEST_TABLE, Bytes.toBytes(i),
+          Bytes.toBytes(i + 1));
+      assertEquals(group, HLogFactory.getWALGroup(other, conf));
+    }
+
+    String prefix = "10.20.20.171%3A60020";
+    assertEquals(prefix, HLogFactory.getWALGroupPrefix(prefix, 0));
+    String groupPrefix = HLogFactory.getWALGroupPrefix(prefix, 2);
+    assertEquals(prefix, HLogUtil.getWALPrefix(prefix + ".1277499063250"));
+    assertEquals(groupPrefix,
+        HLogUtil.getWALPrefix(groupPrefix + ".1277499063250"));
+    assertEquals(prefix + HLog.META_HLOG_FILE_EXTN, HLogUtil.getWALPrefix(
+        prefix + ".1277499063250" + HLog.META_HLOG_FILE_EXTN));
+    assertTrue(HLogUtil.validateHLogFilename(groupPrefix + ".1277499063250"));
+  }
+
+  @Test
+  public void testLogFileOrder() {
+    String prefix = HLogFactory.getWALGroupPrefix("host%2C60020%2C1", 0);
+    String groupPrefix = HLogFactory.getWALGroupPrefix("host%2C60020%2C1", 1);
+    FileStatus[] logs = new FileStatus[] {
+      logFile(groupPrefix + ".300"), logFile(prefix + ".1000"),
+      logFile(groupPrefix + ".20"), logFile(prefix + ".200")
+    };
+    Arrays.sort(logs, HLogSplitter.LOG_FILE_ORDER);
+    assertEquals(prefix + ".200", logs[0].getPath().getName());
+    assertEquals(prefix + ".1000", logs[1].getPath().getName());
+    assertEquals(groupPrefix + ".20", logs[2].getPath().getName());
+    assertEquals(groupPrefix + ".300", logs[3].getPath().getName());
+  }
+
+  private static FileStatus logFile(String name) {
+    return new FileStatus(0, false, 1, 0, 0, new Path("/logs", name));
+  }
+
   private HLog.Entry createTestLogEntry(int i) {
     long seq = i;
     long now = i * 1000;
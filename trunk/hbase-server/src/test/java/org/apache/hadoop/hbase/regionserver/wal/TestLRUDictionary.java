@@ -144,6 +144,29 @@ public class TestLRUDictionary {
     }
   }
 
+  /**
+   * A reader rebuilds the dictionary from what the writer tells it: an index
+   * for an entry the writer found, the entry itself otherwise. Check both
+   * sides agree on every index, including once entries get evicted.
+   */
+  @Test
+  public void testWriterAndReaderStayInSync() {
+    LRUDictionary reader = new LRUDictionary();
+    Random rand = new Random(42);
+    int distinct = LRUDictionary.BidirectionalLRUMap.MAX_SIZE * 2;
+    for (int i = 0; i < LRUDictionary.BidirectionalLRUMap.MAX_SIZE * 10; i++) {
+      // Skewed towards small values so that some entries stay hot
+      int value = Math.min(rand.nextInt(distinct), rand.nextInt(distinct));
+      byte[] entry = Bytes.toBytes("entry" + value);
+      short idx = testee.findEntry(entry, 0, entry.length);
+      if (idx == Dictionary.NOT_IN_DICTIONARY) {
+        reader.addEntry(entry, 0, entry.length);
+      } else {
+        assertTrue(Arrays.equals(entry, reader.getEntry(idx)));
+      }
+    }
+  }
+
   static private boolean isDictionaryEmpty(LRUDictionary dict) {
     try {
       dict.getEntry((short)0);
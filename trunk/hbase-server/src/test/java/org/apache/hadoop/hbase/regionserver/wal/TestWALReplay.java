@@ -716,12 +716,22 @@ public class TestWALReplay {
 
     @Override
     public void requestFlush(HRegion region) {
+      requestFlush(region, true);
+    }
+
+    @Override
+    public void requestFlush(HRegion region, boolean forceFlushAllStores) {
       try {
-        r.flushcache();
+        r.flushcache(forceFlushAllStores);
       } catch (IOException e) {
         throw new RuntimeException("Exception flushing", e);
       }
     }
+
+    @Override
+    public void requestInMemoryFlush(HRegion region) {
+      // The test does not flush in memory
+    }
   }
 
   private void addWALEdits (final byte [] tableName, final HRegionInfo hri,